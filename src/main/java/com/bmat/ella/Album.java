@@ -11,6 +11,49 @@ import org.json.simple.JSONArray;
  * @author Harrington Joseph (Harph)
  * */
 public class Album extends BaseObject implements Comparable<Album> {
+    /**
+     * Constant.
+     * Metadata field of the title of the album.
+     * */
+    public static final String TITLE = "release";
+    /**
+     * Constant.
+     * Metadata field of the artist id of the album.
+     * */
+    public static final String ARTIST_ID = "artist_service_id";
+    /**
+     * Constant.
+     * Metadata field of the image of the album.
+     * */
+    public static final String IMAGE = "release_small_image";
+    /**
+     * Constant.
+     * Metadata field of the MusicBrainz id of the album.
+     * */
+    public static final String MBID = "musicbrainz_release_id";
+    /**
+     * Constant.
+     * Metadata field of the label of the album.
+     * */
+    public static final String LABEL = "release_label";
+    /**
+     * Constant.
+     * Metadata fields of the links of an album.
+     * */
+    static final String[] METADATA_LINKS = new String[]{"spotify_release_url",
+            "amazon_release_url", "itms_release_url", "rhapsody_release_url",
+            "emusic_release_url", "limewire_release_url",
+            "trackitdown_release_url", "juno_release_url",
+            "rateyourmusic_release_url", "metacritic_release_url",
+            "pitchfork_release_url", "bbc_co_uk_release_url",
+            "rollingstone_release_url", "cloudspeakers_url"};
+    /**
+     * Constant.
+     * Metadata fields requested for an album, comma separated.
+     * */
+    static final String METADATA = "release,name,artist_service_id,"
+        + "release_small_image,release_label,musicbrainz_release_id"
+        + Util.joinArray(Album.METADATA_LINKS, ",");
     /**
      * Title of the album.
      * */
@@ -28,9 +71,10 @@ public class Album extends BaseObject implements Comparable<Album> {
      * */
     private ArrayList<String> labels;
     /**
-     * ArrayList of Track instances associated with the album.
+     * ArrayList of Track instances associated with the album. It is set
+     * once the list is complete.
      * */
-    private ArrayList<Track> tracks;
+    private volatile ArrayList<Track> tracks;
 
     /**
      * Class constructor.
@@ -59,17 +103,8 @@ public class Album extends BaseObject implements Comparable<Album> {
             final boolean cacheEnable) {
         super(ellaConnection, id, collection, jellaCacheDir, cacheEnable);
         this.method = "/releases/" + this.id + SearchObject.RESPONSE_TYPE;
-        this.metadataLinks = new String[]{"spotify_release_url",
-                "amazon_release_url", "itms_release_url",
-                "rhapsody_release_url", "emusic_release_url",
-                "limewire_release_url", "trackitdown_release_url",
-                "juno_release_url", "rateyourmusic_release_url",
-                "metacritic_release_url", "pitchfork_release_url",
-                "bbc_co_uk_release_url", "rollingstone_release_url",
-                "cloudspeakers_url"};
-        this.metadata = "release,name,artist_service_id,release_small_image,"
-            + "release_label,musicbrainz_release_id";
-        this.metadata += Util.joinArray(this.metadataLinks, ",");
+        this.metadataLinks = Album.METADATA_LINKS;
+        this.metadata = Album.METADATA;
     }
 
     /**
@@ -77,7 +112,7 @@ public class Album extends BaseObject implements Comparable<Album> {
      */
     public final String getTitle() {
         if (this.title == null) {
-            this.title = this.getFieldValue("release");
+            this.title = this.getFieldValue(Album.TITLE);
         }
         return this.title;
     }
@@ -95,10 +130,11 @@ public class Album extends BaseObject implements Comparable<Album> {
      */
     public final Artist getArtist() {
         if (this.artist == null) {
-            String artistId = this.getFieldValue("artist_service_id");
+            String artistId = this.getFieldValue(Album.ARTIST_ID);
             if (artistId != null) {
-                this.artist = new Artist(this.request.getEllaConnection(),
-                        artistId, this.collection);
+                this.artist = this.request.getEllaConnection().canonical(
+                        new Artist(this.request.getEllaConnection(),
+                                artistId, this.collection));
             }
         }
         return this.artist;
@@ -118,14 +154,14 @@ public class Album extends BaseObject implements Comparable<Album> {
     public final ArrayList<String> getImages() {
         if (this.images == null) {
             try {
-                JSONArray meta = this.getFieldValues("release_small_image");
+                JSONArray meta = this.getFieldValues(Album.IMAGE);
                 if (meta != null) {
                     for (int i = 0; i < meta.size(); i++) {
                         this.setImage(meta.toJSONString());
                     }
                 }
             } catch (Exception e) {
-                String meta = this.getFieldValue("release_small_image");
+                String meta = this.getFieldValue(Album.IMAGE);
                 if (meta != null) {
                     this.setImage(meta);
                 }
@@ -158,7 +194,7 @@ public class Album extends BaseObject implements Comparable<Album> {
      * */
     public final String getMbid() {
         if (this.mbid == null) {
-            this.setMbid(this.getFieldValue("musicbrainz_release_id"));
+            this.setMbid(this.getFieldValue(Album.MBID));
         }
         return this.mbid;
     }
@@ -169,14 +205,14 @@ public class Album extends BaseObject implements Comparable<Album> {
     public final ArrayList<String> getLabels() {
         if (this.labels == null) {
             try {
-                JSONArray meta = this.getFieldValues("release_label");
+                JSONArray meta = this.getFieldValues(Album.LABEL);
                 if (meta != null) {
                     for (int i = 0; i < meta.size(); i++) {
                         this.setLabel(meta.get(i).toString());
                     }
                 }
             } catch (Exception e) {
-                String meta = this.getFieldValue("release_label");
+                String meta = this.getFieldValue(Album.LABEL);
                 if (meta != null) {
                     this.setLabel(meta);
                 }
@@ -212,21 +248,21 @@ public class Album extends BaseObject implements Comparable<Album> {
      * */
     public final ArrayList<Track> getTracks()
     throws ServiceException, IOException {
-        if (this.tracks != null) {
-            return this.tracks;
+        ArrayList<Track> current = this.tracks;
+        if (current != null) {
+            return current;
         }
-
-        this.tracks = new ArrayList<Track>();
         String mtd = "/releases/" + this.id + "/tracks.json";
         String trackMetadata = "track,artist_service_id,artist,"
             + "release_service_id,release,location,year,genre,"
             + "track_popularity,track_small_image,recommendable,"
             + "artist_decades1,artist_decades2,musicbrainz_track_id,";
-        JSONArray results = (JSONArray) this.fetchTracks(trackMetadata,
-                this.collection, mtd);
-        this.tracks = new TrackManager().getTracks(
-                this.request.getEllaConnection(), results, this);
-        return this.tracks;
+        ArrayList<Track> fetched = new ArrayList<Track>();
+        this.fetchTracks(trackMetadata, mtd, new TrackManager()
+                .getTrackHandler(this.request.getEllaConnection(), fetched,
+                        this, this.getArtist(), null));
+        this.tracks = fetched;
+        return fetched;
     }
 
     /**
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -14,6 +16,67 @@ import org.json.simple.JSONObject;
  * @author Harrington Joseph (Harph)
  * */
 public class Artist extends BaseObject implements Comparable<Artist> {
+    /**
+     * Constant.
+     * Metadata field of the name of the artist.
+     * */
+    public static final String NAME = "name";
+    /**
+     * Constant.
+     * Metadata field of the location of the artist.
+     * */
+    public static final String LOCATION = "artist_location";
+    /**
+     * Constant.
+     * Metadata field of the coordinates of the artist.
+     * */
+    public static final String LATLNG = "artist_latlng";
+    /**
+     * Constant.
+     * Metadata field of the latitude of the artist.
+     * */
+    public static final String LAT = "artist_lat";
+    /**
+     * Constant.
+     * Metadata field of the longitude of the artist.
+     * */
+    public static final String LNG = "artist_lng";
+    /**
+     * Constant.
+     * Metadata field of the MusicBrainz id of the artist.
+     * */
+    public static final String MBID = "musicbrainz_artist_id";
+    /**
+     * Constant.
+     * Metadata field of the popularity of the artist.
+     * */
+    public static final String POPULARITY = "artist_popularity";
+    /**
+     * Constant.
+     * Metadata field of the first decade of the artist.
+     * */
+    public static final String DECADES1 = "artist_decades1";
+    /**
+     * Constant.
+     * Metadata field of the second decade of the artist.
+     * */
+    public static final String DECADES2 = "artist_decades2";
+    /**
+     * Constant.
+     * Metadata fields of the links of an artist.
+     * */
+    static final String[] METADATA_LINKS = new String[]{
+            "official_homepage_artist_url", "wikipedia_artist_url",
+            "lastfm_artist_url", "myspace_artist_url", "spotify_artist_url",
+            "itms_artist_url", "discogs_artist_url"};
+    /**
+     * Constant.
+     * Metadata fields requested for an artist, comma separated.
+     * */
+    static final String METADATA = "artist,name,artist_popularity,"
+        + "artist_location,recommendable,artist_decades1,artist_decades2,"
+        + "artist_latlng,musicbrainz_artist_id,"
+        + Util.joinArray(Artist.METADATA_LINKS, ",");
     /**
      * Artist name.
      * */
@@ -43,13 +106,13 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      * */
     private String[] decades;
     /**
-     * Similar artist.
+     * Similar artist. It is set once the list is complete.
      * */
-    private ArrayList<Object[]> similarArtists;
+    private volatile ArrayList<Object[]> similarArtists;
     /**
-     * Artist tracks.
+     * Artist tracks. It is set once the list is complete.
      * */
-    private ArrayList<Track> tracks;
+    private volatile ArrayList<Track> tracks;
     /**
      * Related tags. Each item is an Objects[2] which contains in the tag
      * score (Double) in position '0' and tag ID (String) in position '1'.
@@ -101,14 +164,8 @@ public class Artist extends BaseObject implements Comparable<Artist> {
             final boolean cacheEnable) {
         super(ellaConnection, id, collection, jellaCacheDir, cacheEnable);
         this.method = "/artists/" + this.id + SearchObject.RESPONSE_TYPE;
-        this.metadataLinks = new String[]{"official_homepage_artist_url",
-                "wikipedia_artist_url", "lastfm_artist_url",
-                "myspace_artist_url", "spotify_artist_url", "itms_artist_url",
-        "discogs_artist_url"};
-        this.metadata = "artist,name,artist_popularity,artist_location,"
-            + "recommendable,artist_decades1,artist_decades2,artist_latlng,"
-            + "musicbrainz_artist_id,";
-        this.metadata += Util.joinArray(this.metadataLinks, ",");
+        this.metadataLinks = Artist.METADATA_LINKS;
+        this.metadata = Artist.METADATA;
         this.defaultTagType = defaultTagTypeValue;
         this.defaultTagLimit = defaultTagLimitValue;
         this.defaultTagWeight = defaultTagWeightValue;
@@ -119,7 +176,7 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      */
     public final String getName() {
         if (name == null) {
-            this.name = this.getFieldValue("name");
+            this.name = this.getFieldValue(Artist.NAME);
         }
         return this.name;
     }
@@ -137,7 +194,7 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      */
     public final String getLocation() {
         if (this.location == null) {
-            this.location = this.getFieldValue("artist_location");
+            this.location = this.getFieldValue(Artist.LOCATION);
         }
         return location;
     }
@@ -156,12 +213,12 @@ public class Artist extends BaseObject implements Comparable<Artist> {
     public final ArrayList<HashMap<String, Double>> getLatlng() {
         if (this.latlng == null) {
             try {
-                JSONArray latlngValues = this.getFieldValues("artist_latlng");
+                JSONArray latlngValues = this.getFieldValues(Artist.LATLNG);
                 if (latlngValues != null) {
                     this.setLatlng(latlngValues);
                 }
             } catch (ClassCastException e) {
-                String latlngValues = this.getFieldValue("artist_latlng");
+                String latlngValues = this.getFieldValue(Artist.LATLNG);
                 if (latlngValues != null) {
                     this.setLatlng(latlngValues);
                 }
@@ -203,7 +260,7 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      * */
     public final String getMbid() {
         if (this.mbid == null) {
-            this.setMbid(this.getFieldValue("musicbrainz_artist_id"));
+            this.setMbid(this.getFieldValue(Artist.MBID));
         }
         return this.mbid;
     }
@@ -213,7 +270,7 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      * */
     public final double getPopularity() {
         if (this.popularity == null) {
-            String meta = this.getFieldValue("artist_popularity");
+            String meta = this.getFieldValue(Artist.POPULARITY);
             if (meta != null) {
                 this.popularity = new Double(meta);
             } else {
@@ -236,8 +293,8 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      * */
     public final String[] getDecades() {
         if (this.decades == null) {
-            this.setDecades(this.getFieldValue("artist_decades1"),
-                    this.getFieldValue("artist_decades2"));
+            this.setDecades(this.getFieldValue(Artist.DECADES1),
+                    this.getFieldValue(Artist.DECADES2));
         }
         return Arrays.copyOf(this.decades, this.decades.length);
     }
@@ -268,21 +325,35 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      * */
     public final ArrayList<Track> getTracks()
     throws ServiceException, IOException {
-        if (this.tracks != null) {
-            return this.tracks;
+        ArrayList<Track> current = this.tracks;
+        if (current != null) {
+            return current;
         }
-        this.tracks = new ArrayList<Track>();
         String mtd = "/artists/" + this.id + "/tracks"
         + SearchObject.RESPONSE_TYPE;
         String trackMetadata = "track,artist_service_id,artist,"
             + "release_service_id,release,location,year,genre,"
             + "track_popularity,track_small_image,recommendable,"
             + "musicbrainz_track_id,spotify_track_uri,";
-        JSONArray results = (JSONArray) this.fetchTracks(trackMetadata,
-                this.collection, mtd);
-        this.tracks = new TrackManager().getTracks(
-                this.request.getEllaConnection(), results, this);
-        return this.tracks;
+        ArrayList<Track> fetched = new ArrayList<Track>();
+        this.fetchTracks(trackMetadata, mtd, new TrackManager()
+                .getTrackHandler(this.request.getEllaConnection(), fetched,
+                        null, this, null));
+        this.tracks = fetched;
+        return fetched;
+    }
+
+    /**
+     * Fetches the artist tracks asynchronously.
+     * @return A future completed with the artist tracks.
+     * */
+    public final CompletableFuture<ArrayList<Track>> getTracksAsync() {
+        return this.async(new Callable<ArrayList<Track>>() {
+            public ArrayList<Track> call()
+            throws ServiceException, IOException {
+                return getTracks();
+            }
+        });
     }
 
     /**
@@ -293,12 +364,13 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      * */
     public final ArrayList<Object[]> getSimilarArtists()
     throws ServiceException, IOException {
+        ArrayList<Object[]> current = this.similarArtists;
         if (!this.isRecommend()) {
             return null;
-        } else if (this.similarArtists != null) {
-            return this.similarArtists;
+        } else if (current != null) {
+            return current;
         }
-        this.similarArtists = new ArrayList<Object[]>();
+        ArrayList<Object[]> similar = new ArrayList<Object[]>();
         String mtd = "/artists/" + this.id + "/similar/artists"
         + SearchObject.RESPONSE_TYPE;
         HashMap<String, String> fetchMetadata = new HashMap<String, String>();
@@ -336,10 +408,26 @@ public class Artist extends BaseObject implements Comparable<Artist> {
             if (score == null || score.equals("")) {
                 score = "0";
             }
-            this.similarArtists.add(new Object[]{artist,
+            similar.add(new Object[]{
+                    this.request.getEllaConnection().canonical(artist),
                     new Double(score.toString())});
         }
-        return this.similarArtists;
+        this.similarArtists = similar;
+        return similar;
+    }
+
+    /**
+     * Searches for similar artists asynchronously.
+     * @return A future completed with the similar artists and scores.
+     * */
+    public final CompletableFuture<ArrayList<Object[]>>
+    getSimilarArtistsAsync() {
+        return this.async(new Callable<ArrayList<Object[]>>() {
+            public ArrayList<Object[]> call()
+            throws ServiceException, IOException {
+                return getSimilarArtists();
+            }
+        });
     }
 
     /**
@@ -347,7 +435,7 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      * */
     public final Double getLat() {
         if (this.lat == null) {
-            String latValue = this.getFieldValue("artist_lat");
+            String latValue = this.getFieldValue(Artist.LAT);
             if (latValue != null) {
                 this.lat = new Double(latValue);
             }
@@ -368,7 +456,7 @@ public class Artist extends BaseObject implements Comparable<Artist> {
      * */
     public final Double getLng() {
         if (this.lng == null) {
-            String lngValue = this.getFieldValue("artist_lng");
+            String lngValue = this.getFieldValue(Artist.LNG);
             if (lngValue != null) {
                 this.lng = new Double(lngValue);
             }
@@ -1,6 +1,7 @@
 package com.bmat.ella;
 
 import java.util.ArrayList;
+import java.util.List;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -39,80 +40,128 @@ public class ArtistManager {
             final String mtd, final Double thresholdValue, final boolean fuzzy,
             final String[] metadataLinks) {
         ArrayList<Artist> artists = new ArrayList<Artist>();
-        double threshold = 0.0;
+        ResultHandler handler = this.getArtistHandler(ellaConnection,
+                artists, mtd, thresholdValue, fuzzy, metadataLinks);
+        for (Object json : results) {
+            handler.result((JSONObject) json);
+        }
+        return artists;
+    }
+
+    /**
+     * Creates a handler that extracts the data of each result and adds the
+     * created Artist objects to a list.
+     * @param ellaConnection A connection to the Ella web service.
+     * @param artists The list where the artists are added.
+     * @param mtd A String that contains the name of the type of search.
+     * @param thresholdValue The lowest Track score to consider. In case
+     * of null, it will be considered as 0.
+     * @param fuzzy A Boolean value that indicates if it was a fuzzy search.
+     * @param metadataLinks name of the metalinks to obtain.
+     * @return The result handler.
+     * */
+    public final ResultHandler getArtistHandler(
+            final EllaConnection ellaConnection, final List<Artist> artists,
+            final String mtd, final Double thresholdValue, final boolean fuzzy,
+            final String[] metadataLinks) {
+        final double threshold;
         if (thresholdValue != null) {
             threshold = thresholdValue;
+        } else {
+            threshold = 0.0;
         }
-        String method = "";
+        final String method;
         if (mtd != null) {
             method = mtd;
+        } else {
+            method = "";
         }
-        for (Object json : results) {
-            JSONObject jsonArtist = (JSONObject) json;
-            JSONObject jsonEntity = (JSONObject) jsonArtist.get("entity");
-            JSONObject jsonMetadata = (JSONObject) jsonEntity.get("metadata");
-            String artistId = (String) jsonEntity.get("id");
-            if (artistId == null || artistId.trim().equals("")) {
-                continue;
+        return new ResultHandler() {
+            public void result(final JSONObject jsonArtist) {
+                addArtist(ellaConnection, jsonArtist, artists, method,
+                        threshold, fuzzy, metadataLinks);
             }
-            Object relevance = jsonArtist.get("score");
-            if (relevance == null || relevance.toString().equals("")) {
-                continue;
-            }
-            double score = new Double(relevance.toString());
-            if (fuzzy && score < 0.4) {
-                continue;
-            }
-            if (method.indexOf("resolve") != -1 && score < threshold) {
-                continue;
-            } else if (method.indexOf("match") != -1 && score < threshold) {
-                continue;
-            }
-            String collection = (String) jsonEntity.get("collection");
+        };
+    }
 
-            Artist artist = new Artist(ellaConnection, artistId, collection);
-            artist.setName((String) jsonMetadata.get("name"));
-            if (artist.getName() == null) {
-                continue;
-            }
+    /**
+     * Extract the data from a result and add the created Artist object
+     * to a list. The artist is filled before it is made canonical, so an
+     * instance that is already canonical is used as it is.
+     * @param ellaConnection A connection to the Ella web service.
+     * @param jsonArtist The result.
+     * @param artists The list where the artist is added.
+     * @param method A String that contains the name of the type of search.
+     * @param threshold The lowest Track score to consider.
+     * @param fuzzy A Boolean value that indicates if it was a fuzzy search.
+     * @param metadataLinks name of the metalinks to obtain.
+     * */
+    private void addArtist(final EllaConnection ellaConnection,
+            final JSONObject jsonArtist, final List<Artist> artists,
+            final String method, final double threshold, final boolean fuzzy,
+            final String[] metadataLinks) {
+        JSONObject jsonEntity = (JSONObject) jsonArtist.get("entity");
+        JSONObject jsonMetadata = (JSONObject) jsonEntity.get("metadata");
+        String artistId = (String) jsonEntity.get("id");
+        if (artistId == null || artistId.trim().equals("")) {
+            return;
+        }
+        Object relevance = jsonArtist.get("score");
+        if (relevance == null || relevance.toString().equals("")) {
+            return;
+        }
+        double score = new Double(relevance.toString());
+        if (fuzzy && score < 0.4) {
+            return;
+        }
+        if (method.indexOf("resolve") != -1 && score < threshold) {
+            return;
+        } else if (method.indexOf("match") != -1 && score < threshold) {
+            return;
+        }
+        String collection = (String) jsonEntity.get("collection");
 
-            artist.setMbid((String) jsonMetadata.get("musicbrainz_artist_id"));
-            Object apop = jsonMetadata.get("artist_popularity");
-            double artistPopularity = 0.0;
-            if (apop != null && !apop.toString().equals("")) {
-                artistPopularity = new Double(apop.toString());
-            }
-            artist.setPopularity(artistPopularity);
+        Artist artist = new Artist(ellaConnection, artistId, collection);
+        artist.setName((String) jsonMetadata.get("name"));
+        if (artist.getName() == null) {
+            return;
+        }
 
-            String artistLocation = (String) jsonMetadata
-            .get("artist_location");
-            if (artistLocation == null) {
-                artistLocation = "";
-            }
+        artist.setMbid((String) jsonMetadata.get("musicbrainz_artist_id"));
+        Object apop = jsonMetadata.get("artist_popularity");
+        double artistPopularity = 0.0;
+        if (apop != null && !apop.toString().equals("")) {
+            artistPopularity = new Double(apop.toString());
+        }
+        artist.setPopularity(artistPopularity);
 
-            Object latlng = jsonMetadata.get("artist_latlng");
-            if (latlng instanceof String) {
-                artist.setLatlng(latlng.toString().trim());
-            } else if (latlng instanceof JSONArray) {
-                artist.setLatlng((JSONArray) latlng);
-            }
+        String artistLocation = (String) jsonMetadata
+        .get("artist_location");
+        if (artistLocation == null) {
+            artistLocation = "";
+        }
 
-            if (metadataLinks != null) {
-                for (String link : metadataLinks) {
-                    Object linkObject = jsonMetadata.get(link);
-                    if (linkObject instanceof String) {
-                        artist.setLinks(link, (String) jsonMetadata.get(link));
-                    } else if (linkObject != null) {
-                        artist.setLinks(link,
-                                (JSONArray) jsonMetadata.get(link));
-                    }
+        Object latlng = jsonMetadata.get("artist_latlng");
+        if (latlng instanceof String) {
+            artist.setLatlng(latlng.toString().trim());
+        } else if (latlng instanceof JSONArray) {
+            artist.setLatlng((JSONArray) latlng);
+        }
+
+        if (metadataLinks != null) {
+            for (String link : metadataLinks) {
+                Object linkObject = jsonMetadata.get(link);
+                if (linkObject instanceof String) {
+                    artist.setLinks(link, (String) jsonMetadata.get(link));
+                } else if (linkObject != null) {
+                    artist.setLinks(link,
+                            (JSONArray) jsonMetadata.get(link));
                 }
             }
-
-            Object recommend = jsonMetadata.get("recommendable");
-            artist.setRecommend(recommend);
-            artists.add(artist);
         }
-        return artists;
+
+        Object recommend = jsonMetadata.get("recommendable");
+        artist.setRecommend(recommend);
+        artists.add(ellaConnection.canonical(artist));
     }
 }
@@ -4,7 +4,6 @@ package com.bmat.ella;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import org.json.simple.JSONArray;
 /**
  * Java Class ArtistSearch.
  * Search for Artists.
@@ -110,7 +109,11 @@ public class ArtistSearch extends Search {
         } else {
             pageNumber = 0;
         }
-        return this.getResults(this.retrievePage(pageNumber));
+        ArrayList<Artist> results = new ArrayList<Artist>();
+        if (!this.retrievePage(pageNumber, this.getHandler(results))) {
+            return null;
+        }
+        return results;
     }
 
     /**
@@ -122,21 +125,21 @@ public class ArtistSearch extends Search {
      * */
     public final ArrayList<Artist> getNextPage()
     throws ServiceException, IOException {
-        return this.getResults(this.retrieveNextPage());
+        ArrayList<Artist> results = new ArrayList<Artist>();
+        if (!this.retrieveNextPage(this.getHandler(results))) {
+            return null;
+        }
+        return results;
     }
 
     /**
-     * @param jsonResults the result node of the response.
-     * @return An ArrayList of the artists contained in the jsonResults.
+     * @param results The list where the artists are added.
+     * @return A handler that adds the artists of the results to the list.
      * */
-    private ArrayList<Artist> getResults(final JSONArray jsonResults) {
-        if (jsonResults == null) {
-            return null;
-        }
-        ArrayList<Artist> results = new ArtistManager().getArtists(
-                this.request.getEllaConnection(), jsonResults,
+    private ResultHandler getHandler(final ArrayList<Artist> results) {
+        return new ArtistManager().getArtistHandler(
+                this.request.getEllaConnection(), results,
                 this.method, this.threshold, this.fuzzy,
                 this.metadataLinks);
-        return results;
     }
 }
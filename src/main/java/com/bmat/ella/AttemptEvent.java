@@ -0,0 +1,134 @@
+package com.bmat.ella;
+
+/**
+ * Java Class AttemptEvent.
+ * Represents the outcome of a single attempt of a request.
+ * @author Harrington Joseph (Harph)
+ * */
+public class AttemptEvent {
+    /**
+     * Java Enum Outcome.
+     * The ways an attempt can end.
+     * */
+    public enum Outcome {
+        /**
+         * The attempt answered the request.
+         * */
+        SUCCEEDED,
+        /**
+         * The attempt failed with an exception.
+         * */
+        FAILED,
+        /**
+         * The attempt did not answer in time and was abandoned.
+         * */
+        TIMED_OUT,
+        /**
+         * The other attempt of a hedged pair answered first and this one
+         * was abandoned.
+         * */
+        LOST_RACE
+    }
+
+    /**
+     * The requested URL.
+     * */
+    private String url;
+    /**
+     * Number of the attempt, starting at 1. A hedge has the number of the
+     * attempt it duplicates.
+     * */
+    private int attempt;
+    /**
+     * Specifies if the attempt is a hedge.
+     * */
+    private boolean hedge;
+    /**
+     * How the attempt ended.
+     * */
+    private Outcome outcome;
+    /**
+     * Time, in milliseconds, from the start of the attempt to its outcome.
+     * */
+    private long elapsed;
+    /**
+     * The failure, or null.
+     * */
+    private Throwable error;
+
+    /**
+     * Class constructor.
+     * @param urlValue The requested URL.
+     * @param attemptValue Number of the attempt, starting at 1.
+     * @param hedgeValue Specifies if the attempt is a hedge.
+     * @param outcomeValue How the attempt ended.
+     * @param elapsedValue Time, in milliseconds, from the start of the
+     * attempt to its outcome.
+     * @param errorValue The failure, or null.
+     * */
+    public AttemptEvent(final String urlValue, final int attemptValue,
+            final boolean hedgeValue, final Outcome outcomeValue,
+            final long elapsedValue, final Throwable errorValue) {
+        this.url = urlValue;
+        this.attempt = attemptValue;
+        this.hedge = hedgeValue;
+        this.outcome = outcomeValue;
+        this.elapsed = elapsedValue;
+        this.error = errorValue;
+    }
+
+    /**
+     * @return The requested URL.
+     * */
+    public final String getUrl() {
+        return this.url;
+    }
+
+    /**
+     * @return Number of the attempt, starting at 1.
+     * */
+    public final int getAttempt() {
+        return this.attempt;
+    }
+
+    /**
+     * @return True if the attempt is a hedge.
+     * */
+    public final boolean isHedge() {
+        return this.hedge;
+    }
+
+    /**
+     * @return How the attempt ended.
+     * */
+    public final Outcome getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * @return Time, in milliseconds, from the start of the attempt to
+     * its outcome.
+     * */
+    public final long getElapsed() {
+        return this.elapsed;
+    }
+
+    /**
+     * @return The failure, or null.
+     * */
+    public final Throwable getError() {
+        return this.error;
+    }
+
+    /**
+     * @return A String representation of the event.
+     * */
+    public final String toString() {
+        String description = this.url + " attempt " + this.attempt;
+        if (this.hedge) {
+            description += " (hedge)";
+        }
+        return description + ": " + this.outcome + " in " + this.elapsed
+            + " ms";
+    }
+}
@@ -0,0 +1,14 @@
+package com.bmat.ella;
+
+/**
+ * Java Interface AttemptListener.
+ * Receives the outcome of every attempt made under a resilience policy.
+ * @author Harrington Joseph (Harph)
+ * */
+public interface AttemptListener {
+    /**
+     * Called once per attempt, when its outcome is known.
+     * @param event The attempt outcome.
+     * */
+    void attempted(AttemptEvent event);
+}
@@ -2,8 +2,12 @@
 package com.bmat.ella;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -13,6 +17,11 @@ import org.json.simple.JSONObject;
  * @author Harrington Joseph (Harph)
  * */
 public abstract class BaseObject extends SearchObject {
+    /**
+     * Constant.
+     * Metadata field that says if the object is recommended.
+     * */
+    public static final String RECOMMENDABLE = "recommendable";
     /**
      * Object ID.
      * */
@@ -30,9 +39,26 @@ public abstract class BaseObject extends SearchObject {
      * */
     private HashMap<String, String[]> links;
     /**
-     * Object JSON source.
+     * Object JSON source. It is replaced, never changed, and is only
+     * replaced with the lock of the object, together with the fetched
+     * fields, as a canonical object is shared by many threads.
+     * */
+    private volatile JSONObject json;
+    /**
+     * Metadata fields requested when the JSON representation is loaded.
      * */
-    private JSONObject json;
+    private volatile Projection projection = Projection.ALL;
+    /**
+     * Metadata fields already requested, or null if the JSON
+     * representation has every field.
+     * */
+    private volatile HashSet<String> fetchedFields;
+    /**
+     * The load of the JSON representation in progress, or null. It is
+     * only read and replaced with the lock of the object, which is not
+     * held while the load is waited for.
+     * */
+    private CompletableFuture<JSONObject> loading;
 
     /**
      * Class constructor.
@@ -83,7 +109,7 @@ public abstract class BaseObject extends SearchObject {
      * */
     public final Boolean isRecommend() {
         if (this.recommend == null) {
-            this.setRecommend(this.getFieldValue("recommendable"));
+            this.setRecommend(this.getFieldValue(BaseObject.RECOMMENDABLE));
         }
         return recommend;
     }
@@ -120,7 +146,7 @@ public abstract class BaseObject extends SearchObject {
         if (this.links == null) {
             this.links = new HashMap<String, String[]>();
             try {
-                this.obtainJson();
+                this.obtainFields(this.metadataLinks);
                 JSONObject jsonMetadata =
                     (JSONObject) this.json.get("metadata");
                 for (String link : this.metadataLinks) {
@@ -178,29 +204,230 @@ public abstract class BaseObject extends SearchObject {
 
     /**
      * Sets the JSON representation.
+     * @param jsonValue A JSONObject that represents the object with every
+     * metadata field.
+     * */
+    public final synchronized void setJson(final JSONObject jsonValue) {
+        this.json = jsonValue;
+        this.fetchedFields = null;
+    }
+
+    /**
+     * Sets the JSON representation loaded with the projection of the
+     * object.
      * @param jsonValue A JSONObject that represents the object.
      * */
-    public final void setJson(final JSONObject jsonValue) {
+    final synchronized void setFetchedJson(final JSONObject jsonValue) {
         this.json = jsonValue;
+        if (this.projection.isAll()) {
+            this.fetchedFields = null;
+        } else {
+            this.fetchedFields = new HashSet<String>(
+                    this.projection.getFields());
+        }
+    }
+
+    /**
+     * @return The metadata fields requested when the JSON representation
+     * is loaded.
+     * */
+    public final Projection getProjection() {
+        return this.projection;
+    }
+
+    /**
+     * Sets the metadata fields requested when the JSON representation is
+     * loaded. Other fields are requested on their own the first time a
+     * getter needs them.
+     * @param projectionValue The projection. Null requests every field.
+     * */
+    public final void setProjection(final Projection projectionValue) {
+        if (projectionValue == null) {
+            this.projection = Projection.ALL;
+        } else {
+            this.projection = projectionValue;
+        }
+    }
+
+    /**
+     * @return True if the JSON representation is loaded, so the getters
+     * do not request it.
+     * */
+    public final boolean isHydrated() {
+        return this.json != null;
+    }
+
+    /**
+     * @return The key of the entity: its collection, type and id.
+     * */
+    final String getEntityKey() {
+        return this.collection + " " + this.method;
+    }
+
+    /**
+     * @return The key shared by the objects whose JSON representation is
+     * obtained with the same request.
+     * */
+    final String getHydrationKey() {
+        return this.getEntityKey() + " " + this.projection;
     }
 
     /**
      * Executes a request to get the JSON representation.
+     * @return The JSON representation with the metadata fields of the
+     * projection.
+     * @throws ServiceException When Ella WS response fails.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    final JSONObject fetchJson() throws ServiceException, IOException {
+        return this.fetchJson(this.projection);
+    }
+
+    /**
+     * Executes a request to get the JSON representation.
+     * @param fields The metadata fields to request.
+     * @return The JSON representation with the requested metadata fields.
+     * @throws ServiceException When Ella WS response fails.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    private JSONObject fetchJson(final Projection fields)
+    throws ServiceException, IOException {
+        HashMap<String, String> fetchMetadata = new HashMap<String, String>();
+        fetchMetadata.put("fetch_metadata", fields.toString());
+        JSONArray response = (JSONArray) this.request(fetchMetadata);
+        return (JSONObject) response.get(0);
+    }
+
+    /**
+     * Executes a request to get the JSON representation, in a batch with
+     * other objects if the Ella connection batches the lazy loads. The
+     * threads that need it at the same time share a single load, that
+     * they wait for without the lock of the object.
      * */
     private void obtainJson() {
-        if (this.json == null) {
+        if (this.json != null) {
+            return;
+        }
+        CompletableFuture<JSONObject> future;
+        boolean started = false;
+        synchronized (this) {
+            if (this.json != null) {
+                return;
+            } else if (this.loading == null) {
+                EntityBatcher batcher =
+                    this.request.getEllaConnection().getEntityBatcher();
+                if (batcher != null) {
+                    this.loading = batcher.submit(this);
+                } else {
+                    this.loading = new CompletableFuture<JSONObject>();
+                    started = true;
+                }
+            }
+            future = this.loading;
+        }
+        if (started) {
             try {
-                HashMap<String, String> fetchMetadata =
-                    new HashMap<String, String>();
-                fetchMetadata.put("fetch_metadata", "_all");
-                JSONArray response = (JSONArray) this.request(fetchMetadata);
-                this.json = (JSONObject) response.get(0);
-            } catch (ServiceException se) {
-                this.json = null;
-            } catch (IOException ioe) {
-                this.json = null;
+                future.complete(this.fetchJson());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
             }
         }
+        JSONObject loaded = null;
+        try {
+            loaded = JellaExecutor.join(
+                    Collections.singletonList(future)).get(0);
+        } catch (ServiceException se) {
+            loaded = null;
+        } catch (IOException ioe) {
+            loaded = null;
+        } finally {
+            this.finishLoad(future, loaded);
+        }
+    }
+
+    /**
+     * Sets the loaded JSON representation, unless another one was set
+     * meanwhile, and ends the load, so a getter after a failed load
+     * requests it again.
+     * @param future The load.
+     * @param loaded The JSON representation, or null if the load failed.
+     * */
+    private synchronized void finishLoad(
+            final CompletableFuture<JSONObject> future,
+            final JSONObject loaded) {
+        if (this.loading == future) {
+            this.loading = null;
+        }
+        if (loaded != null && this.json == null) {
+            this.setFetchedJson(loaded);
+        }
+    }
+
+    /**
+     * Obtains the JSON representation and requests the given metadata
+     * fields that were not requested yet, adding them to it. The fields
+     * are requested once: when the request fails the JSON representation
+     * and its fetched fields are kept as they are, so the getter finds no
+     * value, and only a later getter requests the fields again. The lock
+     * of the object is not held during the request.
+     * @param names The field names.
+     * */
+    private void obtainFields(final String... names) {
+        this.obtainJson();
+        ArrayList<String> missing = new ArrayList<String>();
+        synchronized (this) {
+            if (this.json == null || this.fetchedFields == null) {
+                return;
+            }
+            for (String name : names) {
+                if (!this.fetchedFields.contains(name)) {
+                    missing.add(name);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        JSONObject fetched;
+        try {
+            fetched = this.fetchJson(Projection.of(
+                    missing.toArray(new String[missing.size()])));
+        } catch (ServiceException se) {
+            return;
+        } catch (IOException ioe) {
+            return;
+        }
+        synchronized (this) {
+            if (this.json == null || this.fetchedFields == null) {
+                return;
+            }
+            HashSet<String> fields = new HashSet<String>(this.fetchedFields);
+            fields.addAll(missing);
+            this.json = BaseObject.merge(this.json,
+                    (JSONObject) fetched.get("metadata"));
+            this.fetchedFields = fields;
+        }
+    }
+
+    /**
+     * Copies a JSON representation adding metadata fields to it. It is
+     * copied, as the representation can be shared with other objects.
+     * @param jsonValue The JSON representation.
+     * @param metadataValue The metadata fields to add.
+     * @return The new JSON representation.
+     * */
+    @SuppressWarnings("unchecked")
+    private static JSONObject merge(final JSONObject jsonValue,
+            final JSONObject metadataValue) {
+        JSONObject merged = new JSONObject();
+        merged.putAll(jsonValue);
+        JSONObject metadata = new JSONObject();
+        metadata.putAll((JSONObject) jsonValue.get("metadata"));
+        metadata.putAll(metadataValue);
+        merged.put("metadata", metadata);
+        return merged;
     }
 
     /**
@@ -209,7 +436,7 @@ public abstract class BaseObject extends SearchObject {
      * */
     protected final String getFieldValue(final String nameValue) {
         String fieldValue = null;
-        this.obtainJson();
+        this.obtainFields(nameValue);
         JSONObject jsonMetadata = (JSONObject) this.json.get("metadata");
         Object objValue = jsonMetadata.get(nameValue);
         fieldValue = null;
@@ -224,7 +451,7 @@ public abstract class BaseObject extends SearchObject {
      * @return The values for the nameValue Field.
      * */
     protected final JSONArray getFieldValues(final String nameValue) {
-        this.obtainJson();
+        this.obtainFields(nameValue);
         JSONObject jsonMetadata = (JSONObject) this.json.get("metadata");
         JSONArray objValue = (JSONArray) jsonMetadata.get(nameValue);
         return objValue;
@@ -267,11 +494,7 @@ public abstract class BaseObject extends SearchObject {
     protected final JSONArray fetchTracks(final String trackMetadata,
             final String fetchCollection, final String method)
     throws ServiceException, IOException {
-        String[] trackMetadataLinks = new String[]{"spotify_track_url",
-                "grooveshark_track_url", "amazon_track_url", "itms_track_url",
-                "hypem_track_url", "musicbrainz_track_url"};
-        String metadata = trackMetadata;
-        metadata += Util.joinArray(trackMetadataLinks, ",");
+        String metadata = trackMetadata + Track.LINK_FIELDS;
 
         HashMap<String, String> fetchMetadata = new HashMap<String, String>();
         fetchMetadata.put("fetch_metadata", metadata);
@@ -279,4 +502,24 @@ public abstract class BaseObject extends SearchObject {
         JSONArray results = (JSONArray) response.get("results");
         return results;
     }
+
+    /**
+     * Searchs and fetchs tracks handing each result to the handler while
+     * the response is decoded.
+     * @param trackMetadata Track metadata to be queried.
+     * @param method Kind of search to execute.
+     * @param handler The receiver of the results.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * @throws ServiceException When Ella WS response fails.
+     * */
+    protected final void fetchTracks(final String trackMetadata,
+            final String method, final ResultHandler handler)
+    throws ServiceException, IOException {
+        String metadata = trackMetadata + Track.LINK_FIELDS;
+
+        HashMap<String, String> fetchMetadata = new HashMap<String, String>();
+        fetchMetadata.put("fetch_metadata", metadata);
+        this.requestStreaming(method, fetchMetadata, handler);
+    }
 }
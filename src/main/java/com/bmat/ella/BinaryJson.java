@@ -0,0 +1,548 @@
+package com.bmat.ella;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Java Class BinaryJson.
+ * Compact binary encoding of parsed JSON responses. Every value starts
+ * with a type tag: null, true, false, integers as zigzag varints, doubles
+ * as 8 bytes, strings as a varint length and UTF-8 bytes, and objects and
+ * arrays as their content followed by an end mark. Object keys are
+ * interned: a key is written once and then referred to by its index.
+ * Decoding gives the same JSONObject, JSONArray, String, Long, Double and
+ * Boolean values as JSONParser, without scanning any text.
+ * @author Harrington Joseph (Harph)
+ * */
+final class BinaryJson {
+    /**
+     * Tag of null.
+     * */
+    private static final int NULL = 0;
+    /**
+     * Tag of true.
+     * */
+    private static final int TRUE = 1;
+    /**
+     * Tag of false.
+     * */
+    private static final int FALSE = 2;
+    /**
+     * Tag of an integer.
+     * */
+    private static final int LONG = 3;
+    /**
+     * Tag of a double.
+     * */
+    private static final int DOUBLE = 4;
+    /**
+     * Tag of a string.
+     * */
+    private static final int STRING = 5;
+    /**
+     * Tag of an object.
+     * */
+    private static final int OBJECT = 6;
+    /**
+     * Tag of an array.
+     * */
+    private static final int ARRAY = 7;
+    /**
+     * End mark of an array.
+     * */
+    private static final int END = 8;
+    /**
+     * Key reference that ends an object.
+     * */
+    private static final int END_KEY = 0;
+    /**
+     * Key reference followed by a new key.
+     * */
+    private static final int NEW_KEY = 1;
+    /**
+     * Max number of nested objects and arrays.
+     * */
+    private static final int MAX_DEPTH = 512;
+
+    /**
+     * Class constructor.
+     * */
+    private BinaryJson() {
+    }
+
+    /**
+     * Encodes a parsed value.
+     * @param value A JSONObject, JSONArray, String, Number, Boolean or null.
+     * @param output The destination of the encoding.
+     * @throws IOException When the value can not be written.
+     * */
+    static void encode(final Object value, final OutputStream output)
+    throws IOException {
+        Writer writer = new Writer(output, null);
+        writer.write(value);
+        writer.flush();
+    }
+
+    /**
+     * Decodes a value.
+     * @param input The encoding.
+     * @return The parsed value.
+     * @throws IOException When the encoding can not be read or is not
+     * valid.
+     * */
+    static Object decode(final InputStream input) throws IOException {
+        Reader reader = new Reader(input);
+        return reader.read(reader.readTag(), 0);
+    }
+
+    /**
+     * Decodes a value into the events of a parser content handler.
+     * @param input The encoding.
+     * @param handler The content handler.
+     * @throws IOException When the encoding can not be read or is not
+     * valid.
+     * @throws ParseException When the handler fails.
+     * */
+    static void decode(final InputStream input, final ContentHandler handler)
+    throws IOException, ParseException {
+        Reader reader = new Reader(input);
+        handler.startJSON();
+        reader.replay(reader.readTag(), handler, 0);
+        handler.endJSON();
+    }
+
+    /**
+     * @param handler A content handler. It can be null.
+     * @param output The destination of the encoding.
+     * @return A content handler that encodes the parser events and hands
+     * them to the handler.
+     * */
+    static Writer writer(final ContentHandler handler,
+            final OutputStream output) {
+        return new Writer(output, handler);
+    }
+
+    /**
+     * Java Class Writer.
+     * Encodes parsed values or parser events.
+     * */
+    static final class Writer implements ContentHandler {
+        /**
+         * The destination of the encoding.
+         * */
+        private DataOutputStream output;
+        /**
+         * Content handler the events are handed to, or null.
+         * */
+        private ContentHandler handler;
+        /**
+         * Index of every key written.
+         * */
+        private HashMap<String, Integer> keys = new HashMap<String, Integer>();
+
+        /**
+         * Class constructor.
+         * @param outputValue The destination of the encoding.
+         * @param handlerValue Content handler the events are handed to.
+         * It can be null.
+         * */
+        Writer(final OutputStream outputValue,
+                final ContentHandler handlerValue) {
+            this.output = new DataOutputStream(outputValue);
+            this.handler = handlerValue;
+        }
+
+        /**
+         * @param value A parsed value.
+         * @throws IOException When the value can not be written.
+         * */
+        @SuppressWarnings("unchecked")
+        void write(final Object value) throws IOException {
+            if (value instanceof Map) {
+                this.output.writeByte(BinaryJson.OBJECT);
+                for (Map.Entry<Object, Object> entry
+                        : ((Map<Object, Object>) value).entrySet()) {
+                    this.writeKey(String.valueOf(entry.getKey()));
+                    this.write(entry.getValue());
+                }
+                this.writeVarint(BinaryJson.END_KEY);
+            } else if (value instanceof Iterable) {
+                this.output.writeByte(BinaryJson.ARRAY);
+                for (Object item : (Iterable<Object>) value) {
+                    this.write(item);
+                }
+                this.output.writeByte(BinaryJson.END);
+            } else {
+                this.writePrimitive(value);
+            }
+        }
+
+        /**
+         * @param value A String, Number, Boolean or null.
+         * @throws IOException When the value can not be written.
+         * */
+        private void writePrimitive(final Object value) throws IOException {
+            if (value == null) {
+                this.output.writeByte(BinaryJson.NULL);
+            } else if (value instanceof Boolean) {
+                if ((Boolean) value) {
+                    this.output.writeByte(BinaryJson.TRUE);
+                } else {
+                    this.output.writeByte(BinaryJson.FALSE);
+                }
+            } else if (value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte) {
+                this.output.writeByte(BinaryJson.LONG);
+                long number = ((Number) value).longValue();
+                this.writeVarlong((number << 1) ^ (number >> 63));
+            } else if (value instanceof Number) {
+                this.output.writeByte(BinaryJson.DOUBLE);
+                this.output.writeDouble(((Number) value).doubleValue());
+            } else {
+                this.output.writeByte(BinaryJson.STRING);
+                this.writeString(value.toString());
+            }
+        }
+
+        /**
+         * @param key An object key, written once and then referred to.
+         * @throws IOException When the key can not be written.
+         * */
+        private void writeKey(final String key) throws IOException {
+            Integer index = this.keys.get(key);
+            if (index != null) {
+                this.writeVarint(index + BinaryJson.NEW_KEY + 1);
+                return;
+            }
+            this.keys.put(key, this.keys.size());
+            this.writeVarint(BinaryJson.NEW_KEY);
+            this.writeString(key);
+        }
+
+        /**
+         * @param value A string, written as a varint length and UTF-8.
+         * @throws IOException When the string can not be written.
+         * */
+        private void writeString(final String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            this.writeVarint(bytes.length);
+            this.output.write(bytes);
+        }
+
+        /**
+         * @param value A non negative int.
+         * @throws IOException When the value can not be written.
+         * */
+        private void writeVarint(final int value) throws IOException {
+            this.writeVarlong(value);
+        }
+
+        /**
+         * @param value A long, written 7 bits per byte.
+         * @throws IOException When the value can not be written.
+         * */
+        private void writeVarlong(final long value) throws IOException {
+            long rest = value;
+            while ((rest & ~0x7FL) != 0) {
+                this.output.writeByte((int) ((rest & 0x7F) | 0x80));
+                rest >>>= 7;
+            }
+            this.output.writeByte((int) rest);
+        }
+
+        /**
+         * @throws IOException When the encoding can not be flushed.
+         * */
+        void flush() throws IOException {
+            this.output.flush();
+        }
+
+        /**
+         * Starts the document.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the handler fails.
+         * */
+        public void startJSON() throws ParseException, IOException {
+            if (this.handler != null) {
+                this.handler.startJSON();
+            }
+        }
+
+        /**
+         * Ends the document.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the encoding can not be flushed.
+         * */
+        public void endJSON() throws ParseException, IOException {
+            this.flush();
+            if (this.handler != null) {
+                this.handler.endJSON();
+            }
+        }
+
+        /**
+         * @return true to continue parsing, unless the handler stops.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the object can not be written.
+         * */
+        public boolean startObject() throws ParseException, IOException {
+            this.output.writeByte(BinaryJson.OBJECT);
+            return this.handler == null || this.handler.startObject();
+        }
+
+        /**
+         * @return true to continue parsing, unless the handler stops.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the object can not be written.
+         * */
+        public boolean endObject() throws ParseException, IOException {
+            this.writeVarint(BinaryJson.END_KEY);
+            return this.handler == null || this.handler.endObject();
+        }
+
+        /**
+         * @param key The entry key.
+         * @return true to continue parsing, unless the handler stops.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the key can not be written.
+         * */
+        public boolean startObjectEntry(final String key)
+        throws ParseException, IOException {
+            this.writeKey(key);
+            return this.handler == null || this.handler.startObjectEntry(key);
+        }
+
+        /**
+         * @return true to continue parsing, unless the handler stops.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the handler fails.
+         * */
+        public boolean endObjectEntry() throws ParseException, IOException {
+            return this.handler == null || this.handler.endObjectEntry();
+        }
+
+        /**
+         * @return true to continue parsing, unless the handler stops.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the array can not be written.
+         * */
+        public boolean startArray() throws ParseException, IOException {
+            this.output.writeByte(BinaryJson.ARRAY);
+            return this.handler == null || this.handler.startArray();
+        }
+
+        /**
+         * @return true to continue parsing, unless the handler stops.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the array can not be written.
+         * */
+        public boolean endArray() throws ParseException, IOException {
+            this.output.writeByte(BinaryJson.END);
+            return this.handler == null || this.handler.endArray();
+        }
+
+        /**
+         * @param value A String, Number, Boolean or null.
+         * @return true to continue parsing, unless the handler stops.
+         * @throws ParseException When the handler fails.
+         * @throws IOException When the value can not be written.
+         * */
+        public boolean primitive(final Object value)
+        throws ParseException, IOException {
+            this.writePrimitive(value);
+            return this.handler == null || this.handler.primitive(value);
+        }
+    }
+
+    /**
+     * Java Class Reader.
+     * Decodes a value.
+     * */
+    private static final class Reader {
+        /**
+         * The encoding.
+         * */
+        private DataInputStream input;
+        /**
+         * Keys read so far, by index.
+         * */
+        private ArrayList<String> keys = new ArrayList<String>();
+
+        /**
+         * Class constructor.
+         * @param inputValue The encoding.
+         * */
+        Reader(final InputStream inputValue) {
+            this.input = new DataInputStream(inputValue);
+        }
+
+        /**
+         * @return The next tag.
+         * @throws IOException When the tag can not be read.
+         * */
+        int readTag() throws IOException {
+            return this.input.readUnsignedByte();
+        }
+
+        /**
+         * @param tag The tag of the value.
+         * @param depth Number of enclosing objects and arrays.
+         * @return The value.
+         * @throws IOException When the value can not be read.
+         * */
+        @SuppressWarnings("unchecked")
+        Object read(final int tag, final int depth) throws IOException {
+            if (tag == BinaryJson.OBJECT) {
+                this.checkDepth(depth);
+                JSONObject object = new JSONObject();
+                String key;
+                while ((key = this.readKey()) != null) {
+                    object.put(key, this.read(this.readTag(), depth + 1));
+                }
+                return object;
+            } else if (tag == BinaryJson.ARRAY) {
+                this.checkDepth(depth);
+                JSONArray array = new JSONArray();
+                int itemTag;
+                while ((itemTag = this.readTag()) != BinaryJson.END) {
+                    array.add(this.read(itemTag, depth + 1));
+                }
+                return array;
+            }
+            return this.readPrimitive(tag);
+        }
+
+        /**
+         * @param tag The tag of the value.
+         * @param handler The content handler.
+         * @param depth Number of enclosing objects and arrays.
+         * @throws IOException When the value can not be read.
+         * @throws ParseException When the handler fails.
+         * */
+        void replay(final int tag, final ContentHandler handler,
+                final int depth) throws IOException, ParseException {
+            if (tag == BinaryJson.OBJECT) {
+                this.checkDepth(depth);
+                handler.startObject();
+                String key;
+                while ((key = this.readKey()) != null) {
+                    handler.startObjectEntry(key);
+                    this.replay(this.readTag(), handler, depth + 1);
+                    handler.endObjectEntry();
+                }
+                handler.endObject();
+            } else if (tag == BinaryJson.ARRAY) {
+                this.checkDepth(depth);
+                handler.startArray();
+                int itemTag;
+                while ((itemTag = this.readTag()) != BinaryJson.END) {
+                    this.replay(itemTag, handler, depth + 1);
+                }
+                handler.endArray();
+            } else {
+                handler.primitive(this.readPrimitive(tag));
+            }
+        }
+
+        /**
+         * @param tag The tag of the value.
+         * @return The String, Long, Double, Boolean or null value.
+         * @throws IOException When the value can not be read.
+         * */
+        private Object readPrimitive(final int tag) throws IOException {
+            switch (tag) {
+            case BinaryJson.NULL:
+                return null;
+            case BinaryJson.TRUE:
+                return Boolean.TRUE;
+            case BinaryJson.FALSE:
+                return Boolean.FALSE;
+            case BinaryJson.LONG:
+                long zigzag = this.readVarlong();
+                return Long.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+            case BinaryJson.DOUBLE:
+                return Double.valueOf(this.input.readDouble());
+            case BinaryJson.STRING:
+                return this.readString();
+            default:
+                throw new IOException("Invalid binary JSON tag " + tag);
+            }
+        }
+
+        /**
+         * @return The next object key, or null at the end of the object.
+         * @throws IOException When the key can not be read.
+         * */
+        private String readKey() throws IOException {
+            long reference = this.readVarlong();
+            if (reference == BinaryJson.END_KEY) {
+                return null;
+            } else if (reference == BinaryJson.NEW_KEY) {
+                String key = this.readString();
+                this.keys.add(key);
+                return key;
+            }
+            long index = reference - BinaryJson.NEW_KEY - 1;
+            if (index >= this.keys.size()) {
+                throw new IOException("Invalid binary JSON key " + index);
+            }
+            return this.keys.get((int) index);
+        }
+
+        /**
+         * @return The next string.
+         * @throws IOException When the string can not be read.
+         * */
+        private String readString() throws IOException {
+            long length = this.readVarlong();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Invalid binary JSON string");
+            }
+            byte[] bytes = new byte[(int) length];
+            this.input.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return The next varint.
+         * @throws IOException When the varint can not be read.
+         * */
+        private long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int read = this.input.read();
+                if (read == -1) {
+                    throw new EOFException();
+                }
+                value |= (long) (read & 0x7F) << shift;
+                if ((read & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid binary JSON varint");
+        }
+
+        /**
+         * @param depth Number of enclosing objects and arrays.
+         * @throws IOException When the value is nested too deep.
+         * */
+        private void checkDepth(final int depth) throws IOException {
+            if (depth >= BinaryJson.MAX_DEPTH) {
+                throw new IOException("Binary JSON nested too deep");
+            }
+        }
+    }
+}
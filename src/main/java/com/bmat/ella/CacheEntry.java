@@ -0,0 +1,998 @@
+package com.bmat.ella;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Java Class CacheEntry.
+ * A cached response and the time it was stored. On disk the response
+ * follows a header with a magic number, the store time, the compression
+ * flags and the id of the preset dictionary the response was deflated
+ * with, 0 if none. The flags also tell if the response is stored as
+ * BinaryJson instead of text, if it is an error response and if the
+ * ETag and Last-Modified validators of the response follow. The header
+ * ends with the length and the CRC-32 of the stored response, so a
+ * truncated or corrupt entry is rejected rather than parsed. Entries
+ * written before the header existed have no store time.
+ * @author Harrington Joseph (Harph)
+ * */
+final class CacheEntry {
+    /**
+     * Magic number of the entry header: "JCE" and the version.
+     * */
+    private static final int MAGIC = 0x4A434533;
+    /**
+     * Magic number of the second version of the header, without the
+     * length and the checksum.
+     * */
+    private static final int MAGIC_V2 = 0x4A434532;
+    /**
+     * Magic number of the first version of the header, without the
+     * compression fields.
+     * */
+    private static final int MAGIC_V1 = 0x4A434531;
+    /**
+     * Flag of a response compressed with raw deflate.
+     * */
+    private static final int DEFLATED = 1;
+    /**
+     * Flag of a response stored as BinaryJson.
+     * */
+    private static final int BINARY = 2;
+    /**
+     * Flag of an error response.
+     * */
+    private static final int ERROR = 4;
+    /**
+     * Flag of a response followed by its validators.
+     * */
+    private static final int VALIDATED = 8;
+    /**
+     * Length of the magic number.
+     * */
+    private static final int MAGIC_LENGTH = 4;
+    /**
+     * Length of the header: magic, store time, flags, dictionary id,
+     * length and checksum.
+     * */
+    private static final int HEADER_LENGTH = 4 + 8 + 1 + 4 + 4 + 4;
+    /**
+     * Size of the buffer used to read the response.
+     * */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Time, in milliseconds since the epoch, the response was stored.
+     * 0 if it is unknown.
+     * */
+    private long storedAt;
+    /**
+     * The response body, or null once it was read.
+     * */
+    private InputStream body;
+    /**
+     * The response text, or null if it was not read.
+     * */
+    private String text;
+    /**
+     * Specifies if the body is BinaryJson.
+     * */
+    private boolean binary;
+    /**
+     * Specifies if the response is an error.
+     * */
+    private boolean error;
+    /**
+     * The ETag of the response, or null.
+     * */
+    private String etag;
+    /**
+     * The Last-Modified date of the response, or null.
+     * */
+    private String lastModified;
+    /**
+     * The parsed response, or null if it was not parsed.
+     * */
+    private Object document;
+    /**
+     * Number of characters of the text, or of bytes of the BinaryJson
+     * body, once it was read.
+     * */
+    private int length;
+
+    /**
+     * Class constructor.
+     * @param storedAtValue Time the response was stored.
+     * @param bodyValue The response body.
+     * */
+    CacheEntry(final long storedAtValue, final InputStream bodyValue) {
+        this(storedAtValue, bodyValue, 0);
+    }
+
+    /**
+     * Class constructor.
+     * @param storedAtValue Time the response was stored.
+     * @param bodyValue The response body.
+     * @param flags The header flags of the body.
+     * */
+    private CacheEntry(final long storedAtValue,
+            final InputStream bodyValue, final int flags) {
+        this.storedAt = storedAtValue;
+        this.body = bodyValue;
+        this.binary = (flags & CacheEntry.BINARY) != 0;
+        this.error = (flags & CacheEntry.ERROR) != 0;
+    }
+
+    /**
+     * Class constructor of an entry whose response is written apart.
+     * @param storedAtValue Time the response was stored.
+     * @param errorValue Specifies if the response is an error.
+     * */
+    CacheEntry(final long storedAtValue, final boolean errorValue) {
+        this.storedAt = storedAtValue;
+        this.error = errorValue;
+    }
+
+    /**
+     * Class constructor.
+     * @param storedAtValue Time the response was stored.
+     * @param textValue The response text.
+     * @param errorValue Specifies if the response is an error.
+     * */
+    CacheEntry(final long storedAtValue, final String textValue,
+            final boolean errorValue) {
+        this.storedAt = storedAtValue;
+        this.text = textValue;
+        this.length = textValue.length();
+        this.error = errorValue;
+    }
+
+    /**
+     * @return Time, in milliseconds since the epoch, the response was
+     * stored. 0 if it is unknown.
+     * */
+    long getStoredAt() {
+        return this.storedAt;
+    }
+
+    /**
+     * @return The response body, positioned after the header. It must
+     * be closed.
+     * */
+    InputStream getBody() {
+        return this.body;
+    }
+
+    /**
+     * @return Number of characters of the text, or of bytes of the
+     * BinaryJson body, once it was read. Used to weigh the response.
+     * */
+    int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Reads and closes the response body, as text or as BinaryJson.
+     * @throws IOException When the body can not be read.
+     * */
+    void load() throws IOException {
+        if (this.binary) {
+            this.decodeBinary();
+        } else {
+            this.getText();
+        }
+    }
+
+    /**
+     * @return The ETag of the response, or null.
+     * */
+    String getETag() {
+        return this.etag;
+    }
+
+    /**
+     * @return The Last-Modified date of the response, or null.
+     * */
+    String getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * @return True if the response has a validator to revalidate it with.
+     * */
+    boolean isValidated() {
+        return this.etag != null || this.lastModified != null;
+    }
+
+    /**
+     * @param etagValue The ETag of the response. It can be null.
+     * @param lastModifiedValue The Last-Modified date of the response. It
+     * can be null.
+     * */
+    void setValidators(final String etagValue,
+            final String lastModifiedValue) {
+        this.etag = etagValue;
+        this.lastModified = lastModifiedValue;
+    }
+
+    /**
+     * @return True if the response is an error.
+     * */
+    boolean isError() {
+        return this.error;
+    }
+
+    /**
+     * @return True if the body is BinaryJson.
+     * */
+    boolean isBinary() {
+        return this.binary;
+    }
+
+    /**
+     * Parses the response, once. A BinaryJson body is decoded, a text
+     * body is read and parsed.
+     * @return The parsed response.
+     * @throws IOException When the body can not be read.
+     * @throws ParseException When the text is not valid JSON.
+     * */
+    Object getDocument() throws IOException, ParseException {
+        if (this.document == null) {
+            if (this.binary) {
+                this.decodeBinary();
+            } else {
+                this.document = new JSONParser().parse(this.getText());
+            }
+        }
+        return this.document;
+    }
+
+    /**
+     * Decodes and closes the BinaryJson body, once.
+     * @return The parsed response.
+     * @throws IOException When the body can not be decoded.
+     * */
+    private Object decodeBinary() throws IOException {
+        if (this.document == null) {
+            byte[] encoded;
+            try {
+                encoded = CacheEntry.readAll(this.body);
+            } finally {
+                this.body.close();
+                this.body = null;
+            }
+            this.length = encoded.length;
+            this.document = BinaryJson.decode(
+                    new ByteArrayInputStream(encoded));
+        }
+        return this.document;
+    }
+
+    /**
+     * @param documentValue The parsed response, so getDocument does not
+     * parse it again.
+     * */
+    void setDocument(final Object documentValue) {
+        this.document = documentValue;
+    }
+
+    /**
+     * Reads and closes the response body, once.
+     * @return The response text.
+     * @throws IOException When the body can not be read.
+     * */
+    String getText() throws IOException {
+        if (this.text == null && this.binary) {
+            this.text = JSONValue.toJSONString(this.decodeBinary());
+        } else if (this.text == null) {
+            Reader reader = new InputStreamReader(this.body, "utf-8");
+            try {
+                StringBuilder content = new StringBuilder();
+                char[] buffer = new char[CacheEntry.BUFFER_SIZE];
+                int count;
+                while ((count = reader.read(buffer)) != -1) {
+                    content.append(buffer, 0, count);
+                }
+                this.text = content.toString();
+                this.length = this.text.length();
+            } finally {
+                reader.close();
+            }
+            this.body = null;
+        }
+        return this.text;
+    }
+
+    /**
+     * @param input A stream, read to its end.
+     * @return The bytes read.
+     * @throws IOException When the stream can not be read.
+     * */
+    private static byte[] readAll(final InputStream input)
+    throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[CacheEntry.BUFFER_SIZE];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Reads the header of a stored entry.
+     * @param stored The stored entry.
+     * @param responseCache The cache that holds the dictionaries and
+     * records the decode time.
+     * @return The entry, its body is the rest of the stream, inflated
+     * while it is read.
+     * @throws IOException When the header can not be read or the
+     * dictionary of the entry is missing.
+     * */
+    static CacheEntry read(final InputStream stored,
+            final ResponseCache responseCache) throws IOException {
+        PushbackInputStream input = new PushbackInputStream(stored,
+                CacheEntry.MAGIC_LENGTH);
+        byte[] magic = new byte[CacheEntry.MAGIC_LENGTH];
+        int count = 0;
+        int read = 0;
+        while (count < magic.length && read != -1) {
+            read = input.read(magic, count, magic.length - count);
+            if (read > 0) {
+                count += read;
+            }
+        }
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 8) | (magic[i] & 0xFF);
+        }
+        if (count < magic.length || (value != CacheEntry.MAGIC
+                && value != CacheEntry.MAGIC_V2
+                && value != CacheEntry.MAGIC_V1)) {
+            input.unread(magic, 0, count);
+            return new CacheEntry(0, input);
+        }
+        DataInputStream data = new DataInputStream(input);
+        long storedAt = data.readLong();
+        if (value == CacheEntry.MAGIC_V1) {
+            return new CacheEntry(storedAt, input);
+        }
+        int flags = data.readUnsignedByte();
+        int dictionaryId = data.readInt();
+        String etag = null;
+        String lastModified = null;
+        InputStream body = input;
+        if (value == CacheEntry.MAGIC) {
+            if ((flags & CacheEntry.VALIDATED) != 0) {
+                etag = CacheEntry.emptyToNull(data.readUTF());
+                lastModified = CacheEntry.emptyToNull(data.readUTF());
+            }
+            body = CacheEntry.readChecked(data, stored);
+        }
+        CacheEntry entry;
+        if ((flags & CacheEntry.DEFLATED) == 0) {
+            entry = new CacheEntry(storedAt, body, flags);
+            entry.setValidators(etag, lastModified);
+            return entry;
+        }
+        byte[] dictionary = null;
+        if (dictionaryId != 0) {
+            dictionary = responseCache.getDictionary(dictionaryId);
+            if (dictionary == null) {
+                input.close();
+                throw new IOException("Missing cache dictionary "
+                        + Integer.toHexString(dictionaryId));
+            }
+        }
+        entry = new CacheEntry(storedAt, new Inflating(body, dictionary,
+                responseCache), flags);
+        entry.setValidators(etag, lastModified);
+        return entry;
+    }
+
+    /**
+     * @param value A validator read from the header.
+     * @return The validator, or null if it is empty.
+     * */
+    private static String emptyToNull(final String value) {
+        if (value.length() == 0) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * @param value A validator or null.
+     * @return The validator, or an empty string if it is null.
+     * */
+    private static String nullToEmpty(final String value) {
+        if (value == null) {
+            return "";
+        }
+        return value;
+    }
+
+    /**
+     * Sets the store time of an encoded entry, leaving the rest as it is.
+     * @param stored The encoded entry.
+     * @param storedAt The new store time.
+     * @return A copy of the entry with the new store time, or null if
+     * the entry has no header.
+     * */
+    static byte[] touch(final byte[] stored, final long storedAt) {
+        if (stored.length < CacheEntry.MAGIC_LENGTH + 8) {
+            return null;
+        }
+        int value = 0;
+        for (int i = 0; i < CacheEntry.MAGIC_LENGTH; i++) {
+            value = (value << 8) | (stored[i] & 0xFF);
+        }
+        if (value != CacheEntry.MAGIC && value != CacheEntry.MAGIC_V2
+                && value != CacheEntry.MAGIC_V1) {
+            return null;
+        }
+        byte[] touched = stored.clone();
+        for (int i = 0; i < 8; i++) {
+            touched[CacheEntry.MAGIC_LENGTH + i] =
+                (byte) (storedAt >>> (56 - 8 * i));
+        }
+        return touched;
+    }
+
+    /**
+     * Reads the length and the checksum at the end of the header. A
+     * memory-mapped entry is checked at once over its bytes, without
+     * copying them; any other is checked while it is read.
+     * @param data The entry, positioned at the length.
+     * @param stored The stream the entry is read from.
+     * @return The stored response.
+     * @throws IOException When the header is corrupt, or the mapped
+     * response is truncated or does not match its checksum.
+     * */
+    private static InputStream readChecked(final DataInputStream data,
+            final InputStream stored) throws IOException {
+        int length;
+        int checksum;
+        try {
+            length = data.readInt();
+            checksum = data.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt cache entry");
+            }
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        if (!(stored instanceof SegmentDiskCache.ByteBufferInputStream)) {
+            return new Checked(data, length, checksum);
+        }
+        ByteBuffer response = ((SegmentDiskCache.ByteBufferInputStream)
+                stored).remaining();
+        if (response.remaining() < length) {
+            throw new IOException("Truncated cache entry");
+        }
+        response.limit(length);
+        CRC32 crc = new CRC32();
+        crc.update(response.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupt cache entry");
+        }
+        return new SegmentDiskCache.ByteBufferInputStream(response);
+    }
+
+    /**
+     * Encodes the entry with its store time, error flag and validators.
+     * @param body The response.
+     * @param level Deflater compression level. 0 stores the response
+     * as it is.
+     * @param dictionaryId Id of the preset dictionary, 0 if none.
+     * @param dictionary The preset dictionary. It can be null.
+     * @param binary Specifies if the response is BinaryJson.
+     * @return The header followed by the response. A deflated response
+     * is followed by the dummy byte raw inflate may need, counted in the
+     * length and the checksum.
+     * @throws IOException When the entry can not be encoded.
+     * */
+    byte[] encode(final byte[] body, final int level,
+            final int dictionaryId, final byte[] dictionary,
+            final boolean binary) throws IOException {
+        int flags = this.getFlags(binary);
+        byte[] stored = body;
+        int storedDictionaryId = 0;
+        if (level != 0) {
+            flags |= CacheEntry.DEFLATED;
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(
+                    body.length / 4 + CacheEntry.BUFFER_SIZE / 8);
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (dictionary != null) {
+                    storedDictionaryId = dictionaryId;
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(body);
+                deflater.finish();
+                byte[] buffer = new byte[CacheEntry.BUFFER_SIZE];
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    deflated.write(buffer, 0, count);
+                }
+                deflated.write(0);
+            } finally {
+                deflater.end();
+            }
+            stored = deflated.toByteArray();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(
+                CacheEntry.HEADER_LENGTH + stored.length);
+        DataOutputStream data = new DataOutputStream(output);
+        this.writeHeader(data, flags, storedDictionaryId, stored.length,
+                (int) crc.getValue());
+        data.write(stored);
+        return output.toByteArray();
+    }
+
+    /**
+     * Encodes the header of the entry whose response was written to a
+     * spool.
+     * @param spool The finished spool with the stored response.
+     * @param binary Specifies if the response is BinaryJson.
+     * @return The header bytes, followed on disk by the spool bytes.
+     * @throws IOException When the header can not be encoded.
+     * */
+    byte[] encodeHeader(final Spool spool, final boolean binary)
+    throws IOException {
+        int flags = this.getFlags(binary);
+        if (spool.deflater != null) {
+            flags |= CacheEntry.DEFLATED;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(
+                CacheEntry.HEADER_LENGTH);
+        this.writeHeader(new DataOutputStream(output), flags,
+                spool.dictionaryId, (int) spool.getStoredLength(),
+                (int) spool.crc.getValue());
+        return output.toByteArray();
+    }
+
+    /**
+     * @param binary Specifies if the response is BinaryJson.
+     * @return The flags of the entry, but the compression flag.
+     * */
+    private int getFlags(final boolean binary) {
+        int flags = 0;
+        if (binary) {
+            flags |= CacheEntry.BINARY;
+        }
+        if (this.error) {
+            flags |= CacheEntry.ERROR;
+        }
+        if (this.isValidated()) {
+            flags |= CacheEntry.VALIDATED;
+        }
+        return flags;
+    }
+
+    /**
+     * Writes the entry header.
+     * @param data The output.
+     * @param flags The entry flags.
+     * @param dictionaryId The id of the dictionary, 0 if none.
+     * @param length Length of the stored response.
+     * @param crc CRC-32 of the stored response.
+     * @throws IOException When the header can not be written.
+     * */
+    private void writeHeader(final DataOutputStream data, final int flags,
+            final int dictionaryId, final int length, final int crc)
+    throws IOException {
+        data.writeInt(CacheEntry.MAGIC);
+        data.writeLong(this.storedAt);
+        data.writeByte(flags);
+        data.writeInt(dictionaryId);
+        if (this.isValidated()) {
+            data.writeUTF(CacheEntry.nullToEmpty(this.etag));
+            data.writeUTF(CacheEntry.nullToEmpty(this.lastModified));
+        }
+        data.writeInt(length);
+        data.writeInt(crc);
+        data.flush();
+    }
+
+    /**
+     * Java Class Spool.
+     * A temporary file the response of an entry is written to while it is
+     * downloaded, deflated and checksummed on the fly, so caching a
+     * streamed response does not hold it in memory.
+     * */
+    static final class Spool extends OutputStream {
+        /**
+         * The temporary file.
+         * */
+        private File file;
+        /**
+         * The output of the file.
+         * */
+        private OutputStream fileOutput;
+        /**
+         * CRC-32 of the stored bytes.
+         * */
+        private CRC32 crc;
+        /**
+         * The output of the stored bytes, checksummed.
+         * */
+        private CheckedOutputStream checked;
+        /**
+         * The output of the response bytes.
+         * */
+        private OutputStream output;
+        /**
+         * The deflater, or null if the response is stored as is.
+         * */
+        private Deflater deflater;
+        /**
+         * Id of the dictionary the response is deflated with, 0 if none.
+         * */
+        private int dictionaryId;
+        /**
+         * Number of response bytes written.
+         * */
+        private long rawLength;
+        /**
+         * Specifies if the spool was finished.
+         * */
+        private boolean finished;
+        /**
+         * Specifies if a write failed, so the spool must not be stored.
+         * */
+        private boolean failed;
+
+        /**
+         * Class constructor.
+         * @param level The deflate level, 0 to store the response as is.
+         * @param dictionaryIdValue Id of the dictionary, 0 if none.
+         * @param dictionary The dictionary. It can be null.
+         * @throws IOException When the temporary file can not be created.
+         * */
+        Spool(final int level, final int dictionaryIdValue,
+                final byte[] dictionary) throws IOException {
+            this.file = File.createTempFile("jella-", ".spool");
+            this.fileOutput = new BufferedOutputStream(
+                    new FileOutputStream(this.file), CacheEntry.BUFFER_SIZE);
+            this.crc = new CRC32();
+            this.checked = new CheckedOutputStream(this.fileOutput, this.crc);
+            this.output = this.checked;
+            if (level != 0) {
+                this.deflater = new Deflater(level, true);
+                if (dictionary != null) {
+                    this.dictionaryId = dictionaryIdValue;
+                    this.deflater.setDictionary(dictionary);
+                }
+                this.output = new DeflaterOutputStream(this.checked,
+                        this.deflater, CacheEntry.BUFFER_SIZE);
+            }
+        }
+
+        /**
+         * @param b A response byte.
+         * */
+        public void write(final int b) {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * @param b The response bytes.
+         * @param off Offset of the first byte.
+         * @param len Number of bytes.
+         * */
+        public void write(final byte[] b, final int off, final int len) {
+            if (this.failed) {
+                return;
+            }
+            try {
+                this.output.write(b, off, len);
+                this.rawLength += len;
+            } catch (IOException e) {
+                // the download goes on, only its copy is dropped
+                this.failed = true;
+            }
+        }
+
+        /**
+         * Completes the stored response and closes the file.
+         * @throws IOException When the spool can not be written.
+         * */
+        void finish() throws IOException {
+            if (this.finished) {
+                if (this.failed) {
+                    throw new IOException("Spool not written");
+                }
+                return;
+            }
+            this.finished = true;
+            try {
+                if (this.deflater != null) {
+                    ((DeflaterOutputStream) this.output).finish();
+                    // the same padding byte as encode
+                    this.checked.write(0);
+                }
+                this.checked.flush();
+            } finally {
+                if (this.deflater != null) {
+                    this.deflater.end();
+                }
+                this.fileOutput.close();
+            }
+            if (this.failed) {
+                throw new IOException("Spool not written");
+            }
+        }
+
+        /**
+         * @return A stream over the stored response.
+         * @throws IOException When the file can not be opened.
+         * */
+        InputStream open() throws IOException {
+            return new FileInputStream(this.file);
+        }
+
+        /**
+         * @return Number of response bytes written.
+         * */
+        long getRawLength() {
+            return this.rawLength;
+        }
+
+        /**
+         * @return Number of stored bytes.
+         * */
+        long getStoredLength() {
+            return this.file.length();
+        }
+
+        /**
+         * Closes and deletes the temporary file.
+         * */
+        public void close() {
+            try {
+                this.finish();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            this.file.delete();
+        }
+    }
+
+    /**
+     * Java Class Checked.
+     * Reads a stored response up to its length and checks its CRC-32 once
+     * the last byte is read.
+     * */
+    private static final class Checked extends FilterInputStream {
+        /**
+         * Number of bytes left to read.
+         * */
+        private int remaining;
+        /**
+         * The expected CRC-32.
+         * */
+        private int checksum;
+        /**
+         * The CRC-32 of the bytes read.
+         * */
+        private CRC32 crc;
+
+        /**
+         * Class constructor.
+         * @param input The stored response.
+         * @param length Number of bytes of the response.
+         * @param checksumValue The expected CRC-32.
+         * @throws IOException When the response is empty and does not
+         * match the checksum.
+         * */
+        Checked(final InputStream input, final int length,
+                final int checksumValue) throws IOException {
+            super(input);
+            this.remaining = length;
+            this.checksum = checksumValue;
+            this.crc = new CRC32();
+            this.verify();
+        }
+
+        /**
+         * @return The next byte or -1 at the end of the response.
+         * @throws IOException When the response is truncated or does not
+         * match its checksum.
+         * */
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int count = this.read(one, 0, 1);
+            if (count == -1) {
+                return -1;
+            }
+            return one[0] & 0xFF;
+        }
+
+        /**
+         * @param buffer The buffer where the data is stored.
+         * @param offset The start offset in the buffer.
+         * @param length The max number of bytes to read.
+         * @return The number of bytes read or -1 at the end of the
+         * response.
+         * @throws IOException When the response is truncated or does not
+         * match its checksum.
+         * */
+        public int read(final byte[] buffer, final int offset,
+                final int length) throws IOException {
+            if (this.remaining == 0) {
+                return -1;
+            } else if (length == 0) {
+                return 0;
+            }
+            int count = this.in.read(buffer, offset,
+                    Math.min(length, this.remaining));
+            if (count == -1) {
+                throw new IOException("Truncated cache entry");
+            }
+            this.crc.update(buffer, offset, count);
+            this.remaining -= count;
+            this.verify();
+            return count;
+        }
+
+        /**
+         * @param n The number of bytes to skip.
+         * @return The number of bytes skipped.
+         * @throws IOException When the response is truncated or does not
+         * match its checksum.
+         * */
+        public long skip(final long n) throws IOException {
+            byte[] buffer = new byte[CacheEntry.BUFFER_SIZE];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = this.read(buffer, 0,
+                        (int) Math.min(buffer.length, n - skipped));
+                if (count == -1) {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        /**
+         * @return The number of bytes that can be read without blocking.
+         * @throws IOException When the stream is closed.
+         * */
+        public int available() throws IOException {
+            return Math.min(this.in.available(), this.remaining);
+        }
+
+        /**
+         * @return False, the stream can not be reset.
+         * */
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Checks the CRC-32 once the whole response is read.
+         * @throws IOException When the response does not match its
+         * checksum.
+         * */
+        private void verify() throws IOException {
+            if (this.remaining == 0
+                    && (int) this.crc.getValue() != this.checksum) {
+                throw new IOException("Corrupt cache entry");
+            }
+        }
+    }
+
+    /**
+     * Java Class Inflating.
+     * Inflates a stored response and records the time spent inflating
+     * it when it is closed.
+     * */
+    private static final class Inflating extends InflaterInputStream {
+        /**
+         * The cache that records the decode time.
+         * */
+        private ResponseCache responseCache;
+        /**
+         * Nanoseconds spent inflating.
+         * */
+        private long nanos;
+        /**
+         * Specifies if the stream is closed.
+         * */
+        private boolean closed;
+        /**
+         * Specifies if the deflated response is read to its end.
+         * */
+        private boolean drained;
+
+        /**
+         * Class constructor.
+         * @param input The deflated response.
+         * @param dictionary The preset dictionary. It can be null.
+         * @param responseCacheValue The cache that records the decode
+         * time.
+         * */
+        Inflating(final InputStream input, final byte[] dictionary,
+                final ResponseCache responseCacheValue) {
+            super(input, new Inflater(true), CacheEntry.BUFFER_SIZE);
+            if (dictionary != null) {
+                this.inf.setDictionary(dictionary);
+            }
+            this.responseCache = responseCacheValue;
+        }
+
+        /**
+         * @param buffer The buffer where the data is stored.
+         * @param offset The start offset in the buffer.
+         * @param length The max number of bytes to read.
+         * @return The number of bytes read or -1 at the end of the stream.
+         * @throws IOException When the response can not be inflated, or
+         * the deflated response is truncated or corrupt.
+         * */
+        public int read(final byte[] buffer, final int offset,
+                final int length) throws IOException {
+            long start = System.nanoTime();
+            int count;
+            try {
+                count = super.read(buffer, offset, length);
+            } finally {
+                this.nanos += System.nanoTime() - start;
+            }
+            if (count == -1 && !this.drained) {
+                // the inflater can finish before the last stored bytes,
+                // which are read so the response is checked
+                this.drained = true;
+                byte[] rest = new byte[CacheEntry.BUFFER_SIZE];
+                while (this.in.read(rest) != -1) {
+                    continue;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Releases the inflater and records the decode time.
+         * @throws IOException When the stream can not be closed.
+         * */
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                super.close();
+            } finally {
+                this.inf.end();
+                this.responseCache.recordDecode(this.nanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.bmat.ella;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Java Class CacheKey.
+ * Builds request keys with a 128-bit non-cryptographic hash, MurmurHash3
+ * x64 128, fed with the characters of the method, the collection and the
+ * sorted parameters, so no intermediate String is built. Every value is
+ * preceded by its length, so different requests do not feed the same
+ * characters. The key is the hash as 32 lowercase hex digits.
+ * @author Harrington Joseph (Harph)
+ * */
+final class CacheKey {
+    /**
+     * Number of characters of a key.
+     * */
+    static final int LENGTH = 32;
+    /**
+     * First MurmurHash3 multiplier.
+     * */
+    private static final long C1 = 0x87C37B91114253D5L;
+    /**
+     * Second MurmurHash3 multiplier.
+     * */
+    private static final long C2 = 0x4CF5AD432745937FL;
+    /**
+     * Number of characters of a block.
+     * */
+    private static final int BLOCK_CHARS = 8;
+    /**
+     * Number of characters of each half of a block.
+     * */
+    private static final int HALF_CHARS = 4;
+    /**
+     * Length fed for a null value.
+     * */
+    private static final int NULL_LENGTH = -1;
+    /**
+     * Hex digits.
+     * */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /**
+     * First half of the hash state.
+     * */
+    private long h1;
+    /**
+     * Second half of the hash state.
+     * */
+    private long h2;
+    /**
+     * First half of the pending block.
+     * */
+    private long k1;
+    /**
+     * Second half of the pending block.
+     * */
+    private long k2;
+    /**
+     * Number of characters of the pending block.
+     * */
+    private int pending;
+    /**
+     * Number of characters fed.
+     * */
+    private long length;
+
+    /**
+     * Class constructor.
+     * */
+    private CacheKey() {
+    }
+
+    /**
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection. It can be null.
+     * @param params request parameters. It can be null.
+     * @return The request key.
+     * */
+    static String of(final String method, final String collection,
+            final Map<String, String> params) {
+        CacheKey key = new CacheKey();
+        if (collection != null && collection.length() > 0) {
+            key.update(collection);
+        } else {
+            key.update(null);
+        }
+        key.update(method);
+        if (params != null) {
+            String[] names = params.keySet().toArray(
+                    new String[params.size()]);
+            Arrays.sort(names);
+            for (String name : names) {
+                key.update(name);
+                key.update(params.get(name));
+            }
+        }
+        key.finish();
+        return CacheKey.toHex(key.h1, key.h2);
+    }
+
+    /**
+     * @param value Any characters.
+     * @return The 128-bit hash of the characters, as two longs.
+     * */
+    static long[] hash(final CharSequence value) {
+        CacheKey key = new CacheKey();
+        for (int i = 0; i < value.length(); i++) {
+            key.update(value.charAt(i));
+        }
+        key.finish();
+        return new long[] {key.h1, key.h2};
+    }
+
+    /**
+     * Feeds the length and the characters of a value.
+     * @param value The value. It can be null.
+     * */
+    private void update(final String value) {
+        if (value == null) {
+            this.updateLength(CacheKey.NULL_LENGTH);
+            return;
+        }
+        this.updateLength(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            this.update(value.charAt(i));
+        }
+    }
+
+    /**
+     * Feeds a length as two characters.
+     * @param value The length.
+     * */
+    private void updateLength(final int value) {
+        this.update((char) (value >>> 16));
+        this.update((char) value);
+    }
+
+    /**
+     * Feeds a character, mixing every full block into the state.
+     * @param value The character.
+     * */
+    private void update(final char value) {
+        if (this.pending < CacheKey.HALF_CHARS) {
+            this.k1 |= (long) value << (16 * this.pending);
+        } else {
+            this.k2 |= (long) value << (16 * (this.pending
+                    - CacheKey.HALF_CHARS));
+        }
+        this.pending++;
+        this.length++;
+        if (this.pending == CacheKey.BLOCK_CHARS) {
+            this.h1 ^= CacheKey.mixK1(this.k1);
+            this.h1 = Long.rotateLeft(this.h1, 27) + this.h2;
+            this.h1 = this.h1 * 5 + 0x52DCE729;
+            this.h2 ^= CacheKey.mixK2(this.k2);
+            this.h2 = Long.rotateLeft(this.h2, 31) + this.h1;
+            this.h2 = this.h2 * 5 + 0x38495AB5;
+            this.k1 = 0;
+            this.k2 = 0;
+            this.pending = 0;
+        }
+    }
+
+    /**
+     * Mixes the pending characters and the length into the state.
+     * */
+    private void finish() {
+        this.h1 ^= CacheKey.mixK1(this.k1);
+        this.h2 ^= CacheKey.mixK2(this.k2);
+        this.h1 ^= this.length * 2;
+        this.h2 ^= this.length * 2;
+        this.h1 += this.h2;
+        this.h2 += this.h1;
+        this.h1 = CacheKey.fmix(this.h1);
+        this.h2 = CacheKey.fmix(this.h2);
+        this.h1 += this.h2;
+        this.h2 += this.h1;
+    }
+
+    /**
+     * @param k The first half of a block.
+     * @return The mixed half.
+     * */
+    private static long mixK1(final long k) {
+        return Long.rotateLeft(k * CacheKey.C1, 31) * CacheKey.C2;
+    }
+
+    /**
+     * @param k The second half of a block.
+     * @return The mixed half.
+     * */
+    private static long mixK2(final long k) {
+        return Long.rotateLeft(k * CacheKey.C2, 33) * CacheKey.C1;
+    }
+
+    /**
+     * @param value A 64-bit hash.
+     * @return The hash with its bits spread.
+     * */
+    private static long fmix(final long value) {
+        long mixed = value;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xFF51AFD7ED558CCDL;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return mixed ^ (mixed >>> 33);
+    }
+
+    /**
+     * @param high The first 64 bits.
+     * @param low The last 64 bits.
+     * @return The 128 bits as 32 lowercase hex digits.
+     * */
+    private static String toHex(final long high, final long low) {
+        char[] hex = new char[CacheKey.LENGTH];
+        for (int i = 0; i < CacheKey.LENGTH / 2; i++) {
+            int shift = 60 - 4 * i;
+            hex[i] = CacheKey.HEX[(int) (high >>> shift) & 0xF];
+            hex[i + CacheKey.LENGTH / 2] =
+                CacheKey.HEX[(int) (low >>> shift) & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,460 @@
+package com.bmat.ella;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Java Class CacheWarmer.
+ * Fills the cache of a request with the responses of a manifest of
+ * queries, for example the most frequent queries of the access log, so a
+ * new process does not send its first minutes of traffic to Ella WS. The
+ * queries run in the executor of the Ella connection, at most a given
+ * number at a time. The warmer is ready once a given fraction of the
+ * manifest is cached.
+ * <p>
+ * A manifest has a JSON object per line with the "method", the optional
+ * "collection" and the optional "params" object of a query. Empty lines
+ * and lines starting with # are skipped.
+ * </p>
+ * @author Harrington Joseph (Harph)
+ * */
+public class CacheWarmer {
+    /**
+     * Constant.
+     * Default max number of queries sent at a time.
+     * Default value 8.
+     * */
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+    /**
+     * Constant.
+     * Default fraction of the manifest that must be cached to be ready.
+     * Default value 0.9.
+     * */
+    public static final double DEFAULT_READY_FRACTION = 0.9;
+    /**
+     * The request whose cache is filled.
+     * */
+    private Request request;
+    /**
+     * Max number of queries sent at a time.
+     * */
+    private int maxConcurrency;
+    /**
+     * Fraction of the manifest that must be cached to be ready.
+     * */
+    private double readyFraction;
+    /**
+     * The receiver of the progress, or null.
+     * */
+    private volatile Listener listener;
+    /**
+     * The queries being warmed.
+     * */
+    private List<Query> queries = Collections.emptyList();
+    /**
+     * Index of the next query to send.
+     * */
+    private AtomicInteger next = new AtomicInteger();
+    /**
+     * Number of queries whose response is cached.
+     * */
+    private int warmed;
+    /**
+     * Number of queries that failed.
+     * */
+    private int failed;
+    /**
+     * Number of queries whose progress was reported.
+     * */
+    private int completed;
+    /**
+     * Specifies if the warm-up was started.
+     * */
+    private boolean started;
+    /**
+     * Specifies if the warm-up was cancelled.
+     * */
+    private volatile boolean cancelled;
+
+    /**
+     * Java Interface Listener.
+     * Receives the progress of a warm-up.
+     * */
+    public interface Listener {
+        /**
+         * Called after every query.
+         * @param query The query.
+         * @param error The failure of the query, or null if its response
+         * is cached.
+         * @param warmer The warmer, to read the progress.
+         * */
+        void progressed(Query query, Exception error, CacheWarmer warmer);
+    }
+
+    /**
+     * Class constructor.
+     * @param requestValue The request whose cache is filled. Its cache
+     * must be enabled.
+     * */
+    public CacheWarmer(final Request requestValue) {
+        this(requestValue, CacheWarmer.DEFAULT_MAX_CONCURRENCY,
+                CacheWarmer.DEFAULT_READY_FRACTION);
+    }
+
+    /**
+     * Class constructor.
+     * @param requestValue The request whose cache is filled. Its cache
+     * must be enabled.
+     * @param maxConcurrencyValue Max number of queries sent at a time.
+     * @param readyFractionValue Fraction, from 0 to 1, of the manifest
+     * that must be cached to be ready.
+     * */
+    public CacheWarmer(final Request requestValue,
+            final int maxConcurrencyValue, final double readyFractionValue) {
+        if (!requestValue.isCacheEnable()) {
+            throw new IllegalArgumentException(
+                    "the request cache must be enabled");
+        } else if (maxConcurrencyValue < 1) {
+            throw new IllegalArgumentException(
+                    "maxConcurrency must be greater than 0");
+        } else if (readyFractionValue < 0 || readyFractionValue > 1) {
+            throw new IllegalArgumentException(
+                    "readyFraction must be between 0 and 1");
+        }
+        this.request = requestValue;
+        this.maxConcurrency = maxConcurrencyValue;
+        this.readyFraction = readyFractionValue;
+    }
+
+    /**
+     * Reads a manifest.
+     * @param reader The manifest. It is closed.
+     * @return The queries of the manifest, in order.
+     * @throws IOException When the manifest can not be read or a line is
+     * not a valid query.
+     * */
+    public static List<Query> readManifest(final Reader reader)
+    throws IOException {
+        ArrayList<Query> manifest = new ArrayList<Query>();
+        BufferedReader lines = new BufferedReader(reader);
+        JSONParser jsonParser = new JSONParser();
+        try {
+            String line;
+            int number = 0;
+            while ((line = lines.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    manifest.add(CacheWarmer.parseQuery(
+                            jsonParser.parse(line)));
+                } catch (ParseException e) {
+                    throw new IOException("Invalid manifest line " + number);
+                } catch (ClassCastException e) {
+                    throw new IOException("Invalid manifest line " + number);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid manifest line " + number
+                            + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            lines.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * @param value A parsed manifest line.
+     * @return The query of the line.
+     * */
+    private static Query parseQuery(final Object value) {
+        JSONObject line = (JSONObject) value;
+        HashMap<String, String> params = null;
+        JSONObject lineParams = (JSONObject) line.get("params");
+        if (lineParams != null) {
+            params = new HashMap<String, String>();
+            for (Object param : lineParams.entrySet()) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) param;
+                params.put(String.valueOf(entry.getKey()),
+                        String.valueOf(entry.getValue()));
+            }
+        }
+        return new Query((String) line.get("method"),
+                (String) line.get("collection"), params);
+    }
+
+    /**
+     * Starts warming the cache in the executor of the Ella connection
+     * and returns at once.
+     * @param manifest The queries to warm.
+     * */
+    public final void start(final List<Query> manifest) {
+        synchronized (this) {
+            if (this.started) {
+                throw new IllegalStateException("already started");
+            }
+            this.started = true;
+            this.queries = new ArrayList<Query>(manifest);
+        }
+        int workers = Math.min(this.maxConcurrency, this.queries.size());
+        for (int i = 0; i < workers; i++) {
+            this.request.getEllaConnection().getExecutor().execute(
+                    new Runnable() {
+                        public void run() {
+                            work();
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Warms the cache and waits until the whole manifest was sent.
+     * @param manifest The queries to warm.
+     * @return True if the warmer is ready.
+     * @throws InterruptedException When the thread is interrupted while
+     * it waits.
+     * */
+    public final boolean warm(final List<Query> manifest)
+    throws InterruptedException {
+        this.start(manifest);
+        synchronized (this) {
+            while (!this.isDone()) {
+                this.wait();
+            }
+        }
+        return this.isReady();
+    }
+
+    /**
+     * Sends queries until the manifest is exhausted or the warm-up is
+     * cancelled.
+     * */
+    private void work() {
+        int index;
+        while (!this.cancelled
+                && (index = this.next.getAndIncrement())
+                < this.queries.size()) {
+            Query query = this.queries.get(index);
+            Exception error = null;
+            try {
+                this.request.execute(query.getMethod(),
+                        query.getCollection(), query.getParams(), true);
+            } catch (ServiceException e) {
+                // the error is warmed only if it is cached and answered
+                // like any response
+                if (this.request.getResponseCache().getErrorTimeToLive()
+                        == 0) {
+                    error = e;
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            synchronized (this) {
+                if (error == null) {
+                    this.warmed++;
+                } else {
+                    this.failed++;
+                }
+                this.notifyAll();
+            }
+            try {
+                Listener current = this.listener;
+                if (current != null) {
+                    current.progressed(query, error, this);
+                }
+            } finally {
+                synchronized (this) {
+                    this.completed++;
+                    this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops sending queries. The queries being sent are completed.
+     * */
+    public final void cancel() {
+        this.cancelled = true;
+        synchronized (this) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the warmer is ready or the whole manifest was sent.
+     * @param timeout Max time to wait.
+     * @param unit The unit of the timeout.
+     * @return True if the warmer is ready.
+     * @throws InterruptedException When the thread is interrupted while
+     * it waits.
+     * */
+    public final synchronized boolean awaitReady(final long timeout,
+            final TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!this.isReady() && !this.isDone()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return this.isReady();
+    }
+
+    /**
+     * @return True if the warm-up was started and the cached fraction of
+     * the manifest reached the ready fraction.
+     * */
+    public final synchronized boolean isReady() {
+        return this.started
+            && this.warmed >= Math.ceil(this.readyFraction
+                    * this.queries.size());
+    }
+
+    /**
+     * @return True if every query was sent and reported, or the warm-up
+     * was cancelled and no query is being sent.
+     * */
+    public final synchronized boolean isDone() {
+        return this.started && (this.completed == this.queries.size()
+                || (this.cancelled && this.completed
+                        >= Math.min(this.next.get(), this.queries.size())));
+    }
+
+    /**
+     * @return Fraction, from 0 to 1, of the manifest that was sent.
+     * */
+    public final synchronized double getProgress() {
+        if (this.queries.isEmpty()) {
+            return 1;
+        }
+        return (double) (this.warmed + this.failed) / this.queries.size();
+    }
+
+    /**
+     * @return Number of queries whose response is cached. Ella WS errors
+     * count as cached, as they are answered from the cache too, unless
+     * the cache does not keep errors.
+     * */
+    public final synchronized int getWarmed() {
+        return this.warmed;
+    }
+
+    /**
+     * @return Number of queries that failed.
+     * */
+    public final synchronized int getFailed() {
+        return this.failed;
+    }
+
+    /**
+     * @return Number of queries of the manifest.
+     * */
+    public final synchronized int getTotal() {
+        return this.queries.size();
+    }
+
+    /**
+     * @return Fraction of the manifest that must be cached to be ready.
+     * */
+    public final double getReadyFraction() {
+        return this.readyFraction;
+    }
+
+    /**
+     * @return Max number of queries sent at a time.
+     * */
+    public final int getMaxConcurrency() {
+        return this.maxConcurrency;
+    }
+
+    /**
+     * @return The receiver of the progress, or null.
+     * */
+    public final Listener getListener() {
+        return this.listener;
+    }
+
+    /**
+     * @param listenerValue The receiver of the progress. It can be null.
+     * */
+    public final void setListener(final Listener listenerValue) {
+        this.listener = listenerValue;
+    }
+
+    /**
+     * Java Class Query.
+     * A query of a warm-up manifest.
+     * */
+    public static final class Query {
+        /**
+         * Type of search that will be executed.
+         * */
+        private String method;
+        /**
+         * Name of the queried collection, or null.
+         * */
+        private String collection;
+        /**
+         * Request parameters, or null.
+         * */
+        private HashMap<String, String> params;
+
+        /**
+         * Class constructor.
+         * @param methodValue type of search that will be executed.
+         * @param collectionValue name of the queried collection. It can
+         * be null.
+         * @param paramsValue request parameters. It can be null.
+         * */
+        public Query(final String methodValue, final String collectionValue,
+                final Map<String, String> paramsValue) {
+            if (methodValue == null) {
+                throw new IllegalArgumentException("method is required");
+            }
+            this.method = methodValue;
+            this.collection = collectionValue;
+            if (paramsValue != null) {
+                this.params = new HashMap<String, String>(paramsValue);
+            }
+        }
+
+        /**
+         * @return type of search that will be executed.
+         * */
+        public String getMethod() {
+            return this.method;
+        }
+
+        /**
+         * @return name of the queried collection, or null.
+         * */
+        public String getCollection() {
+            return this.collection;
+        }
+
+        /**
+         * @return request parameters, or null.
+         * */
+        public HashMap<String, String> getParams() {
+            return this.params;
+        }
+    }
+}
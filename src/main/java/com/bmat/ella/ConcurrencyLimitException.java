@@ -0,0 +1,39 @@
+package com.bmat.ella;
+
+import java.io.IOException;
+
+/**
+ * Java Class ConcurrencyLimitException.
+ * Thrown when a request is shed because the concurrency limit of the
+ * Ella connection is reached and its queue is full or the wait in the
+ * queue timed out.
+ * @author Harrington Joseph (Harph)
+ * */
+public class ConcurrencyLimitException extends IOException {
+    /**
+     * Serialize version ID.
+     * */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The concurrency limit when the request was shed.
+     * */
+    private int limit;
+
+    /**
+     * Class constructor.
+     * @param message The reason the request was shed.
+     * @param limitValue The concurrency limit when the request was shed.
+     * */
+    public ConcurrencyLimitException(final String message,
+            final int limitValue) {
+        super(message);
+        this.limit = limitValue;
+    }
+
+    /**
+     * @return The concurrency limit when the request was shed.
+     * */
+    public final int getLimit() {
+        return this.limit;
+    }
+}
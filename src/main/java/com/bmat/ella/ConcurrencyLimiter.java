@@ -0,0 +1,252 @@
+package com.bmat.ella;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java Class ConcurrencyLimiter.
+ * Adaptive limit of the requests in flight to Ella WS. The limit grows
+ * additively while the requests answer close to the no-load latency and
+ * shrinks multiplicatively when they fail or their latency exceeds it by
+ * the tolerance (AIMD). Requests over the limit wait in a bounded queue
+ * and are shed with a ConcurrencyLimitException when it is full or the
+ * wait times out.
+ * @author Harrington Joseph (Harph)
+ * */
+public class ConcurrencyLimiter {
+    /**
+     * Constant.
+     * Default initial limit.
+     * Default value 20.
+     * */
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    /**
+     * Constant.
+     * Default min limit.
+     * Default value 1.
+     * */
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    /**
+     * Constant.
+     * Default max limit.
+     * Default value 200.
+     * */
+    public static final int DEFAULT_MAX_LIMIT = 200;
+    /**
+     * Constant.
+     * Default max number of queued requests.
+     * Default value 100.
+     * */
+    public static final int DEFAULT_MAX_QUEUE = 100;
+    /**
+     * Constant.
+     * Default max wait, in milliseconds, in the queue.
+     * Default value 1000.
+     * */
+    public static final long DEFAULT_QUEUE_TIMEOUT = 1000;
+    /**
+     * Factor applied to the limit on congestion.
+     * */
+    private static final double BACKOFF_RATIO = 0.9;
+    /**
+     * Latency, relative to the no-load latency, considered congestion.
+     * */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    /**
+     * Weight of a new latency in the no-load latency when it is higher.
+     * */
+    private static final double BASELINE_DRIFT = 0.01;
+    /**
+     * The current limit.
+     * */
+    private double limit;
+    /**
+     * Min limit.
+     * */
+    private int minLimit;
+    /**
+     * Max limit.
+     * */
+    private int maxLimit;
+    /**
+     * Max number of queued requests.
+     * */
+    private int maxQueue;
+    /**
+     * Max wait, in milliseconds, in the queue.
+     * */
+    private long queueTimeout;
+    /**
+     * Number of requests in flight.
+     * */
+    private int inFlight;
+    /**
+     * Number of requests in the queue.
+     * */
+    private int queueDepth;
+    /**
+     * Number of requests shed.
+     * */
+    private long rejectedCount;
+    /**
+     * Estimated no-load latency in milliseconds, or -1 before the first
+     * sample.
+     * */
+    private double baseline = -1;
+    /**
+     * A System.nanoTime value taken on the last decrease of the limit.
+     * */
+    private long lastDecrease;
+
+    /**
+     * Class constructor.
+     * */
+    public ConcurrencyLimiter() {
+        this(ConcurrencyLimiter.DEFAULT_INITIAL_LIMIT,
+                ConcurrencyLimiter.DEFAULT_MIN_LIMIT,
+                ConcurrencyLimiter.DEFAULT_MAX_LIMIT,
+                ConcurrencyLimiter.DEFAULT_MAX_QUEUE,
+                ConcurrencyLimiter.DEFAULT_QUEUE_TIMEOUT);
+    }
+
+    /**
+     * Class constructor.
+     * @param initialLimit Initial limit.
+     * @param minLimitValue Min limit.
+     * @param maxLimitValue Max limit.
+     * @param maxQueueValue Max number of queued requests. 0 sheds every
+     * request over the limit.
+     * @param queueTimeoutValue Max wait, in milliseconds, in the queue.
+     * */
+    public ConcurrencyLimiter(final int initialLimit, final int minLimitValue,
+            final int maxLimitValue, final int maxQueueValue,
+            final long queueTimeoutValue) {
+        if (minLimitValue < 1 || minLimitValue > maxLimitValue
+                || initialLimit < minLimitValue
+                || initialLimit > maxLimitValue) {
+            throw new IllegalArgumentException(
+                    "limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimitValue;
+        this.maxLimit = maxLimitValue;
+        this.maxQueue = maxQueueValue;
+        this.queueTimeout = queueTimeoutValue;
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Waits until the request can be sent.
+     * @param url The request URL.
+     * @throws ConcurrencyLimitException When the request is shed.
+     * @throws InterruptedIOException When the wait is interrupted.
+     * */
+    public final synchronized void acquire(final String url)
+    throws ConcurrencyLimitException, InterruptedIOException {
+        if (this.inFlight < (int) this.limit) {
+            this.inFlight++;
+            return;
+        }
+        if (this.queueDepth >= this.maxQueue) {
+            this.rejectedCount++;
+            throw new ConcurrencyLimitException("Concurrency limit "
+                    + (int) this.limit + " reached and queue full: " + url,
+                    (int) this.limit);
+        }
+        this.queueDepth++;
+        try {
+            long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(this.queueTimeout);
+            while (this.inFlight >= (int) this.limit) {
+                long wait = TimeUnit.NANOSECONDS.toMillis(
+                        deadline - System.nanoTime());
+                if (wait <= 0) {
+                    this.rejectedCount++;
+                    throw new ConcurrencyLimitException("Concurrency limit "
+                            + (int) this.limit + " reached, queued for "
+                            + this.queueTimeout + " ms: " + url,
+                            (int) this.limit);
+                }
+                this.wait(wait);
+            }
+            this.inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for "
+                    + url);
+        } finally {
+            this.queueDepth--;
+        }
+    }
+
+    /**
+     * Ends a request and adapts the limit to its outcome.
+     * @param latency Time, in milliseconds, the request was in flight.
+     * @param dropped True if the request failed in a way that suggests
+     * Ella WS is overloaded.
+     * */
+    public final synchronized void release(final long latency,
+            final boolean dropped) {
+        this.inFlight--;
+        if (!dropped) {
+            if (this.baseline < 0 || latency < this.baseline) {
+                this.baseline = latency;
+            } else {
+                this.baseline += (latency - this.baseline)
+                    * ConcurrencyLimiter.BASELINE_DRIFT;
+            }
+        }
+        boolean congested = dropped || latency
+            > Math.max(this.baseline, 1)
+            * ConcurrencyLimiter.LATENCY_TOLERANCE;
+        long now = System.nanoTime();
+        if (congested) {
+            if (TimeUnit.NANOSECONDS.toMillis(now - this.lastDecrease)
+                    >= latency) {
+                this.limit = Math.max(this.minLimit,
+                        this.limit * ConcurrencyLimiter.BACKOFF_RATIO);
+                this.lastDecrease = now;
+            }
+        } else if (this.inFlight + 1 >= this.limit / 2) {
+            this.limit = Math.min(this.maxLimit,
+                    this.limit + 1 / this.limit);
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * @return The current limit.
+     * */
+    public final synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    /**
+     * @return Number of requests in flight.
+     * */
+    public final synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    /**
+     * @return Number of requests waiting in the queue.
+     * */
+    public final synchronized int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    /**
+     * @return Number of requests shed.
+     * */
+    public final synchronized long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    /**
+     * @return Estimated no-load latency in milliseconds, or -1 before the
+     * first request.
+     * */
+    public final synchronized long getBaselineLatency() {
+        return Math.round(this.baseline);
+    }
+}
@@ -0,0 +1,79 @@
+package com.bmat.ella;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Java Class CountingInputStream.
+ * Counts the bytes read from the underlying stream.
+ * @author Harrington Joseph (Harph)
+ * */
+final class CountingInputStream extends FilterInputStream {
+    /**
+     * Number of bytes read.
+     * */
+    private long count;
+
+    /**
+     * Class constructor.
+     * @param input The underlying stream.
+     * */
+    CountingInputStream(final InputStream input) {
+        super(input);
+    }
+
+    /**
+     * @return The next byte or -1 at the end of the stream.
+     * @throws IOException When the stream can not be read.
+     * */
+    public int read() throws IOException {
+        int value = super.read();
+        if (value != -1) {
+            this.count++;
+        }
+        return value;
+    }
+
+    /**
+     * @param buffer The buffer where the data is stored.
+     * @param offset The start offset in the buffer.
+     * @param length The max number of bytes to read.
+     * @return The number of bytes read or -1 at the end of the stream.
+     * @throws IOException When the stream can not be read.
+     * */
+    public int read(final byte[] buffer, final int offset, final int length)
+    throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            this.count += read;
+        }
+        return read;
+    }
+
+    /**
+     * @param n The number of bytes to skip.
+     * @return The number of bytes skipped.
+     * @throws IOException When the stream can not be read.
+     * */
+    public long skip(final long n) throws IOException {
+        long skipped = super.skip(n);
+        this.count += skipped;
+        return skipped;
+    }
+
+    /**
+     * Marks are not supported, so the count is never read twice.
+     * @return false.
+     * */
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * @return The number of bytes read.
+     * */
+    long getCount() {
+        return this.count;
+    }
+}
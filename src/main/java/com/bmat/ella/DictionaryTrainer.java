@@ -0,0 +1,136 @@
+package com.bmat.ella;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Java Class DictionaryTrainer.
+ * Builds a preset dictionary for Deflater from sample responses. It
+ * counts in how many samples each short substring appears and joins the
+ * most common ones, such as the field names and URL prefixes repeated by
+ * every response, overlapping consecutive substrings of the same text.
+ * @author Harrington Joseph (Harph)
+ * */
+final class DictionaryTrainer {
+    /**
+     * Constant.
+     * Max size of a Deflater dictionary, the size of its window.
+     * Default value 32768.
+     * */
+    static final int MAX_SIZE = 32 * 1024;
+    /**
+     * Length of the counted substrings.
+     * */
+    private static final int GRAM_LENGTH = 12;
+    /**
+     * Max number of sample bytes read from each sample.
+     * */
+    private static final int MAX_SAMPLE_BYTES = 16 * 1024;
+    /**
+     * Max number of sample bytes read in total.
+     * */
+    private static final int MAX_TOTAL_BYTES = 512 * 1024;
+
+    /**
+     * Class constructor.
+     * */
+    private DictionaryTrainer() {
+    }
+
+    /**
+     * @param samples The sample responses.
+     * @param size Max size of the dictionary.
+     * @return The dictionary, empty if the samples have nothing in common.
+     * The most common substrings come last, where Deflater finds them
+     * at the shortest distance.
+     * */
+    static byte[] train(final List<byte[]> samples, final int size) {
+        final HashMap<String, int[]> grams = new HashMap<String, int[]>();
+        int total = 0;
+        int sampleIndex = 0;
+        for (byte[] sample : samples) {
+            int length = Math.min(sample.length, Math.min(
+                    DictionaryTrainer.MAX_SAMPLE_BYTES,
+                    DictionaryTrainer.MAX_TOTAL_BYTES - total));
+            if (length < DictionaryTrainer.GRAM_LENGTH) {
+                continue;
+            }
+            int base = total;
+            total += length;
+            String text = new String(sample, 0, length,
+                    StandardCharsets.ISO_8859_1);
+            for (int i = 0; i + DictionaryTrainer.GRAM_LENGTH <= length; i++) {
+                String gram = text.substring(i,
+                        i + DictionaryTrainer.GRAM_LENGTH);
+                int[] stats = grams.get(gram);
+                if (stats == null) {
+                    grams.put(gram, new int[] {1, sampleIndex, base + i});
+                } else if (stats[1] != sampleIndex) {
+                    stats[0]++;
+                    stats[1] = sampleIndex;
+                }
+            }
+            sampleIndex++;
+        }
+        ArrayList<String> common = new ArrayList<String>();
+        for (Map.Entry<String, int[]> gram : grams.entrySet()) {
+            if (gram.getValue()[0] > 1) {
+                common.add(gram.getKey());
+            }
+        }
+        Collections.sort(common, new Comparator<String>() {
+            public int compare(final String first, final String second) {
+                int[] firstStats = grams.get(first);
+                int[] secondStats = grams.get(second);
+                if (firstStats[0] != secondStats[0]) {
+                    return secondStats[0] - firstStats[0];
+                }
+                return firstStats[2] - secondStats[2];
+            }
+        });
+        int limit = Math.min(size, DictionaryTrainer.MAX_SIZE);
+        int tail = DictionaryTrainer.GRAM_LENGTH - 1;
+        ArrayList<StringBuilder> pieces = new ArrayList<StringBuilder>();
+        HashSet<String> covered = new HashSet<String>();
+        StringBuilder piece = null;
+        int length = 0;
+        for (String gram : common) {
+            if (length >= limit) {
+                break;
+            } else if (covered.contains(gram)) {
+                continue;
+            }
+            int start;
+            if (piece != null && piece.substring(piece.length() - tail)
+                    .equals(gram.substring(0, tail))) {
+                start = piece.length();
+                piece.append(gram.charAt(tail));
+                length++;
+            } else {
+                piece = new StringBuilder(gram);
+                pieces.add(piece);
+                start = 0;
+                length += gram.length();
+            }
+            for (int end = Math.max(start + 1, DictionaryTrainer.GRAM_LENGTH);
+                    end <= piece.length(); end++) {
+                covered.add(piece.substring(
+                        end - DictionaryTrainer.GRAM_LENGTH, end));
+            }
+        }
+        StringBuilder dictionary = new StringBuilder(length);
+        for (int i = pieces.size() - 1; i >= 0; i--) {
+            dictionary.append(pieces.get(i));
+        }
+        if (dictionary.length() > limit) {
+            dictionary.delete(0, dictionary.length() - limit);
+        }
+        return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,74 @@
+package com.bmat.ella;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Java Interface DiskCache.
+ * Stores the cached responses on disk as opaque bytes by request key.
+ * Implementations must be safe for use by concurrent requests.
+ * @author Harrington Joseph (Harph)
+ * */
+public interface DiskCache extends Closeable {
+    /**
+     * @param key The request key.
+     * @return True if there is an entry for the key.
+     * */
+    boolean contains(String key);
+
+    /**
+     * @param key The request key.
+     * @return A stream over the entry bytes, or null if there is no entry.
+     * @throws IOException When the entry can not be read.
+     * */
+    InputStream get(String key) throws IOException;
+
+    /**
+     * Stores an entry, replacing the previous one of the key.
+     * @param key The request key.
+     * @param value The entry bytes.
+     * @throws IOException When the entry can not be written.
+     * */
+    void put(String key, byte[] value) throws IOException;
+
+    /**
+     * Stores an entry read from a stream, replacing the previous one of
+     * the key. Unless it is overridden, the entry is read into memory
+     * and stored with put(String, byte[]).
+     * @param key The request key.
+     * @param value A stream over the entry bytes. It is not closed.
+     * @param length Number of bytes of the entry.
+     * @throws IOException When the entry can not be read or written.
+     * */
+    default void put(String key, InputStream value, long length)
+    throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Entry too large: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        new DataInputStream(value).readFully(bytes);
+        this.put(key, bytes);
+    }
+
+    /**
+     * Removes the entry of a key, if any.
+     * @param key The request key.
+     * @throws IOException When the entry can not be removed.
+     * */
+    void remove(String key) throws IOException;
+
+    /**
+     * @param key The request key.
+     * @return Number of bytes of the entry, or -1 if there is no entry.
+     * */
+    long length(String key);
+
+    /**
+     * @return The keys of every entry.
+     * @throws IOException When the entries can not be listed.
+     * */
+    List<String> keys() throws IOException;
+}
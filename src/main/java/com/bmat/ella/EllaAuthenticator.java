@@ -6,7 +6,10 @@ import java.net.PasswordAuthentication;
  * Java Class EllaAuthenticator.
  * Represents an Ella authentication.
  * @author Harrington Joseph (Harph)
+ * @deprecated EllaConnection sends its credentials with every request
+ * and no longer installs a default Authenticator.
  * */
+@Deprecated
 public class EllaAuthenticator extends Authenticator {
     /**
      * A String that represents the username.
@@ -1,17 +1,107 @@
 
 package com.bmat.ella;
 
-import java.net.Authenticator;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Java Class EllaConnection.
  * Represents a Connection to Ella WS.
  * @author Harrington Joseph (Harph)
  * */
 public class EllaConnection {
+    /**
+     * Constant.
+     * Default time a batch of lazy loads waits for more entities, in
+     * milliseconds.
+     * Default value 2.
+     * */
+    public static final long DEFAULT_BATCH_WINDOW = 2;
+    /**
+     * Constant.
+     * Default max number of distinct entities of a batch of lazy loads.
+     * Default value 50.
+     * */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 50;
     /**
      * A String that contains the URL to Ella WS.
      * */
     private String ellaws;
+    /**
+     * Basic Authorization header sent with every request, or null.
+     * */
+    private String authorization;
+    /**
+     * Transport shared by every request made through this connection.
+     * */
+    private Transport transport;
+    /**
+     * Executor that runs the asynchronous requests.
+     * */
+    private Executor executor;
+    /**
+     * Default executor, created on demand and shut down on close.
+     * */
+    private ExecutorService defaultExecutor;
+    /**
+     * Specifies if the default executor runs on virtual threads.
+     * */
+    private boolean virtualExecutor;
+    /**
+     * Listener of the transfer statistics of every response.
+     * */
+    private volatile TransferListener transferListener;
+    /**
+     * Total number of body bytes received from the network.
+     * */
+    private AtomicLong wireBytes = new AtomicLong();
+    /**
+     * Total number of body bytes after decoding.
+     * */
+    private AtomicLong decodedBytes = new AtomicLong();
+    /**
+     * Identical requests in flight, shared by every request made through
+     * this connection.
+     * */
+    private SingleFlight singleFlight = new SingleFlight();
+    /**
+     * Resilience policy of the requests, or null for a single attempt
+     * without timeout.
+     * */
+    private volatile ResiliencePolicy resiliencePolicy;
+    /**
+     * Adaptive limit of the requests in flight, or null for no limit.
+     * */
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    /**
+     * Batcher of the lazy loads of the objects, or null if they are not
+     * batched.
+     * */
+    private volatile EntityBatcher entityBatcher;
+    /**
+     * Canonical instances of the entities of this connection.
+     * */
+    private IdentityMap identityMap = new IdentityMap();
+    /**
+     * Requests shared by the objects, by cache directory and cache
+     * switch.
+     * */
+    private ConcurrentHashMap<String, RequestContext> requests =
+        new ConcurrentHashMap<String, RequestContext>();
+    /**
+     * Response caches by cache directory.
+     * */
+    private ConcurrentHashMap<String, ResponseCache> responseCaches =
+        new ConcurrentHashMap<String, ResponseCache>();
 
     /**
      * Class constructor.
@@ -21,10 +111,29 @@ public class EllaConnection {
      * */
     public EllaConnection(final String ellawsURL,
             final String username, final String password) {
+        this(ellawsURL, username, password, new PooledTransport());
+    }
+
+    /**
+     * Class constructor.
+     * @param ellawsURL The URL to Ella WS.
+     * @param username A String that represents the username.
+     * @param password A String that represents the password.
+     * @param transportValue The transport used to send the requests.
+     * */
+    public EllaConnection(final String ellawsURL,
+            final String username, final String password,
+            final Transport transportValue) {
         this.ellaws = fixHostname(ellawsURL);
+        this.transport = transportValue;
         if (username != null && password != null) {
-            Authenticator.setDefault(new EllaAuthenticator(username,
-                    password));
+            try {
+                this.authorization = "Basic " + Base64.getEncoder()
+                .encodeToString((username + ":" + password)
+                        .getBytes("utf-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
         }
     }
 
@@ -50,4 +159,336 @@ public class EllaConnection {
     public final String getEllaws() {
         return this.ellaws;
     }
+
+    /**
+     * @return The Basic Authorization header sent with every request, or
+     * null if there are no credentials.
+     * */
+    final String getAuthorization() {
+        return this.authorization;
+    }
+
+    /**
+     * @return The transport used to send the requests.
+     * */
+    public final Transport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Sets the transport used to send the requests. The previous
+     * transport is not closed.
+     * @param transportValue The transport instance.
+     * */
+    public final void setTransport(final Transport transportValue) {
+        this.transport = transportValue;
+    }
+
+    /**
+     * @return The executor that runs the asynchronous requests. Unless
+     * one was set, it runs every task on a virtual thread when the JVM
+     * supports them, otherwise on a cached pool of daemon threads.
+     * */
+    public final synchronized Executor getExecutor() {
+        if (this.executor == null) {
+            this.defaultExecutor = EllaConnection.newVirtualThreadExecutor();
+            this.virtualExecutor = this.defaultExecutor != null;
+            if (!this.virtualExecutor) {
+                final AtomicInteger threadCount = new AtomicInteger();
+                this.defaultExecutor = Executors.newCachedThreadPool(
+                        new ThreadFactory() {
+                            public Thread newThread(final Runnable runnable) {
+                                Thread thread = new Thread(runnable,
+                                        "jella-async-"
+                                        + threadCount.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            }
+            this.executor = this.defaultExecutor;
+        }
+        return this.executor;
+    }
+
+    /**
+     * @return True if the executor is the default one and it runs every
+     * task on a virtual thread.
+     * */
+    final synchronized boolean isVirtualExecutor() {
+        return this.virtualExecutor && this.executor != null
+            && this.executor == this.defaultExecutor;
+    }
+
+    /**
+     * Creates a thread per task executor of virtual threads.
+     * @return The executor or null if the JVM has no virtual threads.
+     * */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder")
+            .getMethod("factory");
+            ThreadFactory threadFactory =
+                (ThreadFactory) factory.invoke(builder);
+            return (ExecutorService) Executors.class.getMethod(
+                    "newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the executor that runs the asynchronous requests. It is not
+     * shut down on close.
+     * @param executorValue The executor instance.
+     * */
+    public final synchronized void setExecutor(final Executor executorValue) {
+        this.executor = executorValue;
+    }
+
+    /**
+     * @return The listener of the transfer statistics of every response.
+     * */
+    public final TransferListener getTransferListener() {
+        return this.transferListener;
+    }
+
+    /**
+     * Sets the listener of the transfer statistics of every response.
+     * @param transferListenerValue The listener. It can be null.
+     * */
+    public final void setTransferListener(
+            final TransferListener transferListenerValue) {
+        this.transferListener = transferListenerValue;
+    }
+
+    /**
+     * @return Total number of body bytes received from the network.
+     * */
+    public final long getWireBytes() {
+        return this.wireBytes.get();
+    }
+
+    /**
+     * @return Total number of body bytes after decoding.
+     * */
+    public final long getDecodedBytes() {
+        return this.decodedBytes.get();
+    }
+
+    /**
+     * Adds the bytes of a response to the totals and reports them to
+     * the transfer listener.
+     * @param stats The bytes transferred by the request.
+     * */
+    final void recordTransfer(final TransferStats stats) {
+        this.wireBytes.addAndGet(stats.getWireBytes());
+        this.decodedBytes.addAndGet(stats.getDecodedBytes());
+        TransferListener listener = this.transferListener;
+        if (listener != null) {
+            listener.transferred(stats);
+        }
+    }
+
+    /**
+     * @return The resilience policy of the requests, or null for a single
+     * attempt without timeout.
+     * */
+    public final ResiliencePolicy getResiliencePolicy() {
+        return this.resiliencePolicy;
+    }
+
+    /**
+     * Sets the resilience policy of the requests. A request can override
+     * it with its own.
+     * @param resiliencePolicyValue The policy. It can be null.
+     * */
+    public final void setResiliencePolicy(
+            final ResiliencePolicy resiliencePolicyValue) {
+        this.resiliencePolicy = resiliencePolicyValue;
+    }
+
+    /**
+     * @return The adaptive limit of the requests in flight, or null for
+     * no limit.
+     * */
+    public final ConcurrencyLimiter getConcurrencyLimiter() {
+        return this.concurrencyLimiter;
+    }
+
+    /**
+     * Sets the adaptive limit of the requests in flight.
+     * @param concurrencyLimiterValue The limiter. It can be null.
+     * */
+    public final void setConcurrencyLimiter(
+            final ConcurrencyLimiter concurrencyLimiterValue) {
+        this.concurrencyLimiter = concurrencyLimiterValue;
+    }
+
+    /**
+     * @param directory A cache directory.
+     * @return The response cache of the directory, shared by every
+     * request made through this connection.
+     * */
+    public final ResponseCache getResponseCache(final String directory) {
+        ResponseCache responseCache = this.responseCaches.get(directory);
+        if (responseCache == null) {
+            ResponseCache created = new ResponseCache(directory);
+            responseCache = this.responseCaches.putIfAbsent(directory,
+                    created);
+            if (responseCache == null) {
+                responseCache = created;
+            }
+        }
+        return responseCache;
+    }
+
+    /**
+     * Batches the lazy loads of the objects of this connection: the
+     * getters that need the JSON representation of their object during
+     * a short window are collected per entity type and collection and
+     * loaded together, with a single request per distinct entity. The
+     * getters of a single thread, that can not be batched, wait for the
+     * window only the first time.
+     * @param windowValue Time a batch waits for more entities, in
+     * milliseconds.
+     * @param maxBatchSizeValue Max number of distinct entities of a
+     * batch. A full batch is sent at once.
+     * */
+    public final synchronized void setAutoBatching(final long windowValue,
+            final int maxBatchSizeValue) {
+        EntityBatcher created = new EntityBatcher(this, windowValue,
+                maxBatchSizeValue);
+        this.disableAutoBatching();
+        this.entityBatcher = created;
+    }
+
+    /**
+     * Stops batching the lazy loads. The pending batches are sent.
+     * */
+    public final synchronized void disableAutoBatching() {
+        EntityBatcher current = this.entityBatcher;
+        this.entityBatcher = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * @return True if the lazy loads of the objects are batched.
+     * */
+    public final boolean isAutoBatching() {
+        return this.entityBatcher != null;
+    }
+
+    /**
+     * @return Number of batches of lazy loads sent by the current batcher,
+     * or 0 if they are not batched.
+     * */
+    public final long getBatchCount() {
+        EntityBatcher current = this.entityBatcher;
+        if (current == null) {
+            return 0;
+        }
+        return current.getBatchCount();
+    }
+
+    /**
+     * @return The batcher of the lazy loads, or null if they are not
+     * batched.
+     * */
+    final EntityBatcher getEntityBatcher() {
+        return this.entityBatcher;
+    }
+
+    /**
+     * Returns the canonical instance of the entity of an object, so the
+     * objects that reference the same entity share one instance and its
+     * JSON representation is requested once. Instances nobody references
+     * are dropped. The object must be filled before: an instance that is
+     * already canonical is returned unchanged, as other threads may be
+     * reading it, and the object is dropped.
+     * @param <T> The type of the object.
+     * @param object An object just created and filled.
+     * @return The canonical instance with the collection, entity type and
+     * id of the object, which is the object itself if there was none.
+     * */
+    public final <T extends BaseObject> T canonical(final T object) {
+        return this.identityMap.canonical(object);
+    }
+
+    /**
+     * @return Number of canonical instances still referenced.
+     * */
+    public final int getCanonicalCount() {
+        return this.identityMap.size();
+    }
+
+    /**
+     * @param directory A cache directory.
+     * @param cacheEnable A boolean that says if the cache is
+     * enabled or not.
+     * @return The request shared by every object of this connection with
+     * the same cache directory and cache switch. It can not be changed,
+     * so the objects share one instead of creating one each.
+     * */
+    final RequestContext getRequest(final String directory,
+            final boolean cacheEnable) {
+        String key = cacheEnable + " " + directory;
+        RequestContext shared = this.requests.get(key);
+        if (shared == null) {
+            RequestContext created = new RequestContext(this, directory,
+                    cacheEnable);
+            shared = this.requests.putIfAbsent(key, created);
+            if (shared == null) {
+                shared = created;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @return Number of requests that waited for an identical request
+     * already in flight instead of being sent.
+     * */
+    public final long getCollapsedRequests() {
+        return this.singleFlight.getCollapsedCount();
+    }
+
+    /**
+     * @return The identical requests in flight.
+     * */
+    final SingleFlight getSingleFlight() {
+        return this.singleFlight;
+    }
+
+    /**
+     * Sends the pending batches of lazy loads, releases the connections
+     * held by the transport, closes the disk tier of the response caches
+     * and stops the default executor.
+     * */
+    public final void close() {
+        this.disableAutoBatching();
+        this.transport.close();
+        for (ResponseCache responseCache : this.responseCaches.values()) {
+            try {
+                responseCache.close();
+            } catch (IOException e) {
+                // the entries already written are kept
+            }
+        }
+        this.responseCaches.clear();
+        this.identityMap.clear();
+        synchronized (this) {
+            if (this.defaultExecutor != null) {
+                this.defaultExecutor.shutdown();
+                if (this.executor == this.defaultExecutor) {
+                    this.executor = null;
+                }
+                this.defaultExecutor = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,291 @@
+package com.bmat.ella;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Java Class EntityBatcher.
+ * Collects the JSON representations requested by the getters of many
+ * objects during a short window, per entity type and collection, and
+ * loads them together. Identical entities share a single request and the
+ * requests of a batch run concurrently in the executor of the Ella
+ * connection, as Ella WS has no request for many ids. A batch is sent
+ * when its window ends or when it holds the max number of entities. A
+ * load is sent at once, without a window, when no other load is waiting
+ * and the last batch held a single load, as in a loop of a single
+ * thread, where no other load could join its batch.
+ * @author Harrington Joseph (Harph)
+ * */
+final class EntityBatcher {
+    /**
+     * The connection whose executor sends the requests.
+     * */
+    private EllaConnection ellaConnection;
+    /**
+     * Time a batch waits for more entities, in milliseconds.
+     * */
+    private long window;
+    /**
+     * Max number of distinct entities of a batch.
+     * */
+    private int maxBatchSize;
+    /**
+     * The batches waiting for their window to end, by entity type and
+     * collection.
+     * */
+    private HashMap<String, Batch> pending;
+    /**
+     * The timer that ends the windows.
+     * */
+    private ScheduledExecutorService timer;
+    /**
+     * Number of batches sent.
+     * */
+    private AtomicLong batches;
+    /**
+     * Number of getters whose load joined a batch.
+     * */
+    private AtomicLong loads;
+    /**
+     * Number of loads added to a batch and not completed yet.
+     * */
+    private AtomicInteger waiting;
+    /**
+     * Specifies if the last batch sent held more than one load. It is
+     * true until a batch is sent, so the first loads wait for others.
+     * */
+    private volatile boolean contended = true;
+
+    /**
+     * Class constructor.
+     * @param ellaConnectionValue The connection whose executor sends the
+     * requests.
+     * @param windowValue Time a batch waits for more entities, in
+     * milliseconds.
+     * @param maxBatchSizeValue Max number of distinct entities of a batch.
+     * */
+    EntityBatcher(final EllaConnection ellaConnectionValue,
+            final long windowValue, final int maxBatchSizeValue) {
+        if (windowValue < 0) {
+            throw new IllegalArgumentException("window must not be negative");
+        } else if (maxBatchSizeValue < 1) {
+            throw new IllegalArgumentException(
+                    "maxBatchSize must be greater than 0");
+        }
+        this.ellaConnection = ellaConnectionValue;
+        this.window = windowValue;
+        this.maxBatchSize = maxBatchSizeValue;
+        this.pending = new HashMap<String, Batch>();
+        this.batches = new AtomicLong();
+        this.loads = new AtomicLong();
+        this.waiting = new AtomicInteger();
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(runnable, "jella-batcher");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Adds the object to the batch of its entity type and collection. It
+     * does not wait for the batch to be loaded.
+     * @param object The object to load.
+     * @return A future completed with the JSON representation of the
+     * object, or completed exceptionally with the ServiceException or
+     * IOException of its request.
+     * */
+    CompletableFuture<JSONObject> submit(final BaseObject object) {
+        final String batchKey = object.getClass().getName() + " "
+            + object.getCollection();
+        CompletableFuture<JSONObject> future;
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = this.pending.get(batchKey);
+            if (batch == null) {
+                final Batch created = new Batch();
+                batch = created;
+                if (!this.contended && this.waiting.get() == 0) {
+                    // no other load can join the batch
+                    full = created;
+                } else {
+                    this.pending.put(batchKey, created);
+                    try {
+                        this.timer.schedule(new Runnable() {
+                            public void run() {
+                                dispatch(batchKey, created);
+                            }
+                        }, this.window, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // closed: the batch is sent without waiting
+                        full = created;
+                    }
+                }
+            }
+            future = batch.add(object);
+            this.waiting.incrementAndGet();
+            if (full != null || batch.size() >= this.maxBatchSize) {
+                this.pending.remove(batchKey);
+                full = batch;
+            }
+        }
+        this.loads.incrementAndGet();
+        future.whenComplete(new BiConsumer<JSONObject, Throwable>() {
+            public void accept(final JSONObject json,
+                    final Throwable failure) {
+                waiting.decrementAndGet();
+            }
+        });
+        if (full != null) {
+            this.send(full);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the batch once its window ends, unless it was already sent
+     * because it was full.
+     * @param batchKey The entity type and collection of the batch.
+     * @param batch The batch.
+     * */
+    private void dispatch(final String batchKey, final Batch batch) {
+        synchronized (this) {
+            if (this.pending.get(batchKey) != batch) {
+                return;
+            }
+            this.pending.remove(batchKey);
+        }
+        this.send(batch);
+    }
+
+    /**
+     * Requests every entity of the batch in the executor of the Ella
+     * connection and completes the futures of its objects.
+     * @param batch The batch.
+     * */
+    private void send(final Batch batch) {
+        this.batches.incrementAndGet();
+        this.contended = batch.loads > 1;
+        for (final Map.Entry<String, BaseObject> entity
+                : batch.entities.entrySet()) {
+            final CompletableFuture<JSONObject> future =
+                batch.futures.get(entity.getKey());
+            try {
+                this.ellaConnection.getExecutor().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            future.complete(entity.getValue().fetchJson());
+                        } catch (Throwable t) {
+                            future.completeExceptionally(t);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return Time a batch waits for more entities, in milliseconds.
+     * */
+    long getWindow() {
+        return this.window;
+    }
+
+    /**
+     * @return Max number of distinct entities of a batch.
+     * */
+    int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * @return Number of batches sent.
+     * */
+    long getBatchCount() {
+        return this.batches.get();
+    }
+
+    /**
+     * @return Number of getters whose load joined a batch.
+     * */
+    long getLoadCount() {
+        return this.loads.get();
+    }
+
+    /**
+     * Sends the pending batches and stops the timer.
+     * */
+    void close() {
+        Map<String, Batch> remaining;
+        synchronized (this) {
+            remaining = new HashMap<String, Batch>(this.pending);
+            this.pending.clear();
+        }
+        this.timer.shutdownNow();
+        for (Batch batch : remaining.values()) {
+            this.send(batch);
+        }
+    }
+
+    /**
+     * Java Class Batch.
+     * The distinct entities of a batch and the futures of their JSON
+     * representations.
+     * */
+    private static final class Batch {
+        /**
+         * An object of every distinct entity, by its hydration key.
+         * */
+        private LinkedHashMap<String, BaseObject> entities =
+            new LinkedHashMap<String, BaseObject>();
+        /**
+         * The JSON representation of every entity, by its hydration key.
+         * */
+        private HashMap<String, CompletableFuture<JSONObject>> futures =
+            new HashMap<String, CompletableFuture<JSONObject>>();
+        /**
+         * Number of loads added, of the same entity or not.
+         * */
+        private int loads;
+
+        /**
+         * @param object An object to load.
+         * @return The future of its JSON representation, shared with the
+         * objects of the same entity.
+         * */
+        CompletableFuture<JSONObject> add(final BaseObject object) {
+            this.loads++;
+            String key = object.getHydrationKey();
+            CompletableFuture<JSONObject> future = this.futures.get(key);
+            if (future == null) {
+                future = new CompletableFuture<JSONObject>();
+                this.futures.put(key, future);
+                this.entities.put(key, object);
+            }
+            return future;
+        }
+
+        /**
+         * @return Number of distinct entities.
+         * */
+        int size() {
+            return this.entities.size();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.bmat.ella;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java Class FileDiskCache.
+ * Disk cache that writes one file per entry, named after the request
+ * key. The files are spread across two levels of shard directories named
+ * after the first two pairs of characters of the key, so with hex keys
+ * there are 65536 shards and no directory holds many entries. Keys
+ * shorter than that are written into the cache directory itself.
+ * <p>
+ * Entries are written to a temporary file in their shard directory and
+ * then renamed over the entry file, so readers, even in other processes
+ * sharing the directory, see either the previous entry or the new one,
+ * never a partial write.
+ * </p>
+ * @author Harrington Joseph (Harph)
+ * */
+public class FileDiskCache implements DiskCache {
+    /**
+     * Number of key characters that name a shard directory.
+     * */
+    private static final int SHARD_LENGTH = 2;
+    /**
+     * Suffix of the temporary files entries are written to.
+     * */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Size of the buffer entries are copied with.
+     * */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * The cache directory.
+     * */
+    private File directory;
+
+    /**
+     * Class constructor. The directory is created on the first write.
+     * @param directoryValue The cache directory.
+     * */
+    public FileDiskCache(final File directoryValue) {
+        this.directory = directoryValue;
+    }
+
+    /**
+     * @param key The request key.
+     * @return The entry file of the key.
+     * */
+    final File getFile(final String key) {
+        if (key.length() < FileDiskCache.SHARD_LENGTH * 2) {
+            return new File(this.directory, key);
+        }
+        File shard = new File(new File(this.directory, key.substring(0,
+                FileDiskCache.SHARD_LENGTH)), key.substring(
+                        FileDiskCache.SHARD_LENGTH,
+                        FileDiskCache.SHARD_LENGTH * 2));
+        return new File(shard, key);
+    }
+
+    /**
+     * @param key The request key.
+     * @return True if there is an entry for the key.
+     * */
+    public final boolean contains(final String key) {
+        return this.getFile(key).exists();
+    }
+
+    /**
+     * @param key The request key.
+     * @return A stream over the entry file, or null if there is no entry.
+     * @throws IOException When the entry can not be read.
+     * */
+    public final InputStream get(final String key) throws IOException {
+        try {
+            return new FileInputStream(this.getFile(key));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the entry file, replacing the previous one atomically.
+     * @param key The request key.
+     * @param value The entry bytes.
+     * @throws IOException When the entry can not be written.
+     * */
+    public final void put(final String key, final byte[] value)
+    throws IOException {
+        FileDiskCache.write(this.getFile(key), value);
+    }
+
+    /**
+     * Writes the entry file from a stream, without holding the entry in
+     * memory.
+     * @param key The request key.
+     * @param value A stream over the entry bytes. It is not closed.
+     * @param length Number of bytes of the entry.
+     * @throws IOException When the entry can not be read or written.
+     * */
+    public final void put(final String key, final InputStream value,
+            final long length) throws IOException {
+        FileDiskCache.write(this.getFile(key), value);
+    }
+
+    /**
+     * Writes a temporary file in the directory of a file and renames it
+     * over the file, atomically where the file system allows it.
+     * @param file The file.
+     * @param value The file bytes.
+     * @throws IOException When the file can not be written.
+     * */
+    static void write(final File file, final byte[] value)
+    throws IOException {
+        FileDiskCache.write(file, new ByteArrayInputStream(value));
+    }
+
+    /**
+     * Writes a temporary file in the directory of a file and renames it
+     * over the file, atomically where the file system allows it.
+     * @param file The file.
+     * @param value A stream over the file bytes. It is not closed.
+     * @throws IOException When the file can not be written.
+     * */
+    static void write(final File file, final InputStream value)
+    throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Can not create " + parent);
+        }
+        File temp = File.createTempFile(file.getName() + ".",
+                FileDiskCache.TEMP_SUFFIX, parent);
+        boolean written = false;
+        try {
+            OutputStream output = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[FileDiskCache.BUFFER_SIZE];
+                int count;
+                while ((count = value.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                }
+            } finally {
+                output.close();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the entry file, if any.
+     * @param key The request key.
+     * */
+    public final void remove(final String key) {
+        this.getFile(key).delete();
+    }
+
+    /**
+     * @param key The request key.
+     * @return Number of bytes of the entry file, or -1 if there is none.
+     * */
+    public final long length(final String key) {
+        File file = this.getFile(key);
+        if (!file.isFile()) {
+            return -1;
+        }
+        return file.length();
+    }
+
+    /**
+     * @return The names of the entry files of the shard directories.
+     * */
+    public final List<String> keys() {
+        ArrayList<String> keys = new ArrayList<String>();
+        File[] shards = this.directory.listFiles();
+        if (shards == null) {
+            return keys;
+        }
+        for (File shard : shards) {
+            File[] subshards = shard.listFiles();
+            if (subshards == null) {
+                continue;
+            }
+            for (File subshard : subshards) {
+                File[] files = subshard.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (file.isFile() && !file.getName().endsWith(
+                            FileDiskCache.TEMP_SUFFIX)
+                            && this.getFile(file.getName()).equals(file)) {
+                        keys.add(file.getName());
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return The cache directory.
+     * */
+    public final File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Holds no resources.
+     * */
+    public final void close() {
+        // nothing to release
+    }
+}
@@ -0,0 +1,115 @@
+package com.bmat.ella;
+
+/**
+ * Java Class FrequencySketch.
+ * Count-min sketch of the recent access frequency of keys, with four
+ * 4-bit counters per key. Every counter is halved once the number of
+ * increments reaches ten times the table size, so old accesses fade.
+ * @author Harrington Joseph (Harph)
+ * */
+final class FrequencySketch {
+    /**
+     * Seeds of the four hash functions.
+     * */
+    private static final long[] SEEDS = new long[]{0xc3a5c85c97cb3127L,
+        0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    /**
+     * Mask that halves the sixteen 4-bit counters of a long.
+     * */
+    private static final long RESET_MASK = 0x7777777777777777L;
+    /**
+     * Max value of a counter.
+     * */
+    private static final int MAX_COUNT = 15;
+    /**
+     * The counters, sixteen per long.
+     * */
+    private long[] table;
+    /**
+     * Number of increments after which the counters are halved.
+     * */
+    private int sampleSize;
+    /**
+     * Number of increments since the last halving.
+     * */
+    private int size;
+
+    /**
+     * Class constructor.
+     * @param expectedEntries Number of keys expected to be tracked.
+     * */
+    FrequencySketch(final int expectedEntries) {
+        int length = Integer.highestOneBit(
+                Math.max(16, Math.min(expectedEntries, 1 << 26)) - 1) << 1;
+        this.table = new long[length];
+        this.sampleSize = 10 * length;
+    }
+
+    /**
+     * @param hash The key hash.
+     * @return The estimated number of recent accesses, up to 15.
+     * */
+    int frequency(final int hash) {
+        int count = FrequencySketch.MAX_COUNT;
+        for (int i = 0; i < FrequencySketch.SEEDS.length; i++) {
+            count = Math.min(count, this.counter(hash, i));
+        }
+        return count;
+    }
+
+    /**
+     * Records an access.
+     * @param hash The key hash.
+     * */
+    void increment(final int hash) {
+        boolean added = false;
+        for (int i = 0; i < FrequencySketch.SEEDS.length; i++) {
+            int index = this.indexOf(hash, i);
+            int shift = FrequencySketch.offsetOf(hash, i) << 2;
+            if (((this.table[index] >>> shift) & FrequencySketch.MAX_COUNT)
+                    < FrequencySketch.MAX_COUNT) {
+                this.table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++this.size >= this.sampleSize) {
+            for (int i = 0; i < this.table.length; i++) {
+                this.table[i] = (this.table[i] >>> 1)
+                    & FrequencySketch.RESET_MASK;
+            }
+            this.size /= 2;
+        }
+    }
+
+    /**
+     * @param hash The key hash.
+     * @param row The hash function.
+     * @return The value of the counter of the key in the row.
+     * */
+    private int counter(final int hash, final int row) {
+        int shift = FrequencySketch.offsetOf(hash, row) << 2;
+        return (int) ((this.table[this.indexOf(hash, row)] >>> shift)
+                & FrequencySketch.MAX_COUNT);
+    }
+
+    /**
+     * @param hash The key hash.
+     * @param row The hash function.
+     * @return The index of the long that holds the counter.
+     * */
+    private int indexOf(final int hash, final int row) {
+        long h = (hash + FrequencySketch.SEEDS[row])
+            * FrequencySketch.SEEDS[row];
+        h ^= h >>> 32;
+        return (int) h & (this.table.length - 1);
+    }
+
+    /**
+     * @param hash The key hash.
+     * @param row The hash function.
+     * @return The position of the counter in its long.
+     * */
+    private static int offsetOf(final int hash, final int row) {
+        return ((hash >>> (row << 3)) + row) & 15;
+    }
+}
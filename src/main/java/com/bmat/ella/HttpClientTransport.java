@@ -0,0 +1,199 @@
+package com.bmat.ella;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * Java Class HttpClientTransport.
+ * Transport built on java.net.http.HttpClient. It negotiates HTTP/2,
+ * with ALPN over https and h2c upgrade over http, and multiplexes the
+ * concurrent requests over a few connections. It falls back to HTTP/1.1
+ * when the server does not support HTTP/2.
+ * @author Harrington Joseph (Harph)
+ * */
+public class HttpClientTransport implements Transport {
+    /**
+     * The HTTP client.
+     * */
+    private HttpClient client;
+    /**
+     * Time, in milliseconds, to wait for the response headers.
+     * 0 means no timeout.
+     * */
+    private int readTimeout;
+    /**
+     * HTTP version of the last response.
+     * */
+    private volatile HttpClient.Version lastVersion;
+
+    /**
+     * Class constructor. It prefers HTTP/2.
+     * */
+    public HttpClientTransport() {
+        this(true, PooledTransport.DEFAULT_CONNECT_TIMEOUT,
+                PooledTransport.DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Class constructor.
+     * @param http2 Specifies if HTTP/2 is negotiated. If false only
+     * HTTP/1.1 is used.
+     * @param connectTimeout Connect timeout in milliseconds. 0 means
+     * no timeout.
+     * @param readTimeoutValue Time, in milliseconds, to wait for the
+     * response headers. 0 means no timeout.
+     * */
+    public HttpClientTransport(final boolean http2, final int connectTimeout,
+            final int readTimeoutValue) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+        .followRedirects(HttpClient.Redirect.NEVER);
+        if (http2) {
+            builder.version(HttpClient.Version.HTTP_2);
+        } else {
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        if (connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        }
+        this.client = builder.build();
+        this.readTimeout = readTimeoutValue;
+    }
+
+    /**
+     * Sends a GET request.
+     * @param url The URL to be requested.
+     * @param headers Extra request headers. It can be null.
+     * @return The response. It must be closed to release the stream.
+     * @throws IOException When the request can not be sent or the
+     * response can not be read.
+     * */
+    public final TransportResponse get(final URL url,
+            final Map<String, String> headers) throws IOException {
+        HttpResponse<InputStream> response;
+        try {
+            response = this.client.send(this.newRequest(url, headers),
+                    HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted requesting " + url);
+        }
+        return this.toResponse(response, response.body());
+    }
+
+    /**
+     * Sends a GET request with HttpClient.sendAsync, so no thread waits
+     * for the response. The body is received into memory before the
+     * future is completed.
+     * @param url The URL to be requested.
+     * @param headers Extra request headers. It can be null.
+     * @param executor Not used, the HTTP client completes the future.
+     * @return A future completed with the response, or completed
+     * exceptionally with the IOException.
+     * */
+    public final CompletableFuture<TransportResponse> getAsync(
+            final URL url, final Map<String, String> headers,
+            final Executor executor) {
+        final CompletableFuture<TransportResponse> future =
+            new CompletableFuture<TransportResponse>();
+        try {
+            this.client.sendAsync(this.newRequest(url, headers),
+                    HttpResponse.BodyHandlers.ofByteArray()).whenComplete(
+                            new BiConsumer<HttpResponse<byte[]>,
+                            Throwable>() {
+                public void accept(final HttpResponse<byte[]> response,
+                        final Throwable failure) {
+                    if (failure != null) {
+                        future.completeExceptionally(Util.unwrap(failure));
+                    } else {
+                        future.complete(toResponse(response,
+                                new ByteArrayInputStream(response.body())));
+                    }
+                }
+            });
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @param url The URL to be requested.
+     * @param headers Extra request headers. It can be null.
+     * @return The GET request.
+     * @throws IOException When the URL is not a valid URI.
+     * */
+    private HttpRequest newRequest(final URL url,
+            final Map<String, String> headers) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI()).GET();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+        if (this.readTimeout > 0) {
+            builder.timeout(Duration.ofMillis(this.readTimeout));
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param response The response of the HTTP client.
+     * @param body The response body.
+     * @return The transport response.
+     * */
+    private TransportResponse toResponse(final HttpResponse<?> response,
+            final InputStream body) {
+        this.lastVersion = response.version();
+        HashMap<String, String> responseHeaders = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header
+                : response.headers().map().entrySet()) {
+            responseHeaders.put(header.getKey(),
+                    String.join(", ", header.getValue()));
+        }
+        return new TransportResponse(response.statusCode(), responseHeaders,
+                body);
+    }
+
+    /**
+     * The HTTP client has no close operation, its idle connections are
+     * released when they time out or the transport is garbage collected.
+     * */
+    public final void close() {
+        // nothing to release explicitly
+    }
+
+    /**
+     * @return True if the last response was received over HTTP/2.
+     * */
+    public final boolean isHttp2() {
+        return this.lastVersion == HttpClient.Version.HTTP_2;
+    }
+
+    /**
+     * @return The HTTP client.
+     * */
+    public final HttpClient getClient() {
+        return this.client;
+    }
+}
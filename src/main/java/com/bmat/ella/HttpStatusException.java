@@ -0,0 +1,38 @@
+package com.bmat.ella;
+
+import java.io.IOException;
+
+/**
+ * Java Class HttpStatusException.
+ * Thrown when Ella WS answers with an HTTP error status that has no Ella
+ * error body.
+ * @author Harrington Joseph (Harph)
+ * */
+public class HttpStatusException extends IOException {
+    /**
+     * Serialize version ID.
+     * */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The HTTP status code.
+     * */
+    private int status;
+
+    /**
+     * Class constructor.
+     * @param statusValue The HTTP status code.
+     * @param url The requested URL.
+     * */
+    public HttpStatusException(final int statusValue, final String url) {
+        super("Server returned HTTP response code: " + statusValue
+                + " for URL: " + url);
+        this.status = statusValue;
+    }
+
+    /**
+     * @return The HTTP status code.
+     * */
+    public final int getStatus() {
+        return this.status;
+    }
+}
@@ -0,0 +1,105 @@
+package com.bmat.ella;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+/**
+ * Java Class IdentityMap.
+ * Keeps the canonical instance of every entity of a connection, by
+ * collection, entity type and id, so the objects that reference the same
+ * artist, track or album share one instance and its JSON representation
+ * is loaded once. The instances are weakly held: an entity nobody
+ * references is dropped.
+ * @author Harrington Joseph (Harph)
+ * */
+final class IdentityMap {
+    /**
+     * The canonical instances by key.
+     * */
+    private HashMap<String, Entry> entries;
+    /**
+     * The references of the dropped instances.
+     * */
+    private ReferenceQueue<BaseObject> dropped;
+
+    /**
+     * Class constructor.
+     * */
+    IdentityMap() {
+        this.entries = new HashMap<String, Entry>();
+        this.dropped = new ReferenceQueue<BaseObject>();
+    }
+
+    /**
+     * @param <T> The type of the object.
+     * @param object An object just created.
+     * @return The canonical instance of the entity of the object. The
+     * object itself becomes the canonical instance if there was none.
+     * */
+    @SuppressWarnings("unchecked")
+    synchronized <T extends BaseObject> T canonical(final T object) {
+        this.purge();
+        String key = object.getEntityKey();
+        Entry entry = this.entries.get(key);
+        if (entry != null) {
+            BaseObject existing = entry.get();
+            if (existing != null && existing.getClass() == object.getClass()) {
+                return (T) existing;
+            }
+        }
+        this.entries.put(key, new Entry(key, object, this.dropped));
+        return object;
+    }
+
+    /**
+     * @return Number of canonical instances still referenced.
+     * */
+    synchronized int size() {
+        this.purge();
+        return this.entries.size();
+    }
+
+    /**
+     * Drops every canonical instance.
+     * */
+    synchronized void clear() {
+        this.entries.clear();
+        this.purge();
+    }
+
+    /**
+     * Removes the entries of the dropped instances.
+     * */
+    private void purge() {
+        Reference<? extends BaseObject> reference;
+        while ((reference = this.dropped.poll()) != null) {
+            Entry entry = (Entry) reference;
+            this.entries.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * Java Class Entry.
+     * A weak reference to a canonical instance that knows its key.
+     * */
+    private static final class Entry extends WeakReference<BaseObject> {
+        /**
+         * The key of the instance.
+         * */
+        private String key;
+
+        /**
+         * Class constructor.
+         * @param keyValue The key of the instance.
+         * @param object The canonical instance.
+         * @param queue The queue of the dropped instances.
+         * */
+        Entry(final String keyValue, final BaseObject object,
+                final ReferenceQueue<BaseObject> queue) {
+            super(object, queue);
+            this.key = keyValue;
+        }
+    }
+}
@@ -1,6 +1,14 @@
 
 package com.bmat.ella;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.simple.JSONObject;
 /**
  * Java Class Jella.
  * Ella Java API.
@@ -96,7 +104,22 @@ public class Jella {
      * */
     public Jella(final String ellawsURL, final String username,
             final String password) {
-        this.ellaConnection = new EllaConnection(ellawsURL, username, password);
+        this(ellawsURL, username, password, new PooledTransport());
+    }
+
+    /**
+     * Class constructor.
+     * @param ellawsURL The URL to Ella WS.
+     * @param username A String that represents the username.
+     * @param password A String that represents the password.
+     * @param transport The transport used to send the requests, i.e:
+     * a PooledTransport for HTTP/1.1 keep-alive or an HttpClientTransport
+     * for HTTP/2.
+     * */
+    public Jella(final String ellawsURL, final String username,
+            final String password, final Transport transport) {
+        this.ellaConnection = new EllaConnection(ellawsURL, username,
+                password, transport);
         this.resultsPerPage = Jella.RESULTS_PER_PAGE;
         this.defaultLimit = Jella.DEFAULT_LIMIT;
         this.defaultCollection = Jella.DEFAULT_COLLECTION;
@@ -123,6 +146,13 @@ public class Jella {
         this.ellaConnection = ellaConnectionValue;
     }
 
+    /**
+     * Releases the connections held by the Ella connection.
+     * */
+    public final void close() {
+        this.ellaConnection.close();
+    }
+
     /**
      * @return The value of resultsPerPage.
      * */
@@ -316,4 +346,71 @@ public class Jella {
                 this.resultsPerPage, this.getJellaCacheDir(),
                 this.cacheEnable);
     }
+
+    /**
+     * Loads the JSON representation of many objects at once, so their
+     * getters do not request it one by one. Objects already loaded are
+     * skipped and objects of the same entity share a single request. Ella
+     * WS has no request for many ids, so the requests run concurrently in
+     * the executor of the Ella connection, and cached ones are answered
+     * from the cache.
+     * @param objects The objects to load.
+     * @return The number of requests made.
+     * @throws ServiceException When Ella WS response fails.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    public final int hydrate(final Collection<? extends BaseObject> objects)
+    throws ServiceException, IOException {
+        return this.hydrate(objects, null);
+    }
+
+    /**
+     * Loads the JSON representation of many objects at once with only the
+     * given metadata fields, so lightweight listings receive and parse
+     * less. The fields outside the projection are requested on their own
+     * the first time a getter needs them.
+     * @param objects The objects to load.
+     * @param projection The metadata fields to request. Null keeps the
+     * projection of every object.
+     * @return The number of requests made.
+     * @throws ServiceException When Ella WS response fails.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    public final int hydrate(final Collection<? extends BaseObject> objects,
+            final Projection projection)
+    throws ServiceException, IOException {
+        LinkedHashMap<String, ArrayList<BaseObject>> entities =
+            new LinkedHashMap<String, ArrayList<BaseObject>>();
+        for (BaseObject object : objects) {
+            if (object.isHydrated()) {
+                continue;
+            } else if (projection != null) {
+                object.setProjection(projection);
+            }
+            ArrayList<BaseObject> same = entities.get(
+                    object.getHydrationKey());
+            if (same == null) {
+                same = new ArrayList<BaseObject>();
+                entities.put(object.getHydrationKey(), same);
+            }
+            same.add(object);
+        }
+        ArrayList<CompletableFuture<Object>> futures =
+            new ArrayList<CompletableFuture<Object>>(entities.size());
+        for (final ArrayList<BaseObject> same : entities.values()) {
+            futures.add(Util.supplyAsync(new Callable<Object>() {
+                public Object call() throws ServiceException, IOException {
+                    JSONObject json = same.get(0).fetchJson();
+                    for (BaseObject object : same) {
+                        object.setFetchedJson(json);
+                    }
+                    return null;
+                }
+            }, this.ellaConnection.getExecutor()));
+        }
+        JellaExecutor.join(futures);
+        return entities.size();
+    }
 }
@@ -0,0 +1,280 @@
+package com.bmat.ella;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Java Class JellaExecutor.
+ * Runs Jella calls concurrently in the executor of an Ella connection,
+ * bounded by a number of concurrency permits. The calls that exceed the
+ * permits wait in a queue without holding a thread. Unless another one
+ * was set, the executor of the connection runs every call on a virtual
+ * thread when the JVM supports them, otherwise on a cached pool of
+ * daemon threads. Calling register makes it the executor of the
+ * asynchronous requests of the connection too.
+ * @author Harrington Joseph (Harph)
+ * */
+public class JellaExecutor implements Executor {
+    /**
+     * Constant.
+     * Default max number of concurrent calls.
+     * Default value 256.
+     * */
+    public static final int DEFAULT_MAX_CONCURRENCY = 256;
+    /**
+     * The Ella connection the executor belongs to.
+     * */
+    private EllaConnection ellaConnection;
+    /**
+     * Permits for concurrent calls.
+     * */
+    private Semaphore permits;
+    /**
+     * Max number of concurrent calls.
+     * */
+    private int maxConcurrency;
+    /**
+     * The executor that runs the calls.
+     * */
+    private Executor executor;
+    /**
+     * The calls waiting for a permit.
+     * */
+    private ConcurrentLinkedQueue<Runnable> queue;
+    /**
+     * Specifies if the calls run on virtual threads.
+     * */
+    private boolean virtual;
+    /**
+     * Specifies if the executor stopped accepting calls.
+     * */
+    private volatile boolean shutdown;
+
+    /**
+     * Java Interface IdCall.
+     * A Jella call made for a single id.
+     * @param <T> The type of the call result.
+     * */
+    public interface IdCall<T> {
+        /**
+         * @param id The id.
+         * @return The call result.
+         * @throws ServiceException When Ella WS response fails.
+         * @throws IOException When there is a problem with the
+         * connection to Ella WS.
+         * */
+        T call(String id) throws ServiceException, IOException;
+    }
+
+    /**
+     * Class constructor.
+     * @param ellaConnectionValue The Ella connection the executor
+     * belongs to. Its current executor runs the calls.
+     * */
+    public JellaExecutor(final EllaConnection ellaConnectionValue) {
+        this(ellaConnectionValue, JellaExecutor.DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Class constructor.
+     * @param ellaConnectionValue The Ella connection the executor
+     * belongs to. Its current executor runs the calls.
+     * @param maxConcurrencyValue Max number of concurrent calls.
+     * */
+    public JellaExecutor(final EllaConnection ellaConnectionValue,
+            final int maxConcurrencyValue) {
+        if (maxConcurrencyValue < 1) {
+            throw new IllegalArgumentException(
+                    "maxConcurrency must be greater than 0");
+        }
+        this.ellaConnection = ellaConnectionValue;
+        this.maxConcurrency = maxConcurrencyValue;
+        this.permits = new Semaphore(maxConcurrencyValue);
+        this.queue = new ConcurrentLinkedQueue<Runnable>();
+        this.executor = ellaConnectionValue.getExecutor();
+        this.virtual = ellaConnectionValue.isVirtualExecutor();
+    }
+
+    /**
+     * Makes this executor the executor of the asynchronous requests of
+     * its Ella connection, in place of the current one, so they share its
+     * concurrency permits. The calls keep running on the executor the
+     * connection had when this one was created.
+     * */
+    public final void register() {
+        this.ellaConnection.setExecutor(this);
+    }
+
+    /**
+     * Runs a task once a concurrency permit is available.
+     * @param task The task to run.
+     * */
+    public final void execute(final Runnable task) {
+        if (this.shutdown) {
+            throw new RejectedExecutionException("executor shut down");
+        }
+        this.queue.add(task);
+        this.drain();
+    }
+
+    /**
+     * Hands the queued tasks to the executor while there are permits.
+     * */
+    private void drain() {
+        while (!this.queue.isEmpty() && this.permits.tryAcquire()) {
+            final Runnable task = this.queue.poll();
+            if (task == null) {
+                this.permits.release();
+                continue;
+            }
+            try {
+                this.executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                            drain();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                this.permits.release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Submits a Jella call.
+     * @param <T> The type of the call result.
+     * @param task The call to run.
+     * @return A future completed with the call result.
+     * */
+    public final <T> CompletableFuture<T> submit(final Callable<T> task) {
+        return Util.supplyAsync(task, this);
+    }
+
+    /**
+     * Runs every call concurrently and waits for all of them.
+     * @param <T> The type of the call results.
+     * @param tasks The calls to run.
+     * @return The results, in the same order as the calls.
+     * @throws ServiceException When Ella WS response fails.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    public final <T> List<T> invokeAll(
+            final Collection<? extends Callable<T>> tasks)
+    throws ServiceException, IOException {
+        ArrayList<CompletableFuture<T>> futures =
+            new ArrayList<CompletableFuture<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(this.submit(task));
+        }
+        return JellaExecutor.join(futures);
+    }
+
+    /**
+     * Runs a call for every id concurrently and waits for all of them.
+     * @param <T> The type of the call results.
+     * @param ids The ids.
+     * @param call The call made for each id.
+     * @return The results, in the same order as the ids.
+     * @throws ServiceException When Ella WS response fails.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    public final <T> List<T> invokeAll(final List<String> ids,
+            final IdCall<T> call) throws ServiceException, IOException {
+        ArrayList<Callable<T>> tasks = new ArrayList<Callable<T>>(ids.size());
+        for (final String id : ids) {
+            tasks.add(new Callable<T>() {
+                public T call() throws ServiceException, IOException {
+                    return call.call(id);
+                }
+            });
+        }
+        return this.invokeAll(tasks);
+    }
+
+    /**
+     * Stops accepting calls. Queued and running calls are completed.
+     * */
+    public final void shutdown() {
+        this.shutdown = true;
+    }
+
+    /**
+     * @return True if the calls run on virtual threads.
+     * */
+    public final boolean isVirtual() {
+        return this.virtual;
+    }
+
+    /**
+     * @return The max number of concurrent calls.
+     * */
+    public final int getMaxConcurrency() {
+        return this.maxConcurrency;
+    }
+
+    /**
+     * @return The number of calls running now.
+     * */
+    public final int getActiveCount() {
+        return this.maxConcurrency - this.permits.availablePermits();
+    }
+
+    /**
+     * @return The Ella connection the executor belongs to.
+     * */
+    public final EllaConnection getEllaConnection() {
+        return this.ellaConnection;
+    }
+
+    /**
+     * Waits for every future.
+     * @param <T> The type of the results.
+     * @param futures The futures to wait for.
+     * @return The results, in the same order as the futures.
+     * @throws ServiceException When a call failed with a ServiceException.
+     * @throws IOException When a call failed with an IOException or the
+     * wait was interrupted.
+     * */
+    static <T> List<T> join(final List<CompletableFuture<T>> futures)
+    throws ServiceException, IOException {
+        ArrayList<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for calls");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,251 @@
+package com.bmat.ella;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Java Class PooledConnection.
+ * Represents a reusable HTTP/1.1 connection of a PooledTransport.
+ * @author Harrington Joseph (Harph)
+ * */
+final class PooledConnection implements Closeable {
+    /**
+     * Max length of a status or header line.
+     * */
+    private static final int MAX_LINE_LENGTH = 8192;
+    /**
+     * The connection socket.
+     * */
+    private Socket socket;
+    /**
+     * Buffered socket input.
+     * */
+    private InputStream input;
+    /**
+     * Buffered socket output.
+     * */
+    private OutputStream output;
+    /**
+     * Last time, in milliseconds, the connection was released to the pool.
+     * */
+    private long lastUsed;
+    /**
+     * Specifies if the connection has already sent a request.
+     * */
+    private boolean reused;
+
+    /**
+     * Class constructor. Opens the connection.
+     * @param url The URL of the host to connect to.
+     * @param connectTimeout Connect timeout in milliseconds. 0 means
+     * no timeout.
+     * @param readTimeout Read timeout in milliseconds. 0 means no timeout.
+     * @throws IOException When the connection can not be established.
+     * */
+    PooledConnection(final URL url, final int connectTimeout,
+            final int readTimeout) throws IOException {
+        int port = PooledTransport.getPort(url);
+        Socket plain = new Socket();
+        try {
+            plain.connect(new InetSocketAddress(url.getHost(), port),
+                    connectTimeout);
+            plain.setSoTimeout(readTimeout);
+            plain.setTcpNoDelay(true);
+            if ("https".equalsIgnoreCase(url.getProtocol())) {
+                SSLSocket ssl = (SSLSocket) ((SSLSocketFactory)
+                        SSLSocketFactory.getDefault()).createSocket(
+                                plain, url.getHost(), port, true);
+                SSLParameters sslParameters = ssl.getSSLParameters();
+                sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(sslParameters);
+                ssl.startHandshake();
+                this.socket = ssl;
+            } else {
+                this.socket = plain;
+            }
+            this.input = new BufferedInputStream(this.socket.getInputStream());
+            this.output = new BufferedOutputStream(
+                    this.socket.getOutputStream());
+        } catch (IOException e) {
+            plain.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a GET request.
+     * @param url The requested URL.
+     * @param headers Extra request headers. It can be null.
+     * @throws IOException When the request can not be written.
+     * */
+    void sendGet(final URL url, final Map<String, String> headers)
+    throws IOException {
+        StringBuffer request = new StringBuffer();
+        String file = url.getFile();
+        if (file == null || file.equals("")) {
+            file = "/";
+        }
+        request.append("GET ").append(file).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1) {
+            request.append(':').append(url.getPort());
+        }
+        request.append("\r\n");
+        request.append("Connection: keep-alive\r\n");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.append(header.getKey()).append(": ")
+                .append(header.getValue()).append("\r\n");
+            }
+        }
+        request.append("\r\n");
+        this.output.write(request.toString().getBytes("ISO-8859-1"));
+        this.output.flush();
+        this.reused = true;
+    }
+
+    /**
+     * Reads the status line, skipping informational responses.
+     * @param headers The map where the response headers are stored.
+     * @return An array with the HTTP version in position '0' and the status
+     * code in position '1'.
+     * @throws IOException When the response can not be read.
+     * */
+    String[] readStatus(final LinkedHashMap<String, String> headers)
+    throws IOException {
+        while (true) {
+            String statusLine = this.readLine();
+            if (statusLine == null) {
+                throw new EOFException("Connection closed by the server");
+            }
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid status line: " + statusLine);
+            }
+            int status;
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line: " + statusLine);
+            }
+            headers.clear();
+            this.readHeaders(headers);
+            if (status >= 200 || status == 101) {
+                return new String[]{parts[0], parts[1]};
+            }
+        }
+    }
+
+    /**
+     * Reads header lines until the empty line.
+     * @param headers The map where the headers are stored, indexed by
+     * lower case name.
+     * @throws IOException When the headers can not be read.
+     * */
+    void readHeaders(final Map<String, String> headers) throws IOException {
+        String line;
+        while ((line = this.readLine()) != null && !line.equals("")) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+            String previous = headers.get(name);
+            if (previous != null) {
+                value = previous + ", " + value;
+            }
+            headers.put(name, value);
+        }
+        if (line == null) {
+            throw new EOFException("Unexpected end of headers");
+        }
+    }
+
+    /**
+     * Reads a CRLF terminated line.
+     * @return The line without the terminator or null on end of stream.
+     * @throws IOException When the line can not be read.
+     * */
+    String readLine() throws IOException {
+        StringBuffer line = new StringBuffer();
+        int c;
+        while ((c = this.input.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= PooledConnection.MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            line.append((char) c);
+        }
+        if (line.length() == 0) {
+            return null;
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return The socket input stream.
+     * */
+    InputStream getInput() {
+        return this.input;
+    }
+
+    /**
+     * @return The last time the connection was released.
+     * */
+    long getLastUsed() {
+        return this.lastUsed;
+    }
+
+    /**
+     * Marks the connection as released now.
+     * */
+    void touch() {
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * @return True if the connection has already sent a request.
+     * */
+    boolean isReused() {
+        return this.reused;
+    }
+
+    /**
+     * @return True if the socket is still open.
+     * */
+    boolean isOpen() {
+        return !this.socket.isClosed() && !this.socket.isInputShutdown();
+    }
+
+    /**
+     * Closes the connection quietly.
+     * */
+    public void close() {
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            // nothing to do, the connection is discarded anyway
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package com.bmat.ella;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Java Class PooledTransport.
+ * HTTP/1.1 keep-alive Transport backed by a bounded pool of reusable
+ * connections per host.
+ * @author Harrington Joseph (Harph)
+ * */
+public class PooledTransport implements Transport {
+    /**
+     * Constant.
+     * Default max number of open connections per host.
+     * Default value 8.
+     * */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    /**
+     * Constant.
+     * Default time, in milliseconds, an idle connection is kept open.
+     * Default value 30000.
+     * */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    /**
+     * Constant.
+     * Default connect timeout in milliseconds.
+     * Default value 10000.
+     * */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    /**
+     * Constant.
+     * Default read timeout in milliseconds.
+     * Default value 30000.
+     * */
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+    /**
+     * Max number of open connections per host.
+     * */
+    private int maxConnectionsPerHost;
+    /**
+     * Time, in milliseconds, an idle connection is kept open.
+     * */
+    private long idleTimeout;
+    /**
+     * Connect timeout in milliseconds.
+     * */
+    private int connectTimeout;
+    /**
+     * Read timeout in milliseconds.
+     * */
+    private int readTimeout;
+    /**
+     * Connection pools indexed by "protocol://host:port".
+     * */
+    private ConcurrentHashMap<String, HostPool> pools;
+    /**
+     * Number of connections opened since the transport was created.
+     * */
+    private AtomicLong connectionsCreated;
+    /**
+     * Timer that evicts the idle connections.
+     * */
+    private Timer evictor;
+    /**
+     * Specifies if the transport was closed.
+     * */
+    private volatile boolean closed;
+
+    /**
+     * Class constructor.
+     * */
+    public PooledTransport() {
+        this(PooledTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST,
+                PooledTransport.DEFAULT_IDLE_TIMEOUT,
+                PooledTransport.DEFAULT_CONNECT_TIMEOUT,
+                PooledTransport.DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Class constructor.
+     * @param maxConnectionsPerHostValue Max number of open connections
+     * per host.
+     * @param idleTimeoutValue Time, in milliseconds, an idle connection
+     * is kept open. 0 or less means forever.
+     * @param connectTimeoutValue Connect timeout in milliseconds. 0 means
+     * no timeout.
+     * @param readTimeoutValue Read timeout in milliseconds. 0 means
+     * no timeout.
+     * */
+    public PooledTransport(final int maxConnectionsPerHostValue,
+            final long idleTimeoutValue,
+            final int connectTimeoutValue,
+            final int readTimeoutValue) {
+        if (maxConnectionsPerHostValue < 1) {
+            throw new IllegalArgumentException(
+                    "maxConnectionsPerHost must be greater than 0");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHostValue;
+        this.idleTimeout = idleTimeoutValue;
+        this.connectTimeout = connectTimeoutValue;
+        this.readTimeout = readTimeoutValue;
+        this.pools = new ConcurrentHashMap<String, HostPool>();
+        this.connectionsCreated = new AtomicLong();
+    }
+
+    /**
+     * Sends a GET request using a pooled connection. Inside an attempt of
+     * a resilience policy the connection is closed if the attempt is
+     * abandoned while the response is awaited.
+     * @param url The URL to be requested.
+     * @param headers Extra request headers. It can be null.
+     * @return The response. It must be closed to release the connection.
+     * @throws IOException When the request can not be sent or the
+     * response can not be read.
+     * */
+    public final TransportResponse get(final URL url,
+            final Map<String, String> headers) throws IOException {
+        if (this.closed) {
+            throw new IOException("Transport closed");
+        }
+        HostPool pool = this.getPool(url);
+        pool.acquire(url);
+        PooledConnection connection = null;
+        boolean handedOff = false;
+        try {
+            connection = pool.checkout();
+            if (connection == null) {
+                connection = this.open(url);
+            }
+            ResilientCall.closeOnAbandon(connection);
+            LinkedHashMap<String, String> responseHeaders =
+                new LinkedHashMap<String, String>();
+            String[] status;
+            try {
+                connection.sendGet(url, headers);
+                status = connection.readStatus(responseHeaders);
+            } catch (IOException e) {
+                if (!connection.isReused()
+                        || e instanceof SocketTimeoutException) {
+                    throw e;
+                }
+                // the server closed the idle connection, retry once
+                connection.close();
+                connection = this.open(url);
+                ResilientCall.closeOnAbandon(connection);
+                connection.sendGet(url, headers);
+                status = connection.readStatus(responseHeaders);
+            }
+            TransportResponse response = new TransportResponse(
+                    Integer.parseInt(status[1]), responseHeaders,
+                    new BodyInputStream(pool, connection, status[0],
+                            Integer.parseInt(status[1]), responseHeaders));
+            ResilientCall.closeOnAbandon(response);
+            handedOff = true;
+            return response;
+        } finally {
+            if (!handedOff) {
+                // also when the connection could not be opened
+                ResilientCall.closeOnAbandon(null);
+                if (connection != null) {
+                    connection.close();
+                }
+                pool.release();
+            }
+        }
+    }
+
+    /**
+     * Closes every idle connection that exceeded the idle timeout.
+     * */
+    public final void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (HostPool pool : this.pools.values()) {
+            pool.evict(now);
+        }
+    }
+
+    /**
+     * Closes every idle connection. Connections in use are closed when
+     * their responses are closed.
+     * */
+    public final void close() {
+        this.closed = true;
+        synchronized (this) {
+            if (this.evictor != null) {
+                this.evictor.cancel();
+                this.evictor = null;
+            }
+        }
+        for (HostPool pool : this.pools.values()) {
+            pool.evict(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @return The number of connections opened since the transport
+     * was created.
+     * */
+    public final long getConnectionsCreated() {
+        return this.connectionsCreated.get();
+    }
+
+    /**
+     * @return The number of idle connections in the pool.
+     * */
+    public final int getIdleConnectionCount() {
+        int count = 0;
+        for (HostPool pool : this.pools.values()) {
+            count += pool.idleCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return The max number of open connections per host.
+     * */
+    public final int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+
+    /**
+     * @return The time, in milliseconds, an idle connection is kept open.
+     * */
+    public final long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * @return The connect timeout in milliseconds.
+     * */
+    public final int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * @return The read timeout in milliseconds.
+     * */
+    public final int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     * @param url A URL.
+     * @return The port of the URL or the default port of its protocol.
+     * */
+    static int getPort(final URL url) {
+        if (url.getPort() != -1) {
+            return url.getPort();
+        }
+        return url.getDefaultPort();
+    }
+
+    /**
+     * @param url The requested URL.
+     * @return The connection pool of the URL host.
+     * */
+    private HostPool getPool(final URL url) {
+        String key = url.getProtocol().toLowerCase() + "://"
+            + url.getHost().toLowerCase() + ":" + PooledTransport.getPort(url);
+        HostPool pool = this.pools.get(key);
+        if (pool == null) {
+            pool = new HostPool(key);
+            HostPool previous = this.pools.putIfAbsent(key, pool);
+            if (previous != null) {
+                pool = previous;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Opens a new connection.
+     * @param url The URL of the host to connect to.
+     * @return The opened connection.
+     * @throws IOException When the connection can not be established.
+     * */
+    private PooledConnection open(final URL url) throws IOException {
+        PooledConnection connection = new PooledConnection(url,
+                this.connectTimeout, this.readTimeout);
+        this.connectionsCreated.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * Starts the idle connection evictor if it is not running yet.
+     * */
+    private synchronized void startEvictor() {
+        if (this.evictor != null || this.closed || this.idleTimeout <= 0) {
+            return;
+        }
+        this.evictor = new Timer("jella-pool-evictor", true);
+        long period = Math.max(this.idleTimeout / 2, 1000);
+        this.evictor.schedule(new TimerTask() {
+            public void run() {
+                evictIdleConnections();
+            }
+        }, period, period);
+    }
+
+    /**
+     * Java Class HostPool.
+     * Idle connections and connection permits of a single host.
+     * */
+    private final class HostPool {
+        /**
+         * The host key.
+         * */
+        private String key;
+        /**
+         * Permits for open connections.
+         * */
+        private Semaphore permits;
+        /**
+         * Idle connections, most recently used first.
+         * */
+        private ArrayDeque<PooledConnection> idle;
+
+        /**
+         * Class constructor.
+         * @param keyValue The host key.
+         * */
+        HostPool(final String keyValue) {
+            this.key = keyValue;
+            this.permits = new Semaphore(maxConnectionsPerHost, true);
+            this.idle = new ArrayDeque<PooledConnection>();
+        }
+
+        /**
+         * Waits for a connection permit.
+         * @param url The requested URL.
+         * @throws IOException When the wait times out or is interrupted.
+         * */
+        void acquire(final URL url) throws IOException {
+            try {
+                if (connectTimeout > 0) {
+                    if (!this.permits.tryAcquire(connectTimeout,
+                            TimeUnit.MILLISECONDS)) {
+                        throw new SocketTimeoutException(
+                                "Timed out waiting for a connection to "
+                                + this.key);
+                    }
+                } else {
+                    this.permits.acquire();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted waiting for a connection to " + url);
+            }
+        }
+
+        /**
+         * Returns a connection permit.
+         * */
+        void release() {
+            this.permits.release();
+        }
+
+        /**
+         * @return A live idle connection or null if there is none.
+         * */
+        PooledConnection checkout() {
+            long now = System.currentTimeMillis();
+            while (true) {
+                PooledConnection connection;
+                synchronized (this) {
+                    connection = this.idle.pollFirst();
+                }
+                if (connection == null) {
+                    return null;
+                }
+                if (connection.isOpen() && !this.expired(connection, now)) {
+                    return connection;
+                }
+                connection.close();
+            }
+        }
+
+        /**
+         * Returns a connection to the pool and releases its permit.
+         * @param connection The released connection.
+         * @param reusable Specifies if the connection can be reused.
+         * */
+        void checkin(final PooledConnection connection,
+                final boolean reusable) {
+            try {
+                if (reusable && !closed && connection.isOpen()) {
+                    connection.touch();
+                    synchronized (this) {
+                        this.idle.addFirst(connection);
+                    }
+                    startEvictor();
+                } else {
+                    connection.close();
+                }
+            } finally {
+                this.permits.release();
+            }
+        }
+
+        /**
+         * Closes the idle connections that expired.
+         * @param now The current time in milliseconds.
+         * */
+        void evict(final long now) {
+            synchronized (this) {
+                Iterator<PooledConnection> iterator = this.idle.iterator();
+                while (iterator.hasNext()) {
+                    PooledConnection connection = iterator.next();
+                    if (now == Long.MAX_VALUE || !connection.isOpen()
+                            || this.expired(connection, now)) {
+                        iterator.remove();
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The number of idle connections.
+         * */
+        synchronized int idleCount() {
+            return this.idle.size();
+        }
+
+        /**
+         * @param connection An idle connection.
+         * @param now The current time in milliseconds.
+         * @return True if the connection exceeded the idle timeout.
+         * */
+        private boolean expired(final PooledConnection connection,
+                final long now) {
+            return idleTimeout > 0
+                && now - connection.getLastUsed() >= idleTimeout;
+        }
+    }
+
+    /**
+     * Java Class BodyInputStream.
+     * Reads a response body delimited by Content-Length, chunked encoding
+     * or the end of the connection, and returns the connection to the pool
+     * when it is closed.
+     * */
+    private static final class BodyInputStream extends InputStream {
+        /**
+         * The pool the connection belongs to.
+         * */
+        private HostPool pool;
+        /**
+         * The connection the body is read from.
+         * */
+        private PooledConnection connection;
+        /**
+         * The connection input.
+         * */
+        private InputStream input;
+        /**
+         * Specifies if the body uses chunked transfer encoding.
+         * */
+        private boolean chunked;
+        /**
+         * Bytes left in the body or in the current chunk. -1 means
+         * until the end of the connection.
+         * */
+        private long remaining;
+        /**
+         * Specifies if the connection can be reused once the body is read.
+         * */
+        private boolean keepAlive;
+        /**
+         * Specifies if the whole body was read.
+         * */
+        private boolean eof;
+        /**
+         * Specifies if the stream was closed.
+         * */
+        private boolean closed;
+
+        /**
+         * Class constructor.
+         * @param poolValue The pool the connection belongs to.
+         * @param connectionValue The connection the body is read from.
+         * @param version The HTTP version of the response.
+         * @param status The HTTP status code.
+         * @param headers The response headers.
+         * @throws IOException When the Content-Length header is invalid.
+         * */
+        BodyInputStream(final HostPool poolValue,
+                final PooledConnection connectionValue,
+                final String version, final int status,
+                final Map<String, String> headers) throws IOException {
+            this.pool = poolValue;
+            this.connection = connectionValue;
+            this.input = connectionValue.getInput();
+            String connectionHeader = headers.get("connection");
+            if (version.equals("HTTP/1.0")) {
+                this.keepAlive = "keep-alive".equalsIgnoreCase(
+                        connectionHeader);
+            } else {
+                this.keepAlive = !"close".equalsIgnoreCase(connectionHeader);
+            }
+            String transferEncoding = headers.get("transfer-encoding");
+            String contentLength = headers.get("content-length");
+            if (status == 204 || status == 304) {
+                this.remaining = 0;
+            } else if (transferEncoding != null
+                    && transferEncoding.toLowerCase().indexOf("chunked")
+                    != -1) {
+                this.chunked = true;
+                this.remaining = 0;
+            } else if (contentLength != null) {
+                try {
+                    this.remaining = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length: "
+                            + contentLength);
+                }
+            } else {
+                this.remaining = -1;
+                this.keepAlive = false;
+            }
+            this.eof = !this.chunked && this.remaining == 0;
+        }
+
+        /**
+         * @return The next byte of the body or -1 at the end of the body.
+         * @throws IOException When the body can not be read.
+         * */
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = this.read(single, 0, 1);
+            if (count == -1) {
+                return -1;
+            }
+            return single[0] & 0xff;
+        }
+
+        /**
+         * @param buffer The buffer where the data is stored.
+         * @param offset The start offset in the buffer.
+         * @param length The max number of bytes to read.
+         * @return The number of bytes read or -1 at the end of the body.
+         * @throws IOException When the body can not be read.
+         * */
+        public int read(final byte[] buffer, final int offset,
+                final int length) throws IOException {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            if (length == 0) {
+                return 0;
+            }
+            if (this.eof) {
+                return -1;
+            }
+            if (this.chunked && this.remaining == 0) {
+                this.nextChunk();
+                if (this.eof) {
+                    return -1;
+                }
+            }
+            int max = length;
+            if (this.remaining >= 0 && this.remaining < max) {
+                max = (int) this.remaining;
+            }
+            int count = this.input.read(buffer, offset, max);
+            if (count == -1) {
+                if (this.remaining == -1) {
+                    this.eof = true;
+                    return -1;
+                }
+                throw new EOFException("Unexpected end of response body");
+            }
+            if (this.remaining > 0) {
+                this.remaining -= count;
+                if (this.remaining == 0 && !this.chunked) {
+                    this.eof = true;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return The number of bytes that can be read without blocking.
+         * @throws IOException When the stream is closed.
+         * */
+        public int available() throws IOException {
+            if (this.closed || this.eof) {
+                return 0;
+            }
+            int available = this.input.available();
+            if (this.remaining >= 0 && this.remaining < available) {
+                return (int) this.remaining;
+            }
+            return available;
+        }
+
+        /**
+         * Releases the connection. It is returned to the pool only if the
+         * whole body was read.
+         * */
+        public void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.pool.checkin(this.connection, this.eof && this.keepAlive);
+        }
+
+        /**
+         * Reads the size line of the next chunk.
+         * @throws IOException When the chunk header is invalid.
+         * */
+        private void nextChunk() throws IOException {
+            String line = this.connection.readLine();
+            if (line != null && line.equals("")) {
+                // CRLF that terminates the previous chunk
+                line = this.connection.readLine();
+            }
+            if (line == null) {
+                throw new EOFException("Unexpected end of chunked body");
+            }
+            int extension = line.indexOf(';');
+            if (extension != -1) {
+                line = line.substring(0, extension);
+            }
+            try {
+                this.remaining = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + line);
+            }
+            if (this.remaining == 0) {
+                this.connection.readHeaders(
+                        new LinkedHashMap<String, String>());
+                this.eof = true;
+            }
+        }
+    }
+}
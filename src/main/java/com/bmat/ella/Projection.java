@@ -0,0 +1,109 @@
+package com.bmat.ella;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Java Class Projection.
+ * The metadata fields of an object that are requested when its JSON
+ * representation is loaded, for example
+ * Projection.of(Artist.NAME, Artist.POPULARITY). A field outside the
+ * projection is requested on its own the first time a getter needs it.
+ * @author Harrington Joseph (Harph)
+ * */
+public final class Projection {
+    /**
+     * Constant.
+     * Projection of every metadata field.
+     * */
+    public static final Projection ALL = new Projection(null);
+    /**
+     * The requested fields, in order, or null for every field.
+     * */
+    private Set<String> fields;
+
+    /**
+     * Class constructor.
+     * @param fieldsValue The requested fields, or null for every field.
+     * */
+    private Projection(final Set<String> fieldsValue) {
+        this.fields = fieldsValue;
+    }
+
+    /**
+     * @param fieldsValue The metadata fields to request.
+     * @return The projection of the fields.
+     * */
+    public static Projection of(final String... fieldsValue) {
+        if (fieldsValue.length == 0) {
+            throw new IllegalArgumentException("a field is required");
+        }
+        LinkedHashSet<String> fieldSet = new LinkedHashSet<String>();
+        for (String field : fieldsValue) {
+            if (field == null || field.trim().length() == 0) {
+                throw new IllegalArgumentException("empty field name");
+            }
+            fieldSet.add(field);
+        }
+        return new Projection(Collections.unmodifiableSet(fieldSet));
+    }
+
+    /**
+     * @return True if the projection requests every field.
+     * */
+    public boolean isAll() {
+        return this.fields == null;
+    }
+
+    /**
+     * @return The requested fields, or null if every field is requested.
+     * */
+    public Set<String> getFields() {
+        return this.fields;
+    }
+
+    /**
+     * @param field A metadata field.
+     * @return True if the projection requests the field.
+     * */
+    public boolean contains(final String field) {
+        return this.fields == null || this.fields.contains(field);
+    }
+
+    /**
+     * @return The value of the fetch_metadata parameter.
+     * */
+    public String toString() {
+        if (this.fields == null) {
+            return "_all";
+        }
+        return Util.joinArray(this.fields.toArray(
+                new String[this.fields.size()]), ",");
+    }
+
+    /**
+     * @param other An object.
+     * @return True if the object is a projection of the same fields.
+     * */
+    public boolean equals(final Object other) {
+        if (!(other instanceof Projection)) {
+            return false;
+        }
+        Projection projection = (Projection) other;
+        if (this.fields == null) {
+            return projection.fields == null;
+        }
+        return this.fields.equals(projection.fields);
+    }
+
+    /**
+     * @return The hash code of the fields.
+     * */
+    public int hashCode() {
+        if (this.fields == null) {
+            return 0;
+        }
+        return this.fields.hashCode();
+    }
+}
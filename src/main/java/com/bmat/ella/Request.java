@@ -1,49 +1,80 @@
 
 package com.bmat.ella;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 /**
  * Java Class Request.
- * Represents a web service request.
+ * Represents a web service request. The objects of a connection share
+ * theirs through a RequestContext, which can not be changed; a request
+ * created by the caller can still be changed with the deprecated setters.
  * @author Harrington Joseph (Harph)
  * */
 public class Request {
     /**
-     * An instance of Ella WS connection.
+     * Max number of redirects followed by a request.
+     * */
+    private static final int MAX_REDIRECTS = 5;
+    /**
+     * HTTP Status-Code 307: Temporary Redirect.
+     * */
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    /**
+     * HTTP Status-Code 429: Too Many Requests.
+     * */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    /**
+     * Content encodings accepted from Ella WS.
      * */
-    private EllaConnection ellaConnection;
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
     /**
-     * An instance of JSONParser.
+     * Size of the buffers used to read responses.
      * */
-    private JSONParser jsonParser;
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * An instance of Ella WS connection.
+     * */
+    private final EllaConnection ellaConnection;
     /**
      * Specifies if the cache enabled.
      * */
-    private boolean cacheEnable;
+    private volatile boolean cacheEnable;
     /**
      * Path to Jella cache directory.
      * */
-    private String jellaCacheDir;
+    private volatile String jellaCacheDir;
+    /**
+     * Resilience policy of the request, or null to use the one of the
+     * Ella connection.
+     * */
+    private final ResiliencePolicy resiliencePolicy;
 
     /**
      * Class constructor.
@@ -63,10 +94,27 @@ public class Request {
     public Request(final EllaConnection ellaConnectionValue,
             final String jellaCacheDirValue,
             final boolean cacheEnabledValue) {
+        this(ellaConnectionValue, jellaCacheDirValue, cacheEnabledValue,
+                null);
+    }
+
+    /**
+     * Class constructor.
+     * @param ellaConnectionValue A connection to the Ella web service.
+     * @param jellaCacheDirValue The path to the cache directory.
+     * @param cacheEnabledValue A boolean that says if the cache is
+     * enabled or not.
+     * @param resiliencePolicyValue The resilience policy of the request,
+     * overriding the one of the Ella connection, or null to use that one.
+     * */
+    public Request(final EllaConnection ellaConnectionValue,
+            final String jellaCacheDirValue,
+            final boolean cacheEnabledValue,
+            final ResiliencePolicy resiliencePolicyValue) {
         this.ellaConnection = ellaConnectionValue;
-        this.jsonParser = new JSONParser();
         this.jellaCacheDir = jellaCacheDirValue;
         this.cacheEnable = cacheEnabledValue;
+        this.resiliencePolicy = resiliencePolicyValue;
     }
 
     /**
@@ -99,44 +147,783 @@ public class Request {
     public final Object execute(final String method, final String collection,
             final HashMap<String, String> searchTerms,
             final boolean cacheable)throws ServiceException, IOException {
+        final boolean fromCache = this.cacheEnable && cacheable;
+        final String cacheKey = this.getCacheKey(searchTerms, method,
+                collection);
+        if (fromCache && cacheKey != null) {
+            ResponseCache.Parsed parsed = this.getResponseCache().getParsed(
+                    cacheKey, method);
+            if (parsed != null) {
+                this.revalidate(parsed.getStoredAt(), parsed.isError(),
+                        cacheKey, method, collection, searchTerms);
+                return this.getResponse(parsed.getDocument());
+            }
+        }
+        CacheEntry entry;
+        if (cacheKey != null) {
+            String kind = "download";
+            if (fromCache) {
+                kind = "cached";
+            }
+            entry = this.ellaConnection.getSingleFlight().execute(
+                    this.getFlightKey(kind, cacheKey),
+                    new Callable<CacheEntry>() {
+                        public CacheEntry call() throws IOException {
+                            return obtainResponse(fromCache, cacheKey,
+                                    method, collection, searchTerms);
+                        }
+                    });
+        } else {
+            entry = this.obtainResponse(fromCache, cacheKey, method,
+                    collection, searchTerms);
+        }
+        return this.finish(entry, fromCache, cacheKey, method, collection,
+                searchTerms);
+    }
+
+    /**
+     * Parses an obtained response and keeps it in the memory tier.
+     * @param entry The obtained response.
+     * @param fromCache Say if the response can be read from the cache.
+     * @param cacheKey The request key.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @return an Object instance of JSONObject or JSONArray.
+     * @throws IOException When the response can not be read.
+     * @throws ServiceException When Ella WS response fails.
+     * */
+    private Object finish(final CacheEntry entry, final boolean fromCache,
+            final String cacheKey, final String method,
+            final String collection,
+            final HashMap<String, String> searchTerms)
+    throws ServiceException, IOException {
+        if (fromCache) {
+            this.revalidate(entry.getStoredAt(), entry.isError(), cacheKey,
+                    method, collection, searchTerms);
+        }
+        JSONObject document;
         try {
-            JSONObject jsonObj;
-            if (this.cacheEnable && cacheable) {
-                String cacheKey = this.getCacheKey(searchTerms, method,
-                        collection);
-                jsonObj = (JSONObject) this.jsonParser.parse(
-                        this.getCachedResponse(cacheKey,
-                                searchTerms, method, collection));
-            } else {
-                jsonObj = (JSONObject) this.jsonParser.parse(
-                        this.downloadResponse(method,
-                                collection, searchTerms));
+            document = (JSONObject) entry.getDocument();
+        } catch (ParseException e) {
+            throw new RuntimeException(e);
+        }
+        if (this.cacheEnable && cacheKey != null && (!entry.isError()
+                || Request.isErrorDocument(document))) {
+            this.getResponseCache().putParsed(cacheKey, document,
+                    entry.getLength(), entry.getStoredAt(), entry.isError());
+        }
+        return this.getResponse(document);
+    }
+
+    /**
+     * @param fromCache Say if the response can be read from the cache.
+     * @param cacheKey The request key.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @return The web service response and the time it was stored.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    private CacheEntry obtainResponse(final boolean fromCache,
+            final String cacheKey, final String method,
+            final String collection,
+            final HashMap<String, String> searchTerms) throws IOException {
+        if (fromCache) {
+            return this.getCachedResponse(cacheKey, searchTerms, method,
+                    collection);
+        }
+        return this.downloadResponse(method, collection, searchTerms, null);
+    }
+
+    /**
+     * Executes the web service request decoding the response while it is
+     * read. The items of "response.results" are handed to the handler as
+     * soon as they are decoded and are not kept, so only one result is in
+     * memory at a time. A response that is cached is copied to a
+     * temporary file while it is read, not to memory.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @param cacheable Say if the request can be found in the cache.
+     * @param handler The receiver of the results.
+     * @return an Object instance of JSONObject or JSONArray. If it has
+     * results, they are an empty JSONArray.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * @throws ServiceException When Ella WS response fails.
+     * */
+    public final Object executeStreaming(final String method,
+            final String collection,
+            final HashMap<String, String> searchTerms,
+            final boolean cacheable, final ResultHandler handler)
+    throws ServiceException, IOException {
+        ResultStreamHandler streamHandler = new ResultStreamHandler(handler);
+        JSONParser jsonParser = new JSONParser();
+        try {
+            String cacheKey = null;
+            ResponseCache responseCache = null;
+            if (this.cacheEnable) {
+                cacheKey = this.getCacheKey(searchTerms, method, collection);
             }
-            Object response = jsonObj.get("response");
-            if (response != null) {
-                return response;
+            if (cacheKey != null) {
+                responseCache = this.getResponseCache();
+                if (cacheable) {
+                    ResponseCache.Parsed parsed = responseCache.getParsed(
+                            cacheKey, method);
+                    if (parsed != null) {
+                        this.revalidate(parsed.getStoredAt(),
+                                parsed.isError(), cacheKey, method,
+                                collection, searchTerms);
+                        return this.replay(parsed.getDocument(), handler);
+                    }
+                } else {
+                    responseCache.removeParsed(cacheKey);
+                }
+            }
+            CacheEntry cached = null;
+            if (cacheable && cacheKey != null) {
+                cached = this.streamCached(cacheKey, method, jsonParser,
+                        streamHandler);
+            }
+            if (cached != null) {
+                this.revalidate(cached.getStoredAt(), cached.isError(),
+                        cacheKey, method, collection, searchTerms);
             } else {
-                JSONObject error = (JSONObject) jsonObj.get("error");
-                throw new ServiceException(
-                        (String) error.get("type"),
-                        (String) error.get("message"));
+                if (cacheable && responseCache != null) {
+                    responseCache.recordMiss();
+                }
+                this.streamCoalesced(this.getUrl(method, collection,
+                        searchTerms), cacheKey, cacheable, jsonParser,
+                        streamHandler);
             }
+            return this.getResponse(
+                    (JSONObject) streamHandler.getDocument());
         } catch (ParseException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Downloads the response of a streamed request. When the response is
+     * cached, identical requests in flight are sent once: the first one
+     * streams the download into the cache and the others read the cache
+     * once it is complete.
+     * @param url The request URL.
+     * @param cacheKey The request key or null if it is not cached.
+     * @param cacheable Say if the request can be found in the cache.
+     * @param jsonParser The parser.
+     * @param streamHandler The parser content handler.
+     * @throws ServiceException When the identical request fails with a
+     * ServiceException.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * @throws ParseException When the response is not valid JSON.
+     * */
+    private void streamCoalesced(final String url, final String cacheKey,
+            final boolean cacheable, final JSONParser jsonParser,
+            final ResultStreamHandler streamHandler)
+    throws ServiceException, IOException, ParseException {
+        if (!cacheable || cacheKey == null) {
+            this.streamDownload(url, cacheKey, jsonParser, streamHandler);
+            return;
+        }
+        final boolean[] streamed = new boolean[]{false};
+        this.ellaConnection.getSingleFlight().execute(
+                this.getFlightKey("stream", cacheKey), new Callable<Object>() {
+                    public Object call() throws IOException, ParseException {
+                        streamDownload(url, cacheKey, jsonParser,
+                                streamHandler);
+                        streamed[0] = true;
+                        return null;
+                    }
+                });
+        if (!streamed[0]
+                && this.streamCached(cacheKey, null, jsonParser,
+                        streamHandler) == null) {
+            this.streamDownload(url, cacheKey, jsonParser, streamHandler);
+        }
+    }
+
+    /**
+     * Parses a cached response.
+     * @param cacheKey The request key.
+     * @param method type of search that will be executed, or null to
+     * parse the response whatever its age.
+     * @param jsonParser The parser.
+     * @param streamHandler The parser content handler.
+     * @return The parsed entry, its body is consumed, or null if the
+     * response is not cached or can no longer be served.
+     * @throws IOException When the cached response can not be read.
+     * @throws ParseException When the response is not valid JSON.
+     * */
+    private CacheEntry streamCached(final String cacheKey,
+            final String method, final JSONParser jsonParser,
+            final ResultStreamHandler streamHandler)
+    throws IOException, ParseException {
+        ResponseCache responseCache = this.getResponseCache();
+        CacheEntry entry;
+        try {
+            entry = responseCache.readEntry(cacheKey);
+        } catch (IOException e) {
+            return null;
+        }
+        if (entry == null) {
+            return null;
+        }
+        InputStream body = entry.getBody();
+        try {
+            if (method != null && responseCache.getFreshness(method,
+                    entry.getStoredAt(), entry.isError())
+                    == ResponseCache.EXPIRED) {
+                return null;
+            } else if (entry.isBinary()) {
+                BinaryJson.decode(new BufferedInputStream(body),
+                        streamHandler);
+            } else {
+                jsonParser.parse(new InputStreamReader(body, "utf-8"),
+                        streamHandler);
+            }
+        } finally {
+            body.close();
+        }
+        responseCache.recordDiskHit(entry.isError());
+        return entry;
+    }
+
+    /**
+     * Refreshes an expired response in the background, unless it is
+     * already being refreshed. Fresh responses are left as they are.
+     * @param storedAt Time the served response was stored.
+     * @param error Specifies if the served response is an error.
+     * @param cacheKey The request key.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * */
+    private void revalidate(final long storedAt, final boolean error,
+            final String cacheKey, final String method,
+            final String collection,
+            final HashMap<String, String> searchTerms) {
+        final ResponseCache responseCache = this.getResponseCache();
+        if (cacheKey == null || responseCache.getFreshness(method, storedAt,
+                error) != ResponseCache.STALE
+                || !responseCache.startRefresh(cacheKey)) {
+            return;
+        }
+        Runnable refresh = new Runnable() {
+            public void run() {
+                try {
+                    refreshResponse(cacheKey, method, collection,
+                            searchTerms);
+                    responseCache.removeParsed(cacheKey);
+                } catch (IOException e) {
+                    // the expired response is served until a refresh
+                    // succeeds
+                } finally {
+                    responseCache.finishRefresh(cacheKey);
+                }
+            }
+        };
+        try {
+            this.ellaConnection.getExecutor().execute(refresh);
+        } catch (RuntimeException e) {
+            responseCache.finishRefresh(cacheKey);
+        }
+    }
+
+    /**
+     * Hands the results of a parsed response to the handler.
+     * @param document The parsed response.
+     * @param handler The receiver of the results.
+     * @return The "response" node. If it has results, they are an empty
+     * JSONArray.
+     * @throws ServiceException When the response is an error.
+     * */
+    @SuppressWarnings("unchecked")
+    private Object replay(final JSONObject document,
+            final ResultHandler handler) throws ServiceException {
+        Object response = this.getResponse(document);
+        if (!(response instanceof JSONObject)) {
+            return response;
+        }
+        Object results = ((JSONObject) response).get("results");
+        if (!(results instanceof JSONArray)) {
+            return response;
+        }
+        JSONObject envelope = new JSONObject();
+        envelope.putAll((JSONObject) response);
+        envelope.put("results", new JSONArray());
+        for (Object result : (JSONArray) results) {
+            if (result instanceof JSONObject) {
+                handler.result((JSONObject) result);
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * Identical requests share the key only if they read and write the
+     * same cache.
+     * @param kind The way the response is obtained.
+     * @param cacheKey The request key.
+     * @return The key of the request among the requests in flight.
+     * */
+    private String getFlightKey(final String kind, final String cacheKey) {
+        if (this.cacheEnable) {
+            return kind + " " + this.jellaCacheDir + " " + cacheKey;
+        }
+        return kind + " " + cacheKey;
+    }
+
+    /**
+     * Executes the web service request without waiting for it. The
+     * request is sent with Transport.getAsync, so with a transport that
+     * sends it asynchronously, as HttpClientTransport, no thread waits for
+     * the response; cache reads and the parsing run in the executor of
+     * the Ella connection. With a resilience policy or a concurrency
+     * limiter the whole request runs with execute in that executor, so
+     * each call holds one of its threads until it is complete.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @param cacheable Say if the request can be found in the cache.
+     * @return A future completed with a JSONObject or JSONArray, or
+     * completed exceptionally with a ServiceException or IOException.
+     * */
+    public final CompletableFuture<Object> executeAsync(final String method,
+            final String collection,
+            final HashMap<String, String> searchTerms,
+            final boolean cacheable) {
+        if (this.getResiliencePolicy() != null
+                || this.ellaConnection.getConcurrencyLimiter() != null) {
+            return Util.supplyAsync(new Callable<Object>() {
+                public Object call() throws ServiceException, IOException {
+                    return execute(method, collection, searchTerms,
+                            cacheable);
+                }
+            }, this.ellaConnection.getExecutor());
+        }
+        final boolean fromCache = this.cacheEnable && cacheable;
+        final String cacheKey = this.getCacheKey(searchTerms, method,
+                collection);
+        final CompletableFuture<Object> result =
+            new CompletableFuture<Object>();
+        if (fromCache && cacheKey != null) {
+            ResponseCache.Parsed parsed = this.getResponseCache().getParsed(
+                    cacheKey, method);
+            if (parsed != null) {
+                this.revalidate(parsed.getStoredAt(), parsed.isError(),
+                        cacheKey, method, collection, searchTerms);
+                try {
+                    result.complete(this.getResponse(parsed.getDocument()));
+                } catch (ServiceException e) {
+                    result.completeExceptionally(e);
+                }
+                return result;
+            }
+        }
+        CompletableFuture<CacheEntry> obtained;
+        if (cacheKey != null) {
+            String kind = "download";
+            if (fromCache) {
+                kind = "cached";
+            }
+            obtained = this.ellaConnection.getSingleFlight().executeAsync(
+                    this.getFlightKey(kind, cacheKey),
+                    new Callable<CompletableFuture<CacheEntry>>() {
+                        public CompletableFuture<CacheEntry> call() {
+                            return obtainResponseAsync(fromCache, cacheKey,
+                                    method, collection, searchTerms);
+                        }
+                    });
+        } else {
+            obtained = this.obtainResponseAsync(fromCache, cacheKey, method,
+                    collection, searchTerms);
+        }
+        obtained.whenComplete(new BiConsumer<CacheEntry, Throwable>() {
+            public void accept(final CacheEntry entry,
+                    final Throwable failure) {
+                if (failure != null) {
+                    result.completeExceptionally(Util.unwrap(failure));
+                    return;
+                }
+                try {
+                    result.complete(finish(entry, fromCache, cacheKey,
+                            method, collection, searchTerms));
+                } catch (ServiceException e) {
+                    result.completeExceptionally(e);
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param fromCache Say if the response can be read from the cache.
+     * @param cacheKey The request key.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @return A future completed, in the executor of the Ella connection,
+     * with the web service response and the time it was stored.
+     * */
+    private CompletableFuture<CacheEntry> obtainResponseAsync(
+            final boolean fromCache, final String cacheKey,
+            final String method, final String collection,
+            final HashMap<String, String> searchTerms) {
+        if (!fromCache) {
+            return this.downloadResponseAsync(method, collection,
+                    searchTerms);
+        }
+        final CompletableFuture<CacheEntry> result =
+            new CompletableFuture<CacheEntry>();
+        Util.supplyAsync(new Callable<CacheEntry>() {
+            public CacheEntry call() {
+                return readCached(cacheKey, method);
+            }
+        }, this.ellaConnection.getExecutor()).whenComplete(
+                new BiConsumer<CacheEntry, Throwable>() {
+            public void accept(final CacheEntry entry,
+                    final Throwable failure) {
+                if (failure != null) {
+                    result.completeExceptionally(Util.unwrap(failure));
+                } else if (entry != null) {
+                    result.complete(entry);
+                } else {
+                    getResponseCache().recordMiss();
+                    Util.forward(downloadResponseAsync(method, collection,
+                            searchTerms), result);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param jsonObj A parsed web service response.
+     * @return The "response" node.
+     * @throws ServiceException When the response is an error.
+     * */
+    private Object getResponse(final JSONObject jsonObj)
+    throws ServiceException {
+        Object response = jsonObj.get("response");
+        if (response != null) {
+            return response;
+        } else {
+            JSONObject error = (JSONObject) jsonObj.get("error");
+            throw new ServiceException(
+                    (String) error.get("type"),
+                    (String) error.get("message"));
+        }
+    }
+
+    /**
+     * Downloads an expired response again, conditionally if the cached
+     * response has validators. A not modified answer only renews the
+     * cached response.
+     * @param cacheKey The request key.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    private void refreshResponse(final String cacheKey, final String method,
+            final String collection,
+            final HashMap<String, String> searchTerms) throws IOException {
+        CacheEntry cached = null;
+        try {
+            cached = this.getResponseCache().readEntry(cacheKey);
+        } catch (IOException e) {
+            cached = null;
+        }
+        if (cached != null) {
+            cached.getBody().close();
+            if (!cached.isValidated()) {
+                cached = null;
+            }
+        }
+        this.downloadResponse(method, collection, searchTerms, cached);
+    }
+
     /**
      * Downloads the request response.
      * @param method type of search that will be executed.
      * @param collection name of the queried collection.
      * @param searchTerms request parameters.
-     * @return a String that contains the web service response.
+     * @param cached The cached response whose validators are sent, so
+     * Ella WS answers not modified if it did not change, or null.
+     * @return The web service response and the time it was downloaded,
+     * or null if the cached response was not modified.
      * @throws IOException When there is a problem with the
      * connection to Ella WS.
      * */
-    private String downloadResponse(final String method,
+    private CacheEntry downloadResponse(final String method,
+            final String collection,
+            final HashMap<String, String> searchTerms,
+            final CacheEntry cached) throws IOException {
+        final String url = this.getUrl(method, collection, searchTerms);
+        final HashMap<String, String> conditions =
+            new HashMap<String, String>();
+        if (cached != null && cached.getETag() != null) {
+            conditions.put("If-None-Match", cached.getETag());
+        }
+        if (cached != null && cached.getLastModified() != null) {
+            conditions.put("If-Modified-Since", cached.getLastModified());
+        }
+        Download download = this.attempt(url, new Callable<Download>() {
+            public Download call() throws IOException {
+                Download attempted = openDownload(url, conditions);
+                attempted.readText();
+                return attempted;
+            }
+        });
+        return this.toEntry(download, method, collection, searchTerms,
+                cached);
+    }
+
+    /**
+     * Downloads the request response without waiting for it.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @return A future completed, in the executor of the Ella connection,
+     * with the web service response and the time it was downloaded, or
+     * completed exceptionally with the IOException.
+     * */
+    private CompletableFuture<CacheEntry> downloadResponseAsync(
+            final String method, final String collection,
+            final HashMap<String, String> searchTerms) {
+        final CompletableFuture<CacheEntry> result =
+            new CompletableFuture<CacheEntry>();
+        final String url;
+        CompletableFuture<TransportResponse> opened =
+            new CompletableFuture<TransportResponse>();
+        try {
+            url = this.getUrl(method, collection, searchTerms);
+            this.openResponseAsync(new URL(url), this.getHeaders(null), 0,
+                    opened);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        final long start = System.nanoTime();
+        opened.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+            public void accept(final TransportResponse response,
+                    final Throwable failure) {
+                if (failure != null) {
+                    result.completeExceptionally(Util.unwrap(failure));
+                    return;
+                }
+                Util.forward(Util.supplyAsync(new Callable<CacheEntry>() {
+                    public CacheEntry call() throws IOException {
+                        Download download;
+                        try {
+                            download = new Download(url, response, null,
+                                    start);
+                        } catch (IOException e) {
+                            response.close();
+                            throw e;
+                        }
+                        download.readText();
+                        return toEntry(download, method, collection,
+                                searchTerms, null);
+                    }
+                }, ellaConnection.getExecutor()), result);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Makes the web service response of a download, that is cached if it
+     * can be.
+     * @param download A download whose body is read.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @param cached The cached response whose validators were sent, or
+     * null.
+     * @return The web service response and the time it was downloaded,
+     * or null if the cached response was not modified.
+     * @throws IOException When the response is an unexpected not
+     * modified answer.
+     * */
+    private CacheEntry toEntry(final Download download, final String method,
             final String collection,
+            final HashMap<String, String> searchTerms,
+            final CacheEntry cached) throws IOException {
+        String url = download.url;
+        String jsonResponseStr = download.getText();
+//        System.out.println("JSON RESPONSE: " + jsonResponse);
+        long storedAt = System.currentTimeMillis();
+        String cacheKey = this.getCacheKey(searchTerms, method, collection);
+        if (download.isNotModified()) {
+            if (cached == null || cacheKey == null
+                    || !this.getResponseCache().touchEntry(cacheKey,
+                            storedAt)) {
+                throw new IOException("Unexpected not modified response: "
+                        + url);
+            }
+            return null;
+        }
+        CacheEntry entry = new CacheEntry(storedAt, jsonResponseStr,
+                download.isError());
+        entry.setValidators(download.getETag(), download.getLastModified());
+        if (this.cacheEnable && this.isCached(download)) {
+            if (cacheKey != null) {
+                try {
+                    this.cacheResponse(cacheKey, entry);
+                } catch (IOException e) {
+                    // the response is returned without being cached
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * @param download A download.
+     * @return True if the response of the download can be cached: it is
+     * not an error, or error responses are cached.
+     * */
+    private boolean isCached(final Download download) {
+        return !download.isError()
+            || this.getResponseCache().getErrorTimeToLive() > 0;
+    }
+
+    /**
+     * @param document A parsed response.
+     * @return True if the response is an Ella WS error, that is replayed
+     * as the same ServiceException.
+     * */
+    private static boolean isErrorDocument(final Object document) {
+        return document instanceof JSONObject
+            && ((JSONObject) document).get("response") == null
+            && ((JSONObject) document).get("error") instanceof JSONObject;
+    }
+
+    /**
+     * Writes a downloaded response to the cache, as BinaryJson if the
+     * cache is set to and the response is valid JSON. The response is
+     * then parsed only once. Error responses are written only if they
+     * are Ella WS errors.
+     * @param cacheKey The request key.
+     * @param entry The downloaded response.
+     * @throws IOException When the response can not be written.
+     * */
+    private void cacheResponse(final String cacheKey,
+            final CacheEntry entry) throws IOException {
+        ResponseCache responseCache = this.getResponseCache();
+        if (responseCache.isBinaryFormat() || entry.isError()) {
+            Object document;
+            try {
+                document = entry.getDocument();
+            } catch (ParseException e) {
+                document = null;
+            }
+            if (entry.isError() && !Request.isErrorDocument(document)) {
+                return;
+            } else if (document != null && responseCache.isBinaryFormat()) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                BinaryJson.encode(document, output);
+                responseCache.writeEntry(cacheKey, entry,
+                        output.toByteArray(), true);
+                return;
+            }
+        }
+        responseCache.writeEntry(cacheKey, entry,
+                entry.getText().getBytes("utf-8"), false);
+    }
+
+    /**
+     * Downloads the request response and parses it while it is read.
+     * The response is copied at the same time to a temporary spool file
+     * and streamed to the cache once it is complete, so the memory used
+     * stays bounded by one result with the cache on too. A disk tier
+     * that does not store entries from a stream, as the segment cache,
+     * reads the finished entry into memory to write it.
+     * @param url The request URL.
+     * @param cacheKey The request key or null if it is not cached.
+     * @param jsonParser The parser.
+     * @param streamHandler The parser content handler.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * @throws ParseException When the response is not valid JSON.
+     * */
+    private void streamDownload(final String url, final String cacheKey,
+            final JSONParser jsonParser,
+            final ResultStreamHandler streamHandler)
+    throws IOException, ParseException {
+        Download download = this.attempt(url, new Callable<Download>() {
+            public Download call() throws IOException {
+                return openDownload(url, null);
+            }
+        });
+        CacheEntry.Spool copy = null;
+        try {
+            boolean binary = false;
+            InputStream body = download.getBody();
+            ContentHandler handler = streamHandler;
+            if (cacheKey != null && this.isCached(download)) {
+                try {
+                    copy = this.getResponseCache().newSpool();
+                } catch (IOException e) {
+                    // the response is handled without being cached
+                    copy = null;
+                }
+            }
+            if (copy != null) {
+                binary = this.getResponseCache().isBinaryFormat();
+                if (binary) {
+                    handler = BinaryJson.writer(streamHandler, copy);
+                } else {
+                    body = new TeeInputStream(body, copy);
+                }
+            }
+            try {
+                jsonParser.parse(new InputStreamReader(body, "utf-8"),
+                        handler);
+            } catch (IOException e) {
+                download.drop();
+                throw e;
+            } finally {
+                download.close();
+            }
+            if (copy != null && (!download.isError() || Request
+                    .isErrorDocument(streamHandler.getDocument()))) {
+                CacheEntry entry = new CacheEntry(System.currentTimeMillis(),
+                        download.isError());
+                entry.setValidators(download.getETag(),
+                        download.getLastModified());
+                try {
+                    this.getResponseCache().writeEntry(cacheKey, entry, copy,
+                            binary);
+                } catch (IOException e) {
+                    // the response is handled without being cached
+                }
+            }
+        } finally {
+            if (copy != null) {
+                copy.close();
+            }
+        }
+    }
+
+    /**
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @return The request URL.
+     * @throws IOException When the parameters can not be encoded.
+     * */
+    private String getUrl(final String method, final String collection,
             final HashMap<String, String> searchTerms) throws IOException {
         StringBuffer params = new StringBuffer();
         String sep = "";
@@ -153,153 +940,379 @@ public class Request {
         }
         url += method + "?" + params.toString();
 //        System.out.println("URL: " + url);
-        HttpURLConnection urlCon = (HttpURLConnection) new URL(
-                url).openConnection();
-        BufferedReader bufferedReader;
-        boolean error = false;
+        return url;
+    }
+
+    /**
+     * Makes a download under the resilience policy, if any.
+     * @param <T> The type of the download result.
+     * @param url The request URL.
+     * @param call The download made by each attempt.
+     * @return The download result.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    private <T> T attempt(final String url, final Callable<T> call)
+    throws IOException {
+        ResiliencePolicy policy = this.getResiliencePolicy();
+        if (policy != null) {
+            return ResilientCall.execute(policy, url, call);
+        }
         try {
-            bufferedReader = new BufferedReader(
-                new InputStreamReader(urlCon.getInputStream()));
-        } catch (FileNotFoundException fnfe) {
-            bufferedReader = new BufferedReader(
-                    new InputStreamReader(urlCon.getErrorStream()));
-            error = true;
-        }
-        String inputLine, jsonResponseStr;
-        StringBuffer jsonResponse = new StringBuffer();
-        while ((inputLine = bufferedReader.readLine()) != null) {
-            jsonResponse.append(inputLine);
-        }
-        bufferedReader.close();
-        jsonResponseStr = jsonResponse.toString();
-//        System.out.println("JSON RESPONSE: " + jsonResponse);
-        if (!error && this.cacheEnable) {
-            FileWriter cacheFile = null;
-            try {
-                String cacheKey = this.getCacheKey(
-                        searchTerms, method, collection);
-                if (cacheKey != null) {
-                    cacheFile = new FileWriter(
-                            new File(this.getCacheDir(), cacheKey));
-                    cacheFile.write(jsonResponseStr);
-                    cacheFile.close();
-                }
-            } catch (IOException e) {
-                if (cacheFile != null) {
-                    cacheFile.close();
-                }
-            }
+            return call.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
-        return jsonResponseStr;
     }
 
     /**
-     * @param cacheKey The request key that is going to be checked.
-     * @param params request parameters.
-     * @param method type of search that will be executed.
-     * @param collection name of the queried collection.
-     * @return A string with the request response.
+     * Sends the request and opens its decoded body. Inside an attempt of a
+     * resilience policy the download is closed if the attempt is
+     * abandoned before it returns.
+     * @param url The request URL.
+     * @param conditions Conditional request headers, or null.
+     * @return The opened download. It must be closed.
      * @throws IOException When there is a problem with the
      * connection to Ella WS.
      * */
-    private String getCachedResponse(final String cacheKey,
-            final HashMap<String, String> params, final String method,
-            final String collection) throws IOException {
-        if (cacheKey != null && !this.isCached(cacheKey)) {
-            return this.downloadResponse(method, collection, params);
+    private Download openDownload(final String url,
+            final Map<String, String> conditions) throws IOException {
+        ConcurrencyLimiter limiter =
+            this.ellaConnection.getConcurrencyLimiter();
+        if (limiter != null) {
+            limiter.acquire(url);
         }
+        long start = System.nanoTime();
+        TransportResponse response;
         try {
-            StringBuffer jsonResponse = new StringBuffer();
-            BufferedReader reader = new BufferedReader(
-                    new FileReader(
-                            new File(this.jellaCacheDir, cacheKey)));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                jsonResponse.append(line);
+            response = this.openResponse(new URL(url), conditions);
+        } catch (IOException e) {
+            Request.release(limiter, start, Request.isOverload(e));
+            throw e;
+        } catch (RuntimeException e) {
+            Request.release(limiter, start, true);
+            throw e;
+        }
+        try {
+            Download download = new Download(url, response, limiter, start);
+            ResilientCall.closeOnAbandon(download);
+            return download;
+        } catch (IOException e) {
+            response.close();
+            Request.release(limiter, start, false);
+            throw e;
+        }
+    }
+
+    /**
+     * @param e The failure of a request.
+     * @return True if the failure suggests Ella WS is overloaded: network
+     * failures, timeouts, server errors and throttling.
+     * */
+    private static boolean isOverload(final IOException e) {
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).getStatus();
+            return status >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || status == Request.HTTP_TOO_MANY_REQUESTS;
+        }
+        return true;
+    }
+
+    /**
+     * Ends a request in the concurrency limiter.
+     * @param limiter The limiter, or null.
+     * @param start A System.nanoTime value taken when the request was
+     * sent.
+     * @param dropped True if the request failed in a way that suggests
+     * Ella WS is overloaded.
+     * */
+    private static void release(final ConcurrencyLimiter limiter,
+            final long start, final boolean dropped) {
+        if (limiter != null) {
+            limiter.release(TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - start), dropped);
+        }
+    }
+
+    /**
+     * Reads a whole stream of characters and closes it.
+     * @param reader The stream to read.
+     * @return The characters read.
+     * @throws IOException When the stream can not be read.
+     * */
+    private static String readFully(final Reader reader) throws IOException {
+        try {
+            StringBuilder content = new StringBuilder();
+            char[] buffer = new char[Request.BUFFER_SIZE];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, count);
             }
+            return content.toString();
+        } finally {
             reader.close();
-            return jsonResponse.toString();
-        } catch (IOException e) {
-            return this.downloadResponse(method, collection, params);
         }
     }
 
     /**
-     * @return The Ella connection instance.
+     * Sends the request through the connection transport. It sends the
+     * connection credentials preemptively and follows redirects, without
+     * the credentials when they lead to another host.
+     * @param requestUrl The URL to be requested.
+     * @param conditions Conditional request headers, or null.
+     * @return The response of the final URL. 404 and 410 responses are
+     * returned so the error body can be read.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS or the response status is an error.
      * */
-    public final EllaConnection getEllaConnection() {
-        return this.ellaConnection;
+    private TransportResponse openResponse(final URL requestUrl,
+            final Map<String, String> conditions) throws IOException {
+        URL url = requestUrl;
+        HashMap<String, String> headers = this.getHeaders(conditions);
+        for (int redirects = 0; ; redirects++) {
+            TransportResponse response = this.ellaConnection.getTransport()
+            .get(url, headers);
+            URL target = this.getRedirect(response, url, headers, redirects);
+            if (target == null) {
+                return response;
+            }
+            url = target;
+        }
+    }
+
+    /**
+     * Sends the request through the connection transport as openResponse
+     * does, without waiting for the response.
+     * @param url The URL to be requested.
+     * @param headers The request headers.
+     * @param redirects Number of redirects already followed.
+     * @param result The future completed with the response of the final
+     * URL, or exceptionally with the IOException.
+     * */
+    private void openResponseAsync(final URL url,
+            final HashMap<String, String> headers, final int redirects,
+            final CompletableFuture<TransportResponse> result) {
+        this.ellaConnection.getTransport().getAsync(url, headers,
+                this.ellaConnection.getExecutor()).whenComplete(
+                        new BiConsumer<TransportResponse, Throwable>() {
+            public void accept(final TransportResponse response,
+                    final Throwable failure) {
+                if (failure != null) {
+                    result.completeExceptionally(Util.unwrap(failure));
+                    return;
+                }
+                try {
+                    URL target = getRedirect(response, url, headers,
+                            redirects);
+                    if (target == null) {
+                        result.complete(response);
+                    } else {
+                        openResponseAsync(target, headers, redirects + 1,
+                                result);
+                    }
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param conditions Conditional request headers, or null.
+     * @return The headers sent with a request.
+     * */
+    private HashMap<String, String> getHeaders(
+            final Map<String, String> conditions) {
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.put("Accept-Encoding", Request.ACCEPT_ENCODING);
+        if (conditions != null) {
+            headers.putAll(conditions);
+        }
+        String authorization = this.ellaConnection.getAuthorization();
+        if (authorization != null) {
+            headers.put("Authorization", authorization);
+        }
+        return headers;
     }
 
     /**
+     * Checks a response, closing it unless it is returned. The credentials
+     * are removed from the headers when the redirect leads to another
+     * host.
+     * @param response The response of the URL.
+     * @param url The requested URL.
+     * @param headers The request headers.
+     * @param redirects Number of redirects already followed.
+     * @return The URL the response redirects to, or null if the response
+     * is the final one.
+     * @throws IOException When the response status is an error or the
+     * redirect URL is invalid.
+     * */
+    private URL getRedirect(final TransportResponse response, final URL url,
+            final HashMap<String, String> headers, final int redirects)
+    throws IOException {
+        int status = response.getStatus();
+        String location = response.getHeader("Location");
+        if (location != null && redirects < Request.MAX_REDIRECTS
+                && (status == HttpURLConnection.HTTP_MOVED_PERM
+                        || status == HttpURLConnection.HTTP_MOVED_TEMP
+                        || status == HttpURLConnection.HTTP_SEE_OTHER
+                        || status == Request.HTTP_TEMPORARY_REDIRECT)) {
+            URL target;
+            try {
+                target = new URL(url, location);
+            } catch (IOException e) {
+                response.close();
+                throw e;
+            }
+            if (target.getProtocol().equals(url.getProtocol())) {
+                response.close();
+                if (!target.getHost().equalsIgnoreCase(url.getHost())
+                        || PooledTransport.getPort(target)
+                        != PooledTransport.getPort(url)) {
+                    headers.remove("Authorization");
+                }
+                return target;
+            }
+        }
+        if (status >= HttpURLConnection.HTTP_BAD_REQUEST
+                && status != HttpURLConnection.HTTP_NOT_FOUND
+                && status != HttpURLConnection.HTTP_GONE) {
+            response.close();
+            throw new HttpStatusException(status, url.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Wraps a response body with the decoder of its content encoding.
+     * @param body The response body as received from the network.
+     * @param contentEncoding The Content-Encoding of the response. It can
+     * be null.
+     * @return A stream with the decoded body.
+     * @throws IOException When the encoding is not supported or the
+     * encoded header is invalid.
+     * */
+    static InputStream decode(final InputStream body,
+            final String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return body;
+        }
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (encoding.equals("") || encoding.equals("identity")) {
+            return body;
+        } else if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(body);
+        } else if (encoding.equals("deflate")) {
+            // some servers send raw deflate data instead of zlib
+            PushbackInputStream pushback = new PushbackInputStream(body, 2);
+            int cmf = pushback.read();
+            int flg = pushback.read();
+            if (flg != -1) {
+                pushback.unread(flg);
+            }
+            if (cmf != -1) {
+                pushback.unread(cmf);
+            }
+            boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8
+                && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(pushback, new Inflater(!zlib));
+        }
+        throw new IOException("Unsupported Content-Encoding: "
+                + contentEncoding);
+    }
+
+    /**
+     * @param cacheKey The request key that is going to be checked.
      * @param params request parameters.
      * @param method type of search that will be executed.
      * @param collection name of the queried collection.
-     * @return A string with the generated request key.
+     * @return The cached response, unless it can no longer be served,
+     * or else the downloaded one.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
      * */
-    private String getCacheKey(final HashMap<String, String> params,
-            final String method, final String collection) {
-        StringBuffer cacheKey = new StringBuffer();
-        if (collection != null && !collection.equals("")) {
-            cacheKey.append(collection + method);
-        } else {
-            cacheKey.append(method);
+    private CacheEntry getCachedResponse(final String cacheKey,
+            final HashMap<String, String> params, final String method,
+            final String collection) throws IOException {
+        CacheEntry entry = this.readCached(cacheKey, method);
+        if (entry == null) {
+            this.getResponseCache().recordMiss();
+            return this.downloadResponse(method, collection, params, null);
         }
-        if (params != null) {
-            Object[] keys = params.keySet().toArray();
-            Arrays.sort(keys);
-            for (Object key : keys) {
-                cacheKey.append(key.toString() + params.get(key.toString()));
-            }
+        return entry;
+    }
+
+    /**
+     * @param cacheKey The request key that is going to be checked.
+     * @param method type of search that will be executed.
+     * @return The cached response, loaded, or null if it is not cached or
+     * can no longer be served.
+     * */
+    private CacheEntry readCached(final String cacheKey,
+            final String method) {
+        if (cacheKey == null) {
+            return null;
         }
+        ResponseCache responseCache = this.getResponseCache();
+        CacheEntry entry;
         try {
-            return URLEncoder.encode(this.getMD5(cacheKey.toString()),
-                    "utf-8");
-        } catch (NoSuchAlgorithmException e) {
-            return null;
-        } catch (UnsupportedEncodingException e) {
+            entry = responseCache.readEntry(cacheKey);
+            if (entry == null) {
+                return null;
+            } else if (responseCache.getFreshness(method,
+                    entry.getStoredAt(), entry.isError())
+                    == ResponseCache.EXPIRED) {
+                entry.getBody().close();
+                return null;
+            }
+            entry.load();
+        } catch (IOException e) {
             return null;
         }
+        responseCache.recordDiskHit(entry.isError());
+        return entry;
     }
 
     /**
-     * @param cacheKey The request key that is going to be checked.
-     * @return True if the request is cached. False if not.
+     * @return The resilience policy used by the request: its own or, if
+     * it has none, the one of the Ella connection. Null means a single
+     * attempt without timeout.
      * */
-    private boolean isCached(final String cacheKey) {
-        if (cacheKey == null) {
-            return false;
+    public final ResiliencePolicy getResiliencePolicy() {
+        if (this.resiliencePolicy != null) {
+            return this.resiliencePolicy;
         }
-        return (new File(this.jellaCacheDir, cacheKey)).exists();
+        return this.ellaConnection.getResiliencePolicy();
     }
 
     /**
-     * @param input A string from which you want to get the MD5 value.
-     * @throws NoSuchAlgorithmException when the MD5 algorithms is not found.
-     * @throws UnsupportedEncodingException when encoding UTF-8 fails.
-     * @return A string with the MD5 value for the input.
+     * @return The response cache of the cache directory.
      * */
-    private String getMD5(final String input)
-    throws NoSuchAlgorithmException, UnsupportedEncodingException {
-        String output = "";
-        byte[] textBytes = input.getBytes("UTF-8");
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        md.update(textBytes);
-        byte[] hash = md.digest();
-        output = new String(hash);
-        return output;
+    public final ResponseCache getResponseCache() {
+        return this.ellaConnection.getResponseCache(this.jellaCacheDir);
     }
 
     /**
-     * @return A string that represents the cache directory path.
-     * It creates the directory if it does not exist.
+     * @return The Ella connection instance.
      * */
-    private String getCacheDir() {
-        File directory = new File(this.jellaCacheDir);
-        if (!directory.exists() && !directory.mkdir()) {
-            return null;
-        }
-        return this.jellaCacheDir;
+    public final EllaConnection getEllaConnection() {
+        return this.ellaConnection;
+    }
+
+    /**
+     * @param params request parameters.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @return A string with the generated request key.
+     * */
+    private String getCacheKey(final HashMap<String, String> params,
+            final String method, final String collection) {
+        return CacheKey.of(method, collection, params);
     }
 
     /**
@@ -312,7 +1325,10 @@ public class Request {
     /**
      * Modifies the cacheEnable value.
      * @param cacheEnableValue The value of cacheEnable.
+     * @deprecated A request should not change while it is used; create a
+     * new Request with the cache switch instead.
      * */
+    @Deprecated
     public final void setCacheEnable(final boolean cacheEnableValue) {
         this.cacheEnable = cacheEnableValue;
     }
@@ -327,8 +1343,241 @@ public class Request {
     /**
      * Modifies the path of the cache directory.
      * @param jellaCacheDirValue The path of the cache directory.
+     * @deprecated A request should not change while it is used; create a
+     * new Request with the cache directory instead.
      * */
+    @Deprecated
     public final void setJellaCacheDir(final String jellaCacheDirValue) {
         this.jellaCacheDir = jellaCacheDirValue;
     }
+
+    /**
+     * Java Class Download.
+     * The decoded body of a response being downloaded. Closing it records
+     * its transfer statistics.
+     * */
+    private final class Download implements Closeable {
+        /**
+         * The request URL.
+         * */
+        private String url;
+        /**
+         * The transport response.
+         * */
+        private TransportResponse response;
+        /**
+         * The Content-Encoding of the response.
+         * */
+        private String contentEncoding;
+        /**
+         * Counter of the bytes received from the network.
+         * */
+        private CountingInputStream wire;
+        /**
+         * Counter of the decoded bytes.
+         * */
+        private CountingInputStream decoded;
+        /**
+         * The whole decoded body, once it is read.
+         * */
+        private String text;
+        /**
+         * Specifies if the download is closed.
+         * */
+        private boolean closed;
+        /**
+         * The concurrency limiter the download holds a slot of, or null.
+         * */
+        private ConcurrencyLimiter limiter;
+        /**
+         * A System.nanoTime value taken when the request was sent.
+         * */
+        private long start;
+        /**
+         * Specifies if the download failed in a way that suggests Ella WS
+         * is overloaded.
+         * */
+        private boolean dropped;
+
+        /**
+         * Class constructor.
+         * @param urlValue The request URL.
+         * @param responseValue The transport response.
+         * @param limiterValue The concurrency limiter the download holds a
+         * slot of, or null.
+         * @param startValue A System.nanoTime value taken when the request
+         * was sent.
+         * @throws IOException When the content encoding is not supported.
+         * */
+        Download(final String urlValue,
+                final TransportResponse responseValue,
+                final ConcurrencyLimiter limiterValue, final long startValue)
+        throws IOException {
+            this.url = urlValue;
+            this.response = responseValue;
+            this.limiter = limiterValue;
+            this.start = startValue;
+            this.contentEncoding = responseValue.getHeader("Content-Encoding");
+            this.wire = new CountingInputStream(responseValue.getBody());
+            this.decoded = new CountingInputStream(
+                    Request.decode(this.wire, this.contentEncoding));
+        }
+
+        /**
+         * @return The decoded body.
+         * */
+        InputStream getBody() {
+            return this.decoded;
+        }
+
+        /**
+         * @return True if the body is an Ella WS error.
+         * */
+        boolean isError() {
+            return this.response.getStatus()
+                == HttpURLConnection.HTTP_NOT_FOUND
+                || this.response.getStatus() == HttpURLConnection.HTTP_GONE;
+        }
+
+        /**
+         * @return True if the response is not modified since the
+         * validators of the request.
+         * */
+        boolean isNotModified() {
+            return this.response.getStatus()
+                == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * @return The ETag of the response, or null.
+         * */
+        String getETag() {
+            return this.response.getHeader("ETag");
+        }
+
+        /**
+         * @return The Last-Modified date of the response, or null.
+         * */
+        String getLastModified() {
+            return this.response.getHeader("Last-Modified");
+        }
+
+        /**
+         * Reads the whole decoded body and closes the download.
+         * @throws IOException When the body can not be read.
+         * */
+        void readText() throws IOException {
+            try {
+                this.text = Request.readFully(new InputStreamReader(
+                        this.decoded, "utf-8"));
+            } catch (IOException e) {
+                this.drop();
+                throw e;
+            } finally {
+                this.close();
+            }
+        }
+
+        /**
+         * @return The whole decoded body, once it is read.
+         * */
+        String getText() {
+            return this.text;
+        }
+
+        /**
+         * Marks the download as failed in a way that suggests Ella WS is
+         * overloaded.
+         * */
+        synchronized void drop() {
+            this.dropped = true;
+        }
+
+        /**
+         * Closes the response and records the transfer statistics.
+         * @throws IOException When the response can not be closed.
+         * */
+        public synchronized void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            Request.release(this.limiter, this.start, this.dropped);
+            this.response.close();
+            ellaConnection.recordTransfer(new TransferStats(this.url,
+                    this.contentEncoding, this.wire.getCount(),
+                    this.decoded.getCount()));
+        }
+    }
+
+    /**
+     * Java Class TeeInputStream.
+     * Copies every byte read to an output stream.
+     * */
+    private static final class TeeInputStream extends FilterInputStream {
+        /**
+         * The copy destination.
+         * */
+        private OutputStream copy;
+
+        /**
+         * Class constructor.
+         * @param input The stream to read.
+         * @param copyValue The copy destination.
+         * */
+        TeeInputStream(final InputStream input, final OutputStream copyValue) {
+            super(input);
+            this.copy = copyValue;
+        }
+
+        /**
+         * @return The next byte or -1 at the end of the stream.
+         * @throws IOException When the stream can not be read or copied.
+         * */
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                this.copy.write(value);
+            }
+            return value;
+        }
+
+        /**
+         * @param buffer The buffer where the data is stored.
+         * @param offset The start offset in the buffer.
+         * @param length The max number of bytes to read.
+         * @return The number of bytes read or -1 at the end of the stream.
+         * @throws IOException When the stream can not be read or copied.
+         * */
+        public int read(final byte[] buffer, final int offset,
+                final int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                this.copy.write(buffer, offset, count);
+            }
+            return count;
+        }
+
+        /**
+         * Skipping would leave holes in the copy.
+         * @param n The number of bytes to skip.
+         * @return The number of bytes skipped.
+         * @throws IOException When the stream can not be read or copied.
+         * */
+        public long skip(final long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, Request.BUFFER_SIZE)];
+            int count = this.read(buffer, 0, buffer.length);
+            if (count == -1) {
+                return 0;
+            }
+            return count;
+        }
+
+        /**
+         * @return false.
+         * */
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package com.bmat.ella;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Java Class RequestContext.
+ * The request shared by the objects of a connection that have the same
+ * cache directory and cache switch. Unlike a Request, it can not be
+ * changed: its request is never handed out, so no setter is called on it.
+ * @author Harrington Joseph (Harph)
+ * */
+final class RequestContext {
+    /**
+     * The shared request.
+     * */
+    private final Request request;
+
+    /**
+     * Class constructor.
+     * @param ellaConnectionValue A connection to the Ella web service.
+     * @param jellaCacheDirValue The path to the cache directory.
+     * @param cacheEnabledValue A boolean that says if the cache is
+     * enabled or not.
+     * */
+    RequestContext(final EllaConnection ellaConnectionValue,
+            final String jellaCacheDirValue,
+            final boolean cacheEnabledValue) {
+        this.request = new Request(ellaConnectionValue, jellaCacheDirValue,
+                cacheEnabledValue);
+    }
+
+    /**
+     * Executes the web service request.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @param cacheable Say if the request can be found in the cache.
+     * @return an Object instance of JSONObject or JSONArray.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * @throws ServiceException When Ella WS response fails.
+     * */
+    Object execute(final String method, final String collection,
+            final HashMap<String, String> searchTerms,
+            final boolean cacheable) throws ServiceException, IOException {
+        return this.request.execute(method, collection, searchTerms,
+                cacheable);
+    }
+
+    /**
+     * Executes the web service request decoding the response while it is
+     * read.
+     * @param method type of search that will be executed.
+     * @param collection name of the queried collection.
+     * @param searchTerms request parameters.
+     * @param cacheable Say if the request can be found in the cache.
+     * @param handler The receiver of the results.
+     * @return an Object instance of JSONObject or JSONArray. If it has
+     * results, they are an empty JSONArray.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * @throws ServiceException When Ella WS response fails.
+     * */
+    Object executeStreaming(final String method, final String collection,
+            final HashMap<String, String> searchTerms,
+            final boolean cacheable, final ResultHandler handler)
+    throws ServiceException, IOException {
+        return this.request.executeStreaming(method, collection, searchTerms,
+                cacheable, handler);
+    }
+
+    /**
+     * @return The Ella connection instance.
+     * */
+    EllaConnection getEllaConnection() {
+        return this.request.getEllaConnection();
+    }
+}
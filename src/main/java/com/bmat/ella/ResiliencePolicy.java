@@ -0,0 +1,341 @@
+package com.bmat.ella;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Java Class ResiliencePolicy.
+ * Says how the requests to Ella WS are attempted: the time given to each
+ * attempt, how many times a failed attempt is retried and how long to
+ * wait before retrying, and if a slow attempt is hedged with a duplicate.
+ * The backoff grows exponentially up to a cap and is fully jittered. The
+ * hedge delay is the configured percentile of the recent attempt
+ * latencies.
+ * @author Harrington Joseph (Harph)
+ * */
+public class ResiliencePolicy {
+    /**
+     * Constant.
+     * Default max number of attempts of a request.
+     * Default value 3.
+     * */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    /**
+     * Constant.
+     * Default backoff, in milliseconds, before the first retry.
+     * Default value 100.
+     * */
+    public static final long DEFAULT_BASE_BACKOFF = 100;
+    /**
+     * Constant.
+     * Default max backoff, in milliseconds.
+     * Default value 2000.
+     * */
+    public static final long DEFAULT_MAX_BACKOFF = 2000;
+    /**
+     * Constant.
+     * Default latency percentile used as hedge delay.
+     * Default value 0.95.
+     * */
+    public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+    /**
+     * Constant.
+     * Default min hedge delay in milliseconds.
+     * Default value 50.
+     * */
+    public static final long DEFAULT_MIN_HEDGE_DELAY = 50;
+    /**
+     * Number of recent latencies kept.
+     * */
+    private static final int LATENCY_WINDOW = 256;
+    /**
+     * Number of latencies needed before the percentile is used.
+     * */
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    /**
+     * HTTP Status-Code 429: Too Many Requests.
+     * */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    /**
+     * HTTP Status-Code 500: Internal Server Error.
+     * */
+    private static final int HTTP_INTERNAL_ERROR = 500;
+    /**
+     * Time, in milliseconds, given to each attempt. 0 means no timeout.
+     * */
+    private long attemptTimeout;
+    /**
+     * Max number of attempts of a request.
+     * */
+    private int maxAttempts;
+    /**
+     * Backoff, in milliseconds, before the first retry.
+     * */
+    private long baseBackoff;
+    /**
+     * Max backoff in milliseconds.
+     * */
+    private long maxBackoff;
+    /**
+     * Specifies if slow attempts are hedged.
+     * */
+    private boolean hedging;
+    /**
+     * Latency percentile used as hedge delay.
+     * */
+    private double hedgePercentile;
+    /**
+     * Min hedge delay in milliseconds. It is also the delay used until
+     * there are enough latencies.
+     * */
+    private long minHedgeDelay;
+    /**
+     * Recent latencies of the successful attempts, as a ring.
+     * */
+    private long[] latencies;
+    /**
+     * Number of latencies recorded.
+     * */
+    private long latencyCount;
+    /**
+     * Listener of the attempt outcomes.
+     * */
+    private volatile AttemptListener attemptListener;
+    /**
+     * Executor that runs the attempts that are timed or hedged.
+     * */
+    private Executor executor;
+
+    /**
+     * Class constructor. Up to DEFAULT_MAX_ATTEMPTS attempts without
+     * timeout nor hedging.
+     * */
+    public ResiliencePolicy() {
+        this(0, ResiliencePolicy.DEFAULT_MAX_ATTEMPTS,
+                ResiliencePolicy.DEFAULT_BASE_BACKOFF,
+                ResiliencePolicy.DEFAULT_MAX_BACKOFF, false);
+    }
+
+    /**
+     * Class constructor.
+     * @param attemptTimeoutValue Time, in milliseconds, given to each
+     * attempt. 0 means no timeout.
+     * @param maxAttemptsValue Max number of attempts of a request.
+     * @param baseBackoffValue Backoff, in milliseconds, before the first
+     * retry.
+     * @param maxBackoffValue Max backoff in milliseconds.
+     * @param hedgingValue Specifies if slow attempts are hedged.
+     * */
+    public ResiliencePolicy(final long attemptTimeoutValue,
+            final int maxAttemptsValue, final long baseBackoffValue,
+            final long maxBackoffValue, final boolean hedgingValue) {
+        if (maxAttemptsValue < 1) {
+            throw new IllegalArgumentException(
+                    "maxAttempts must be greater than 0");
+        }
+        this.attemptTimeout = attemptTimeoutValue;
+        this.maxAttempts = maxAttemptsValue;
+        this.baseBackoff = baseBackoffValue;
+        this.maxBackoff = maxBackoffValue;
+        this.hedging = hedgingValue;
+        this.hedgePercentile = ResiliencePolicy.DEFAULT_HEDGE_PERCENTILE;
+        this.minHedgeDelay = ResiliencePolicy.DEFAULT_MIN_HEDGE_DELAY;
+        this.latencies = new long[ResiliencePolicy.LATENCY_WINDOW];
+    }
+
+    /**
+     * @return Time, in milliseconds, given to each attempt. 0 means no
+     * timeout.
+     * */
+    public final long getAttemptTimeout() {
+        return this.attemptTimeout;
+    }
+
+    /**
+     * @return Max number of attempts of a request.
+     * */
+    public final int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * @return Backoff, in milliseconds, before the first retry.
+     * */
+    public final long getBaseBackoff() {
+        return this.baseBackoff;
+    }
+
+    /**
+     * @return Max backoff in milliseconds.
+     * */
+    public final long getMaxBackoff() {
+        return this.maxBackoff;
+    }
+
+    /**
+     * @return True if slow attempts are hedged.
+     * */
+    public final boolean isHedging() {
+        return this.hedging;
+    }
+
+    /**
+     * @return Latency percentile used as hedge delay.
+     * */
+    public final double getHedgePercentile() {
+        return this.hedgePercentile;
+    }
+
+    /**
+     * Sets the latency percentile used as hedge delay.
+     * @param hedgePercentileValue A value between 0 and 1.
+     * */
+    public final void setHedgePercentile(final double hedgePercentileValue) {
+        if (hedgePercentileValue <= 0 || hedgePercentileValue > 1) {
+            throw new IllegalArgumentException(
+                    "hedgePercentile must be in (0, 1]");
+        }
+        this.hedgePercentile = hedgePercentileValue;
+    }
+
+    /**
+     * @return Min hedge delay in milliseconds.
+     * */
+    public final long getMinHedgeDelay() {
+        return this.minHedgeDelay;
+    }
+
+    /**
+     * Sets the min hedge delay. It is also the delay used until there are
+     * enough latencies.
+     * @param minHedgeDelayValue Delay in milliseconds.
+     * */
+    public final void setMinHedgeDelay(final long minHedgeDelayValue) {
+        this.minHedgeDelay = minHedgeDelayValue;
+    }
+
+    /**
+     * @return The listener of the attempt outcomes.
+     * */
+    public final AttemptListener getAttemptListener() {
+        return this.attemptListener;
+    }
+
+    /**
+     * Sets the listener of the attempt outcomes.
+     * @param attemptListenerValue The listener. It can be null.
+     * */
+    public final void setAttemptListener(
+            final AttemptListener attemptListenerValue) {
+        this.attemptListener = attemptListenerValue;
+    }
+
+    /**
+     * @return The executor that runs the attempts that are timed or
+     * hedged. Unless one was set, it is a cached pool of daemon threads.
+     * It must not be bounded by the same permits as the callers.
+     * */
+    public final synchronized Executor getExecutor() {
+        if (this.executor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newCachedThreadPool(
+                    new ThreadFactory() {
+                        public Thread newThread(final Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "jella-attempt-"
+                                    + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return this.executor;
+    }
+
+    /**
+     * Sets the executor that runs the attempts that are timed or hedged.
+     * @param executorValue The executor instance.
+     * */
+    public final synchronized void setExecutor(final Executor executorValue) {
+        this.executor = executorValue;
+    }
+
+    /**
+     * @param attempt Number of the failed attempt, starting at 1.
+     * @return Time, in milliseconds, to wait before the next attempt. It
+     * is a random value up to the exponential backoff of the attempt.
+     * */
+    public final long getBackoff(final int attempt) {
+        long ceiling = this.maxBackoff;
+        if (attempt < Long.SIZE - 1
+                && this.baseBackoff < (this.maxBackoff >> (attempt - 1))) {
+            ceiling = this.baseBackoff << (attempt - 1);
+        }
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return Time, in milliseconds, to wait for an attempt before
+     * hedging it.
+     * */
+    public final synchronized long getHedgeDelay() {
+        int size = (int) Math.min(this.latencyCount, this.latencies.length);
+        if (size < ResiliencePolicy.MIN_LATENCY_SAMPLES) {
+            return this.minHedgeDelay;
+        }
+        long[] sorted = Arrays.copyOf(this.latencies, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(this.hedgePercentile * size) - 1;
+        return Math.max(this.minHedgeDelay, sorted[Math.max(index, 0)]);
+    }
+
+    /**
+     * @param e The failure of an attempt.
+     * @return True if the request can be attempted again: network
+     * failures, timeouts, server errors and throttling. Requests shed by
+     * the concurrency limiter are not retried.
+     * */
+    public boolean isRetryable(final IOException e) {
+        if (e instanceof ConcurrencyLimitException) {
+            return false;
+        }
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).getStatus();
+            return status >= ResiliencePolicy.HTTP_INTERNAL_ERROR
+                || status == ResiliencePolicy.HTTP_TOO_MANY_REQUESTS;
+        }
+        return !(e instanceof InterruptedIOException)
+            || e instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Records the latency of a successful attempt.
+     * @param latency Time in milliseconds.
+     * */
+    final synchronized void recordLatency(final long latency) {
+        this.latencies[(int) (this.latencyCount % this.latencies.length)] =
+            latency;
+        this.latencyCount++;
+    }
+
+    /**
+     * Reports an attempt outcome to the listener.
+     * @param event The attempt outcome.
+     * */
+    final void report(final AttemptEvent event) {
+        AttemptListener listener = this.attemptListener;
+        if (listener != null) {
+            listener.attempted(event);
+        }
+    }
+}
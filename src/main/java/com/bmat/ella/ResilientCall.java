@@ -0,0 +1,406 @@
+package com.bmat.ella;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java Class ResilientCall.
+ * Runs a request call under a resilience policy. Timed or hedged
+ * attempts run in the policy executor and the caller waits for the first
+ * one that answers. An abandoned attempt is cancelled: its thread is
+ * interrupted and the resource it registered with closeOnAbandon, as its
+ * connection, is closed, so it releases its connection permit and its
+ * concurrency limiter slot. Its result is closed when it is Closeable.
+ * @param <T> The type of the call result.
+ * @author Harrington Joseph (Harph)
+ * */
+final class ResilientCall<T> {
+    /**
+     * Constant.
+     * The runner of the attempt made in the current thread.
+     * */
+    private static final ThreadLocal<ResilientCall<?>.Runner> CURRENT =
+        new ThreadLocal<ResilientCall<?>.Runner>();
+    /**
+     * The policy.
+     * */
+    private ResiliencePolicy policy;
+    /**
+     * The requested URL.
+     * */
+    private String url;
+    /**
+     * The call made by each attempt.
+     * */
+    private Callable<T> call;
+    /**
+     * Number of the attempt.
+     * */
+    private int attempt;
+    /**
+     * The finished runners, in finishing order.
+     * */
+    private LinkedBlockingQueue<Runner> finished;
+    /**
+     * The runners that have not been taken from the finished queue.
+     * */
+    private ArrayList<Runner> running;
+
+    /**
+     * Class constructor.
+     * @param policyValue The policy.
+     * @param urlValue The requested URL.
+     * @param callValue The call made by each attempt.
+     * @param attemptValue Number of the attempt.
+     * */
+    private ResilientCall(final ResiliencePolicy policyValue,
+            final String urlValue, final Callable<T> callValue,
+            final int attemptValue) {
+        this.policy = policyValue;
+        this.url = urlValue;
+        this.call = callValue;
+        this.attempt = attemptValue;
+        this.finished = new LinkedBlockingQueue<Runner>();
+        this.running = new ArrayList<Runner>(2);
+    }
+
+    /**
+     * Makes the attempts allowed by the policy until one succeeds or
+     * fails with an error that is not retryable.
+     * @param <T> The type of the call result.
+     * @param policy The policy.
+     * @param url The requested URL.
+     * @param call The call made by each attempt.
+     * @return The result of the successful attempt.
+     * @throws IOException The failure of the last attempt.
+     * */
+    static <T> T execute(final ResiliencePolicy policy, final String url,
+            final Callable<T> call) throws IOException {
+        for (int attempt = 1;; attempt++) {
+            try {
+                if (policy.getAttemptTimeout() <= 0 && !policy.isHedging()) {
+                    return ResilientCall.attempt(policy, url, call, attempt);
+                }
+                return new ResilientCall<T>(policy, url, call, attempt).race();
+            } catch (IOException e) {
+                if (attempt >= policy.getMaxAttempts()
+                        || !policy.isRetryable(e)) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(policy.getBackoff(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted retrying "
+                        + url);
+            }
+        }
+    }
+
+    /**
+     * Makes an attempt in the caller thread.
+     * @param <T> The type of the call result.
+     * @param policy The policy.
+     * @param url The requested URL.
+     * @param call The call made by the attempt.
+     * @param attempt Number of the attempt.
+     * @return The call result.
+     * @throws IOException When the attempt fails.
+     * */
+    private static <T> T attempt(final ResiliencePolicy policy,
+            final String url, final Callable<T> call, final int attempt)
+    throws IOException {
+        long start = System.nanoTime();
+        try {
+            T value = call.call();
+            long elapsed = ResilientCall.elapsed(start);
+            policy.recordLatency(elapsed);
+            policy.report(new AttemptEvent(url, attempt, false,
+                    AttemptEvent.Outcome.SUCCEEDED, elapsed, null));
+            return value;
+        } catch (Exception e) {
+            policy.report(new AttemptEvent(url, attempt, false,
+                    AttemptEvent.Outcome.FAILED, ResilientCall.elapsed(start),
+                    e));
+            throw ResilientCall.<IOException>rethrow(e);
+        }
+    }
+
+    /**
+     * Starts the attempt, and its hedge if it is slow, and waits for the
+     * first one that answers.
+     * @return The result of the first successful runner.
+     * @throws IOException When every runner fails or the attempt times
+     * out.
+     * */
+    private T race() throws IOException {
+        long start = System.nanoTime();
+        long timeout = this.policy.getAttemptTimeout();
+        long hedgeDelay = -1;
+        if (this.policy.isHedging()) {
+            hedgeDelay = this.policy.getHedgeDelay();
+        }
+        this.launch(false);
+        Throwable failure = null;
+        while (!this.running.isEmpty()) {
+            long elapsed = ResilientCall.elapsed(start);
+            long wait = Long.MAX_VALUE;
+            if (timeout > 0) {
+                wait = timeout - elapsed;
+            }
+            if (hedgeDelay >= 0) {
+                wait = Math.min(wait, hedgeDelay - elapsed);
+            }
+            Runner runner;
+            try {
+                if (wait == Long.MAX_VALUE) {
+                    runner = this.finished.take();
+                } else {
+                    runner = this.finished.poll(Math.max(wait, 0),
+                            TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                this.abandon(AttemptEvent.Outcome.TIMED_OUT);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted requesting "
+                        + this.url);
+            }
+            if (runner == null) {
+                elapsed = ResilientCall.elapsed(start);
+                if (hedgeDelay >= 0 && elapsed >= hedgeDelay) {
+                    hedgeDelay = -1;
+                    this.launch(true);
+                } else if (timeout > 0 && elapsed >= timeout) {
+                    this.abandon(AttemptEvent.Outcome.TIMED_OUT);
+                    throw new SocketTimeoutException("Attempt "
+                            + this.attempt + " timed out after " + timeout
+                            + " ms: " + this.url);
+                }
+                continue;
+            }
+            this.running.remove(runner);
+            if (runner.error == null) {
+                long latency = ResilientCall.elapsed(runner.start);
+                this.policy.recordLatency(latency);
+                this.policy.report(new AttemptEvent(this.url, this.attempt,
+                        runner.hedge, AttemptEvent.Outcome.SUCCEEDED,
+                        latency, null));
+                this.abandon(AttemptEvent.Outcome.LOST_RACE);
+                return runner.value;
+            }
+            this.policy.report(new AttemptEvent(this.url, this.attempt,
+                    runner.hedge, AttemptEvent.Outcome.FAILED,
+                    ResilientCall.elapsed(runner.start), runner.error));
+            failure = runner.error;
+        }
+        throw ResilientCall.<IOException>rethrow(failure);
+    }
+
+    /**
+     * Starts a runner in the policy executor.
+     * @param hedge Specifies if the runner is a hedge.
+     * */
+    private void launch(final boolean hedge) {
+        Runner runner = new Runner(hedge);
+        this.running.add(runner);
+        this.policy.getExecutor().execute(runner);
+    }
+
+    /**
+     * Abandons the runners that have not answered.
+     * @param outcome The outcome reported for them.
+     * */
+    private void abandon(final AttemptEvent.Outcome outcome) {
+        for (Runner runner : this.running) {
+            runner.abandon();
+            this.policy.report(new AttemptEvent(this.url, this.attempt,
+                    runner.hedge, outcome,
+                    ResilientCall.elapsed(runner.start), null));
+        }
+        this.running.clear();
+    }
+
+    /**
+     * Registers the resource the attempt made in the current thread is
+     * blocked on, replacing the previous one. The resource is closed if
+     * the attempt is abandoned before it finishes, which ends its I/O.
+     * It does nothing outside an attempt.
+     * @param resource The resource, or null.
+     * */
+    static void closeOnAbandon(final Closeable resource) {
+        ResilientCall<?>.Runner runner = ResilientCall.CURRENT.get();
+        if (runner != null) {
+            runner.register(resource);
+        }
+    }
+
+    /**
+     * @param start A System.nanoTime value.
+     * @return Milliseconds elapsed since start.
+     * */
+    private static long elapsed(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Closes a result if it is Closeable.
+     * @param result The result.
+     * */
+    private static void close(final Object result) {
+        if (result instanceof Closeable) {
+            try {
+                ((Closeable) result).close();
+            } catch (IOException e) {
+                // the result was not wanted
+            }
+        }
+    }
+
+    /**
+     * Throws an unchecked failure or returns a checked one.
+     * @param <E> The checked exception type.
+     * @param failure The failure.
+     * @return The failure when it is an IOException.
+     * */
+    @SuppressWarnings("unchecked")
+    private static <E extends IOException> E rethrow(
+            final Throwable failure) {
+        if (failure instanceof IOException) {
+            return (E) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new RuntimeException(failure);
+    }
+
+    /**
+     * Java Class Runner.
+     * Runs the call once and queues itself as finished.
+     * */
+    private final class Runner implements Runnable {
+        /**
+         * Specifies if the runner is a hedge.
+         * */
+        private boolean hedge;
+        /**
+         * A System.nanoTime value taken when the runner was launched.
+         * */
+        private long start;
+        /**
+         * The call result.
+         * */
+        private T value;
+        /**
+         * The call failure.
+         * */
+        private Throwable error;
+        /**
+         * Specifies if the call has finished.
+         * */
+        private boolean done;
+        /**
+         * Specifies if the result is no longer wanted.
+         * */
+        private boolean abandoned;
+        /**
+         * The thread running the call, while it runs.
+         * */
+        private Thread worker;
+        /**
+         * The resource the call is blocked on, or null.
+         * */
+        private Closeable resource;
+
+        /**
+         * Class constructor.
+         * @param hedgeValue Specifies if the runner is a hedge.
+         * */
+        Runner(final boolean hedgeValue) {
+            this.hedge = hedgeValue;
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Runs the call, unless it was abandoned before it started.
+         * */
+        public void run() {
+            synchronized (this) {
+                if (this.abandoned) {
+                    return;
+                }
+                this.worker = Thread.currentThread();
+            }
+            T result = null;
+            Throwable failure = null;
+            ResilientCall.CURRENT.set(this);
+            try {
+                result = call.call();
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                ResilientCall.CURRENT.remove();
+            }
+            boolean discard;
+            synchronized (this) {
+                this.value = result;
+                this.error = failure;
+                this.done = true;
+                this.worker = null;
+                this.resource = null;
+                discard = this.abandoned;
+            }
+            // the thread is not interrupted once the call is done
+            Thread.interrupted();
+            if (discard) {
+                ResilientCall.close(result);
+            } else {
+                finished.offer(this);
+            }
+        }
+
+        /**
+         * Registers the resource the call is blocked on.
+         * @param resourceValue The resource, or null.
+         * */
+        void register(final Closeable resourceValue) {
+            boolean cancelled;
+            synchronized (this) {
+                this.resource = resourceValue;
+                cancelled = this.abandoned;
+            }
+            if (cancelled) {
+                ResilientCall.close(resourceValue);
+            }
+        }
+
+        /**
+         * Marks the result as not wanted. The result is closed if it is
+         * ready, otherwise the call is cancelled.
+         * */
+        void abandon() {
+            boolean ready;
+            synchronized (this) {
+                this.abandoned = true;
+                ready = this.done;
+                if (!ready && this.worker != null) {
+                    this.worker.interrupt();
+                    // closed with the lock so it is not closed once the
+                    // call has handed it back
+                    ResilientCall.close(this.resource);
+                }
+            }
+            if (ready) {
+                ResilientCall.close(this.value);
+            }
+        }
+    }
+}
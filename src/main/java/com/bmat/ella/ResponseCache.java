@@ -0,0 +1,1179 @@
+package com.bmat.ella;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Java Class ResponseCache.
+ * The response cache of a cache directory, shared by every request made
+ * through an Ella connection. Recently and frequently used responses are
+ * kept parsed in a bounded in-memory tier in front of the disk tier, so
+ * their hits do not touch the file system nor the parser. The parsed
+ * responses are shared and must not be modified. The disk tier writes
+ * one file per response unless another disk cache is set.
+ * <p>
+ * Responses never expire unless a time to live is set for their method.
+ * An expired response is still served, at most for the max stale time,
+ * while a single background request refreshes it. The refresh sends the
+ * ETag and Last-Modified validators of the response, if it had any, and
+ * a not modified answer only renews it. The disk tier can be bounded in
+ * bytes, evicting the least recently used responses.
+ * </p>
+ * <p>
+ * Error responses, such as not found ones, are cached for the error time
+ * to live and replayed as the same ServiceException. They are never
+ * served once expired.
+ * </p>
+ * <p>
+ * Disk responses are deflated, optionally with a preset dictionary
+ * trained from a sample of the cached responses. Every dictionary is kept
+ * in the cache directory, so the responses deflated with it can be read,
+ * and the newest one is used for the new responses.
+ * </p>
+ * @author Harrington Joseph (Harph)
+ * */
+public class ResponseCache {
+    /**
+     * Constant.
+     * Default max number of responses kept in memory.
+     * Default value 1024.
+     * */
+    public static final long DEFAULT_MEMORY_ENTRIES = 1024;
+    /**
+     * Constant.
+     * Default Deflater compression level of the disk responses.
+     * Default value 6.
+     * */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    /**
+     * Constant.
+     * Default number of responses sampled to train a dictionary.
+     * Default value 200.
+     * */
+    public static final int DEFAULT_DICTIONARY_SAMPLES = 200;
+    /**
+     * Constant.
+     * Default time to live, in milliseconds, of the error responses.
+     * Default value 60000.
+     * */
+    public static final long DEFAULT_ERROR_TIME_TO_LIVE = 60 * 1000;
+    /**
+     * Prefix of the names of the dictionary files.
+     * */
+    private static final String DICTIONARY_PREFIX = "dictionary-";
+    /**
+     * Size of the buffer used to read the sampled responses.
+     * */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Constant.
+     * Freshness of a response younger than its time to live.
+     * */
+    static final int FRESH = 0;
+    /**
+     * Constant.
+     * Freshness of an expired response that can still be served while
+     * it is refreshed.
+     * */
+    static final int STALE = 1;
+    /**
+     * Constant.
+     * Freshness of an expired response that can not be served.
+     * */
+    static final int EXPIRED = 2;
+    /**
+     * Estimated size of a response, used to size the frequency sketch
+     * when the memory tier is bounded by bytes.
+     * */
+    private static final int ESTIMATED_RESPONSE_BYTES = 4096;
+    /**
+     * The cache directory.
+     * */
+    private String directory;
+    /**
+     * The disk tier.
+     * */
+    private volatile DiskCache diskCache;
+    /**
+     * The in-memory tier.
+     * */
+    private volatile TinyLfuCache<Parsed> memory;
+    /**
+     * Specifies if the in-memory tier is bounded by estimated bytes
+     * rather than by number of responses.
+     * */
+    private volatile boolean weighByBytes;
+    /**
+     * Number of hits in the in-memory tier.
+     * */
+    private AtomicLong memoryHits = new AtomicLong();
+    /**
+     * Number of hits in the disk tier.
+     * */
+    private AtomicLong diskHits = new AtomicLong();
+    /**
+     * Number of lookups found in no tier.
+     * */
+    private AtomicLong misses = new AtomicLong();
+    /**
+     * Times to live by method pattern, in the order they were set.
+     * */
+    private volatile List<TimeToLive> timesToLive =
+        new ArrayList<TimeToLive>();
+    /**
+     * Time to live, in milliseconds, of the methods matched by no
+     * pattern. Negative means forever.
+     * */
+    private volatile long defaultTimeToLive = -1;
+    /**
+     * Time, in milliseconds, an expired response can be served while it
+     * is refreshed. Negative means forever.
+     * */
+    private volatile long maxStale = -1;
+    /**
+     * Time to live, in milliseconds, of the error responses. 0 means they
+     * are not cached.
+     * */
+    private volatile long errorTimeToLive =
+        ResponseCache.DEFAULT_ERROR_TIME_TO_LIVE;
+    /**
+     * Number of error responses served from the cache.
+     * */
+    private AtomicLong errorHits = new AtomicLong();
+    /**
+     * Keys of the responses being refreshed.
+     * */
+    private ConcurrentHashMap<String, Boolean> refreshing =
+        new ConcurrentHashMap<String, Boolean>();
+    /**
+     * Number of expired responses served while refreshed.
+     * */
+    private AtomicLong staleHits = new AtomicLong();
+    /**
+     * Number of background refreshes.
+     * */
+    private AtomicLong refreshes = new AtomicLong();
+    /**
+     * Number of refreshes answered not modified.
+     * */
+    private AtomicLong notModified = new AtomicLong();
+    /**
+     * Max number of bytes of the disk tier. Negative means no bound.
+     * */
+    private long maxDiskBytes = -1;
+    /**
+     * Bytes of the disk responses by key, least recently used first, or
+     * null if the disk tier is not bounded.
+     * */
+    private LinkedHashMap<String, Long> diskEntries;
+    /**
+     * Number of bytes of the disk responses.
+     * */
+    private long diskBytes;
+    /**
+     * Number of responses evicted from the disk tier.
+     * */
+    private long evictions;
+    /**
+     * Deflater compression level of the disk responses. 0 stores them as
+     * they are.
+     * */
+    private volatile int compressionLevel =
+        ResponseCache.DEFAULT_COMPRESSION_LEVEL;
+    /**
+     * Specifies if the new disk responses are stored as BinaryJson.
+     * */
+    private volatile boolean binaryFormat;
+    /**
+     * The dictionary used for the new responses, or null.
+     * */
+    private volatile byte[] dictionary;
+    /**
+     * Id of the dictionary used for the new responses, 0 if none.
+     * */
+    private volatile int dictionaryId;
+    /**
+     * Dictionaries read so far by id.
+     * */
+    private ConcurrentHashMap<Integer, byte[]> dictionaries =
+        new ConcurrentHashMap<Integer, byte[]>();
+    /**
+     * Number of bytes of the responses written to disk, before encoding.
+     * */
+    private AtomicLong rawBytes = new AtomicLong();
+    /**
+     * Number of bytes of the responses written to disk, after encoding.
+     * */
+    private AtomicLong storedBytes = new AtomicLong();
+    /**
+     * Nanoseconds spent inflating disk responses.
+     * */
+    private AtomicLong decodeNanos = new AtomicLong();
+    /**
+     * Number of disk responses inflated.
+     * */
+    private AtomicLong decodedEntries = new AtomicLong();
+
+    /**
+     * Class constructor.
+     * @param directoryValue The cache directory.
+     * */
+    public ResponseCache(final String directoryValue) {
+        this.directory = directoryValue;
+        this.diskCache = new FileDiskCache(new File(directoryValue));
+        this.setMemoryCapacity(ResponseCache.DEFAULT_MEMORY_ENTRIES, false);
+        this.loadNewestDictionary();
+    }
+
+    /**
+     * Sets the bound of the in-memory tier and empties it.
+     * @param capacity Max number of responses, or max estimated bytes.
+     * 0 disables the tier.
+     * @param bytes True if capacity is a number of bytes.
+     * */
+    public final void setMemoryCapacity(final long capacity,
+            final boolean bytes) {
+        int expectedEntries = (int) Math.min(Integer.MAX_VALUE, capacity);
+        if (bytes) {
+            expectedEntries = (int) Math.min(Integer.MAX_VALUE,
+                    capacity / ResponseCache.ESTIMATED_RESPONSE_BYTES);
+        }
+        this.weighByBytes = bytes;
+        this.memory = new TinyLfuCache<Parsed>(capacity, expectedEntries);
+    }
+
+    /**
+     * @return The cache directory.
+     * */
+    public final String getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return The disk tier.
+     * */
+    public final DiskCache getDiskCache() {
+        return this.diskCache;
+    }
+
+    /**
+     * Sets the disk tier, for example a SegmentDiskCache of the cache
+     * directory. The previous one is not closed.
+     * @param diskCacheValue The disk cache.
+     * */
+    public final void setDiskCache(final DiskCache diskCacheValue) {
+        if (diskCacheValue == null) {
+            throw new IllegalArgumentException("diskCache can not be null");
+        }
+        synchronized (this) {
+            this.diskCache = diskCacheValue;
+            this.diskEntries = null;
+            if (this.maxDiskBytes >= 0) {
+                this.loadDiskEntries();
+            }
+        }
+    }
+
+    /**
+     * Sets the time to live of the methods matching a pattern. Patterns
+     * are checked in the order they were first set and the first match
+     * wins. A "*" matches any characters but "/", for example
+     * "/tracks/search*" or "/artists/*.json".
+     * @param pattern The method pattern.
+     * @param timeToLive Time to live in milliseconds. Negative means
+     * forever.
+     * */
+    public final synchronized void setTimeToLive(final String pattern,
+            final long timeToLive) {
+        ArrayList<TimeToLive> updated =
+            new ArrayList<TimeToLive>(this.timesToLive);
+        TimeToLive rule = new TimeToLive(pattern, timeToLive);
+        boolean replaced = false;
+        for (int i = 0; i < updated.size(); i++) {
+            if (updated.get(i).pattern.equals(pattern)) {
+                updated.set(i, rule);
+                replaced = true;
+            }
+        }
+        if (!replaced) {
+            updated.add(rule);
+        }
+        this.timesToLive = updated;
+    }
+
+    /**
+     * @param method A request method.
+     * @return The time to live, in milliseconds, of the method. Negative
+     * means forever.
+     * */
+    public final long getTimeToLive(final String method) {
+        for (TimeToLive rule : this.timesToLive) {
+            if (rule.regex.matcher(method).matches()) {
+                return rule.timeToLive;
+            }
+        }
+        return this.defaultTimeToLive;
+    }
+
+    /**
+     * @return Time to live, in milliseconds, of the methods matched by no
+     * pattern. Negative means forever.
+     * */
+    public final long getDefaultTimeToLive() {
+        return this.defaultTimeToLive;
+    }
+
+    /**
+     * @param timeToLive Time to live, in milliseconds, of the methods
+     * matched by no pattern. Negative means forever, the default.
+     * */
+    public final void setDefaultTimeToLive(final long timeToLive) {
+        this.defaultTimeToLive = timeToLive;
+    }
+
+    /**
+     * @return Time, in milliseconds, an expired response can be served
+     * while it is refreshed. Negative means forever.
+     * */
+    public final long getMaxStale() {
+        return this.maxStale;
+    }
+
+    /**
+     * @param maxStaleValue Time, in milliseconds, an expired response can
+     * be served while it is refreshed. 0 disables stale-while-revalidate,
+     * negative means forever, the default.
+     * */
+    public final void setMaxStale(final long maxStaleValue) {
+        this.maxStale = maxStaleValue;
+    }
+
+    /**
+     * @return Time to live, in milliseconds, of the error responses. 0
+     * means they are not cached.
+     * */
+    public final long getErrorTimeToLive() {
+        return this.errorTimeToLive;
+    }
+
+    /**
+     * @param timeToLive Time to live, in milliseconds, of the error
+     * responses, such as not found ones. 0 disables their caching.
+     * */
+    public final void setErrorTimeToLive(final long timeToLive) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException(
+                    "timeToLive must not be negative");
+        }
+        this.errorTimeToLive = timeToLive;
+    }
+
+    /**
+     * @return Number of error responses served from the cache.
+     * */
+    public final long getErrorHits() {
+        return this.errorHits.get();
+    }
+
+    /**
+     * Bounds the disk tier. The current responses are loaded as the least
+     * recently used and evicted until they fit.
+     * @param maxDiskBytesValue Max number of bytes. Negative means no
+     * bound, the default.
+     * */
+    public final synchronized void setMaxDiskBytes(
+            final long maxDiskBytesValue) {
+        this.maxDiskBytes = maxDiskBytesValue;
+        if (maxDiskBytesValue < 0) {
+            this.diskEntries = null;
+            return;
+        }
+        if (this.diskEntries == null) {
+            this.loadDiskEntries();
+        }
+        this.evict();
+    }
+
+    /**
+     * @return Max number of bytes of the disk tier. Negative means no
+     * bound.
+     * */
+    public final synchronized long getMaxDiskBytes() {
+        return this.maxDiskBytes;
+    }
+
+    /**
+     * @return Number of bytes of the disk responses, or -1 if the disk
+     * tier is not bounded.
+     * */
+    public final synchronized long getDiskBytes() {
+        if (this.diskEntries == null) {
+            return -1;
+        }
+        return this.diskBytes;
+    }
+
+    /**
+     * @return Number of responses evicted from the disk tier.
+     * */
+    public final synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * @return Number of expired responses served while refreshed.
+     * */
+    public final long getStaleHits() {
+        return this.staleHits.get();
+    }
+
+    /**
+     * @return Number of background refreshes answered not modified, that
+     * only renewed the stored response.
+     * */
+    public final long getNotModified() {
+        return this.notModified.get();
+    }
+
+    /**
+     * @return Number of background refreshes.
+     * */
+    public final long getRefreshes() {
+        return this.refreshes.get();
+    }
+
+    /**
+     * @return Deflater compression level of the disk responses.
+     * */
+    public final int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * Sets the compression level of the new disk responses. Lower levels
+     * write faster, higher levels write smaller responses. Reading them
+     * costs about the same.
+     * @param level Deflater compression level from 0, that stores the
+     * responses as they are, to 9.
+     * */
+    public final void setCompressionLevel(final int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException(
+                    "level must be between 0 and 9");
+        }
+        this.compressionLevel = level;
+    }
+
+    /**
+     * @return True if the new disk responses are stored as BinaryJson.
+     * */
+    public final boolean isBinaryFormat() {
+        return this.binaryFormat;
+    }
+
+    /**
+     * Sets if the new disk responses are stored as BinaryJson, a binary
+     * tree of typed values that is decoded into the parsed response
+     * without scanning any text. Both formats are read either way.
+     * @param binaryFormatValue True to store BinaryJson, false to store
+     * the response text.
+     * */
+    public final void setBinaryFormat(final boolean binaryFormatValue) {
+        this.binaryFormat = binaryFormatValue;
+    }
+
+    /**
+     * Rewrites the text responses of the disk tier as BinaryJson, keeping
+     * the time they were stored. Responses that can not be read or parsed
+     * are left as they are.
+     * @return Number of responses converted.
+     * @throws IOException When a response can not be read or written.
+     * */
+    public final int convertToBinary() throws IOException {
+        int converted = 0;
+        for (String key : this.diskCache.keys()) {
+            CacheEntry entry;
+            try {
+                entry = this.readEntry(key);
+            } catch (IOException e) {
+                continue;
+            }
+            if (entry == null) {
+                continue;
+            } else if (entry.isBinary()) {
+                entry.getBody().close();
+                continue;
+            }
+            Object document;
+            try {
+                document = entry.getDocument();
+            } catch (ParseException e) {
+                continue;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            BinaryJson.encode(document, output);
+            this.writeEntry(key, entry, output.toByteArray(), true);
+            converted++;
+        }
+        return converted;
+    }
+
+    /**
+     * Trains a preset dictionary from a sample of the disk responses,
+     * stores it in the cache directory and uses it for the new responses.
+     * @param maxSamples Max number of responses sampled.
+     * @return The size of the dictionary, 0 if the responses have nothing
+     * in common and no dictionary was stored.
+     * @throws IOException When the dictionary can not be stored.
+     * */
+    public final int trainDictionary(final int maxSamples)
+    throws IOException {
+        List<String> keys = this.diskCache.keys();
+        ArrayList<byte[]> samples = new ArrayList<byte[]>();
+        int step = Math.max(1, keys.size() / Math.max(1, maxSamples));
+        for (int i = 0; i < keys.size() && samples.size() < maxSamples;
+                i += step) {
+            try {
+                CacheEntry entry = this.readEntry(keys.get(i));
+                if (entry != null) {
+                    samples.add(ResponseCache.readAll(entry.getBody()));
+                }
+            } catch (IOException e) {
+                // a corrupt response is not sampled
+            }
+        }
+        byte[] trained = DictionaryTrainer.train(samples,
+                DictionaryTrainer.MAX_SIZE);
+        if (trained.length == 0) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(trained);
+        int id = (int) crc.getValue();
+        if (id == 0) {
+            id = 1;
+        }
+        FileDiskCache.write(new File(this.directory,
+                ResponseCache.DICTIONARY_PREFIX + Integer.toHexString(id)),
+                trained);
+        this.dictionaries.put(id, trained);
+        this.dictionary = trained;
+        this.dictionaryId = id;
+        return trained.length;
+    }
+
+    /**
+     * @return Id of the dictionary used for the new responses, 0 if none.
+     * */
+    public final int getDictionaryId() {
+        return this.dictionaryId;
+    }
+
+    /**
+     * @return Bytes of the disk responses written since the cache was
+     * created, before encoding, divided by the bytes after encoding. 1 if
+     * none was written.
+     * */
+    public final double getCompressionRatio() {
+        long stored = this.storedBytes.get();
+        if (stored == 0) {
+            return 1;
+        }
+        return (double) this.rawBytes.get() / stored;
+    }
+
+    /**
+     * @return Number of bytes of the disk responses written since the
+     * cache was created, after encoding.
+     * */
+    public final long getStoredBytes() {
+        return this.storedBytes.get();
+    }
+
+    /**
+     * @return Number of bytes of the disk responses written since the
+     * cache was created, before encoding.
+     * */
+    public final long getRawBytes() {
+        return this.rawBytes.get();
+    }
+
+    /**
+     * @return Nanoseconds spent inflating disk responses.
+     * */
+    public final long getDecodeNanos() {
+        return this.decodeNanos.get();
+    }
+
+    /**
+     * @return Number of disk responses inflated.
+     * */
+    public final long getDecodedEntries() {
+        return this.decodedEntries.get();
+    }
+
+    /**
+     * Closes the disk tier.
+     * @throws IOException When the disk cache can not be closed.
+     * */
+    public final void close() throws IOException {
+        this.diskCache.close();
+    }
+
+    /**
+     * @return Max number of responses, or max estimated bytes, kept in
+     * memory.
+     * */
+    public final long getMemoryCapacity() {
+        return this.memory.getMaximum();
+    }
+
+    /**
+     * @return True if the in-memory tier is bounded by estimated bytes.
+     * */
+    public final boolean isWeighByBytes() {
+        return this.weighByBytes;
+    }
+
+    /**
+     * @return Number of responses kept in memory.
+     * */
+    public final int getMemorySize() {
+        return this.memory.size();
+    }
+
+    /**
+     * @return Number of hits in the in-memory tier.
+     * */
+    public final long getMemoryHits() {
+        return this.memoryHits.get();
+    }
+
+    /**
+     * @return Number of hits in the disk tier.
+     * */
+    public final long getDiskHits() {
+        return this.diskHits.get();
+    }
+
+    /**
+     * @return Number of lookups found in no tier.
+     * */
+    public final long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Removes every response kept in memory.
+     * */
+    public final void clearMemory() {
+        this.memory.clear();
+    }
+
+    /**
+     * Gets a parsed response kept in memory and marks its disk response as
+     * recently used, so it is not evicted while it is served from memory.
+     * @param key The request key.
+     * @param method The request method.
+     * @return The parsed response kept in memory, or null if there is
+     * none or it can no longer be served.
+     * */
+    final Parsed getParsed(final String key, final String method) {
+        Parsed parsed = this.memory.get(key);
+        if (parsed == null) {
+            return null;
+        } else if (this.getFreshness(method, parsed.storedAt, parsed.error)
+                == ResponseCache.EXPIRED) {
+            this.memory.remove(key);
+            return null;
+        }
+        this.memoryHits.incrementAndGet();
+        if (parsed.error) {
+            this.errorHits.incrementAndGet();
+        }
+        this.touchDisk(key);
+        return parsed;
+    }
+
+    /**
+     * Keeps a parsed response in memory.
+     * @param key The request key.
+     * @param document The parsed response.
+     * @param length Number of characters of the response.
+     * @param storedAt Time the response was stored.
+     * @param error Specifies if the response is an error.
+     * */
+    final void putParsed(final String key, final JSONObject document,
+            final int length, final long storedAt, final boolean error) {
+        long weight = 1;
+        if (this.weighByBytes) {
+            weight = 2L * length;
+        }
+        this.memory.put(key, new Parsed(document, storedAt, error), weight);
+    }
+
+    /**
+     * Removes a response kept in memory.
+     * @param key The request key.
+     * */
+    final void removeParsed(final String key) {
+        this.memory.remove(key);
+    }
+
+    /**
+     * Counts a hit in the disk tier.
+     * @param error Specifies if the response is an error.
+     * */
+    final void recordDiskHit(final boolean error) {
+        this.diskHits.incrementAndGet();
+        if (error) {
+            this.errorHits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a lookup found in no tier.
+     * */
+    final void recordMiss() {
+        this.misses.incrementAndGet();
+    }
+
+    /**
+     * @param method The request method.
+     * @param storedAt Time the response was stored.
+     * @param error Specifies if the response is an error. Error
+     * responses are never STALE.
+     * @return FRESH, STALE or EXPIRED.
+     * */
+    final int getFreshness(final String method, final long storedAt,
+            final boolean error) {
+        if (error) {
+            if (System.currentTimeMillis() - storedAt
+                    <= this.errorTimeToLive) {
+                return ResponseCache.FRESH;
+            }
+            return ResponseCache.EXPIRED;
+        }
+        long timeToLive = this.getTimeToLive(method);
+        if (timeToLive < 0) {
+            return ResponseCache.FRESH;
+        }
+        long age = System.currentTimeMillis() - storedAt;
+        if (age <= timeToLive) {
+            return ResponseCache.FRESH;
+        }
+        long stale = this.maxStale;
+        if (stale < 0 || age <= timeToLive + stale) {
+            return ResponseCache.STALE;
+        }
+        return ResponseCache.EXPIRED;
+    }
+
+    /**
+     * Counts an expired response served while it is refreshed and claims
+     * its refresh.
+     * @param key The request key.
+     * @return True if the caller must refresh the response, false if it
+     * is already being refreshed.
+     * */
+    final boolean startRefresh(final String key) {
+        this.staleHits.incrementAndGet();
+        if (this.refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        this.refreshes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Releases the refresh of a response.
+     * @param key The request key.
+     * */
+    final void finishRefresh(final String key) {
+        this.refreshing.remove(key);
+    }
+
+    /**
+     * Reads the header of a response of the disk tier and marks it as
+     * recently used.
+     * @param key The request key.
+     * @return The stored response, inflated while its body is read, or
+     * null.
+     * @throws IOException When the response can not be read.
+     * */
+    final CacheEntry readEntry(final String key) throws IOException {
+        InputStream stored = this.readDisk(key);
+        if (stored == null) {
+            return null;
+        }
+        return CacheEntry.read(stored, this);
+    }
+
+    /**
+     * Encodes a response with the compression level and the dictionary
+     * and stores it in the disk tier.
+     * @param key The request key.
+     * @param entry The store time, error flag and validators of the
+     * response.
+     * @param body The response.
+     * @param binary Specifies if the response is BinaryJson.
+     * @throws IOException When the response can not be written.
+     * */
+    final void writeEntry(final String key, final CacheEntry entry,
+            final byte[] body, final boolean binary) throws IOException {
+        byte[] encoded = entry.encode(body, this.compressionLevel,
+                this.dictionaryId, this.dictionary, binary);
+        this.writeDisk(key, encoded);
+        this.rawBytes.addAndGet(body.length);
+        this.storedBytes.addAndGet(encoded.length);
+    }
+
+    /**
+     * @return A spool to write a response to while it is downloaded,
+     * with the compression level and the dictionary of the cache.
+     * @throws IOException When the spool can not be created.
+     * */
+    final CacheEntry.Spool newSpool() throws IOException {
+        return new CacheEntry.Spool(this.compressionLevel, this.dictionaryId,
+                this.dictionary);
+    }
+
+    /**
+     * Stores a spooled response in the disk tier, streaming it from the
+     * spool.
+     * @param key The request key.
+     * @param entry The store time, error flag and validators of the
+     * response.
+     * @param spool The spool with the response. It is finished.
+     * @param binary Specifies if the response is BinaryJson.
+     * @throws IOException When the response can not be written.
+     * */
+    final void writeEntry(final String key, final CacheEntry entry,
+            final CacheEntry.Spool spool, final boolean binary)
+    throws IOException {
+        spool.finish();
+        byte[] header = entry.encodeHeader(spool, binary);
+        long length = header.length + spool.getStoredLength();
+        InputStream stored = new SequenceInputStream(
+                new ByteArrayInputStream(header), spool.open());
+        try {
+            this.diskCache.put(key, stored, length);
+        } finally {
+            stored.close();
+        }
+        this.recordDisk(key, length);
+        this.rawBytes.addAndGet(spool.getRawLength());
+        this.storedBytes.addAndGet(length);
+    }
+
+    /**
+     * Sets the store time of a disk response that was revalidated, so it
+     * is fresh again.
+     * @param key The request key.
+     * @param storedAt The new store time.
+     * @return True if the response was found and updated.
+     * @throws IOException When the response can not be read or written.
+     * */
+    final boolean touchEntry(final String key, final long storedAt)
+    throws IOException {
+        InputStream stored = this.readDisk(key);
+        if (stored == null) {
+            return false;
+        }
+        byte[] touched = CacheEntry.touch(ResponseCache.readAll(stored),
+                storedAt);
+        if (touched == null) {
+            return false;
+        }
+        this.writeDisk(key, touched);
+        this.notModified.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Counts an inflated disk response.
+     * @param nanos Nanoseconds spent inflating it.
+     * */
+    final void recordDecode(final long nanos) {
+        this.decodeNanos.addAndGet(nanos);
+        this.decodedEntries.incrementAndGet();
+    }
+
+    /**
+     * @param id A dictionary id.
+     * @return The dictionary, read from the cache directory the first
+     * time, or null if it is missing.
+     * */
+    final byte[] getDictionary(final int id) {
+        byte[] found = this.dictionaries.get(id);
+        if (found == null) {
+            try {
+                found = ResponseCache.readAll(new FileInputStream(new File(
+                        this.directory, ResponseCache.DICTIONARY_PREFIX
+                        + Integer.toHexString(id))));
+            } catch (IOException e) {
+                return null;
+            }
+            this.dictionaries.put(id, found);
+        }
+        return found;
+    }
+
+    /**
+     * Uses the newest dictionary of the cache directory, if any, for the
+     * new responses.
+     * */
+    private void loadNewestDictionary() {
+        File[] files = new File(this.directory).listFiles();
+        if (files == null) {
+            return;
+        }
+        File newest = null;
+        for (File file : files) {
+            if (file.getName().startsWith(ResponseCache.DICTIONARY_PREFIX)
+                    && file.getName().indexOf('.') == -1
+                    && (newest == null
+                            || file.lastModified() > newest.lastModified())) {
+                newest = file;
+            }
+        }
+        if (newest == null) {
+            return;
+        }
+        try {
+            int id = (int) Long.parseLong(newest.getName().substring(
+                    ResponseCache.DICTIONARY_PREFIX.length()), 16);
+            byte[] found = this.getDictionary(id);
+            if (found != null) {
+                this.dictionary = found;
+                this.dictionaryId = id;
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+    }
+
+    /**
+     * Reads a whole stream and closes it.
+     * @param input The stream.
+     * @return The bytes read.
+     * @throws IOException When the stream can not be read.
+     * */
+    private static byte[] readAll(final InputStream input)
+    throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[ResponseCache.BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Opens a response of the disk tier and marks it as recently used.
+     * @param key The request key.
+     * @return The stored response, or null.
+     * @throws IOException When the response can not be read.
+     * */
+    final InputStream readDisk(final String key) throws IOException {
+        InputStream stored = this.diskCache.get(key);
+        if (stored != null) {
+            this.touchDisk(key);
+        }
+        return stored;
+    }
+
+    /**
+     * Marks a disk response as recently used.
+     * @param key The request key.
+     * */
+    private synchronized void touchDisk(final String key) {
+        if (this.diskEntries != null) {
+            this.diskEntries.get(key);
+        }
+    }
+
+    /**
+     * Stores a response in the disk tier and evicts the least recently
+     * used ones if it is full.
+     * @param key The request key.
+     * @param value The stored response.
+     * @throws IOException When the response can not be written.
+     * */
+    final void writeDisk(final String key, final byte[] value)
+    throws IOException {
+        this.diskCache.put(key, value);
+        this.recordDisk(key, value.length);
+    }
+
+    /**
+     * Counts a response stored in the disk tier and evicts the least
+     * recently used ones if it is full.
+     * @param key The request key.
+     * @param length Number of bytes of the stored response.
+     * */
+    private synchronized void recordDisk(final String key,
+            final long length) {
+        if (this.diskEntries != null) {
+            Long previous = this.diskEntries.put(key, length);
+            if (previous != null) {
+                this.diskBytes -= previous;
+            }
+            this.diskBytes += length;
+            this.evict();
+        }
+    }
+
+    /**
+     * Loads the keys and sizes of the disk responses.
+     * */
+    private void loadDiskEntries() {
+        this.diskEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        this.diskBytes = 0;
+        try {
+            for (String key : this.diskCache.keys()) {
+                long length = this.diskCache.length(key);
+                if (length >= 0) {
+                    this.diskEntries.put(key, length);
+                    this.diskBytes += length;
+                }
+            }
+        } catch (IOException e) {
+            // the responses not listed are never evicted
+        }
+    }
+
+    /**
+     * Removes the least recently used disk responses until they fit.
+     * */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest =
+            this.diskEntries.entrySet().iterator();
+        while (this.diskBytes > this.maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            this.diskBytes -= entry.getValue();
+            this.evictions++;
+            try {
+                this.diskCache.remove(entry.getKey());
+            } catch (IOException e) {
+                // the response stays on disk but is no longer counted
+            }
+        }
+    }
+
+    /**
+     * Java Class Parsed.
+     * A parsed response and the time it was stored.
+     * */
+    static final class Parsed {
+        /**
+         * The parsed response.
+         * */
+        private JSONObject document;
+        /**
+         * Time the response was stored.
+         * */
+        private long storedAt;
+        /**
+         * Specifies if the response is an error.
+         * */
+        private boolean error;
+
+        /**
+         * Class constructor.
+         * @param documentValue The parsed response.
+         * @param storedAtValue Time the response was stored.
+         * @param errorValue Specifies if the response is an error.
+         * */
+        Parsed(final JSONObject documentValue, final long storedAtValue,
+                final boolean errorValue) {
+            this.document = documentValue;
+            this.storedAt = storedAtValue;
+            this.error = errorValue;
+        }
+
+        /**
+         * @return True if the response is an error.
+         * */
+        boolean isError() {
+            return this.error;
+        }
+
+        /**
+         * @return The parsed response.
+         * */
+        JSONObject getDocument() {
+            return this.document;
+        }
+
+        /**
+         * @return Time the response was stored.
+         * */
+        long getStoredAt() {
+            return this.storedAt;
+        }
+    }
+
+    /**
+     * Java Class TimeToLive.
+     * The time to live of the methods matching a pattern.
+     * */
+    private static final class TimeToLive {
+        /**
+         * The method pattern.
+         * */
+        private String pattern;
+        /**
+         * The pattern as a regular expression.
+         * */
+        private Pattern regex;
+        /**
+         * Time to live in milliseconds.
+         * */
+        private long timeToLive;
+
+        /**
+         * Class constructor.
+         * @param patternValue The method pattern.
+         * @param timeToLiveValue Time to live in milliseconds.
+         * */
+        TimeToLive(final String patternValue, final long timeToLiveValue) {
+            this.pattern = patternValue;
+            StringBuilder regexValue = new StringBuilder();
+            int start = 0;
+            int star;
+            while ((star = patternValue.indexOf('*', start)) != -1) {
+                regexValue.append(Pattern.quote(
+                        patternValue.substring(start, star)));
+                regexValue.append("[^/]*");
+                start = star + 1;
+            }
+            regexValue.append(Pattern.quote(patternValue.substring(start)));
+            this.regex = Pattern.compile(regexValue.toString());
+            this.timeToLive = timeToLiveValue;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.bmat.ella;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Java Interface ResultHandler.
+ * Receives the results of a response one by one, as they are decoded.
+ * @author Harrington Joseph (Harph)
+ * */
+public interface ResultHandler {
+    /**
+     * Called for every item of the response results.
+     * @param result The decoded result.
+     * */
+    void result(JSONObject result);
+}
@@ -0,0 +1,171 @@
+package com.bmat.ella;
+
+import java.util.ArrayDeque;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+
+/**
+ * Java Class ResultStreamHandler.
+ * Builds a response document while it is parsed, except for the items of
+ * "response.results", which are handed to a ResultHandler as soon as they
+ * are complete and never kept. The built document has an empty results
+ * array.
+ * @author Harrington Joseph (Harph)
+ * */
+final class ResultStreamHandler implements ContentHandler {
+    /**
+     * Receiver of the results.
+     * */
+    private ResultHandler handler;
+    /**
+     * Open containers, innermost first.
+     * */
+    private ArrayDeque<Object> containers;
+    /**
+     * Open object entry keys, innermost first.
+     * */
+    private ArrayDeque<String> keys;
+    /**
+     * The "response.results" array being streamed.
+     * */
+    private JSONArray results;
+    /**
+     * The whole document.
+     * */
+    private Object document;
+    /**
+     * Number of results handed to the handler.
+     * */
+    private long resultCount;
+
+    /**
+     * Class constructor.
+     * @param handlerValue Receiver of the results.
+     * */
+    ResultStreamHandler(final ResultHandler handlerValue) {
+        this.handler = handlerValue;
+        this.containers = new ArrayDeque<Object>();
+        this.keys = new ArrayDeque<String>();
+    }
+
+    /**
+     * Starts the document.
+     * */
+    public void startJSON() {
+        this.containers.clear();
+        this.keys.clear();
+        this.results = null;
+        this.document = null;
+    }
+
+    /**
+     * Ends the document.
+     * */
+    public void endJSON() {
+        // the document is complete
+    }
+
+    /**
+     * @return true to continue parsing.
+     * */
+    public boolean startObject() {
+        this.containers.push(new JSONObject());
+        return true;
+    }
+
+    /**
+     * @return true to continue parsing.
+     * */
+    public boolean endObject() {
+        this.value(this.containers.pop());
+        return true;
+    }
+
+    /**
+     * @param key The entry key.
+     * @return true to continue parsing.
+     * */
+    public boolean startObjectEntry(final String key) {
+        this.keys.push(key);
+        return true;
+    }
+
+    /**
+     * @return true to continue parsing.
+     * */
+    public boolean endObjectEntry() {
+        this.keys.pop();
+        return true;
+    }
+
+    /**
+     * @return true to continue parsing.
+     * */
+    public boolean startArray() {
+        JSONArray array = new JSONArray();
+        if (this.results == null && this.containers.size() == 2
+                && this.keys.size() == 2
+                && "results".equals(this.keys.peekFirst())
+                && "response".equals(this.keys.peekLast())) {
+            this.results = array;
+        }
+        this.containers.push(array);
+        return true;
+    }
+
+    /**
+     * @return true to continue parsing.
+     * */
+    public boolean endArray() {
+        this.value(this.containers.pop());
+        return true;
+    }
+
+    /**
+     * @param value A string, number, boolean or null.
+     * @return true to continue parsing.
+     * */
+    public boolean primitive(final Object value) {
+        this.value(value);
+        return true;
+    }
+
+    /**
+     * @return The parsed document, with an empty results array.
+     * */
+    Object getDocument() {
+        return this.document;
+    }
+
+    /**
+     * @return Number of results handed to the handler.
+     * */
+    long getResultCount() {
+        return this.resultCount;
+    }
+
+    /**
+     * Adds a complete value to its container.
+     * @param value The value.
+     * */
+    @SuppressWarnings("unchecked")
+    private void value(final Object value) {
+        if (this.containers.isEmpty()) {
+            this.document = value;
+            return;
+        }
+        Object parent = this.containers.peek();
+        if (parent == this.results) {
+            if (value instanceof JSONObject) {
+                this.resultCount++;
+                this.handler.result((JSONObject) value);
+            }
+        } else if (parent instanceof JSONObject) {
+            ((JSONObject) parent).put(this.keys.peek(), value);
+        } else {
+            ((JSONArray) parent).add(value);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -82,6 +84,22 @@ public abstract class Search extends SearchObject {
     public abstract ArrayList getPage(long pageIndex)
     throws ServiceException, IOException;
 
+    /**
+     * Retrieves a page asynchronously.
+     * @param pageIndex page number.
+     * @return A future completed with an ArrayList that match the search
+     * on page number "pageIndex".
+     * */
+    @SuppressWarnings("rawtypes")
+    public final CompletableFuture<ArrayList> getPageAsync(
+            final long pageIndex) {
+        return this.async(new Callable<ArrayList>() {
+            public ArrayList call() throws ServiceException, IOException {
+                return getPage(pageIndex);
+            }
+        });
+    }
+
     /**
      * @return An ArrayList that match the search on next page.
      * @throws IOException When there is a problem with the
@@ -102,15 +120,8 @@ public abstract class Search extends SearchObject {
      * */
     protected final JSONArray retrievePage(final long pageIndex)
     throws ServiceException, IOException {
-        HashMap<String, String> params = this.getParams();
-        if (this.method.indexOf("resolve") == -1) {
-            long offset = 0;
-            if (pageIndex != 0) {
-                offset = this.resultsPerPage * pageIndex;
-            }
-            params.put("offset", Long.toString(offset));
-        }
-        JSONObject response = (JSONObject) this.request(params);
+        JSONObject response = (JSONObject) this.request(
+                this.getPageParams(pageIndex));
         if (response != null) {
             return (JSONArray) response.get("results");
         } else {
@@ -118,6 +129,23 @@ public abstract class Search extends SearchObject {
         }
     }
 
+    /**
+     * Retrieves a page handing each result to the handler while the
+     * response is decoded.
+     * @param pageIndex page number.
+     * @param handler The receiver of the results.
+     * @return True if the page was retrieved.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * @throws ServiceException When Ella WS response fails.
+     * */
+    protected final boolean retrievePage(final long pageIndex,
+            final ResultHandler handler)
+    throws ServiceException, IOException {
+        return this.requestStreaming(this.method,
+                this.getPageParams(pageIndex), handler) != null;
+    }
+
     /**
      * @return An JSONArray with the response results for next page.
      * @throws IOException When there is a problem with the
@@ -130,6 +158,21 @@ public abstract class Search extends SearchObject {
         return this.retrievePage(this.lastPageIndex);
     }
 
+    /**
+     * Retrieves the next page handing each result to the handler while the
+     * response is decoded.
+     * @param handler The receiver of the results.
+     * @return True if the page was retrieved.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * @throws ServiceException When Ella WS response fails.
+     * */
+    protected final boolean retrieveNextPage(final ResultHandler handler)
+    throws ServiceException, IOException {
+        this.lastPageIndex += 1;
+        return this.retrievePage(this.lastPageIndex, handler);
+    }
+
     /**
      * @return The total number of results.
      * @throws IOException When there is a problem with the
@@ -168,6 +211,22 @@ public abstract class Search extends SearchObject {
         return this.hits;
     }
 
+    /**
+     * @param pageIndex page number.
+     * @return The search params with the offset of the page.
+     * */
+    private HashMap<String, String> getPageParams(final long pageIndex) {
+        HashMap<String, String> params = this.getParams();
+        if (this.method.indexOf("resolve") == -1) {
+            long offset = 0;
+            if (pageIndex != 0) {
+                offset = this.resultsPerPage * pageIndex;
+            }
+            params.put("offset", Long.toString(offset));
+        }
+        return params;
+    }
+
     /**
      * @return a HaspMap generated as a copy of searchTerms.
      * */
@@ -3,6 +3,8 @@ package com.bmat.ella;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Java Class SearchObject.
@@ -15,9 +17,10 @@ public class SearchObject {
      * */
     protected static final String RESPONSE_TYPE = ".json";
     /**
-     * Request object associated.
+     * Request object associated, shared with the objects of the connection
+     * that have the same cache settings.
      * */
-    protected Request request;
+    final RequestContext request;
     /**
      * Kind of search.
      * */
@@ -58,7 +61,7 @@ public class SearchObject {
             final String collectionValue,
             final String jellaCacheDir,
             final boolean cacheEnable) {
-        this.request = new Request(ellaConnection, jellaCacheDir, cacheEnable);
+        this.request = ellaConnection.getRequest(jellaCacheDir, cacheEnable);
         this.collection = collectionValue;
     }
 
@@ -173,4 +176,56 @@ public class SearchObject {
     throws ServiceException, IOException {
         return this.request(this.method, params);
     }
+
+    /**
+     * Execute the search request handing each result to the handler while
+     * the response is decoded.
+     * @param methodName The search method type.
+     * @param collectionName The search collection name.
+     * @param params The search params.
+     * @param handler The receiver of the results.
+     * @return An object with the response value, without its results.
+     * @throws ServiceException When there WS fails.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    public final Object requestStreaming(final String methodName,
+            final String collectionName, final HashMap<String, String> params,
+            final ResultHandler handler)
+    throws ServiceException, IOException {
+        return this.request.executeStreaming(methodName, collectionName,
+                params, true, handler);
+    }
+
+    /**
+     * Execute the search request handing each result to the handler while
+     * the response is decoded.
+     * @param methodName The search kind type.
+     * @param params The search params.
+     * @param handler The receiver of the results.
+     * @return An object with the response value, without its results.
+     * @throws ServiceException When there WS fails.
+     * @throws IOException When there is a problem with the
+     * connection to Ella WS.
+     * */
+    public final Object requestStreaming(final String methodName,
+            final HashMap<String, String> params, final ResultHandler handler)
+    throws ServiceException, IOException {
+        return this.requestStreaming(methodName, this.collection, params,
+                handler);
+    }
+
+    /**
+     * Runs a task in the executor of the Ella connection. The task holds
+     * one of its threads while it runs, waiting for the requests it makes;
+     * Request.executeAsync sends a single request without holding one.
+     * @param <T> The type of the task result.
+     * @param task The task to run.
+     * @return A future completed with the task result, or completed
+     * exceptionally with the exception thrown by the task.
+     * */
+    protected final <T> CompletableFuture<T> async(final Callable<T> task) {
+        return Util.supplyAsync(task,
+                this.request.getEllaConnection().getExecutor());
+    }
 }
@@ -0,0 +1,1087 @@
+package com.bmat.ella;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Java Class SegmentDiskCache.
+ * Log structured disk cache. Entries are appended to a few large segment
+ * files and a memory-mapped open-addressing index maps the 128-bit hash
+ * of each key to the segment and offset of its last entry. Hits are read
+ * from memory-mapped segments, so they open no file. When a segment is
+ * sealed, the older segments mostly made of superseded or removed
+ * entries are compacted, oldest first: their live entries, and the
+ * removals an older segment may still need, are copied to the active
+ * segment and their files are deleted.
+ * <p>
+ * The index is only trusted after a clean close. Otherwise it is rebuilt
+ * by scanning the segments, which also drops a torn last entry. The
+ * directory is locked, so it can only be used by one process at a time.
+ * </p>
+ * @author Harrington Joseph (Harph)
+ * */
+public class SegmentDiskCache implements DiskCache {
+    /**
+     * Constant.
+     * Default size, in bytes, at which a segment is sealed.
+     * Default value 67108864 (64 MB).
+     * */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /**
+     * Constant.
+     * Default fraction of live bytes under which a sealed segment is
+     * compacted.
+     * Default value 0.5.
+     * */
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+    /**
+     * Magic number of the index file.
+     * */
+    private static final int INDEX_MAGIC = 0x4A494458;
+    /**
+     * Magic number of every segment entry.
+     * */
+    private static final int RECORD_MAGIC = 0x4A524543;
+    /**
+     * Size of the index header: magic, capacity and clean flag.
+     * */
+    private static final int INDEX_HEADER = 16;
+    /**
+     * Offset of the capacity in the index header.
+     * */
+    private static final int CAPACITY_OFFSET = 4;
+    /**
+     * Offset of the clean flag in the index header.
+     * */
+    private static final int CLEAN_OFFSET = 8;
+    /**
+     * Size of an index slot: two hash longs, then the segment, offset,
+     * entry length and value length ints.
+     * */
+    private static final int SLOT_SIZE = 32;
+    /**
+     * Initial number of index slots. It must be a power of two.
+     * */
+    private static final int INITIAL_SLOTS = 4096;
+    /**
+     * Max fraction of used index slots before it is rebuilt.
+     * */
+    private static final double MAX_LOAD = 0.7;
+    /**
+     * Size of an entry header: magic, key length and value length.
+     * */
+    private static final int RECORD_HEADER = 12;
+    /**
+     * Segment of an empty index slot.
+     * */
+    private static final int EMPTY = 0;
+    /**
+     * Segment of a removed index slot.
+     * */
+    private static final int REMOVED = -1;
+    /**
+     * Value length of a removal entry.
+     * */
+    private static final int TOMBSTONE = -1;
+    /**
+     * Name of the index file.
+     * */
+    private static final String INDEX_FILE = "segments.idx";
+    /**
+     * Name of the lock file.
+     * */
+    private static final String LOCK_FILE = "segments.lock";
+    /**
+     * Suffix of the segment files.
+     * */
+    private static final String SEGMENT_SUFFIX = ".seg";
+    /**
+     * Number of appended bytes that are read from the file before the
+     * segment is mapped again up to its end.
+     * */
+    private static final int MAP_CHUNK = 1024 * 1024;
+    /**
+     * The cache directory.
+     * */
+    private File directory;
+    /**
+     * Size, in bytes, at which a segment is sealed.
+     * */
+    private int segmentSize;
+    /**
+     * Fraction of live bytes under which a sealed segment is compacted.
+     * */
+    private double compactionRatio;
+    /**
+     * Lock file of the directory.
+     * */
+    private RandomAccessFile lockFile;
+    /**
+     * Lock of the directory.
+     * */
+    private FileLock lock;
+    /**
+     * The memory-mapped index.
+     * */
+    private MappedByteBuffer index;
+    /**
+     * Number of index slots.
+     * */
+    private int capacity;
+    /**
+     * Number of live index slots.
+     * */
+    private int count;
+    /**
+     * Number of live and removed index slots.
+     * */
+    private int used;
+    /**
+     * Segments by id.
+     * */
+    private TreeMap<Integer, Segment> segments =
+        new TreeMap<Integer, Segment>();
+    /**
+     * The segment the entries are appended to.
+     * */
+    private Segment active;
+    /**
+     * Number of bytes reclaimed by compaction.
+     * */
+    private long compactedBytes;
+    /**
+     * Specifies if the cache is closed.
+     * */
+    private boolean closed;
+
+    /**
+     * Class constructor with the default segment size and compaction
+     * ratio.
+     * @param directoryValue The cache directory.
+     * @throws IOException When the cache can not be opened.
+     * */
+    public SegmentDiskCache(final File directoryValue) throws IOException {
+        this(directoryValue, SegmentDiskCache.DEFAULT_SEGMENT_SIZE,
+                SegmentDiskCache.DEFAULT_COMPACTION_RATIO);
+    }
+
+    /**
+     * Class constructor. It opens the segments of the directory and loads
+     * or rebuilds the index.
+     * @param directoryValue The cache directory.
+     * @param segmentSizeValue Size, in bytes, at which a segment is sealed.
+     * @param compactionRatioValue Fraction of live bytes under which a
+     * sealed segment is compacted. 0 disables compaction.
+     * @throws IOException When the cache can not be opened or the
+     * directory is used by another process.
+     * */
+    public SegmentDiskCache(final File directoryValue,
+            final int segmentSizeValue, final double compactionRatioValue)
+    throws IOException {
+        if (segmentSizeValue <= SegmentDiskCache.RECORD_HEADER) {
+            throw new IllegalArgumentException("segmentSize is too small");
+        }
+        if (compactionRatioValue < 0 || compactionRatioValue > 1) {
+            throw new IllegalArgumentException(
+                    "compactionRatio must be between 0 and 1");
+        }
+        this.directory = directoryValue;
+        this.segmentSize = segmentSizeValue;
+        this.compactionRatio = compactionRatioValue;
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new IOException("Can not create " + this.directory);
+        }
+        this.lockFile = new RandomAccessFile(new File(this.directory,
+                SegmentDiskCache.LOCK_FILE), "rw");
+        try {
+            this.lock = this.lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            this.lock = null;
+        }
+        if (this.lock == null) {
+            this.lockFile.close();
+            throw new IOException(this.directory
+                    + " is already in use");
+        }
+        try {
+            this.open();
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the segments and the index.
+     * @throws IOException When a file can not be opened.
+     * */
+    private void open() throws IOException {
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Integer id = SegmentDiskCache.getSegmentId(file.getName());
+                if (id != null) {
+                    this.segments.put(id, new Segment(id, file));
+                }
+            }
+        }
+        if (this.segments.isEmpty()) {
+            this.active = this.createSegment(1);
+        } else {
+            this.active = this.segments.lastEntry().getValue();
+        }
+        if (!this.loadIndex()) {
+            this.rebuildIndex();
+        }
+        this.index.putInt(SegmentDiskCache.CLEAN_OFFSET, 0);
+        this.index.force();
+    }
+
+    /**
+     * Maps the index file if it was cleanly closed and counts its slots.
+     * @return False if the index must be rebuilt.
+     * @throws IOException When the index can not be mapped.
+     * */
+    private boolean loadIndex() throws IOException {
+        File file = new File(this.directory, SegmentDiskCache.INDEX_FILE);
+        long length = file.length();
+        if (length < SegmentDiskCache.INDEX_HEADER) {
+            return false;
+        }
+        MappedByteBuffer mapped = SegmentDiskCache.map(file, length);
+        int slots = mapped.getInt(SegmentDiskCache.CAPACITY_OFFSET);
+        if (mapped.getInt(0) != SegmentDiskCache.INDEX_MAGIC
+                || mapped.getInt(SegmentDiskCache.CLEAN_OFFSET) != 1
+                || slots <= 0 || Integer.bitCount(slots) != 1
+                || length != SegmentDiskCache.getIndexLength(slots)) {
+            return false;
+        }
+        this.index = mapped;
+        this.capacity = slots;
+        for (int slot = 0; slot < this.capacity; slot++) {
+            int segmentId = this.getSlotSegment(slot);
+            if (segmentId == SegmentDiskCache.EMPTY) {
+                continue;
+            }
+            this.used++;
+            Segment segment = this.segments.get(segmentId);
+            if (segmentId == SegmentDiskCache.REMOVED) {
+                continue;
+            } else if (segment == null) {
+                this.index.putInt(this.getSlotPosition(slot) + 16,
+                        SegmentDiskCache.REMOVED);
+                continue;
+            }
+            this.count++;
+            segment.live += this.index.getInt(this.getSlotPosition(slot) + 24);
+        }
+        return true;
+    }
+
+    /**
+     * Creates an empty index and fills it with the entries of the
+     * segments, oldest first. A torn entry ends its segment.
+     * @throws IOException When a file can not be read or written.
+     * */
+    private void rebuildIndex() throws IOException {
+        this.capacity = SegmentDiskCache.INITIAL_SLOTS;
+        this.index = SegmentDiskCache.createIndex(new File(this.directory,
+                SegmentDiskCache.INDEX_FILE), this.capacity);
+        this.count = 0;
+        this.used = 0;
+        for (Segment segment : this.segments.values()) {
+            segment.live = 0;
+            int offset = 0;
+            while (offset < segment.size) {
+                int length = segment.getRecordLength(offset);
+                if (length < 0) {
+                    segment.truncate(offset);
+                    break;
+                }
+                ByteBuffer record = segment.read(offset, length);
+                int keyLength = record.getInt(4);
+                int valueLength = record.getInt(8);
+                byte[] key = new byte[keyLength];
+                record.position(SegmentDiskCache.RECORD_HEADER);
+                record.get(key);
+                long[] hash = CacheKey.hash(new String(key,
+                        StandardCharsets.UTF_8));
+                if (valueLength == SegmentDiskCache.TOMBSTONE) {
+                    this.unlink(hash);
+                } else {
+                    this.link(hash, segment, offset, length, valueLength);
+                }
+                offset += length;
+            }
+        }
+    }
+
+    /**
+     * @param key The request key.
+     * @return True if there is an entry for the key.
+     * */
+    public final synchronized boolean contains(final String key) {
+        return !this.closed
+        && this.find(CacheKey.hash(key)) >= 0;
+    }
+
+    /**
+     * @param key The request key.
+     * @return A stream over the memory-mapped entry bytes, or null if
+     * there is no entry.
+     * @throws IOException When the segment can not be mapped.
+     * */
+    public final synchronized InputStream get(final String key)
+    throws IOException {
+        if (this.closed) {
+            return null;
+        }
+        int slot = this.find(CacheKey.hash(key));
+        if (slot < 0) {
+            return null;
+        }
+        int position = this.getSlotPosition(slot);
+        Segment segment = this.segments.get(this.getSlotSegment(slot));
+        int offset = this.index.getInt(position + 20);
+        int length = this.index.getInt(position + 24);
+        if (segment == null || offset + (long) length > segment.size) {
+            return null;
+        }
+        ByteBuffer record = segment.read(offset, length);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (record.getInt(0) != SegmentDiskCache.RECORD_MAGIC
+                || record.getInt(4) != keyBytes.length) {
+            return null;
+        }
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (record.get(SegmentDiskCache.RECORD_HEADER + i) != keyBytes[i]) {
+                return null;
+            }
+        }
+        record.position(SegmentDiskCache.RECORD_HEADER + keyBytes.length);
+        record.limit(record.position() + record.getInt(8));
+        return new ByteBufferInputStream(record.slice());
+    }
+
+    /**
+     * @param key The request key.
+     * @return Number of bytes of the entry value, or -1 if there is no
+     * entry.
+     * */
+    public final synchronized long length(final String key) {
+        if (this.closed) {
+            return -1;
+        }
+        int slot = this.find(CacheKey.hash(key));
+        if (slot < 0) {
+            return -1;
+        }
+        return this.index.getInt(this.getSlotPosition(slot) + 28);
+    }
+
+    /**
+     * @return The keys of the live entries, read from the segments.
+     * @throws IOException When a segment can not be mapped.
+     * */
+    public final synchronized List<String> keys() throws IOException {
+        this.checkOpen();
+        ArrayList<String> keys = new ArrayList<String>(this.count);
+        for (int slot = 0; slot < this.capacity; slot++) {
+            Segment segment = this.segments.get(this.getSlotSegment(slot));
+            if (segment == null) {
+                continue;
+            }
+            int position = this.getSlotPosition(slot);
+            ByteBuffer record = segment.read(this.index.getInt(position + 20),
+                    this.index.getInt(position + 24));
+            byte[] key = new byte[record.getInt(4)];
+            record.position(SegmentDiskCache.RECORD_HEADER);
+            record.get(key);
+            keys.add(new String(key, StandardCharsets.UTF_8));
+        }
+        return keys;
+    }
+
+    /**
+     * Appends the entry to the active segment and points the index to it.
+     * @param key The request key.
+     * @param value The entry bytes.
+     * @throws IOException When the entry can not be written.
+     * */
+    public final synchronized void put(final String key, final byte[] value)
+    throws IOException {
+        this.checkOpen();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(SegmentDiskCache.RECORD_HEADER
+                + keyBytes.length + value.length);
+        record.putInt(SegmentDiskCache.RECORD_MAGIC).putInt(keyBytes.length)
+        .putInt(value.length).put(keyBytes).put(value).flip();
+        Segment segment = this.getAppendable(record.remaining(), true);
+        int offset = segment.append(record);
+        this.link(CacheKey.hash(key), segment, offset,
+                record.capacity(), value.length);
+    }
+
+    /**
+     * Appends a removal entry, so a rebuilt index does not bring the entry
+     * back, and removes the key from the index.
+     * @param key The request key.
+     * @throws IOException When the removal can not be written.
+     * */
+    public final synchronized void remove(final String key)
+    throws IOException {
+        this.checkOpen();
+        long[] hash = CacheKey.hash(key);
+        if (this.find(hash) < 0) {
+            return;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(SegmentDiskCache.RECORD_HEADER
+                + keyBytes.length);
+        record.putInt(SegmentDiskCache.RECORD_MAGIC).putInt(keyBytes.length)
+        .putInt(SegmentDiskCache.TOMBSTONE).put(keyBytes).flip();
+        this.getAppendable(record.remaining(), true).append(record);
+        this.unlink(hash);
+    }
+
+    /**
+     * Compacts every sealed segment whose fraction of live bytes is under
+     * the compaction ratio.
+     * @throws IOException When a segment can not be copied or deleted.
+     * */
+    public final synchronized void compact() throws IOException {
+        this.checkOpen();
+        ArrayList<Segment> sealed = new ArrayList<Segment>();
+        for (Segment segment : this.segments.values()) {
+            if (segment != this.active
+                    && segment.live < segment.size * this.compactionRatio) {
+                sealed.add(segment);
+            }
+        }
+        for (Segment segment : sealed) {
+            this.compact(segment);
+        }
+    }
+
+    /**
+     * Copies the live entries of a segment to the active one and deletes
+     * the segment. A removal entry of a key that is not live is copied too
+     * while an older segment remains, as that segment may still hold an
+     * entry of the key that a rebuilt index would bring back.
+     * @param segment The sealed segment.
+     * @throws IOException When the segment can not be copied or deleted.
+     * */
+    private void compact(final Segment segment) throws IOException {
+        boolean older = this.segments.firstKey() < segment.id;
+        long copied = 0;
+        int offset = 0;
+        while (offset < segment.size) {
+            int length = segment.getRecordLength(offset);
+            if (length < 0) {
+                break;
+            }
+            ByteBuffer record = segment.read(offset, length);
+            byte[] key = new byte[record.getInt(4)];
+            record.position(SegmentDiskCache.RECORD_HEADER);
+            record.get(key);
+            record.position(0);
+            int slot = this.find(CacheKey.hash(new String(key,
+                    StandardCharsets.UTF_8)));
+            if (record.getInt(8) == SegmentDiskCache.TOMBSTONE) {
+                if (older && slot < 0) {
+                    this.getAppendable(length, false).append(record);
+                    copied += length;
+                }
+            } else if (slot >= 0 && this.getSlotSegment(slot) == segment.id
+                    && this.index.getInt(this.getSlotPosition(slot) + 20)
+                    == offset) {
+                int position = this.getSlotPosition(slot);
+                Segment target = this.getAppendable(length, false);
+                int targetOffset = target.append(record);
+                target.live += length;
+                this.index.putInt(position + 16, target.id);
+                this.index.putInt(position + 20, targetOffset);
+                copied += length;
+            }
+            offset += length;
+        }
+        this.compactedBytes += segment.size - copied;
+        this.segments.remove(segment.id);
+        segment.close();
+        if (!segment.file.delete()) {
+            throw new IOException("Can not delete " + segment.file);
+        }
+    }
+
+    /**
+     * @param length Length of the entry to append.
+     * @param compacting Specifies if the older segments can be compacted
+     * when the active one is sealed.
+     * @return The active segment, after sealing it and creating a new one
+     * if the entry does not fit.
+     * @throws IOException When the new segment can not be created.
+     * */
+    private Segment getAppendable(final int length, final boolean compacting)
+    throws IOException {
+        if (this.active.size > 0
+                && this.active.size + (long) length > this.segmentSize) {
+            this.active = this.createSegment(this.active.id + 1);
+            if (compacting && this.compactionRatio > 0) {
+                this.compact();
+            }
+        }
+        return this.active;
+    }
+
+    /**
+     * Points the index slot of a hash to an entry.
+     * @param hash The key hash.
+     * @param segment The segment of the entry.
+     * @param offset The offset of the entry in the segment.
+     * @param length The length of the entry.
+     * @param valueLength The length of the entry value.
+     * @throws IOException When the index can not be grown.
+     * */
+    private void link(final long[] hash, final Segment segment,
+            final int offset, final int length, final int valueLength)
+    throws IOException {
+        int mask = this.capacity - 1;
+        int slot = (int) hash[0] & mask;
+        int free = -1;
+        while (true) {
+            int segmentId = this.getSlotSegment(slot);
+            if (segmentId == SegmentDiskCache.EMPTY) {
+                break;
+            } else if (segmentId == SegmentDiskCache.REMOVED) {
+                if (free == -1) {
+                    free = slot;
+                }
+            } else if (this.matches(slot, hash)) {
+                Segment previous = this.segments.get(segmentId);
+                if (previous != null) {
+                    previous.live -= this.index.getInt(
+                            this.getSlotPosition(slot) + 24);
+                }
+                this.count--;
+                free = slot;
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (free == -1) {
+            free = slot;
+            this.used++;
+        }
+        this.count++;
+        int position = this.getSlotPosition(free);
+        this.index.putLong(position, hash[0]);
+        this.index.putLong(position + 8, hash[1]);
+        this.index.putInt(position + 16, segment.id);
+        this.index.putInt(position + 20, offset);
+        this.index.putInt(position + 24, length);
+        this.index.putInt(position + 28, valueLength);
+        segment.live += length;
+        if (this.used > this.capacity * SegmentDiskCache.MAX_LOAD) {
+            this.resizeIndex();
+        }
+    }
+
+    /**
+     * Marks the index slot of a hash as removed.
+     * @param hash The key hash.
+     * */
+    private void unlink(final long[] hash) {
+        int slot = this.find(hash);
+        if (slot < 0) {
+            return;
+        }
+        int position = this.getSlotPosition(slot);
+        Segment segment = this.segments.get(this.getSlotSegment(slot));
+        if (segment != null) {
+            segment.live -= this.index.getInt(position + 24);
+        }
+        this.index.putInt(position + 16, SegmentDiskCache.REMOVED);
+        this.count--;
+    }
+
+    /**
+     * @param hash The key hash.
+     * @return The live index slot of the hash, or -1.
+     * */
+    private int find(final long[] hash) {
+        int mask = this.capacity - 1;
+        int slot = (int) hash[0] & mask;
+        while (true) {
+            int segmentId = this.getSlotSegment(slot);
+            if (segmentId == SegmentDiskCache.EMPTY) {
+                return -1;
+            } else if (segmentId != SegmentDiskCache.REMOVED
+                    && this.matches(slot, hash)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Writes the live slots into a new index file, twice as large if it
+     * is mostly live, and replaces the current one with it.
+     * @throws IOException When the index can not be written.
+     * */
+    private void resizeIndex() throws IOException {
+        int slots = this.capacity;
+        if (this.count > slots * SegmentDiskCache.MAX_LOAD / 2) {
+            slots *= 2;
+        }
+        File file = new File(this.directory, SegmentDiskCache.INDEX_FILE);
+        File temporary = new File(this.directory,
+                SegmentDiskCache.INDEX_FILE + ".tmp");
+        MappedByteBuffer resized = SegmentDiskCache.createIndex(temporary,
+                slots);
+        int mask = slots - 1;
+        for (int slot = 0; slot < this.capacity; slot++) {
+            int segmentId = this.getSlotSegment(slot);
+            if (segmentId == SegmentDiskCache.EMPTY
+                    || segmentId == SegmentDiskCache.REMOVED) {
+                continue;
+            }
+            int position = this.getSlotPosition(slot);
+            int target = (int) this.index.getLong(position) & mask;
+            while (resized.getInt(SegmentDiskCache.INDEX_HEADER
+                    + target * SegmentDiskCache.SLOT_SIZE + 16)
+                    != SegmentDiskCache.EMPTY) {
+                target = (target + 1) & mask;
+            }
+            for (int i = 0; i < SegmentDiskCache.SLOT_SIZE; i += 4) {
+                resized.putInt(SegmentDiskCache.INDEX_HEADER
+                        + target * SegmentDiskCache.SLOT_SIZE + i,
+                        this.index.getInt(position + i));
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        this.index = resized;
+        this.capacity = slots;
+        this.used = this.count;
+    }
+
+    /**
+     * @param slot An index slot.
+     * @param hash A key hash.
+     * @return True if the slot holds the hash.
+     * */
+    private boolean matches(final int slot, final long[] hash) {
+        int position = this.getSlotPosition(slot);
+        return this.index.getLong(position) == hash[0]
+        && this.index.getLong(position + 8) == hash[1];
+    }
+
+    /**
+     * @param slot An index slot.
+     * @return The segment id of the slot, EMPTY or REMOVED.
+     * */
+    private int getSlotSegment(final int slot) {
+        return this.index.getInt(this.getSlotPosition(slot) + 16);
+    }
+
+    /**
+     * @param slot An index slot.
+     * @return The position of the slot in the index file.
+     * */
+    private int getSlotPosition(final int slot) {
+        return SegmentDiskCache.INDEX_HEADER
+        + slot * SegmentDiskCache.SLOT_SIZE;
+    }
+
+    /**
+     * @param id The segment id.
+     * @return A new empty segment.
+     * @throws IOException When the segment file can not be created.
+     * */
+    private Segment createSegment(final int id) throws IOException {
+        File file = new File(this.directory, String.format("%08d%s", id,
+                SegmentDiskCache.SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, file);
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * @throws IOException When the cache is closed.
+     * */
+    private void checkOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("The cache is closed");
+        }
+    }
+
+    /**
+     * @return Number of entries.
+     * */
+    public final synchronized int getEntryCount() {
+        return this.count;
+    }
+
+    /**
+     * @return Number of segment files.
+     * */
+    public final synchronized int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * @return Number of bytes of the segment files.
+     * */
+    public final synchronized long getDiskBytes() {
+        long bytes = 0;
+        for (Segment segment : this.segments.values()) {
+            bytes += segment.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Number of bytes of the live entries.
+     * */
+    public final synchronized long getLiveBytes() {
+        long bytes = 0;
+        for (Segment segment : this.segments.values()) {
+            bytes += segment.live;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Number of bytes reclaimed by compaction.
+     * */
+    public final synchronized long getCompactedBytes() {
+        return this.compactedBytes;
+    }
+
+    /**
+     * @return The cache directory.
+     * */
+    public final File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Flushes the index, marks it clean and releases the files.
+     * @throws IOException When a file can not be closed.
+     * */
+    public final synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            for (Segment segment : this.segments.values()) {
+                segment.close();
+            }
+            if (this.index != null) {
+                this.index.putInt(SegmentDiskCache.CLEAN_OFFSET, 1);
+                this.index.force();
+            }
+        } finally {
+            if (this.lock != null) {
+                this.lock.release();
+            }
+            this.lockFile.close();
+        }
+    }
+
+    /**
+     * @param name A file name.
+     * @return The segment id of the file name, or null if it is not a
+     * segment file.
+     * */
+    private static Integer getSegmentId(final String name) {
+        if (!name.endsWith(SegmentDiskCache.SEGMENT_SUFFIX)) {
+            return null;
+        }
+        try {
+            int id = Integer.parseInt(name.substring(0, name.length()
+                    - SegmentDiskCache.SEGMENT_SUFFIX.length()));
+            if (id > 0) {
+                return id;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * @param slots Number of index slots.
+     * @return The length of the index file.
+     * */
+    private static long getIndexLength(final int slots) {
+        return SegmentDiskCache.INDEX_HEADER
+        + (long) slots * SegmentDiskCache.SLOT_SIZE;
+    }
+
+    /**
+     * Creates an index file of empty slots.
+     * @param file The index file.
+     * @param slots Number of index slots.
+     * @return The mapped index.
+     * @throws IOException When the file can not be written.
+     * */
+    private static MappedByteBuffer createIndex(final File file,
+            final int slots) throws IOException {
+        file.delete();
+        MappedByteBuffer mapped = SegmentDiskCache.map(file,
+                SegmentDiskCache.getIndexLength(slots));
+        mapped.putInt(0, SegmentDiskCache.INDEX_MAGIC);
+        mapped.putInt(SegmentDiskCache.CAPACITY_OFFSET, slots);
+        return mapped;
+    }
+
+    /**
+     * @param file A file.
+     * @param length The length of the file.
+     * @return The file mapped for reading and writing.
+     * @throws IOException When the file can not be mapped.
+     * */
+    private static MappedByteBuffer map(final File file, final long length)
+    throws IOException {
+        RandomAccessFile mapped = new RandomAccessFile(file, "rw");
+        try {
+            return mapped.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    length);
+        } finally {
+            mapped.close();
+        }
+    }
+
+    /**
+     * Java Class Segment.
+     * An append-only segment file.
+     * */
+    private static final class Segment {
+        /**
+         * The segment id.
+         * */
+        private int id;
+        /**
+         * The segment file.
+         * */
+        private File file;
+        /**
+         * The open segment file.
+         * */
+        private RandomAccessFile access;
+        /**
+         * The file channel.
+         * */
+        private FileChannel channel;
+        /**
+         * Length of the segment.
+         * */
+        private long size;
+        /**
+         * Number of bytes of the live entries.
+         * */
+        private long live;
+        /**
+         * The segment mapped for reading, possibly shorter than it.
+         * */
+        private MappedByteBuffer mapped;
+
+        /**
+         * Class constructor. It opens or creates the segment file.
+         * @param idValue The segment id.
+         * @param fileValue The segment file.
+         * @throws IOException When the file can not be opened.
+         * */
+        Segment(final int idValue, final File fileValue) throws IOException {
+            this.id = idValue;
+            this.file = fileValue;
+            this.access = new RandomAccessFile(fileValue, "rw");
+            this.channel = this.access.getChannel();
+            this.size = this.channel.size();
+        }
+
+        /**
+         * Reads an entry from the mapped segment. The mapping grows in
+         * chunks: an entry appended after it was mapped is read from the
+         * file until MAP_CHUNK bytes were appended, and then the segment
+         * is mapped again up to its end.
+         * @param offset The offset of an entry.
+         * @param length The length of the entry.
+         * @return The entry bytes.
+         * @throws IOException When the segment can not be mapped or read.
+         * */
+        ByteBuffer read(final int offset, final int length)
+        throws IOException {
+            long end = offset + (long) length;
+            if (this.mapped == null || (this.mapped.capacity() < end
+                    && this.size - this.mapped.capacity()
+                    >= SegmentDiskCache.MAP_CHUNK)) {
+                this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                        0, this.size);
+            }
+            if (this.mapped.capacity() < end) {
+                ByteBuffer record = ByteBuffer.allocate(length);
+                while (record.hasRemaining()) {
+                    if (this.channel.read(record,
+                            offset + record.position()) < 0) {
+                        throw new EOFException("Unexpected end of "
+                                + this.file);
+                    }
+                }
+                record.flip();
+                return record;
+            }
+            ByteBuffer record = this.mapped.duplicate();
+            record.position(offset);
+            record.limit(offset + length);
+            return record.slice();
+        }
+
+        /**
+         * @param offset The offset of an entry.
+         * @return The length of the entry, or -1 if it is torn or not an
+         * entry.
+         * @throws IOException When the segment can not be mapped.
+         * */
+        int getRecordLength(final int offset) throws IOException {
+            if (this.size - offset < SegmentDiskCache.RECORD_HEADER) {
+                return -1;
+            }
+            ByteBuffer header = this.read(offset,
+                    SegmentDiskCache.RECORD_HEADER);
+            int keyLength = header.getInt(4);
+            int valueLength = Math.max(header.getInt(8), 0);
+            long length = SegmentDiskCache.RECORD_HEADER + (long) keyLength
+            + valueLength;
+            if (header.getInt(0) != SegmentDiskCache.RECORD_MAGIC
+                    || keyLength < 0 || header.getInt(8) < -1
+                    || offset + length > this.size) {
+                return -1;
+            }
+            return (int) length;
+        }
+
+        /**
+         * @param record The entry bytes.
+         * @return The offset of the entry.
+         * @throws IOException When the entry can not be written.
+         * */
+        int append(final ByteBuffer record) throws IOException {
+            int offset = (int) this.size;
+            long position = this.size;
+            while (record.hasRemaining()) {
+                position += this.channel.write(record, position);
+            }
+            this.size = position;
+            return offset;
+        }
+
+        /**
+         * Drops the bytes from an offset on.
+         * @param offset The new length of the segment.
+         * @throws IOException When the file can not be truncated.
+         * */
+        void truncate(final int offset) throws IOException {
+            this.channel.truncate(offset);
+            this.size = offset;
+            this.mapped = null;
+        }
+
+        /**
+         * Closes the segment file. The mapped bytes stay readable.
+         * @throws IOException When the file can not be closed.
+         * */
+        void close() throws IOException {
+            this.access.close();
+        }
+    }
+
+    /**
+     * Java Class ByteBufferInputStream.
+     * Reads a byte buffer.
+     * */
+    static final class ByteBufferInputStream extends InputStream {
+        /**
+         * The bytes to read.
+         * */
+        private ByteBuffer buffer;
+
+        /**
+         * Class constructor.
+         * @param bufferValue The bytes to read.
+         * */
+        ByteBufferInputStream(final ByteBuffer bufferValue) {
+            this.buffer = bufferValue;
+        }
+
+        /**
+         * @return The next byte or -1 at the end of the buffer.
+         * */
+        public int read() {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            return this.buffer.get() & 0xFF;
+        }
+
+        /**
+         * @param bytes The array where the data is stored.
+         * @param offset The start offset in the array.
+         * @param length The max number of bytes to read.
+         * @return The number of bytes read or -1 at the end of the buffer.
+         * */
+        public int read(final byte[] bytes, final int offset,
+                final int length) {
+            if (length == 0) {
+                return 0;
+            } else if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        /**
+         * @param n The number of bytes to skip.
+         * @return The number of bytes skipped.
+         * */
+        public long skip(final long n) {
+            int count = (int) Math.max(0, Math.min(n,
+                    this.buffer.remaining()));
+            this.buffer.position(this.buffer.position() + count);
+            return count;
+        }
+
+        /**
+         * @return The number of bytes left.
+         * */
+        public int available() {
+            return this.buffer.remaining();
+        }
+
+        /**
+         * @return The bytes left, sharing the content of the buffer.
+         * */
+        ByteBuffer remaining() {
+            return this.buffer.slice();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.bmat.ella;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Java Class SingleFlight.
+ * Runs a single call per key at a time. The callers that arrive while a
+ * call with the same key is running wait for it and share its result
+ * instead of running their own.
+ * @author Harrington Joseph (Harph)
+ * */
+final class SingleFlight {
+    /**
+     * The running calls by key.
+     * */
+    private ConcurrentHashMap<String, CompletableFuture<Object>> calls;
+    /**
+     * Number of callers that shared the result of a running call.
+     * */
+    private AtomicLong collapsed;
+
+    /**
+     * Class constructor.
+     * */
+    SingleFlight() {
+        this.calls = new ConcurrentHashMap<String, CompletableFuture<Object>>();
+        this.collapsed = new AtomicLong();
+    }
+
+    /**
+     * Runs the call unless one with the same key is running, in which case
+     * it waits for that one.
+     * @param <T> The type of the call result.
+     * @param key The call key.
+     * @param call The call to run.
+     * @return The call result.
+     * @throws ServiceException When the call fails with a ServiceException.
+     * @throws IOException When the call fails with an IOException or the
+     * wait is interrupted.
+     * */
+    @SuppressWarnings("unchecked")
+    <T> T execute(final String key, final Callable<T> call)
+    throws ServiceException, IOException {
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        CompletableFuture<Object> running = this.calls.putIfAbsent(key,
+                future);
+        if (running != null) {
+            this.collapsed.incrementAndGet();
+            return (T) JellaExecutor.join(
+                    Collections.singletonList(running)).get(0);
+        }
+        try {
+            T value = call.call();
+            future.complete(value);
+            return value;
+        } catch (ServiceException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (Exception e) {
+            RuntimeException wrapped = new RuntimeException(e);
+            future.completeExceptionally(wrapped);
+            throw wrapped;
+        } finally {
+            this.calls.remove(key, future);
+        }
+    }
+
+    /**
+     * Starts the call unless one with the same key is running, in which
+     * case it shares that one. No thread waits for the call to finish.
+     * @param <T> The type of the call result.
+     * @param key The call key.
+     * @param call The call to start. It returns the future of its result.
+     * @return A future completed with the call result, or completed
+     * exceptionally with the call failure.
+     * */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> executeAsync(final String key,
+            final Callable<CompletableFuture<T>> call) {
+        final CompletableFuture<Object> future =
+            new CompletableFuture<Object>();
+        CompletableFuture<Object> running = this.calls.putIfAbsent(key,
+                future);
+        if (running != null) {
+            this.collapsed.incrementAndGet();
+            return (CompletableFuture<T>) SingleFlight.share(running);
+        }
+        CompletableFuture<T> started;
+        try {
+            started = call.call();
+        } catch (Exception e) {
+            started = new CompletableFuture<T>();
+            started.completeExceptionally(e);
+        }
+        started.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(final T value, final Throwable failure) {
+                calls.remove(key, future);
+                if (failure != null) {
+                    future.completeExceptionally(Util.unwrap(failure));
+                } else {
+                    future.complete(value);
+                }
+            }
+        });
+        return (CompletableFuture<T>) SingleFlight.share(future);
+    }
+
+    /**
+     * @param running The future of a running call.
+     * @return A copy of the future, so a caller can not complete the
+     * shared one.
+     * */
+    private static CompletableFuture<Object> share(
+            final CompletableFuture<Object> running) {
+        CompletableFuture<Object> copy = new CompletableFuture<Object>();
+        Util.forward(running, copy);
+        return copy;
+    }
+
+    /**
+     * @return Number of callers that shared the result of a running call.
+     * */
+    long getCollapsedCount() {
+        return this.collapsed.get();
+    }
+
+    /**
+     * @return Number of calls running now.
+     * */
+    int getRunningCount() {
+        return this.calls.size();
+    }
+}
@@ -4,6 +4,8 @@ package com.bmat.ella;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -14,6 +16,11 @@ import org.json.simple.JSONObject;
  * @author Harrington Joseph (Harph)
  * */
 public class Tag extends BaseObject implements Comparable<Tag> {
+    /**
+     * Constant.
+     * Metadata field of the name of the tag.
+     * */
+    public static final String NAME = "name";
     /**
      * Tag name.
      * */
@@ -91,7 +98,7 @@ public class Tag extends BaseObject implements Comparable<Tag> {
      */
     public final String getName() {
         if (this.name == null) {
-            this.name = this.getFieldValue("name");
+            this.name = this.getFieldValue(Tag.NAME);
         }
         return this.name;
     }
@@ -131,19 +138,9 @@ public class Tag extends BaseObject implements Comparable<Tag> {
     public final ArrayList<Artist> getSimilarArtists(final long limit,
             final String collectionSim)
             throws ServiceException, IOException {
-        String artistMetadata = "artist,name,artist_popularity,"
-            + "artist_location,recommendable,artist_decades1,artist_decades2,"
-            + "artist_latlng,musicbrainz_artist_id,";
-
-        String[] artistMetadataLinks = new String[]{
-                "official_homepage_artist_url", "wikipedia_artist_url",
-                "lastfm_artist_url", "myspace_artist_url",
-                "spotify_artist_url", "itms_artist_url",
-        "discogs_artist_url"};
-        artistMetadata += Util.joinArray(artistMetadataLinks, ",");
         HashMap<String, String> params = new HashMap<String, String>();
         params.put("limit", Long.toString(limit));
-        params.put("fetch_metadata", artistMetadata);
+        params.put("fetch_metadata", Artist.METADATA);
         String collectionRef = collectionSim;
         if (collectionRef == null) {
             collectionRef = this.collection;
@@ -152,14 +149,41 @@ public class Tag extends BaseObject implements Comparable<Tag> {
         String mtd = "/tags/" + this.id + "/similar/collections/"
         + collectionRef + "/artists" + SearchObject.RESPONSE_TYPE;
 
-        JSONObject response = (JSONObject) this.request(mtd,
-                params);
-        JSONArray results = (JSONArray) response.get("results");
-        this.similarArtists = new ArtistManager().getArtists(
-                this.request.getEllaConnection(), results);
+        ArrayList<Artist> similars = new ArrayList<Artist>();
+        this.requestStreaming(mtd, params, new ArtistManager()
+                .getArtistHandler(this.request.getEllaConnection(), similars,
+                        null, null, true, null));
+        this.similarArtists = similars;
         return this.similarArtists;
     }
 
+    /**
+     * Searches for the similar artists asynchronously using
+     * limit = DEFAULTLIMIT and collectionSIM = DEFAULTCOLLECTION.
+     * @return A future completed with the similar artists.
+     */
+    public final CompletableFuture<ArrayList<Artist>>
+    getSimilarArtistsAsync() {
+        return this.getSimilarArtistsAsync(this.defaultLimit,
+                this.defaultCollection);
+    }
+
+    /**
+     * Searches for the similar artists asynchronously.
+     * @param limit Max number of results.
+     * @param collectionSim Name of the collection it will look for similar.
+     * @return A future completed with the similar artists.
+     */
+    public final CompletableFuture<ArrayList<Artist>> getSimilarArtistsAsync(
+            final long limit, final String collectionSim) {
+        return this.async(new Callable<ArrayList<Artist>>() {
+            public ArrayList<Artist> call()
+            throws ServiceException, IOException {
+                return getSimilarArtists(limit, collectionSim);
+            }
+        });
+    }
+
     /**
      * @return A list of similar tracks associated with the tag
      * using limit = DEFAULT_LIMIT, filter = null,
@@ -203,12 +227,7 @@ public class Tag extends BaseObject implements Comparable<Tag> {
         String trackMetadata = "track,artist_service_id,artist,"
             + "release_service_id,release,location,year,genre,"
             + "track_popularity,track_small_image,recommendable,"
-            + "musicbrainz_track_id,spotify_track_uri,";
-        String[] trackMetadataLinks = new String[]{
-                "spotify_track_url",
-                "grooveshark_track_url", "amazon_track_url",
-                "itms_track_url", "hypem_track_url", "musicbrainz_track_url"};
-        trackMetadata += Util.joinArray(trackMetadataLinks, ",");
+            + "musicbrainz_track_id,spotify_track_uri," + Track.LINK_FIELDS;
         params.put("fetch_metadata", trackMetadata);
 
         if (filter != null) {
@@ -227,13 +246,12 @@ public class Tag extends BaseObject implements Comparable<Tag> {
         if (collectionRef == null) {
             collectionRef = this.collection;
         }
-        JSONObject response = (JSONObject) this.request(mtd, collectionRef,
-                params);
-        JSONArray results = (JSONArray) response.get("results");
-        this.similarTracks = new TrackManager().getTracks(
-                this.request.getEllaConnection(),
-                results
-        );
+        ArrayList<Track> similars = new ArrayList<Track>();
+        this.requestStreaming(mtd, collectionRef, params,
+                new TrackManager().getTrackHandler(
+                        this.request.getEllaConnection(), similars, null,
+                        null, null));
+        this.similarTracks = similars;
         return similarTracks;
     }
 
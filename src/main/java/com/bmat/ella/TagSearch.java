@@ -5,7 +5,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 /**
  * Java Class TagSearch.
@@ -88,7 +87,11 @@ public class TagSearch extends Search {
         } else {
             pageNumber = 0;
         }
-        return this.getResults(this.retrievePage(pageNumber));
+        ArrayList<Tag> results = new ArrayList<Tag>();
+        if (!this.retrievePage(pageNumber, this.getHandler(results))) {
+            return null;
+        }
+        return results;
     }
 
     /**
@@ -100,44 +103,44 @@ public class TagSearch extends Search {
      * */
     public final ArrayList<Tag> getNextPage()
     throws ServiceException, IOException {
-        return this.getResults(this.retrieveNextPage());
+        ArrayList<Tag> results = new ArrayList<Tag>();
+        if (!this.retrieveNextPage(this.getHandler(results))) {
+            return null;
+        }
+        return results;
     }
 
     /**
-     * @param jsonResults the result node of the response.
-     * @return An ArrayList of the tags contained in the jsonResults.
+     * @param results The list where the tags are added.
+     * @return A handler that adds the tags of the results to the list.
      * */
-    private ArrayList<Tag> getResults(final JSONArray jsonResults) {
-        if (jsonResults == null) {
-            return null;
-        }
-
-        ArrayList<Tag> results = new ArrayList<Tag>();
-        for (Object json : jsonResults) {
-            JSONObject jsonTag = (JSONObject) json;
-            JSONObject jsonEntity = (JSONObject) jsonTag.get("entity");
-            JSONObject jsonMetadata = (JSONObject) jsonEntity.get("metadata");
-            String tagId = (String) jsonEntity.get("id");
-            if (tagId == null || tagId.equals("")) {
-                continue;
-            }
-            String collection = (String) jsonEntity.get("collection");
-            Object relevance = jsonTag.get("score");
-            double score = 0.0;
-            if (relevance != null && !relevance.toString().equals("")) {
-                score = new Double(relevance.toString());
+    private ResultHandler getHandler(final ArrayList<Tag> results) {
+        return new ResultHandler() {
+            public void result(final JSONObject jsonTag) {
+                JSONObject jsonEntity = (JSONObject) jsonTag.get("entity");
+                JSONObject jsonMetadata = (JSONObject) jsonEntity.get(
+                        "metadata");
+                String tagId = (String) jsonEntity.get("id");
+                if (tagId == null || tagId.equals("")) {
+                    return;
+                }
+                String collection = (String) jsonEntity.get("collection");
+                Object relevance = jsonTag.get("score");
+                double score = 0.0;
+                if (relevance != null && !relevance.toString().equals("")) {
+                    score = new Double(relevance.toString());
+                }
+                if (fuzzy && score < 0.4) {
+                    return;
+                }
+                if (method.indexOf("match") != -1 && score < 0.7) {
+                    return;
+                }
+                Tag tag = new Tag(request.getEllaConnection(), tagId,
+                        collection);
+                tag.setName((String) jsonMetadata.get("name"));
+                results.add(tag);
             }
-            if (this.fuzzy && score < 0.4) {
-                continue;
-            }
-            if (this.method.indexOf("match") != -1 && score < 0.7) {
-                continue;
-            }
-            Tag tag = new Tag(this.request.getEllaConnection(), tagId,
-                    collection);
-            tag.setName((String) jsonMetadata.get("name"));
-            results.add(tag);
-        }
-        return results;
+        };
     }
 }
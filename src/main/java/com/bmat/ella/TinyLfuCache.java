@@ -0,0 +1,350 @@
+package com.bmat.ella;
+
+import java.util.HashMap;
+
+/**
+ * Java Class TinyLfuCache.
+ * Bounded in-memory cache with W-TinyLFU admission and eviction. New
+ * entries enter a small LRU window. The entries that leave the window
+ * compete with the least recently used entry of the main segment and
+ * only the one accessed more often, as estimated by a FrequencySketch,
+ * is kept. The main segment is a segmented LRU: an entry hit while on
+ * probation is promoted to the protected part.
+ * @param <V> The type of the values.
+ * @author Harrington Joseph (Harph)
+ * */
+final class TinyLfuCache<V> {
+    /**
+     * Part of the capacity given to the window, in percent.
+     * */
+    private static final int WINDOW_PERCENT = 1;
+    /**
+     * Part of the main segment given to the protected part, in percent.
+     * */
+    private static final int PROTECTED_PERCENT = 80;
+    /**
+     * The entries by key.
+     * */
+    private HashMap<String, Node<V>> data;
+    /**
+     * The window, least recently used first.
+     * */
+    private Queue<V> window;
+    /**
+     * The probation part of the main segment, least recently used first.
+     * */
+    private Queue<V> probation;
+    /**
+     * The protected part of the main segment, least recently used first.
+     * */
+    private Queue<V> protectedQueue;
+    /**
+     * The access frequencies.
+     * */
+    private FrequencySketch sketch;
+    /**
+     * Max total weight.
+     * */
+    private long maximum;
+    /**
+     * Max weight of the window.
+     * */
+    private long windowMaximum;
+    /**
+     * Max weight of the protected part.
+     * */
+    private long protectedMaximum;
+
+    /**
+     * Class constructor.
+     * @param maximumValue Max total weight.
+     * @param expectedEntries Number of entries expected to fit.
+     * */
+    TinyLfuCache(final long maximumValue, final int expectedEntries) {
+        this.data = new HashMap<String, Node<V>>();
+        this.window = new Queue<V>();
+        this.probation = new Queue<V>();
+        this.protectedQueue = new Queue<V>();
+        this.sketch = new FrequencySketch(expectedEntries);
+        this.maximum = maximumValue;
+        this.windowMaximum = maximumValue * TinyLfuCache.WINDOW_PERCENT / 100;
+        this.protectedMaximum = (maximumValue - this.windowMaximum)
+            * TinyLfuCache.PROTECTED_PERCENT / 100;
+    }
+
+    /**
+     * @param key The key.
+     * @return The value or null if it is not cached.
+     * */
+    synchronized V get(final String key) {
+        this.sketch.increment(key.hashCode());
+        Node<V> node = this.data.get(key);
+        if (node == null) {
+            return null;
+        }
+        this.onHit(node);
+        return node.value;
+    }
+
+    /**
+     * Adds or replaces a value.
+     * @param key The key.
+     * @param value The value.
+     * @param weight The value weight.
+     * */
+    synchronized void put(final String key, final V value,
+            final long weight) {
+        Node<V> node = this.data.get(key);
+        if (weight > this.maximum) {
+            if (node != null) {
+                this.evict(node);
+            }
+            return;
+        }
+        this.sketch.increment(key.hashCode());
+        if (node != null) {
+            node.queue.weight += weight - node.weight;
+            node.value = value;
+            node.weight = weight;
+            this.onHit(node);
+        } else {
+            node = new Node<V>(key, value, weight);
+            this.data.put(key, node);
+            this.window.addLast(node);
+        }
+        this.evict();
+    }
+
+    /**
+     * Removes a value.
+     * @param key The key.
+     * */
+    synchronized void remove(final String key) {
+        Node<V> node = this.data.get(key);
+        if (node != null) {
+            this.evict(node);
+        }
+    }
+
+    /**
+     * Removes every value.
+     * */
+    synchronized void clear() {
+        this.data.clear();
+        this.window = new Queue<V>();
+        this.probation = new Queue<V>();
+        this.protectedQueue = new Queue<V>();
+    }
+
+    /**
+     * @return Number of cached values.
+     * */
+    synchronized int size() {
+        return this.data.size();
+    }
+
+    /**
+     * @return Total weight of the cached values.
+     * */
+    synchronized long weight() {
+        return this.window.weight + this.probation.weight
+            + this.protectedQueue.weight;
+    }
+
+    /**
+     * @return Max total weight.
+     * */
+    long getMaximum() {
+        return this.maximum;
+    }
+
+    /**
+     * Moves a hit entry to its next position.
+     * @param node The entry.
+     * */
+    private void onHit(final Node<V> node) {
+        if (node.queue == this.probation) {
+            this.probation.remove(node);
+            this.protectedQueue.addLast(node);
+            while (this.protectedQueue.weight > this.protectedMaximum
+                    && this.protectedQueue.head.next != node) {
+                this.probation.addLast(this.protectedQueue.removeFirst());
+            }
+        } else {
+            Queue<V> queue = node.queue;
+            queue.remove(node);
+            queue.addLast(node);
+        }
+    }
+
+    /**
+     * Moves the entries that overflow the window to probation and evicts
+     * until the total weight fits.
+     * */
+    private void evict() {
+        Node<V> firstCandidate = null;
+        while (this.window.weight > this.windowMaximum) {
+            Node<V> candidate = this.window.removeFirst();
+            this.probation.addLast(candidate);
+            if (firstCandidate == null) {
+                firstCandidate = candidate;
+            }
+        }
+        while (this.weight() > this.maximum) {
+            Node<V> victim = this.probation.first();
+            Node<V> candidate = this.probation.last();
+            if (victim == null) {
+                victim = this.protectedQueue.first();
+                if (victim == null) {
+                    victim = this.window.first();
+                }
+                this.evict(victim);
+            } else if (victim == candidate || firstCandidate == null) {
+                this.evict(victim);
+            } else if (this.sketch.frequency(candidate.key.hashCode())
+                    > this.sketch.frequency(victim.key.hashCode())) {
+                this.evict(victim);
+            } else {
+                if (candidate == firstCandidate) {
+                    firstCandidate = null;
+                }
+                this.evict(candidate);
+            }
+        }
+    }
+
+    /**
+     * Removes an entry.
+     * @param node The entry.
+     * */
+    private void evict(final Node<V> node) {
+        node.queue.remove(node);
+        this.data.remove(node.key);
+    }
+
+    /**
+     * Java Class Node.
+     * A cache entry, linked in its queue.
+     * @param <V> The type of the value.
+     * */
+    private static final class Node<V> {
+        /**
+         * The key.
+         * */
+        private String key;
+        /**
+         * The value.
+         * */
+        private V value;
+        /**
+         * The value weight.
+         * */
+        private long weight;
+        /**
+         * The queue that holds the entry.
+         * */
+        private Queue<V> queue;
+        /**
+         * Previous entry of the queue.
+         * */
+        private Node<V> previous;
+        /**
+         * Next entry of the queue.
+         * */
+        private Node<V> next;
+
+        /**
+         * Class constructor.
+         * @param keyValue The key.
+         * @param valueValue The value.
+         * @param weightValue The value weight.
+         * */
+        Node(final String keyValue, final V valueValue,
+                final long weightValue) {
+            this.key = keyValue;
+            this.value = valueValue;
+            this.weight = weightValue;
+        }
+    }
+
+    /**
+     * Java Class Queue.
+     * Doubly linked list of entries with their total weight.
+     * @param <V> The type of the values.
+     * */
+    private static final class Queue<V> {
+        /**
+         * Sentinel before the first entry and after the last one.
+         * */
+        private Node<V> head;
+        /**
+         * Total weight of the entries.
+         * */
+        private long weight;
+
+        /**
+         * Class constructor.
+         * */
+        Queue() {
+            this.head = new Node<V>(null, null, 0);
+            this.head.previous = this.head;
+            this.head.next = this.head;
+        }
+
+        /**
+         * @return The least recently used entry or null.
+         * */
+        Node<V> first() {
+            if (this.head.next == this.head) {
+                return null;
+            }
+            return this.head.next;
+        }
+
+        /**
+         * @return The most recently used entry or null.
+         * */
+        Node<V> last() {
+            if (this.head.previous == this.head) {
+                return null;
+            }
+            return this.head.previous;
+        }
+
+        /**
+         * Adds an entry as the most recently used one.
+         * @param node The entry.
+         * */
+        void addLast(final Node<V> node) {
+            node.previous = this.head.previous;
+            node.next = this.head;
+            this.head.previous.next = node;
+            this.head.previous = node;
+            node.queue = this;
+            this.weight += node.weight;
+        }
+
+        /**
+         * Removes the least recently used entry.
+         * @return The entry.
+         * */
+        Node<V> removeFirst() {
+            Node<V> node = this.first();
+            this.remove(node);
+            return node;
+        }
+
+        /**
+         * Removes an entry.
+         * @param node The entry.
+         * */
+        void remove(final Node<V> node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            node.queue = null;
+            this.weight -= node.weight;
+        }
+    }
+}
@@ -4,9 +4,10 @@ package com.bmat.ella;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 
 /**
  * Java Class Track.
@@ -14,6 +15,77 @@ import org.json.simple.JSONObject;
  * @author Harrington Joseph (Harph)
  * */
 public class Track extends BaseObject implements Comparable<Track> {
+    /**
+     * Constant.
+     * Metadata field of the name of the track.
+     * */
+    public static final String NAME = "name";
+    /**
+     * Constant.
+     * Metadata field of the title of the track.
+     * */
+    public static final String TITLE = "track";
+    /**
+     * Constant.
+     * Metadata field of the artist id of the track.
+     * */
+    public static final String ARTIST_ID = "artist_service_id";
+    /**
+     * Constant.
+     * Metadata field of the artist name of the track.
+     * */
+    public static final String ARTIST_NAME = "artist";
+    /**
+     * Constant.
+     * Metadata field of the album id of the track.
+     * */
+    public static final String ALBUM_ID = "release_service_id";
+    /**
+     * Constant.
+     * Metadata field of the album title of the track.
+     * */
+    public static final String ALBUM_TITLE = "release";
+    /**
+     * Constant.
+     * Metadata field of the audio of the track.
+     * */
+    public static final String AUDIO = "location";
+    /**
+     * Constant.
+     * Metadata field of the images of the track.
+     * */
+    public static final String IMAGES = "track_small_image";
+    /**
+     * Constant.
+     * Metadata field of the MusicBrainz id of the track.
+     * */
+    public static final String MBID = "musicbrainz_track_id";
+    /**
+     * Constant.
+     * Metadata field of the popularity of the track.
+     * */
+    public static final String POPULARITY = "track_popularity";
+    /**
+     * Constant.
+     * Metadata fields of the links of a track.
+     * */
+    static final String[] METADATA_LINKS = new String[]{"spotify_track_url",
+            "grooveshark_track_url", "amazon_track_url", "itms_track_url",
+            "hypem_track_url", "musicbrainz_track_url"};
+    /**
+     * Constant.
+     * Metadata fields of the links of a track, comma separated.
+     * */
+    static final String LINK_FIELDS = Util.joinArray(Track.METADATA_LINKS,
+            ",");
+    /**
+     * Constant.
+     * Metadata fields requested for a track, comma separated.
+     * */
+    static final String METADATA = "track,name,artist_service_id,artist,"
+        + "release_service_id,release,location,year,genre,"
+        + "track_popularity,track_small_image,recommendable,"
+        + "spotify_track_uri," + Track.LINK_FIELDS;
     /**
      * Track title.
      * */
@@ -87,15 +159,8 @@ public class Track extends BaseObject implements Comparable<Track> {
             final boolean cacheEnable) {
         super(ellaConnection, id, collection, jellaCacheDir, cacheEnable);
         this.method = "/tracks/" + this.id + SearchObject.RESPONSE_TYPE;
-        this.metadataLinks = new String[]{"spotify_track_url",
-                "grooveshark_track_url", "amazon_track_url",
-                "itms_track_url", "hypem_track_url",
-                "musicbrainz_track_url"};
-        this.metadata = "track,name,artist_service_id,artist,"
-            + "release_service_id,release,location,year,genre,"
-            + "track_popularity,track_small_image,recommendable,"
-            + "spotify_track_uri,";
-        this.metadata += Util.joinArray(this.metadataLinks, ",");
+        this.metadataLinks = Track.METADATA_LINKS;
+        this.metadata = Track.METADATA;
         this.defaultLimit = defaultLimitValue;
     }
 
@@ -111,10 +176,10 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final String getTitle() {
         if (this.title == null) {
-            this.title = this.getFieldValue("name");
+            this.title = this.getFieldValue(Track.NAME);
         }
         if (this.title.equals("")) {
-            this.title = this.getFieldValue("track");
+            this.title = this.getFieldValue(Track.TITLE);
         }
         return title;
     }
@@ -132,11 +197,12 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final Artist getArtist() {
         if (this.artist == null) {
-            String metaid = this.getFieldValue("artist_service_id");
+            String metaid = this.getFieldValue(Track.ARTIST_ID);
             if (!metaid.equals("")) {
                 this.artistId = metaid;
-                this.artist = new Artist(this.request.getEllaConnection(),
-                        this.artistId, this.collection);
+                this.artist = this.request.getEllaConnection().canonical(
+                        new Artist(this.request.getEllaConnection(),
+                                this.artistId, this.collection));
             }
         }
         return this.artist;
@@ -155,7 +221,7 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final String getArtistId() {
         if (this.artistId == null) {
-            String metaid = this.getFieldValue("artist_service_id");
+            String metaid = this.getFieldValue(Track.ARTIST_ID);
             if (!metaid.equals("")) {
                 this.artistId = metaid;
             }
@@ -176,7 +242,7 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final String getArtistName() {
         if (this.artistName == null) {
-            this.artistName = this.getFieldValue("artist");
+            this.artistName = this.getFieldValue(Track.ARTIST_NAME);
         }
         return this.artistName;
     }
@@ -194,11 +260,12 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final Album getAlbum() {
         if (album == null) {
-            String metaid = this.getFieldValue("release_service_id");
+            String metaid = this.getFieldValue(Track.ALBUM_ID);
             if (metaid != null) {
                 this.albumId = metaid;
-                this.album = new Album(this.request.getEllaConnection(),
-                        this.albumId, this.collection);
+                this.album = this.request.getEllaConnection().canonical(
+                        new Album(this.request.getEllaConnection(),
+                                this.albumId, this.collection));
             }
         }
         return this.album;
@@ -217,7 +284,7 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final String getAlbumId() {
         if (this.albumId == null) {
-            this.albumId = this.getFieldValue("release_service_id");
+            this.albumId = this.getFieldValue(Track.ALBUM_ID);
         }
         return this.albumId;
     }
@@ -235,7 +302,7 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final String getAlbumTitle() {
         if (this.albumTitle == null) {
-            this.albumTitle = this.getFieldValue("release");
+            this.albumTitle = this.getFieldValue(Track.ALBUM_TITLE);
         }
         return this.albumTitle;
     }
@@ -253,7 +320,7 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final String getAudio() {
         if (this.audio == null) {
-            this.audio = this.getFieldValue("location");
+            this.audio = this.getFieldValue(Track.AUDIO);
         }
         return audio;
     }
@@ -271,7 +338,7 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final ArrayList<String> getImages() {
         if (this.images == null) {
-            JSONArray meta = this.getFieldValues("track_small_image");
+            JSONArray meta = this.getFieldValues(Track.IMAGES);
             if (meta != null) {
                 this.setImages(meta);
             }
@@ -305,7 +372,7 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final String getMbid() {
         if (this.mbid == null) {
-            this.setMbid(this.getFieldValue("musicbrainz_track_id"));
+            this.setMbid(this.getFieldValue(Track.MBID));
         }
         return this.mbid;
     }
@@ -315,7 +382,7 @@ public class Track extends BaseObject implements Comparable<Track> {
      * */
     public final double getPopularity() {
         if (this.popularity == null) {
-            String meta = this.getFieldValue("track_popularity");
+            String meta = this.getFieldValue(Track.POPULARITY);
             if (meta != null) {
                 this.popularity = new Double(meta);
             } else {
@@ -345,6 +412,43 @@ public class Track extends BaseObject implements Comparable<Track> {
                 null, null, null, null, null);
     }
 
+    /**
+     * Searches for similar tracks asynchronously.
+     * @return A future completed with the similar tracks.
+     * */
+    public final CompletableFuture<ArrayList<Track>> getSimilarTracksAsync() {
+        return this.async(new Callable<ArrayList<Track>>() {
+            public ArrayList<Track> call()
+            throws ServiceException, IOException {
+                return getSimilarTracks();
+            }
+        });
+    }
+
+    /**
+     * Searches for similar tracks asynchronously.
+     * @param limit Max number of results.
+     * @param filter Search filters.
+     * @param collectionSim Name of the collection it will look for similar.
+     * @param seeds Similarities to fulfill.
+     * @param threshold Score tolerance.
+     * @param similarityType The name of the similarity strategy to use.
+     * @return A future completed with the similar tracks.
+     * */
+    public final CompletableFuture<ArrayList<Track>> getSimilarTracksAsync(
+            final long limit, final String[] filter,
+            final String collectionSim, final HashMap<String,
+            HashMap<String, String>> seeds, final Double threshold,
+            final String similarityType) {
+        return this.async(new Callable<ArrayList<Track>>() {
+            public ArrayList<Track> call()
+            throws ServiceException, IOException {
+                return getSimilarTracks(limit, filter, collectionSim, seeds,
+                        threshold, similarityType);
+            }
+        });
+    }
+
     /**
      * Searches for similar tracks.
      * @param limit Max number of results.
@@ -390,11 +494,11 @@ public class Track extends BaseObject implements Comparable<Track> {
         if (!this.isRecommend()) {
             return null;
         }
-        JSONObject response = (JSONObject) this.request(mtd, collectionRef,
-                params);
-        JSONArray results = (JSONArray) response.get("results");
-        ArrayList<Track> similars = new TrackManager().getTracks(
-                this.request.getEllaConnection(), results, threshold);
+        ArrayList<Track> similars = new ArrayList<Track>();
+        this.requestStreaming(mtd, collectionRef, params,
+                new TrackManager().getTrackHandler(
+                        this.request.getEllaConnection(), similars, null,
+                        null, threshold));
         return similars;
     }
 
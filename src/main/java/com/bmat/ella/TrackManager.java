@@ -2,6 +2,7 @@
 package com.bmat.ella;
 
 import java.util.ArrayList;
+import java.util.List;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -80,105 +81,157 @@ public class TrackManager {
             final Artist art, final Double threshold) {
         ArrayList<Track> tracks = new ArrayList<Track>();
         for (Object json : results) {
-            JSONObject jsonTrack = (JSONObject) json;
-            JSONObject jsonEntity = (JSONObject) jsonTrack.get("entity");
-            JSONObject jsonMetadata = (JSONObject) jsonEntity.get("metadata");
-            String trackId = (String) jsonEntity.get("id");
-            if (trackId == null || trackId.trim().equals("")) {
-                System.out.println("TRACK ID NULL");
-                continue;
+            if (!this.addTrack(ellaConnection, (JSONObject) json, tracks,
+                    alb, art, threshold)) {
+                break;
             }
-            String entityCollection = (String) jsonEntity.get("collection");
+        }
+        return tracks;
+    }
 
-            Object relevance = jsonTrack.get("score");
-            double score = 0.0;
-            if (relevance != null && !relevance.toString().equals("")) {
-                score = new Double(relevance.toString());
+    /**
+     * Creates a handler that extracts the data of each result and adds the
+     * created Track objects to a list. Once a result is below the threshold
+     * the rest are ignored.
+     * @param ellaConnection A connection to the Ella web service.
+     * @param tracks The list where the tracks are added.
+     * @param alb The Album instance associated to the tracks.
+     * @param art The Artist instance associated to the tracks.
+     * @param threshold The lowest Track score to consider. In case of null,
+     * it will be considered as 0.
+     * @return The result handler.
+     * */
+    public final ResultHandler getTrackHandler(
+            final EllaConnection ellaConnection, final List<Track> tracks,
+            final Album alb, final Artist art, final Double threshold) {
+        return new ResultHandler() {
+            private boolean belowThreshold = false;
+
+            public void result(final JSONObject jsonTrack) {
+                if (!belowThreshold) {
+                    belowThreshold = !addTrack(ellaConnection, jsonTrack,
+                            tracks, alb, art, threshold);
+                }
             }
+        };
+    }
 
-            if (threshold != null && score < threshold) {
-                System.out.println("SCORE < THRESHOLD");
-                break;
-            }
+    /**
+     * Extract the data from a result and add the created Track object
+     * to a list. The track, its artist and its album are filled before
+     * they are made canonical: an instance that is already canonical is
+     * used as it is, so the values of this result are not written on an
+     * instance other threads may be reading.
+     * @param ellaConnection A connection to the Ella web service.
+     * @param jsonTrack The result.
+     * @param tracks The list where the track is added.
+     * @param alb The Album instance associated to the track.
+     * @param art The Artist instance associated to the track.
+     * @param threshold The lowest Track score to consider. In case of null,
+     * it will be considered as 0.
+     * @return False if the result is below the threshold, so the next
+     * results must be ignored.
+     * */
+    private boolean addTrack(final EllaConnection ellaConnection,
+            final JSONObject jsonTrack, final List<Track> tracks,
+            final Album alb, final Artist art, final Double threshold) {
+        JSONObject jsonEntity = (JSONObject) jsonTrack.get("entity");
+        JSONObject jsonMetadata = (JSONObject) jsonEntity.get("metadata");
+        String trackId = (String) jsonEntity.get("id");
+        if (trackId == null || trackId.trim().equals("")) {
+            System.out.println("TRACK ID NULL");
+            return true;
+        }
+        String entityCollection = (String) jsonEntity.get("collection");
 
-            String artistId = (String) jsonMetadata.get("artist_service_id");
-            if (artistId == null) {
-                System.out.println("ARTIST ID NULL");
-                continue;
-            }
-            Object recommend = jsonMetadata.get("recommendable");
+        Object relevance = jsonTrack.get("score");
+        double score = 0.0;
+        if (relevance != null && !relevance.toString().equals("")) {
+            score = new Double(relevance.toString());
+        }
 
-            Track track = new Track(ellaConnection, trackId, entityCollection);
-            track.setTitle((String) jsonMetadata.get("track"));
-            track.setAudio((String) jsonMetadata.get("location"));
+        if (threshold != null && score < threshold) {
+            System.out.println("SCORE < THRESHOLD");
+            return false;
+        }
 
-            if (art == null) {
-                Artist artist = new Artist(ellaConnection, artistId,
-                        entityCollection);
-                artist.setName((String) jsonMetadata.get("artist"));
-                if (artist.getName() == null) {
-                    System.out.println("ARTIST NAME NULL");
-                    continue;
-                }
-                Object apop = jsonEntity.get("artist_popularity");
-                double artistPopularity = 0.0;
-                if (apop != null && !apop.toString().equals("")) {
-                    artistPopularity = new Double(apop.toString());
-                }
-                artist.setPopularity(artistPopularity);
-
-                Object artistLocation = jsonMetadata.get("artist_location");
-                if (artistLocation != null && !artistLocation.toString()
-                        .equals("")) {
-                    artist.setLocation(artistLocation.toString());
-                } else {
-                    artist.setLocation("");
-                }
-                artist.setRecommend(recommend);
-                track.setArtist(artist);
-                track.setArtistName(artist.getName());
-                track.setArtistId(artist.getId());
+        String artistId = (String) jsonMetadata.get("artist_service_id");
+        if (artistId == null) {
+            System.out.println("ARTIST ID NULL");
+            return true;
+        }
+        Object recommend = jsonMetadata.get("recommendable");
+
+        Track track = new Track(ellaConnection, trackId, entityCollection);
+        track.setTitle((String) jsonMetadata.get("track"));
+        track.setAudio((String) jsonMetadata.get("location"));
+
+        if (art == null) {
+            Artist artist = new Artist(ellaConnection, artistId,
+                    entityCollection);
+            artist.setName((String) jsonMetadata.get("artist"));
+            if (artist.getName() == null) {
+                System.out.println("ARTIST NAME NULL");
+                return true;
+            }
+            Object apop = jsonEntity.get("artist_popularity");
+            double artistPopularity = 0.0;
+            if (apop != null && !apop.toString().equals("")) {
+                artistPopularity = new Double(apop.toString());
+            }
+            artist.setPopularity(artistPopularity);
+
+            Object artistLocation = jsonMetadata.get("artist_location");
+            if (artistLocation != null && !artistLocation.toString()
+                    .equals("")) {
+                artist.setLocation(artistLocation.toString());
             } else {
-                track.setArtist(art);
-                track.setArtistName(art.getName());
-                track.setArtistId(art.getId());
+                artist.setLocation("");
             }
+            artist.setRecommend(recommend);
+            track.setArtist(ellaConnection.canonical(artist));
+            track.setArtistName(artist.getName());
+            track.setArtistId(artist.getId());
+        } else {
+            track.setArtist(art);
+            track.setArtistName(art.getName());
+            track.setArtistId(art.getId());
+        }
 
-            track.setRecommend(recommend);
+        track.setRecommend(recommend);
 
-            Object tpop = jsonMetadata.get("track_popularity");
-            double trackPopularity = 0.0;
-            if (tpop != null && !tpop.toString().equals("")) {
-                trackPopularity = new Double(tpop.toString());
-            }
-            track.setPopularity(trackPopularity);
+        Object tpop = jsonMetadata.get("track_popularity");
+        double trackPopularity = 0.0;
+        if (tpop != null && !tpop.toString().equals("")) {
+            trackPopularity = new Double(tpop.toString());
+        }
+        track.setPopularity(trackPopularity);
 
-            Object trackSmallImages = jsonMetadata.get("track_small_image");
-            if (trackSmallImages instanceof String) {
-                track.setImages((String) trackSmallImages);
-            } else if (trackSmallImages != null) {
-                track.setImages((JSONArray) trackSmallImages);
-            }
-            if (alb == null) {
-                Object albumId = jsonMetadata.get("release_service_id");
-                if (albumId != null) {
-                    Album album = new Album(ellaConnection, (String) albumId,
-                            entityCollection);
-                    album.setTitle((String) jsonMetadata.get("release"));
-                    album.setArtist(track.getArtist());
-                    album.setImage((String) jsonMetadata.get(
-                            "release_small_image"));
-                    track.setAlbum(album);
-                    track.setAlbumTitle(album.getTitle());
-                    track.setAlbumId(album.getId());
-                }
-            } else {
-                track.setAlbum(alb);
-                track.setAlbumTitle(alb.getTitle());
-                track.setAlbumId(alb.getId());
+        Object trackSmallImages = jsonMetadata.get("track_small_image");
+        if (trackSmallImages instanceof String) {
+            track.setImages((String) trackSmallImages);
+        } else if (trackSmallImages != null) {
+            track.setImages((JSONArray) trackSmallImages);
+        }
+        if (alb == null) {
+            Object albumId = jsonMetadata.get("release_service_id");
+            if (albumId != null) {
+                Album album = new Album(ellaConnection, (String) albumId,
+                        entityCollection);
+                album.setTitle((String) jsonMetadata.get("release"));
+                album.setArtist(track.getArtist());
+                album.setImage((String) jsonMetadata.get(
+                        "release_small_image"));
+                track.setAlbum(ellaConnection.canonical(album));
+                track.setAlbumTitle(album.getTitle());
+                track.setAlbumId(album.getId());
             }
-            tracks.add(track);
+        } else {
+            track.setAlbum(alb);
+            track.setAlbumTitle(alb.getTitle());
+            track.setAlbumId(alb.getId());
         }
-        return tracks;
+        tracks.add(ellaConnection.canonical(track));
+        return true;
     }
 }
@@ -4,7 +4,6 @@ package com.bmat.ella;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import org.json.simple.JSONArray;
 /**
  * Java Class TrackSearch.
  * Search for Tracks.
@@ -210,7 +209,11 @@ public class TrackSearch extends Search {
         } else {
             pageNumber = 0;
         }
-        return this.getResults(this.retrievePage(pageNumber));
+        ArrayList<Track> results = new ArrayList<Track>();
+        if (!this.retrievePage(pageNumber, this.getHandler(results))) {
+            return null;
+        }
+        return results;
     }
 
     /**
@@ -222,19 +225,20 @@ public class TrackSearch extends Search {
      * */
     public final ArrayList<Track> getNextPage()
     throws ServiceException, IOException {
-        return this.getResults(this.retrieveNextPage());
+        ArrayList<Track> results = new ArrayList<Track>();
+        if (!this.retrieveNextPage(this.getHandler(results))) {
+            return null;
+        }
+        return results;
     }
 
     /**
-     * @param jsonResults the result node of the response.
-     * @return An ArrayList of the tracks contained in the jsonResults.
+     * @param results The list where the tracks are added.
+     * @return A handler that adds the tracks of the results to the list.
      * */
-    private ArrayList<Track> getResults(final JSONArray jsonResults) {
-        if (jsonResults == null) {
-            return null;
-        }
-        ArrayList<Track> results = new TrackManager().getTracks(
-                this.request.getEllaConnection(), jsonResults, this.threshold);
-        return results;
+    private ResultHandler getHandler(final ArrayList<Track> results) {
+        return new TrackManager().getTrackHandler(
+                this.request.getEllaConnection(), results, null, null,
+                this.threshold);
     }
 }
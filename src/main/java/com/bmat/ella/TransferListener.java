@@ -0,0 +1,14 @@
+package com.bmat.ella;
+
+/**
+ * Java Interface TransferListener.
+ * Receives the transfer statistics of every downloaded response.
+ * @author Harrington Joseph (Harph)
+ * */
+public interface TransferListener {
+    /**
+     * Called after a response body was read.
+     * @param stats The bytes transferred by the request.
+     * */
+    void transferred(TransferStats stats);
+}
@@ -0,0 +1,85 @@
+package com.bmat.ella;
+
+/**
+ * Java Class TransferStats.
+ * Represents the bytes transferred by a single request.
+ * @author Harrington Joseph (Harph)
+ * */
+public class TransferStats {
+    /**
+     * The requested URL.
+     * */
+    private String url;
+    /**
+     * The Content-Encoding of the response, or null if it was not encoded.
+     * */
+    private String contentEncoding;
+    /**
+     * Number of body bytes received from the network.
+     * */
+    private long wireBytes;
+    /**
+     * Number of body bytes after decoding.
+     * */
+    private long decodedBytes;
+
+    /**
+     * Class constructor.
+     * @param urlValue The requested URL.
+     * @param contentEncodingValue The Content-Encoding of the response.
+     * @param wireBytesValue Number of body bytes received from the network.
+     * @param decodedBytesValue Number of body bytes after decoding.
+     * */
+    public TransferStats(final String urlValue,
+            final String contentEncodingValue,
+            final long wireBytesValue, final long decodedBytesValue) {
+        this.url = urlValue;
+        this.contentEncoding = contentEncodingValue;
+        this.wireBytes = wireBytesValue;
+        this.decodedBytes = decodedBytesValue;
+    }
+
+    /**
+     * @return The requested URL.
+     * */
+    public final String getUrl() {
+        return this.url;
+    }
+
+    /**
+     * @return The Content-Encoding of the response, or null if it was
+     * not encoded.
+     * */
+    public final String getContentEncoding() {
+        return this.contentEncoding;
+    }
+
+    /**
+     * @return Number of body bytes received from the network.
+     * */
+    public final long getWireBytes() {
+        return this.wireBytes;
+    }
+
+    /**
+     * @return Number of body bytes after decoding.
+     * */
+    public final long getDecodedBytes() {
+        return this.decodedBytes;
+    }
+
+    /**
+     * @return Number of bytes saved by the compression.
+     * */
+    public final long getSavedBytes() {
+        return this.decodedBytes - this.wireBytes;
+    }
+
+    /**
+     * @return A string that represents the transfer.
+     * */
+    public final String toString() {
+        return this.url + ": " + this.wireBytes + " wire bytes, "
+            + this.decodedBytes + " decoded bytes";
+    }
+}
@@ -0,0 +1,53 @@
+package com.bmat.ella;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Java Interface Transport.
+ * Sends the HTTP requests of a Request to Ella WS.
+ * @author Harrington Joseph (Harph)
+ * */
+public interface Transport {
+    /**
+     * Sends a GET request.
+     * @param url The URL to be requested.
+     * @param headers Extra request headers. It can be null.
+     * @return The response. It must be closed to release the connection.
+     * @throws IOException When the request can not be sent or the
+     * response can not be read.
+     * */
+    TransportResponse get(URL url, Map<String, String> headers)
+    throws IOException;
+
+    /**
+     * Sends a GET request without waiting for the response. A transport
+     * that can not wait without a thread, as this default, sends it with
+     * get in the executor, which holds one of its threads until the
+     * response headers arrive.
+     * @param url The URL to be requested.
+     * @param headers Extra request headers. It can be null.
+     * @param executor The executor that runs get if the transport has to
+     * wait in a thread.
+     * @return A future completed with the response, that must be closed
+     * to release the connection, or completed exceptionally with the
+     * IOException.
+     * */
+    default CompletableFuture<TransportResponse> getAsync(final URL url,
+            final Map<String, String> headers, final Executor executor) {
+        return Util.supplyAsync(new Callable<TransportResponse>() {
+            public TransportResponse call() throws IOException {
+                return get(url, headers);
+            }
+        }, executor);
+    }
+
+    /**
+     * Releases every connection held by the transport.
+     * */
+    void close();
+}
@@ -0,0 +1,77 @@
+package com.bmat.ella;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Java Class TransportResponse.
+ * Represents the response of a Transport request.
+ * @author Harrington Joseph (Harph)
+ * */
+public class TransportResponse implements Closeable {
+    /**
+     * HTTP status code.
+     * */
+    private int status;
+    /**
+     * Response headers, indexed by lower case name.
+     * */
+    private HashMap<String, String> headers;
+    /**
+     * Response body.
+     * */
+    private InputStream body;
+
+    /**
+     * Class constructor.
+     * @param statusValue The HTTP status code.
+     * @param headerValues The response headers.
+     * @param bodyValue The response body.
+     * */
+    public TransportResponse(final int statusValue,
+            final Map<String, String> headerValues,
+            final InputStream bodyValue) {
+        this.status = statusValue;
+        this.headers = new HashMap<String, String>();
+        if (headerValues != null) {
+            for (Map.Entry<String, String> header : headerValues.entrySet()) {
+                this.headers.put(header.getKey().toLowerCase(),
+                        header.getValue());
+            }
+        }
+        this.body = bodyValue;
+    }
+
+    /**
+     * @return The HTTP status code.
+     * */
+    public final int getStatus() {
+        return this.status;
+    }
+
+    /**
+     * @param name The header name. It is case insensitive.
+     * @return The header value or null if it is not present.
+     * */
+    public final String getHeader(final String name) {
+        return this.headers.get(name.toLowerCase());
+    }
+
+    /**
+     * @return The response body.
+     * */
+    public final InputStream getBody() {
+        return this.body;
+    }
+
+    /**
+     * Closes the response body.
+     * @throws IOException When the body can not be closed.
+     * */
+    public final void close() throws IOException {
+        this.body.close();
+    }
+}
@@ -1,6 +1,12 @@
 
 package com.bmat.ella;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
 /**
  * Java Class Util.
  * Utility class.
@@ -31,4 +37,64 @@ final class Util {
         }
         return bufResult.toString();
     }
+
+    /**
+     * Runs a task in an executor.
+     * @param <T> The type of the task result.
+     * @param task The task to run.
+     * @param executor The executor that runs the task.
+     * @return A future completed with the task result, or completed
+     * exceptionally with the exception thrown by the task.
+     * */
+    static <T> CompletableFuture<T> supplyAsync(final Callable<T> task,
+            final Executor executor) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.complete(task.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @param failure The failure of a future.
+     * @return The failure without the CompletionException that wraps it
+     * when it comes from a dependent future.
+     * */
+    static Throwable unwrap(final Throwable failure) {
+        if (failure instanceof CompletionException
+                && failure.getCause() != null) {
+            return failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * Completes a future as another one completes.
+     * @param <T> The type of the future result.
+     * @param source The future that is followed.
+     * @param target The future completed with the result or failure of
+     * the source.
+     * */
+    static <T> void forward(final CompletableFuture<T> source,
+            final CompletableFuture<T> target) {
+        source.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(final T value, final Throwable failure) {
+                if (failure != null) {
+                    target.completeExceptionally(Util.unwrap(failure));
+                } else {
+                    target.complete(value);
+                }
+            }
+        });
+    }
 }
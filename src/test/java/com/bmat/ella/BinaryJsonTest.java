@@ -0,0 +1,180 @@
+package com.bmat.ella;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+/**
+ * Java Class BinaryJsonTest.
+ * Tests the binary encoding of parsed responses.
+ * @author Harrington Joseph (Harph)
+ * */
+public class BinaryJsonTest {
+    /**
+     * A response with every kind of value.
+     * */
+    private static final String TEXT = "{\"response\":{\"results\":["
+        + "{\"id\":\"1\",\"score\":0.5,\"rank\":-3,\"ok\":true},"
+        + "{\"id\":\"2\",\"score\":1.0E10,\"rank\":9007199254740993,"
+        + "\"ok\":false,\"name\":\"Sigur R\\u00f3s\",\"tags\":[]},"
+        + "{\"id\":null,\"nested\":[[1],[{}]]}]}}";
+
+    /**
+     * Test that a decoded response equals the parsed text.
+     * @throws Exception When the response can not be encoded.
+     * */
+    @Test public void testRoundTrip() throws Exception {
+        Object parsed = new JSONParser().parse(BinaryJsonTest.TEXT);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryJson.encode(parsed, output);
+        Object decoded = BinaryJson.decode(
+                new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(parsed, decoded);
+        JSONObject result = (JSONObject) ((JSONArray) ((JSONObject)
+                ((JSONObject) decoded).get("response")).get("results"))
+                .get(1);
+        assertEquals(Long.valueOf(9007199254740993L), result.get("rank"));
+        assertEquals(Double.valueOf(1.0E10), result.get("score"));
+        assertTrue(output.size() < BinaryJsonTest.TEXT.length());
+    }
+
+    /**
+     * Test that parser events are encoded and handed on, and that the
+     * encoding replays the same events.
+     * @throws Exception When the response can not be parsed.
+     * */
+    @Test public void testEvents() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StringContentHandler handler = new StringContentHandler();
+        new JSONParser().parse(BinaryJsonTest.TEXT,
+                BinaryJson.writer(handler, output));
+        assertEquals(new JSONParser().parse(BinaryJsonTest.TEXT),
+                BinaryJson.decode(new ByteArrayInputStream(
+                        output.toByteArray())));
+        StringContentHandler replayed = new StringContentHandler();
+        BinaryJson.decode(new ByteArrayInputStream(output.toByteArray()),
+                replayed);
+        assertEquals(handler.toString(), replayed.toString());
+    }
+
+    /**
+     * Test that truncated or invalid encodings are rejected.
+     * @throws Exception When the response can not be encoded.
+     * */
+    @Test public void testInvalid() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryJson.encode(new JSONParser().parse(BinaryJsonTest.TEXT),
+                output);
+        byte[] encoded = output.toByteArray();
+        try {
+            BinaryJson.decode(new ByteArrayInputStream(encoded, 0,
+                    encoded.length - 2));
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            BinaryJson.decode(new ByteArrayInputStream(new byte[] {42}));
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Java Class StringContentHandler.
+     * Writes the parser events it is handed.
+     * */
+    private static final class StringContentHandler
+    implements ContentHandler {
+        /**
+         * The events handed so far.
+         * */
+        private StringBuilder events = new StringBuilder();
+
+        /**
+         * Writes the start of the document.
+         * */
+        public void startJSON() {
+            this.events.append('^');
+        }
+
+        /**
+         * Writes the end of the document.
+         * */
+        public void endJSON() {
+            this.events.append('$');
+        }
+
+        /**
+         * @return true.
+         * */
+        public boolean startObject() {
+            this.events.append('{');
+            return true;
+        }
+
+        /**
+         * @return true.
+         * */
+        public boolean endObject() {
+            this.events.append('}');
+            return true;
+        }
+
+        /**
+         * @param key The entry key.
+         * @return true.
+         * */
+        public boolean startObjectEntry(final String key) {
+            this.events.append(key).append(':');
+            return true;
+        }
+
+        /**
+         * @return true.
+         * */
+        public boolean endObjectEntry() {
+            this.events.append(',');
+            return true;
+        }
+
+        /**
+         * @return true.
+         * */
+        public boolean startArray() {
+            this.events.append('[');
+            return true;
+        }
+
+        /**
+         * @return true.
+         * */
+        public boolean endArray() {
+            this.events.append(']');
+            return true;
+        }
+
+        /**
+         * @param value A primitive value.
+         * @return true.
+         * */
+        public boolean primitive(final Object value) {
+            this.events.append(value).append(';');
+            return true;
+        }
+
+        /**
+         * @return The events handed so far.
+         * */
+        public String toString() {
+            return this.events.toString();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.bmat.ella;
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+/**
+ * Java Class CacheKeyTest.
+ * Tests the request keys and the sharded file layout.
+ * @author Harrington Joseph (Harph)
+ * */
+public class CacheKeyTest {
+    /**
+     * Test that keys do not depend on the parameter order and that the
+     * boundaries between values are part of the key.
+     * */
+    @Test public void testKeys() {
+        HashMap<String, String> params = new LinkedHashMap<String, String>();
+        params.put("q", "radiohead");
+        params.put("limit", "10");
+        HashMap<String, String> reversed =
+            new LinkedHashMap<String, String>();
+        reversed.put("limit", "10");
+        reversed.put("q", "radiohead");
+        String key = CacheKey.of("/artists/search.json", "bmat", params);
+        assertEquals(key, CacheKey.of("/artists/search.json", "bmat",
+                reversed));
+        assertTrue(key.matches("[0-9a-f]{32}"));
+        assertEquals(CacheKey.of("/a.json", null, null),
+                CacheKey.of("/a.json", "", null));
+        assertFalse(CacheKey.of("c/a.json", "b", null).equals(
+                CacheKey.of("/a.json", "bc", null)));
+        HashMap<String, String> joined = new HashMap<String, String>();
+        joined.put("ab", "c");
+        HashMap<String, String> split = new HashMap<String, String>();
+        split.put("a", "bc");
+        assertFalse(CacheKey.of("/a.json", null, joined).equals(
+                CacheKey.of("/a.json", null, split)));
+    }
+
+    /**
+     * Test that many keys do not collide.
+     * */
+    @Test public void testDistinct() {
+        HashSet<String> keys = new HashSet<String>();
+        HashMap<String, String> params = new HashMap<String, String>();
+        for (int i = 0; i < 100000; i++) {
+            params.put("id", Integer.toString(i));
+            keys.add(CacheKey.of("/artists.json", "bmat", params));
+        }
+        assertEquals(100000, keys.size());
+    }
+
+    /**
+     * Test that entries are written into two levels of shards.
+     * @throws Exception When an entry can not be written.
+     * */
+    @Test public void testShards() throws Exception {
+        File directory = new File("target/shard-cache");
+        FileDiskCache cache = new FileDiskCache(directory);
+        String key = CacheKey.of("/tracks/search.json", "bmat", null);
+        cache.put(key, new byte[] {1, 2, 3});
+        File file = new File(new File(new File(directory,
+                key.substring(0, 2)), key.substring(2, 4)), key);
+        assertTrue(file.isFile());
+        assertEquals(3, cache.length(key));
+        assertTrue(cache.keys().contains(key));
+        cache.remove(key);
+        assertFalse(cache.contains(key));
+    }
+}
@@ -0,0 +1,200 @@
+package com.bmat.ella;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+/**
+ * Java Class PooledTransportTest.
+ * Tests the pooled keep-alive transport against a local HTTP server.
+ * @author Harrington Joseph (Harph)
+ * */
+public class PooledTransportTest {
+    /**
+     * Local HTTP server.
+     * */
+    private HttpServer server;
+    /**
+     * Base URL of the local server.
+     * */
+    private String baseUrl;
+
+    /**
+     * Starts a local server that answers fixed length, chunked and
+     * not found responses.
+     * @throws IOException When the server can not be started.
+     * */
+    @Before public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange)
+            throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                byte[] body;
+                int status = 200;
+                long length;
+                if (path.indexOf("/missing") != -1) {
+                    status = 404;
+                    body = "{\"error\": {\"type\": \"NotFound\", \"message\": \"x\"}}"
+                        .getBytes("utf-8");
+                    length = body.length;
+                } else if (path.indexOf("/chunked") != -1) {
+                    body = "{\"response\": {\"chunked\": true}}"
+                        .getBytes("utf-8");
+                    length = 0;
+                } else {
+                    body = "{\"response\": {\"path\": \"ok\"}}"
+                        .getBytes("utf-8");
+                    length = body.length;
+                }
+                exchange.sendResponseHeaders(status, length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the local server.
+     * */
+    @After public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Test that sequential requests reuse a single connection.
+     * @throws IOException When the request fails.
+     * */
+    @Test public void testConnectionReuse() throws IOException {
+        PooledTransport transport = new PooledTransport();
+        for (int i = 0; i < 5; i++) {
+            TransportResponse response = transport.get(
+                    new URL(baseUrl + "/tracks/" + i + ".json"), null);
+            assertEquals(200, response.getStatus());
+            assertTrue(read(response).indexOf("ok") != -1);
+        }
+        response(transport, "/chunked.json");
+        assertEquals(1, transport.getConnectionsCreated());
+        assertEquals(1, transport.getIdleConnectionCount());
+        transport.close();
+        assertEquals(0, transport.getIdleConnectionCount());
+    }
+
+    /**
+     * Test that idle connections are evicted.
+     * @throws Exception When the request fails.
+     * */
+    @Test public void testIdleEviction() throws Exception {
+        PooledTransport transport = new PooledTransport(2, 50, 1000, 1000);
+        response(transport, "/tracks/1.json");
+        assertEquals(1, transport.getIdleConnectionCount());
+        Thread.sleep(100);
+        transport.evictIdleConnections();
+        assertEquals(0, transport.getIdleConnectionCount());
+        response(transport, "/tracks/1.json");
+        assertEquals(2, transport.getConnectionsCreated());
+        transport.close();
+    }
+
+    /**
+     * Test that the connections that can not be opened give their permit
+     * back, so the host recovers once it is reachable.
+     * @throws IOException When the closed port can not be found.
+     * */
+    @Test public void testRefusedConnectionReleasesPermit()
+    throws IOException {
+        ServerSocket socket = new ServerSocket(0, 0,
+                InetAddress.getByName("127.0.0.1"));
+        int port = socket.getLocalPort();
+        socket.close();
+        PooledTransport transport = new PooledTransport(2, 1000, 200, 1000);
+        URL url = new URL("http://127.0.0.1:" + port + "/tracks/1.json");
+        for (int i = 0; i < 5; i++) {
+            try {
+                transport.get(url, null);
+                fail("ConnectException expected");
+            } catch (ConnectException e) {
+                assertNotNull(e);
+            }
+        }
+        transport.close();
+    }
+
+    /**
+     * Test that an unread body does not return the connection to the pool.
+     * @throws IOException When the request fails.
+     * */
+    @Test public void testUnreadBodyIsDiscarded() throws IOException {
+        PooledTransport transport = new PooledTransport();
+        transport.get(new URL(baseUrl + "/tracks/1.json"), null).close();
+        assertEquals(0, transport.getIdleConnectionCount());
+        transport.close();
+    }
+
+    /**
+     * Test that a Request reads responses and error bodies through the
+     * transport.
+     * @throws IOException When the request fails.
+     * */
+    @Test public void testRequest() throws IOException {
+        EllaConnection connection = new EllaConnection(baseUrl, null, null);
+        Request request = new Request(connection, "target/cache", false);
+        try {
+            assertNotNull(request.execute("/tracks/1.json", "bmat", null));
+            request.execute("/missing.json", "bmat", null);
+            fail("ServiceException expected");
+        } catch (ServiceException e) {
+            assertEquals("NotFound", e.getType());
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Requests a path and reads the whole body.
+     * @param transport The transport to use.
+     * @param path The requested path.
+     * @return The response body.
+     * @throws IOException When the request fails.
+     * */
+    private String response(final PooledTransport transport,
+            final String path) throws IOException {
+        return read(transport.get(new URL(baseUrl + path), null));
+    }
+
+    /**
+     * Reads and closes a response.
+     * @param response The response to read.
+     * @return The response body.
+     * @throws IOException When the body can not be read.
+     * */
+    private static String read(final TransportResponse response)
+    throws IOException {
+        InputStream body = response.getBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int count;
+        while ((count = body.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        response.close();
+        return out.toString("utf-8");
+    }
+}
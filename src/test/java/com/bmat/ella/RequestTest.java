@@ -0,0 +1,1353 @@
+package com.bmat.ella;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+/**
+ * Java Class RequestTest.
+ * Tests Request against a local fake Ella WS.
+ * @author Harrington Joseph (Harph)
+ * */
+public class RequestTest {
+    /**
+     * Local HTTP server.
+     * */
+    private HttpServer server;
+    /**
+     * Number of requests received by the server.
+     * */
+    private AtomicInteger hits;
+    /**
+     * Number of requests received to flaky paths.
+     * */
+    private AtomicInteger failures;
+    /**
+     * The metadata fields requested to the server, in order.
+     * */
+    private List<String> fetched;
+    /**
+     * Connection to the local server.
+     * */
+    private EllaConnection connection;
+
+    /**
+     * Starts a fake Ella WS. Paths containing "missing" answer a not found
+     * error, paths containing "results" answer three results and any other
+     * path answers a response with its own path. Paths containing "gzip"
+     * or "deflate" are compressed if the client accepts it. Paths
+     * containing "slow" are answered after a delay and the first two
+     * requests to paths containing "flaky" fail with 503. Paths
+     * containing "private" need the credentials user:pass. Paths
+     * containing "etag" have an ETag and answer not modified when it is
+     * sent back. Requests of metadata answer an entity with its path as
+     * name, by the artist 7, and the name of any other requested field as
+     * its value.
+     * @throws IOException When the server can not be started.
+     * */
+    @Before public void setUp() throws IOException {
+        hits = new AtomicInteger();
+        failures = new AtomicInteger();
+        fetched = Collections.synchronizedList(new ArrayList<String>());
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange)
+            throws IOException {
+                hits.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                String query = exchange.getRequestURI().getQuery();
+                if (path.indexOf("slow") != -1) {
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (path.indexOf("etag") != -1) {
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    exchange.getResponseHeaders().set("Last-Modified",
+                            "Sat, 01 Jan 2011 00:00:00 GMT");
+                    if ("\"v1\"".equals(exchange.getRequestHeaders()
+                            .getFirst("If-None-Match"))) {
+                        exchange.sendResponseHeaders(304, -1);
+                        exchange.close();
+                        return;
+                    }
+                }
+                String body;
+                int status = 200;
+                String authorization = exchange.getRequestHeaders()
+                .getFirst("Authorization");
+                if (path.indexOf("private") != -1
+                        && !"Basic dXNlcjpwYXNz".equals(authorization)) {
+                    status = 401;
+                    body = "unauthorized";
+                    exchange.getResponseHeaders().set("WWW-Authenticate",
+                            "Basic realm=\"ella\"");
+                } else if (path.indexOf("flaky") != -1
+                        && failures.incrementAndGet() <= 2) {
+                    status = 503;
+                    body = "unavailable";
+                } else if (path.indexOf("missing") != -1) {
+                    status = 404;
+                    body = "{\"error\": {\"type\": "
+                        + "\"ella.core.errors.NotFound\", "
+                        + "\"message\": \"not found\"}}";
+                } else if (path.indexOf("results") != -1) {
+                    body = "{\"response\": {\"results\": [{\"id\": \"0\"}, "
+                        + "{\"id\": \"1\", \"tags\": [\"a\"]}, "
+                        + "{\"id\": \"2\"}], \"stats\": {\"total_hits\": 3}}}";
+                } else if (query != null
+                        && query.startsWith("fetch_metadata=")) {
+                    String fields = query.substring(query.indexOf('=') + 1);
+                    fetched.add(fields);
+                    if (fields.equals("_all")) {
+                        fields = "name,artist_service_id,recommendable";
+                    }
+                    JSONObject metadata = new JSONObject();
+                    for (String field : fields.split(",")) {
+                        metadata.put(field, field);
+                    }
+                    metadata.put("name", path);
+                    metadata.put("artist_service_id", "7");
+                    metadata.put("recommendable", "false");
+                    metadata.keySet().retainAll(
+                            Arrays.asList(fields.split(",")));
+                    JSONObject entity = new JSONObject();
+                    entity.put("entity", "track");
+                    entity.put("metadata", metadata);
+                    JSONArray response = new JSONArray();
+                    response.add(entity);
+                    JSONObject document = new JSONObject();
+                    document.put("response", response);
+                    body = document.toJSONString();
+                } else {
+                    body = "{\"response\": {\"path\": \"" + path + "\"}}";
+                }
+                byte[] bytes = body.getBytes("utf-8");
+                String accept = exchange.getRequestHeaders().getFirst(
+                        "Accept-Encoding");
+                if (accept != null) {
+                    String encoding = null;
+                    if (path.indexOf("gzip") != -1) {
+                        encoding = "gzip";
+                    } else if (path.indexOf("deflate") != -1) {
+                        encoding = "deflate";
+                    }
+                    if (encoding != null && accept.indexOf(encoding) != -1) {
+                        bytes = compress(bytes, encoding);
+                        exchange.getResponseHeaders().set("Content-Encoding",
+                                encoding);
+                    }
+                }
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        connection = new EllaConnection("http://127.0.0.1:"
+                + server.getAddress().getPort(), null, null);
+    }
+
+    /**
+     * Stops the fake Ella WS.
+     * */
+    @After public void tearDown() {
+        connection.close();
+        server.stop(0);
+    }
+
+    /**
+     * Test that many asynchronous requests complete.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testExecuteAsync() throws Exception {
+        Request request = new Request(connection, "target/cache", false);
+        ArrayList<CompletableFuture<Object>> futures =
+            new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(request.executeAsync("/tracks/" + i + ".json",
+                    "bmat", new HashMap<String, String>(), false));
+        }
+        for (int i = 0; i < 20; i++) {
+            JSONObject response = (JSONObject) futures.get(i).get();
+            assertEquals("/collections/bmat/tracks/" + i + ".json",
+                    response.get("path"));
+        }
+        assertEquals(20, hits.get());
+    }
+
+    /**
+     * Test that asynchronous requests fail with the ServiceException.
+     * @throws Exception When the future does not fail as expected.
+     * */
+    @Test public void testExecuteAsyncServiceException() throws Exception {
+        Request request = new Request(connection, "target/cache", false);
+        try {
+            request.executeAsync("/missing.json", "bmat", null, false).get();
+            fail("ServiceException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceException);
+            assertEquals("ella.core.errors.NotFound",
+                    ((ServiceException) e.getCause()).getType());
+        }
+    }
+
+    /**
+     * Test that asynchronous requests are all sent at once through an
+     * asynchronous transport, though the executor has a single thread.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testExecuteAsyncHoldsNoThread() throws Exception {
+        final ArrayList<CompletableFuture<TransportResponse>> pending =
+            new ArrayList<CompletableFuture<TransportResponse>>();
+        EllaConnection asyncConnection = new EllaConnection(
+                "http://127.0.0.1:1", null, null, new Transport() {
+            public TransportResponse get(final URL url,
+                    final Map<String, String> headers) throws IOException {
+                throw new IOException("Unexpected blocking request");
+            }
+
+            public synchronized CompletableFuture<TransportResponse>
+            getAsync(final URL url, final Map<String, String> headers,
+                    final Executor executor) {
+                CompletableFuture<TransportResponse> response =
+                    new CompletableFuture<TransportResponse>();
+                pending.add(response);
+                return response;
+            }
+
+            public void close() {
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        asyncConnection.setExecutor(executor);
+        Request request = new Request(asyncConnection, "target/cache",
+                false);
+        ArrayList<CompletableFuture<Object>> futures =
+            new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(request.executeAsync("/tracks/" + i + ".json",
+                    "bmat", null, false));
+        }
+        assertEquals(5, pending.size());
+        for (int i = 0; i < 5; i++) {
+            pending.get(i).complete(new TransportResponse(200,
+                    new HashMap<String, String>(), new ByteArrayInputStream(
+                            ("{\"response\":{\"id\":" + i + "}}")
+                            .getBytes("utf-8"))));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Long.valueOf(i),
+                    ((JSONObject) futures.get(i).get()).get("id"));
+        }
+        asyncConnection.close();
+        executor.shutdown();
+    }
+
+    /**
+     * Test that identical concurrent requests are sent once.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testSingleFlight() throws Exception {
+        Request request = new Request(connection, "target/cache", false);
+        ArrayList<CompletableFuture<Object>> futures =
+            new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(request.executeAsync("/slow.json", "bmat", null,
+                    false));
+        }
+        for (CompletableFuture<Object> future : futures) {
+            assertEquals("/collections/bmat/slow.json",
+                    ((JSONObject) future.get()).get("path"));
+        }
+        assertEquals(1, hits.get());
+        assertEquals(9, connection.getCollapsedRequests());
+        request.execute("/slow.json", "bmat", null);
+        assertEquals(2, hits.get());
+    }
+
+    /**
+     * Test that server errors are retried and every attempt reported.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testRetry() throws Exception {
+        final ArrayList<AttemptEvent> events = new ArrayList<AttemptEvent>();
+        ResiliencePolicy policy = new ResiliencePolicy(0, 3, 1, 5, false);
+        policy.setAttemptListener(new AttemptListener() {
+            public void attempted(final AttemptEvent event) {
+                events.add(event);
+            }
+        });
+        connection.setResiliencePolicy(policy);
+        Request request = new Request(connection, "target/cache", false);
+        JSONObject response = (JSONObject) request.execute("/flaky.json",
+                "bmat", null);
+        assertEquals("/collections/bmat/flaky.json", response.get("path"));
+        assertEquals(3, events.size());
+        assertEquals(AttemptEvent.Outcome.FAILED, events.get(0).getOutcome());
+        assertEquals(503, ((HttpStatusException) events.get(1).getError())
+                .getStatus());
+        assertEquals(AttemptEvent.Outcome.SUCCEEDED,
+                events.get(2).getOutcome());
+        assertEquals(3, events.get(2).getAttempt());
+    }
+
+    /**
+     * Test that a slow attempt times out.
+     * @throws Exception When the request does not time out.
+     * */
+    @Test public void testAttemptTimeout() throws Exception {
+        final ArrayList<AttemptEvent> events = new ArrayList<AttemptEvent>();
+        ResiliencePolicy policy = new ResiliencePolicy(100, 1, 1, 5, false);
+        policy.setAttemptListener(new AttemptListener() {
+            public void attempted(final AttemptEvent event) {
+                events.add(event);
+            }
+        });
+        Request request = new Request(connection, "target/cache", false,
+                policy);
+        try {
+            request.execute("/slow.json", "bmat", null);
+            fail("SocketTimeoutException expected");
+        } catch (SocketTimeoutException e) {
+            assertEquals(1, events.size());
+            assertEquals(AttemptEvent.Outcome.TIMED_OUT,
+                    events.get(0).getOutcome());
+        }
+    }
+
+    /**
+     * Test that an attempt that times out is cancelled and gives back its
+     * connection permit and its concurrency limiter slot before Ella WS
+     * answers it.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testAbandonedAttemptReleases() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0, 0);
+        connection.setConcurrencyLimiter(limiter);
+        connection.setTransport(new PooledTransport(1, 1000, 200, 5000));
+        connection.setResiliencePolicy(new ResiliencePolicy(100, 1, 1, 5,
+                false));
+        Request request = new Request(connection, "target/cache", false);
+        try {
+            request.execute("/slow/1.json", "bmat", null);
+            fail("SocketTimeoutException expected");
+        } catch (SocketTimeoutException e) {
+            // the attempt was abandoned
+        }
+        for (int i = 0; i < 50 && limiter.getInFlight() > 0; i++) {
+            Thread.sleep(2);
+        }
+        assertEquals(0, limiter.getInFlight());
+        connection.setResiliencePolicy(null);
+        // the only permit is free long before the slow answer
+        JSONObject response = (JSONObject) request.execute("/slow/2.json",
+                "bmat", null);
+        assertEquals("/collections/bmat/slow/2.json", response.get("path"));
+    }
+
+    /**
+     * Test that requests over the concurrency limit are shed.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testConcurrencyLimiter() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0, 0);
+        connection.setConcurrencyLimiter(limiter);
+        Request request = new Request(connection, "target/cache", false);
+        CompletableFuture<Object> first = request.executeAsync(
+                "/slow/1.json", "bmat", null, false);
+        Thread.sleep(100);
+        try {
+            request.execute("/slow/2.json", "bmat", null);
+            fail("ConcurrencyLimitException expected");
+        } catch (ConcurrencyLimitException e) {
+            assertEquals(1, e.getLimit());
+        }
+        assertNotNull(first.get());
+        assertEquals(1, limiter.getRejectedCount());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueueDepth());
+        assertNotNull(request.execute("/slow/2.json", "bmat", null));
+    }
+
+    /**
+     * Test that the credentials are sent with the first request and are
+     * scoped to their connection.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testPreemptiveAuthorization() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort();
+        EllaConnection authorized = new EllaConnection(url, "user", "pass");
+        EllaConnection wrong = new EllaConnection(url, "user", "wrong");
+        try {
+            assertNotNull(new Request(authorized, "target/cache", false)
+                    .execute("/private.json", "bmat", null));
+            assertEquals(1, hits.get());
+            try {
+                new Request(wrong, "target/cache", false).execute(
+                        "/private.json", "bmat", null);
+                fail("HttpStatusException expected");
+            } catch (HttpStatusException e) {
+                assertEquals(401, e.getStatus());
+            }
+        } finally {
+            authorized.close();
+            wrong.close();
+        }
+    }
+
+    /**
+     * Test that cached responses are served from memory, then from disk.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testResponseCacheTiers() throws Exception {
+        File cacheDir = new File("target/tiers-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        assertSame(responseCache, new Request(connection, cacheDir.getPath(),
+                true).getResponseCache());
+        JSONObject first = (JSONObject) request.execute("/tiers.json",
+                "bmat", null, true);
+        assertSame(first, request.execute("/tiers.json", "bmat", null, true));
+        assertEquals(1, responseCache.getMisses());
+        assertEquals(1, responseCache.getMemoryHits());
+        responseCache.clearMemory();
+        assertEquals(first, request.execute("/tiers.json", "bmat", null,
+                true));
+        assertEquals(1, responseCache.getDiskHits());
+        assertEquals(1, hits.get());
+    }
+
+    /**
+     * Test that responses are cached in the segment files and read back
+     * by both the parsed and the streaming paths.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testSegmentDiskCache() throws Exception {
+        File cacheDir = new File("target/segment-request-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        SegmentDiskCache diskCache = new SegmentDiskCache(cacheDir);
+        responseCache.setDiskCache(diskCache);
+        JSONObject first = (JSONObject) request.execute("/results.json",
+                "bmat", null, true);
+        responseCache.clearMemory();
+        assertEquals(first, request.execute("/results.json", "bmat", null,
+                true));
+        responseCache.clearMemory();
+        final ArrayList<String> ids = new ArrayList<String>();
+        request.executeStreaming("/results.json", "bmat", null, true,
+                new ResultHandler() {
+            public void result(final JSONObject result) {
+                ids.add((String) result.get("id"));
+            }
+        });
+        assertEquals(3, ids.size());
+        assertEquals(2, responseCache.getDiskHits());
+        assertEquals(1, diskCache.getEntryCount());
+        assertEquals(1, hits.get());
+    }
+
+    /**
+     * Test that expired responses are served while a single background
+     * request refreshes them, and downloaded once they are too old.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testTimeToLive() throws Exception {
+        File cacheDir = new File("target/ttl-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        responseCache.setTimeToLive("/ttl*", 200);
+        responseCache.setTimeToLive("/artists/*.json", -1);
+        assertEquals(200, responseCache.getTimeToLive("/ttl.json"));
+        assertEquals(-1, responseCache.getTimeToLive("/artists/a.json"));
+        assertEquals(-1, responseCache.getDefaultTimeToLive());
+        JSONObject first = (JSONObject) request.execute("/ttl.json", "bmat",
+                null, true);
+        Thread.sleep(300);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(first, request.execute("/ttl.json", "bmat", null,
+                    true));
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (hits.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(2, hits.get());
+        assertEquals(1, responseCache.getRefreshes());
+        assertEquals(5, responseCache.getStaleHits());
+        request.execute("/ttl.json", "bmat", null, true);
+        assertEquals(5, responseCache.getStaleHits());
+        responseCache.setMaxStale(0);
+        Thread.sleep(300);
+        request.execute("/ttl.json", "bmat", null, true);
+        assertEquals(3, hits.get());
+        assertEquals(5, responseCache.getStaleHits());
+    }
+
+    /**
+     * Test that the disk tier evicts the least recently used responses.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testDiskEviction() throws Exception {
+        File cacheDir = new File("target/eviction-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        request.execute("/first.json", "bmat", null, true);
+        responseCache.setMaxDiskBytes(Long.MAX_VALUE);
+        long length = responseCache.getDiskBytes();
+        assertTrue(length > 0);
+        responseCache.setMaxDiskBytes(3 * length + 10);
+        for (int i = 0; i < 10; i++) {
+            responseCache.clearMemory();
+            request.execute("/first.json", "bmat", null, true);
+            request.execute("/other" + i + ".json", "bmat", null, true);
+        }
+        assertEquals(11, hits.get());
+        assertEquals(8, responseCache.getEvictions());
+        assertTrue(responseCache.getDiskBytes() <= 3 * length + 10);
+        assertEquals(3, responseCache.getDiskCache().keys().size());
+    }
+
+    /**
+     * Test that the responses served from memory are not the first ones
+     * evicted from the disk tier.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testDiskEvictionMemoryHits() throws Exception {
+        File cacheDir = new File("target/eviction-memory-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        request.execute("/first.json", "bmat", null, true);
+        responseCache.setMaxDiskBytes(Long.MAX_VALUE);
+        long length = responseCache.getDiskBytes();
+        responseCache.setMaxDiskBytes(2 * length + 10);
+        for (int i = 0; i < 10; i++) {
+            request.execute("/first.json", "bmat", null, true);
+            request.execute("/other" + i + ".json", "bmat", null, true);
+        }
+        assertEquals(11, hits.get());
+        assertEquals(9, responseCache.getEvictions());
+        CacheEntry entry = responseCache.readEntry(CacheKey.of(
+                "/first.json", "bmat", null));
+        assertNotNull(entry);
+        entry.getBody().close();
+    }
+
+    /**
+     * Test that disk responses are deflated and that a trained dictionary
+     * makes the new ones smaller while the old ones are still read.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testCompressedCache() throws Exception {
+        File cacheDir = new File("target/compressed-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        for (int i = 0; i < 20; i++) {
+            request.execute("/results" + i + ".json", "bmat", null, true);
+        }
+        long plain = responseCache.getStoredBytes();
+        assertTrue(responseCache.getCompressionRatio() > 1);
+        assertTrue(responseCache.trainDictionary(
+                ResponseCache.DEFAULT_DICTIONARY_SAMPLES) > 0);
+        assertTrue(responseCache.getDictionaryId() != 0);
+        for (int i = 20; i < 40; i++) {
+            request.execute("/results" + i + ".json", "bmat", null, true);
+        }
+        assertTrue(responseCache.getStoredBytes() - plain < plain / 2);
+        responseCache.clearMemory();
+        ResponseCache reopened = new ResponseCache(cacheDir.getPath());
+        assertEquals(responseCache.getDictionaryId(),
+                reopened.getDictionaryId());
+        for (int i = 0; i < 40; i += 10) {
+            JSONObject response = (JSONObject) request.execute(
+                    "/results" + i + ".json", "bmat", null, true);
+            assertEquals(3, ((JSONArray) response.get("results")).size());
+        }
+        assertEquals(40, hits.get());
+        assertEquals(4, responseCache.getDiskHits());
+        assertTrue(responseCache.getDecodedEntries() >= 4);
+        assertTrue(responseCache.getDecodeNanos() > 0);
+    }
+
+    /**
+     * Test that a streamed response is spooled to a temporary file,
+     * deflated with the dictionary, stored and read back, and that the
+     * spool is deleted.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testSpooledStreamingCache() throws Exception {
+        File cacheDir = new File("target/spooled-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        for (int i = 0; i < 20; i++) {
+            request.execute("/results" + i + ".json", "bmat", null, true);
+        }
+        assertTrue(responseCache.trainDictionary(
+                ResponseCache.DEFAULT_DICTIONARY_SAMPLES) > 0);
+        int spools = RequestTest.countSpools();
+        long raw = responseCache.getRawBytes();
+        final ArrayList<String> ids = new ArrayList<String>();
+        for (int i = 20; i < 25; i++) {
+            request.executeStreaming("/results" + i + ".json", "bmat", null,
+                    true, new ResultHandler() {
+                        public void result(final JSONObject result) {
+                            ids.add((String) result.get("id"));
+                        }
+                    });
+        }
+        assertEquals(15, ids.size());
+        assertEquals(spools, RequestTest.countSpools());
+        assertTrue(responseCache.getRawBytes() > raw);
+        responseCache.clearMemory();
+        for (int i = 20; i < 25; i++) {
+            JSONObject response = (JSONObject) request.execute(
+                    "/results" + i + ".json", "bmat", null, true);
+            assertEquals(3, ((JSONArray) response.get("results")).size());
+        }
+        assertEquals(25, hits.get());
+        assertEquals(5, responseCache.getDiskHits());
+    }
+
+    /**
+     * @return Number of cache spool files in the temporary directory.
+     * */
+    private static int countSpools() {
+        File[] files = new File(System.getProperty("java.io.tmpdir"))
+            .listFiles();
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().startsWith("jella-")
+                    && file.getName().endsWith(".spool")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Test that text responses are converted to BinaryJson, that new
+     * responses are stored as BinaryJson, and that both are read back
+     * parsed and streamed.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testBinaryCache() throws Exception {
+        File cacheDir = new File("target/binary-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        request.execute("/results.json", "bmat", null, true);
+        assertEquals(1, responseCache.convertToBinary());
+        assertEquals(0, responseCache.convertToBinary());
+        responseCache.setBinaryFormat(true);
+        request.execute("/results1.json", "bmat", null, true);
+        final ArrayList<String> ids = new ArrayList<String>();
+        request.executeStreaming("/results2.json", "bmat", null, true,
+                new ResultHandler() {
+                    public void result(final JSONObject result) {
+                        ids.add((String) result.get("id"));
+                    }
+                });
+        assertEquals(0, responseCache.convertToBinary());
+        responseCache.clearMemory();
+        for (int i = 0; i < 3; i++) {
+            String method = "/results" + (i == 0 ? "" : "" + i) + ".json";
+            JSONObject response = (JSONObject) request.execute(method,
+                    "bmat", null, true);
+            assertEquals(3, ((JSONArray) response.get("results")).size());
+            assertNotNull(response.get("stats"));
+        }
+        responseCache.clearMemory();
+        request.executeStreaming("/results1.json", "bmat", null, true,
+                new ResultHandler() {
+                    public void result(final JSONObject result) {
+                        ids.add((String) result.get("id"));
+                    }
+                });
+        assertEquals(6, ids.size());
+        assertEquals("2", ids.get(5));
+        assertEquals(3, hits.get());
+        assertEquals(4, responseCache.getDiskHits());
+    }
+
+    /**
+     * Test that not found responses are cached for the error time to
+     * live and replayed as the same ServiceException.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testErrorCache() throws Exception {
+        File cacheDir = new File("target/error-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        for (int i = 0; i < 3; i++) {
+            try {
+                request.execute("/missing.json", "bmat", null, true);
+                fail("ServiceException expected");
+            } catch (ServiceException e) {
+                assertEquals("ella.core.errors.NotFound", e.getType());
+            }
+            try {
+                request.executeStreaming("/missing1.json", "bmat", null,
+                        true, null);
+                fail("ServiceException expected");
+            } catch (ServiceException e) {
+                assertEquals("ella.core.errors.NotFound", e.getType());
+            }
+            responseCache.clearMemory();
+        }
+        assertEquals(2, hits.get());
+        assertEquals(4, responseCache.getErrorHits());
+        responseCache.setErrorTimeToLive(1);
+        Thread.sleep(10);
+        try {
+            request.execute("/missing.json", "bmat", null, true);
+            fail("ServiceException expected");
+        } catch (ServiceException e) {
+            assertEquals("ella.core.errors.NotFound", e.getType());
+        }
+        assertEquals(3, hits.get());
+        responseCache.setErrorTimeToLive(0);
+        try {
+            request.execute("/missing2.json", "bmat", null, true);
+            fail("ServiceException expected");
+        } catch (ServiceException e) {
+            assertEquals("ella.core.errors.NotFound", e.getType());
+        }
+        assertFalse(responseCache.getDiskCache().contains(
+                CacheKey.of("/missing2.json", "bmat", null)));
+    }
+
+    /**
+     * Test that truncated and corrupt entries are downloaded again and
+     * that no temporary file is left behind.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testCorruptCache() throws Exception {
+        File cacheDir = new File("target/corrupt-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        request.execute("/results.json", "bmat", null, true);
+        FileDiskCache diskCache = (FileDiskCache) responseCache.getDiskCache();
+        File file = diskCache.getFile(CacheKey.of("/results.json", "bmat",
+                null));
+        assertEquals(1, file.getParentFile().list().length);
+        byte[] entry = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(entry, entry.length - 1));
+        responseCache.clearMemory();
+        JSONObject response = (JSONObject) request.execute("/results.json",
+                "bmat", null, true);
+        assertEquals(3, ((JSONArray) response.get("results")).size());
+        assertEquals(2, hits.get());
+        entry = Files.readAllBytes(file.toPath());
+        entry[entry.length - 2] ^= 1;
+        Files.write(file.toPath(), entry);
+        responseCache.clearMemory();
+        response = (JSONObject) request.execute("/results.json", "bmat",
+                null, true);
+        assertEquals(3, ((JSONArray) response.get("results")).size());
+        assertEquals(3, hits.get());
+        responseCache.clearMemory();
+        request.execute("/results.json", "bmat", null, true);
+        assertEquals(3, hits.get());
+        assertEquals(1, responseCache.getDiskHits());
+        assertEquals(1, file.getParentFile().list().length);
+    }
+
+    /**
+     * Test that a corrupt entry of the segment files is downloaded again.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testCorruptSegmentCache() throws Exception {
+        File cacheDir = new File("target/corrupt-segment-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        SegmentDiskCache diskCache = new SegmentDiskCache(cacheDir);
+        responseCache.setDiskCache(diskCache);
+        request.execute("/results.json", "bmat", null, true);
+        String key = CacheKey.of("/results.json", "bmat", null);
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        InputStream input = diskCache.get(key);
+        for (int read = input.read(); read != -1; read = input.read()) {
+            stored.write(read);
+        }
+        byte[] entry = stored.toByteArray();
+        entry[entry.length - 2] ^= 1;
+        diskCache.put(key, entry);
+        responseCache.clearMemory();
+        JSONObject response = (JSONObject) request.execute("/results.json",
+                "bmat", null, true);
+        assertEquals(3, ((JSONArray) response.get("results")).size());
+        assertEquals(2, hits.get());
+        assertEquals(0, responseCache.getDiskHits());
+    }
+
+    /**
+     * Test that an expired response is revalidated with its ETag and that
+     * a not modified answer renews it.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testConditionalRefresh() throws Exception {
+        File cacheDir = new File("target/etag-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        ResponseCache responseCache = request.getResponseCache();
+        responseCache.setDefaultTimeToLive(300);
+        String key = CacheKey.of("/etag.json", "bmat", null);
+        request.execute("/etag.json", "bmat", null, true);
+        CacheEntry entry = responseCache.readEntry(key);
+        entry.getBody().close();
+        assertEquals("\"v1\"", entry.getETag());
+        assertEquals("Sat, 01 Jan 2011 00:00:00 GMT",
+                entry.getLastModified());
+        long storedAt = entry.getStoredAt();
+        Thread.sleep(400);
+        JSONObject response = (JSONObject) request.execute("/etag.json",
+                "bmat", null, true);
+        assertEquals("/collections/bmat/etag.json", response.get("path"));
+        for (int i = 0; i < 100 && responseCache.getNotModified() == 0;
+                i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, responseCache.getNotModified());
+        assertEquals(2, hits.get());
+        entry = responseCache.readEntry(key);
+        assertEquals("\"v1\"", entry.getETag());
+        assertTrue(entry.getStoredAt() > storedAt);
+        response = (JSONObject) request.execute("/etag.json", "bmat", null,
+                true);
+        assertEquals("/collections/bmat/etag.json", response.get("path"));
+        assertEquals(1, responseCache.getRefreshes());
+        assertEquals(2, hits.get());
+    }
+
+    /**
+     * Test that a manifest is read and warmed, that its progress is
+     * reported and that the warmed queries are answered from the cache.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testCacheWarmer() throws Exception {
+        File cacheDir = new File("target/warm-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        StringBuilder manifest = new StringBuilder("# top queries\n\n");
+        for (int i = 0; i < 20; i++) {
+            manifest.append("{\"method\": \"/tracks/" + i + ".json\", "
+                    + "\"collection\": \"bmat\", "
+                    + "\"params\": {\"limit\": 10}}\n");
+        }
+        manifest.append("{\"method\": \"/missing.json\"}\n");
+        manifest.append("{\"method\": \"/private.json\"}\n");
+        List<CacheWarmer.Query> queries = CacheWarmer.readManifest(
+                new StringReader(manifest.toString()));
+        assertEquals(22, queries.size());
+        assertEquals("10", queries.get(0).getParams().get("limit"));
+        assertNull(queries.get(20).getCollection());
+        final AtomicInteger progressed = new AtomicInteger();
+        CacheWarmer warmer = new CacheWarmer(request, 4, 0.95);
+        warmer.setListener(new CacheWarmer.Listener() {
+            public void progressed(final CacheWarmer.Query query,
+                    final Exception error, final CacheWarmer source) {
+                progressed.incrementAndGet();
+            }
+        });
+        assertFalse(warmer.isReady());
+        assertTrue(warmer.warm(queries));
+        assertTrue(warmer.isDone());
+        assertTrue(warmer.awaitReady(1, TimeUnit.SECONDS));
+        assertEquals(22, progressed.get());
+        assertEquals(21, warmer.getWarmed());
+        assertEquals(1, warmer.getFailed());
+        assertEquals(1.0, warmer.getProgress(), 0.0);
+        int sent = hits.get();
+        HashMap<String, String> params = new HashMap<String, String>();
+        params.put("limit", "10");
+        request.execute("/tracks/7.json", "bmat", params, true);
+        assertEquals(sent, hits.get());
+        CacheWarmer strict = new CacheWarmer(request, 4, 1);
+        assertFalse(strict.warm(queries));
+        request.getResponseCache().setErrorTimeToLive(0);
+        CacheWarmer uncached = new CacheWarmer(request, 4, 0.9);
+        assertTrue(uncached.warm(queries));
+        assertEquals(20, uncached.getWarmed());
+        assertEquals(2, uncached.getFailed());
+        try {
+            CacheWarmer.readManifest(new StringReader("{\"collection\": 1}"));
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("line 1") != -1);
+        }
+    }
+
+    /**
+     * Test that objects are loaded at once, with a single request for the
+     * objects of the same entity.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testHydrate() throws Exception {
+        Jella jella = new Jella("http://127.0.0.1:"
+                + server.getAddress().getPort(), null, null);
+        ArrayList<Track> tracks = new ArrayList<Track>();
+        for (int i = 0; i < 30; i++) {
+            tracks.add(new Track(jella.getEllaConnection(),
+                    Integer.toString(i % 20), "bmat", Jella.DEFAULT_LIMIT,
+                    "target/cache", false));
+        }
+        assertFalse(tracks.get(0).isHydrated());
+        assertEquals(20, jella.hydrate(tracks));
+        assertEquals(20, hits.get());
+        for (int i = 0; i < 30; i++) {
+            assertTrue(tracks.get(i).isHydrated());
+            assertEquals("/collections/bmat/tracks/" + (i % 20) + ".json",
+                    tracks.get(i).getTitle());
+            assertFalse(tracks.get(i).isRecommend());
+        }
+        assertEquals(20, hits.get());
+        assertEquals(0, jella.hydrate(tracks));
+        jella.close();
+    }
+
+    /**
+     * Test that the lazy loads of concurrent getters are batched, with a
+     * single request per entity, and that a full batch is sent at once.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testAutoBatching() throws Exception {
+        final Jella jella = new Jella("http://127.0.0.1:"
+                + server.getAddress().getPort(), null, null);
+        EllaConnection ellaConnection = jella.getEllaConnection();
+        ellaConnection.setAutoBatching(300, 100);
+        assertTrue(ellaConnection.isAutoBatching());
+        ArrayList<CompletableFuture<String>> titles =
+            new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 30; i++) {
+            final Track track = new Track(ellaConnection,
+                    Integer.toString(i % 10), "bmat", Jella.DEFAULT_LIMIT,
+                    "target/cache", false);
+            titles.add(Util.supplyAsync(new Callable<String>() {
+                public String call() {
+                    return track.getTitle();
+                }
+            }, ellaConnection.getExecutor()));
+        }
+        for (int i = 0; i < 30; i++) {
+            assertEquals("/collections/bmat/tracks/" + (i % 10) + ".json",
+                    titles.get(i).get());
+        }
+        assertEquals(10, hits.get());
+        assertEquals(1, ellaConnection.getBatchCount());
+
+        ellaConnection.setAutoBatching(60000, 5);
+        titles.clear();
+        for (int i = 10; i < 20; i++) {
+            final Track track = new Track(ellaConnection,
+                    Integer.toString(i), "bmat", Jella.DEFAULT_LIMIT,
+                    "target/cache", false);
+            titles.add(Util.supplyAsync(new Callable<String>() {
+                public String call() {
+                    return track.getTitle();
+                }
+            }, ellaConnection.getExecutor()));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("/collections/bmat/tracks/" + (i + 10) + ".json",
+                    titles.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(20, hits.get());
+        assertEquals(2, ellaConnection.getBatchCount());
+        ellaConnection.disableAutoBatching();
+        assertFalse(ellaConnection.isAutoBatching());
+        jella.close();
+    }
+
+    /**
+     * Test that the lazy loads of a single thread wait for the batch
+     * window only once.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testAutoBatchingSingleThread() throws Exception {
+        Jella jella = new Jella("http://127.0.0.1:"
+                + server.getAddress().getPort(), null, null);
+        EllaConnection ellaConnection = jella.getEllaConnection();
+        ellaConnection.setAutoBatching(500, 100);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            Track track = new Track(ellaConnection, Integer.toString(i),
+                    "bmat", Jella.DEFAULT_LIMIT, "target/cache", false);
+            assertEquals("/collections/bmat/tracks/" + i + ".json",
+                    track.getTitle());
+        }
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(5, ellaConnection.getBatchCount());
+        assertEquals(5, hits.get());
+        jella.close();
+    }
+
+    /**
+     * Test that a failed request of the tracks of an artist leaves no
+     * empty list behind, so the next getter requests them again.
+     * @throws Exception When the requests do not fail as expected.
+     * */
+    @Test public void testFailedTracksNotCached() throws Exception {
+        Artist artist = new Artist(connection, "missing", "bmat",
+                Jella.DEFAULT_TAG_TYPE, Jella.DEFAULT_TAG_WEIGHT,
+                Jella.DEFAULT_TAG_LIMIT, "target/cache", false);
+        for (int i = 0; i < 2; i++) {
+            try {
+                artist.getTracks();
+                fail("ServiceException expected");
+            } catch (ServiceException e) {
+                assertEquals("ella.core.errors.NotFound", e.getType());
+            }
+        }
+        assertEquals(2, hits.get());
+    }
+
+    /**
+     * Test that the objects that reference the same entity share its
+     * canonical instance, which is loaded once.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testIdentityMap() throws Exception {
+        Jella jella = new Jella("http://127.0.0.1:"
+                + server.getAddress().getPort(), null, null);
+        EllaConnection ellaConnection = jella.getEllaConnection();
+        Artist artist = ellaConnection.canonical(new Artist(ellaConnection,
+                "7", "bmat", Jella.DEFAULT_TAG_TYPE, Jella.DEFAULT_TAG_WEIGHT,
+                Jella.DEFAULT_TAG_LIMIT, "target/cache", false));
+        assertSame(artist, ellaConnection.canonical(new Artist(
+                ellaConnection, "7", "bmat")));
+        assertNotSame(artist, ellaConnection.canonical(new Artist(
+                ellaConnection, "7", "other")));
+        assertNotSame(artist, ellaConnection.canonical(new Artist(
+                ellaConnection, "8", "bmat")));
+        ArrayList<Track> tracks = new ArrayList<Track>();
+        for (int i = 0; i < 5; i++) {
+            Track track = new Track(ellaConnection, Integer.toString(i),
+                    "bmat", Jella.DEFAULT_LIMIT, "target/cache", false);
+            assertSame(artist, track.getArtist());
+            tracks.add(track);
+        }
+        assertEquals(5, hits.get());
+        assertEquals("/collections/bmat/artists/7.json", artist.getName());
+        assertEquals(6, hits.get());
+        for (Track track : tracks) {
+            assertEquals("/collections/bmat/artists/7.json",
+                    track.getArtist().getName());
+        }
+        assertEquals(6, hits.get());
+        JSONObject metadata = new JSONObject();
+        metadata.put("artist_service_id", "7");
+        metadata.put("artist", "Seven");
+        metadata.put("recommendable", "true");
+        JSONObject entity = new JSONObject();
+        entity.put("id", "9");
+        entity.put("collection", "bmat");
+        entity.put("metadata", metadata);
+        JSONObject result = new JSONObject();
+        result.put("entity", entity);
+        JSONArray results = new JSONArray();
+        results.add(result);
+        Track found = new TrackManager().getTracks(ellaConnection,
+                results).get(0);
+        // the values of the result are not written on the shared artist
+        assertSame(artist, found.getArtist());
+        assertEquals("Seven", found.getArtistName());
+        assertEquals("/collections/bmat/artists/7.json", artist.getName());
+        assertFalse(artist.isRecommend());
+        assertTrue(found.isRecommend());
+        assertEquals(6, hits.get());
+        jella.close();
+        assertEquals(0, ellaConnection.getCanonicalCount());
+    }
+
+    /**
+     * Test that a projection requests only its fields and that a field
+     * outside it is requested on its own, once.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testProjection() throws Exception {
+        Jella jella = new Jella("http://127.0.0.1:"
+                + server.getAddress().getPort(), null, null);
+        ArrayList<Artist> artists = new ArrayList<Artist>();
+        for (int i = 0; i < 3; i++) {
+            artists.add(new Artist(jella.getEllaConnection(),
+                    Integer.toString(i), "bmat", Jella.DEFAULT_TAG_TYPE,
+                    Jella.DEFAULT_TAG_WEIGHT, Jella.DEFAULT_TAG_LIMIT,
+                    "target/cache", false));
+        }
+        assertEquals(3, jella.hydrate(artists,
+                Projection.of(Artist.NAME, Artist.POPULARITY)));
+        assertEquals(Arrays.asList("name,artist_popularity",
+                "name,artist_popularity", "name,artist_popularity"),
+                fetched);
+        Artist artist = artists.get(0);
+        assertEquals("/collections/bmat/artists/0.json", artist.getName());
+        assertEquals(3, hits.get());
+        assertEquals("artist_location", artist.getLocation());
+        assertEquals("artist_location", artist.getLocation());
+        assertFalse(artist.isRecommend());
+        assertEquals(5, hits.get());
+        assertEquals(Arrays.asList("artist_location", "recommendable"),
+                fetched.subList(3, 5));
+        assertEquals("/collections/bmat/artists/0.json", ((JSONObject)
+                artist.getJson().get("metadata")).get(Artist.NAME));
+
+        Artist full = new Artist(jella.getEllaConnection(), "9", "bmat",
+                Jella.DEFAULT_TAG_TYPE, Jella.DEFAULT_TAG_WEIGHT,
+                Jella.DEFAULT_TAG_LIMIT, "target/cache", false);
+        assertSame(Projection.ALL, full.getProjection());
+        assertEquals("/collections/bmat/artists/9.json", full.getName());
+        assertEquals("_all", fetched.get(5));
+        jella.close();
+    }
+
+    /**
+     * Test that the objects of a connection share their request and
+     * metadata descriptors.
+     * */
+    @Test public void testSharedContext() {
+        Track first = new Track(connection, "1", "bmat", Jella.DEFAULT_LIMIT,
+                "target/cache", true);
+        Track second = new Track(connection, "2", "bmat",
+                Jella.DEFAULT_LIMIT, "target/cache", true);
+        Album album = new Album(connection, "3", "bmat", "target/cache",
+                true);
+        assertSame(first.request, second.request);
+        assertSame(first.request, album.request);
+        assertNotSame(first.request, new Track(connection, "1", "bmat",
+                Jella.DEFAULT_LIMIT, "target/cache", false).request);
+        assertSame(first.metadata, second.metadata);
+        assertEquals(Arrays.asList(Track.METADATA_LINKS),
+                Arrays.asList(first.getMetadataLinks()));
+    }
+
+    /**
+     * Test that a request created by the caller can still be changed with
+     * the deprecated setters.
+     * @throws Exception When a request fails.
+     * */
+    @SuppressWarnings("deprecation")
+    @Test public void testDeprecatedSetters() throws Exception {
+        File cacheDir = new File("target/setter-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, "target/cache", false);
+        request.setCacheEnable(true);
+        request.setJellaCacheDir(cacheDir.getPath());
+        assertTrue(request.isCacheEnable());
+        assertEquals(cacheDir.getPath(), request.getJellaCacheDir());
+        request.execute("/setter.json", "bmat", null, true);
+        request.execute("/setter.json", "bmat", null, true);
+        assertEquals(1, hits.get());
+        assertTrue(request.getResponseCache().getDiskCache().contains(
+                CacheKey.of("/setter.json", "bmat", null)));
+    }
+
+    /**
+     * Test that the JellaExecutor runs a call per id and keeps the order.
+     * @throws Exception When a call fails.
+     * */
+    @Test public void testJellaExecutorInvokeAll() throws Exception {
+        final Request request = new Request(connection, "target/cache", false);
+        JellaExecutor executor = new JellaExecutor(connection, 4);
+        ArrayList<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(Integer.toString(i));
+        }
+        List<Object> results = executor.invokeAll(ids,
+                new JellaExecutor.IdCall<Object>() {
+            public Object call(final String id)
+            throws ServiceException, IOException {
+                return request.execute("/artists/" + id + ".json", "bmat",
+                        null);
+            }
+        });
+        assertEquals(50, results.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("/collections/bmat/artists/" + i + ".json",
+                    ((JSONObject) results.get(i)).get("path"));
+        }
+        assertNotSame(executor, connection.getExecutor());
+        executor.register();
+        assertSame(executor, connection.getExecutor());
+        assertEquals("/collections/bmat/artists/0.json",
+                ((JSONObject) request.executeAsync("/artists/0.json", "bmat",
+                        null, false).get()).get("path"));
+        executor.shutdown();
+    }
+
+    /**
+     * Test that the HTTP/2 transport falls back to HTTP/1.1 against a
+     * server that does not support it.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testHttpClientTransport() throws Exception {
+        HttpClientTransport transport = new HttpClientTransport();
+        EllaConnection http2Connection = new EllaConnection("http://127.0.0.1:"
+                + server.getAddress().getPort(), null, null, transport);
+        Request request = new Request(http2Connection, "target/cache", false);
+        ArrayList<CompletableFuture<Object>> futures =
+            new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(request.executeAsync("/tracks/" + i + ".json",
+                    "bmat", null, false));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(futures.get(i).get());
+        }
+        assertFalse(transport.isHttp2());
+        try {
+            request.execute("/missing.json", "bmat", null);
+            fail("ServiceException expected");
+        } catch (ServiceException e) {
+            assertEquals("ella.core.errors.NotFound", e.getType());
+        }
+        http2Connection.close();
+    }
+
+    /**
+     * Test that compressed responses are decoded and their byte counts
+     * reported.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testCompressedResponses() throws Exception {
+        final ArrayList<TransferStats> transfers =
+            new ArrayList<TransferStats>();
+        connection.setTransferListener(new TransferListener() {
+            public void transferred(final TransferStats stats) {
+                transfers.add(stats);
+            }
+        });
+        Request request = new Request(connection, "target/cache", false);
+        String padding = "/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+        for (String encoding : new String[]{"gzip", "deflate"}) {
+            String method = "/" + encoding + padding + padding + ".json";
+            JSONObject response = (JSONObject) request.execute(method,
+                    "bmat", null);
+            assertEquals("/collections/bmat" + method, response.get("path"));
+            TransferStats stats = transfers.get(transfers.size() - 1);
+            assertEquals(encoding, stats.getContentEncoding());
+            assertTrue(stats.getWireBytes() < stats.getDecodedBytes());
+        }
+        request.execute("/plain.json", "bmat", null);
+        TransferStats plain = transfers.get(transfers.size() - 1);
+        assertNull(plain.getContentEncoding());
+        assertEquals(plain.getWireBytes(), plain.getDecodedBytes());
+        assertEquals(3, transfers.size());
+        assertTrue(connection.getWireBytes() < connection.getDecodedBytes());
+    }
+
+    /**
+     * Test that streamed results are handed to the handler and kept out
+     * of the response, both from the network and from the cache.
+     * @throws Exception When a request fails.
+     * */
+    @Test public void testExecuteStreaming() throws Exception {
+        File cacheDir = new File("target/streaming-cache");
+        RequestTest.delete(cacheDir);
+        Request request = new Request(connection, cacheDir.getPath(), true);
+        for (int i = 0; i < 2; i++) {
+            final ArrayList<String> ids = new ArrayList<String>();
+            JSONObject response = (JSONObject) request.executeStreaming(
+                    "/results.json", "bmat", null, true, new ResultHandler() {
+                        public void result(final JSONObject result) {
+                            ids.add((String) result.get("id"));
+                        }
+                    });
+            assertEquals(3, ids.size());
+            assertEquals("2", ids.get(2));
+            assertTrue(((JSONArray) response.get("results")).isEmpty());
+            assertNotNull(response.get("stats"));
+        }
+        assertEquals(1, hits.get());
+        try {
+            request.executeStreaming("/missing.json", "bmat", null, true,
+                    null);
+            fail("ServiceException expected");
+        } catch (ServiceException e) {
+            assertEquals("ella.core.errors.NotFound", e.getType());
+        }
+    }
+
+    /**
+     * Deletes a file or a directory and its content.
+     * @param file The file or directory.
+     * */
+    private static void delete(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                RequestTest.delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Compresses a body.
+     * @param bytes The body.
+     * @param encoding "gzip" or "deflate".
+     * @return The compressed body.
+     * @throws IOException When the body can not be compressed.
+     * */
+    private static byte[] compress(final byte[] bytes, final String encoding)
+    throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream compressor;
+        if (encoding.equals("gzip")) {
+            compressor = new GZIPOutputStream(out);
+        } else {
+            compressor = new DeflaterOutputStream(out);
+        }
+        compressor.write(bytes);
+        compressor.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,189 @@
+package com.bmat.ella;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+/**
+ * Java Class SegmentDiskCacheTest.
+ * Tests the segment files, the mapped index and the compaction.
+ * @author Harrington Joseph (Harph)
+ * */
+public class SegmentDiskCacheTest {
+    /**
+     * The cache directory.
+     * */
+    private File directory;
+
+    /**
+     * Empties the cache directory.
+     * */
+    @Before public void setUp() {
+        directory = new File("target/segment-cache");
+        this.tearDown();
+    }
+
+    /**
+     * Deletes the cache directory.
+     * */
+    @After public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * @param cache The cache.
+     * @param key The key.
+     * @return The entry of the key as a String, or null.
+     * @throws IOException When the entry can not be read.
+     * */
+    private String read(final DiskCache cache, final String key)
+    throws IOException {
+        InputStream input = cache.get(key);
+        if (input == null) {
+            return null;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        input.close();
+        return output.toString("utf-8");
+    }
+
+    /**
+     * Test that entries are stored, replaced and removed.
+     * @throws IOException When the cache fails.
+     * */
+    @Test public void testPutGetRemove() throws IOException {
+        SegmentDiskCache cache = new SegmentDiskCache(directory);
+        assertNull(cache.get("key"));
+        cache.put("key", "first".getBytes("utf-8"));
+        cache.put("other", "other".getBytes("utf-8"));
+        cache.put("key", "second".getBytes("utf-8"));
+        assertEquals("second", read(cache, "key"));
+        assertEquals("other", read(cache, "other"));
+        assertEquals(2, cache.getEntryCount());
+        cache.remove("key");
+        assertFalse(cache.contains("key"));
+        assertNull(cache.get("key"));
+        assertEquals(1, cache.getEntryCount());
+        cache.close();
+    }
+
+    /**
+     * Test that the index grows and survives a clean close, and that it
+     * is rebuilt from the segments when it is lost.
+     * @throws IOException When the cache fails.
+     * */
+    @Test public void testReopen() throws IOException {
+        SegmentDiskCache cache = new SegmentDiskCache(directory);
+        for (int i = 0; i < 10000; i++) {
+            cache.put("key" + i, ("value" + i).getBytes("utf-8"));
+        }
+        cache.remove("key0");
+        cache.close();
+        cache = new SegmentDiskCache(directory);
+        assertEquals(9999, cache.getEntryCount());
+        assertEquals("value1234", read(cache, "key1234"));
+        cache.close();
+        assertTrue(new File(directory, "segments.idx").delete());
+        cache = new SegmentDiskCache(directory);
+        assertEquals(9999, cache.getEntryCount());
+        assertNull(cache.get("key0"));
+        assertEquals("value9999", read(cache, "key9999"));
+        cache.close();
+    }
+
+    /**
+     * Test that a second cache can not use a directory in use.
+     * @throws IOException When the cache fails.
+     * */
+    @Test public void testLocked() throws IOException {
+        SegmentDiskCache cache = new SegmentDiskCache(directory);
+        try {
+            new SegmentDiskCache(directory);
+            fail("The directory is in use");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().endsWith("in use"));
+        }
+        cache.close();
+    }
+
+    /**
+     * Test that sealed segments of superseded entries are compacted.
+     * @throws IOException When the cache fails.
+     * */
+    @Test public void testCompaction() throws IOException {
+        SegmentDiskCache cache = new SegmentDiskCache(directory, 4096, 0.5);
+        byte[] value = new byte[100];
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 10; i++) {
+                value[0] = (byte) round;
+                cache.put("key" + i, value);
+            }
+        }
+        assertTrue(cache.getCompactedBytes() > 0);
+        assertTrue(cache.getDiskBytes() < 3 * 4096);
+        assertTrue(cache.getSegmentCount() <= 3);
+        for (int i = 0; i < 10; i++) {
+            InputStream input = cache.get("key" + i);
+            assertEquals(100, input.available());
+            assertEquals(49, input.read());
+        }
+        cache.close();
+        cache = new SegmentDiskCache(directory, 4096, 0.5);
+        assertEquals(10, cache.getEntryCount());
+        cache.close();
+    }
+
+    /**
+     * Test that an entry removed before its removal was compacted away
+     * does not come back when the index is rebuilt after a crash.
+     * @throws IOException When the cache fails.
+     * */
+    @Test public void testRebuildAfterCrash() throws IOException {
+        SegmentDiskCache cache = new SegmentDiskCache(directory, 4096, 0.5);
+        byte[] value = new byte[100];
+        cache.put("gone", value);
+        for (int i = 0; i < 30; i++) {
+            cache.put("live" + i, value);
+        }
+        for (int i = 0; i < 5; i++) {
+            cache.put("churn", value);
+        }
+        assertEquals(2, cache.getSegmentCount());
+        cache.remove("gone");
+        for (int i = 0; i < 80; i++) {
+            cache.put("churn", value);
+        }
+        assertTrue(cache.getCompactedBytes() > 0);
+        assertTrue(new File(directory, "00000001.seg").exists());
+        assertFalse(new File(directory, "00000002.seg").exists());
+        cache.close();
+        // the index is left as after a crash: not clean
+        RandomAccessFile index = new RandomAccessFile(new File(directory,
+                "segments.idx"), "rw");
+        index.seek(8);
+        index.writeInt(0);
+        index.close();
+        cache = new SegmentDiskCache(directory, 4096, 0.5);
+        assertFalse(cache.contains("gone"));
+        assertEquals(31, cache.getEntryCount());
+        assertEquals(100, cache.length("live29"));
+        cache.close();
+    }
+}
@@ -0,0 +1,64 @@
+package com.bmat.ella;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+/**
+ * Java Class TinyLfuCacheTest.
+ * Tests the W-TinyLFU admission and eviction.
+ * @author Harrington Joseph (Harph)
+ * */
+public class TinyLfuCacheTest {
+    /**
+     * Test that the cache stays bounded.
+     * */
+    @Test public void testBounded() {
+        TinyLfuCache<String> cache = new TinyLfuCache<String>(100, 100);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value" + i, 1);
+        }
+        assertEquals(100, cache.size());
+        assertEquals(100, cache.weight());
+    }
+
+    /**
+     * Test that frequently used entries survive a scan of new keys.
+     * */
+    @Test public void testScanResistance() {
+        TinyLfuCache<String> cache = new TinyLfuCache<String>(100, 100);
+        for (int i = 0; i < 50; i++) {
+            cache.put("hot" + i, "value", 1);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                assertNotNull(cache.get("hot" + i));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, "value", 1);
+        }
+        int hot = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot" + i) != null) {
+                hot++;
+            }
+        }
+        assertTrue(hot >= 45);
+    }
+
+    /**
+     * Test that weighted entries are bounded by their total weight.
+     * */
+    @Test public void testWeighted() {
+        TinyLfuCache<String> cache = new TinyLfuCache<String>(1000, 10);
+        cache.put("small", "value", 100);
+        cache.put("huge", "value", 2000);
+        assertNull(cache.get("huge"));
+        for (int i = 0; i < 20; i++) {
+            cache.put("key" + i, "value", 300);
+        }
+        assertTrue(cache.weight() <= 1000);
+        cache.remove("small");
+        assertNull(cache.get("small"));
+    }
+}